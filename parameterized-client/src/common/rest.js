@@ -34,7 +34,8 @@ export const saveJenkinsServer = (context, projectKey, serverData) => {
         user: serverData.default_user,
         token: serverData.default_token,
         altUrl: serverData.root_token_enabled,
-        csrfEnabled: serverData.csrf_enabled
+        csrfEnabled: serverData.csrf_enabled,
+        postParameters: serverData.post_parameters
     }
 
     return axios.put(fullUrl, data, {
@@ -69,7 +70,8 @@ export const testJenkinsServer = (context, projectKey, serverData) => {
             user: serverData.default_user,
             token: serverData.default_token,
             altUrl: serverData.root_token_enabled,
-            csrfEnabled: serverData.csrf_enabled
+            csrfEnabled: serverData.csrf_enabled,
+            postParameters: serverData.post_parameters
         }
 
     return axios.post(fullUrl, data, {
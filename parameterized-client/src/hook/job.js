@@ -81,12 +81,21 @@ const JobContainer = ({
 }) => {
     let serverValues = jenkinsServers == null ? []: jenkinsServers;
     let serverOptions = [<option value={""}>Choose an option</option>];
+    // jobs saved before servers were referenced by alias store the scope instead
+    const scopeValue = server => server["scope"] == "project" ? server["project"] : "global-settings";
+    let selectedServer = jobInfo.jenkinsServer;
     serverValues.forEach(server => {
         let serverPrefix = server["alias"] || server["url"];
         let serverText = serverPrefix + " (" + server["scope"] + ")";
-        let serverValue = server["scope"] == "project" ? server["project"] : "global-settings" ;
+        let serverValue = server["alias"] || scopeValue(server);
         serverOptions.push(<option value={serverValue}>{serverText}</option>)
     });
+    if (!serverValues.some(server => (server["alias"] || scopeValue(server)) == selectedServer)) {
+        let legacyServer = serverValues.find(server => scopeValue(server) == selectedServer);
+        if (legacyServer !== undefined) {
+            selectedServer = legacyServer["alias"] || scopeValue(legacyServer);
+        }
+    }
 
     let jenkinsErrors;
     if (jenkinsServers == null || jenkinsServers.length == 0) {
@@ -111,7 +120,7 @@ const JobContainer = ({
             <GenericField jobInfo={jobInfo}  id={id} errors={errors} updateText={updateText} fieldName={"jobName"} fieldLabel={"Job Name"} required={true}/>
             <div className={"field-group" + (jobInfo.active ? "" : " hidden") }>
                 <label htmlFor={"jenkinsServer-" + id}>Jenkins Server <span className={"aui-icon icon-required"}/></label>
-                <select id={"jenkinsServer-" + id} className={"select"} name={"jenkinsServer-" + id} value={jobInfo.jenkinsServer}
+                <select id={"jenkinsServer-" + id} className={"select"} name={"jenkinsServer-" + id} value={selectedServer}
                         onChange={e => {updateText(id, 'jenkinsServer', e.target.value)}}
                         disabled={jenkinsServers == null || jenkinsServers.length == 0}>
                     {serverOptions}
@@ -180,7 +189,8 @@ const JobContainer = ({
                           value={jobInfo.buildParameters} rows={3} onChange={e => {updateText(id, 'buildParameters', e.target.value)}}/>
                 <div className={"description"}>
                     {"Key=Value pairs separated by new line. For choice parameters separate values with a semicolon. " +
-                     "Available Bitbucket variables: $BRANCH, $COMMIT, $REPOSITORY, $PROJECT, $TRIGGER (for PR triggers " +
+                     "Available Bitbucket variables: $BRANCH, $COMMIT, $REPOSITORY, $PROJECT, $TRIGGER, $FROM_HASH, " +
+                     "$COMMIT_MESSAGE, $AUTHOR_EMAIL, $CHANGED_FILES_COUNT (for PR triggers " +
                      "also $PRID, $PRTITLE, $PRDESTINATION, $PRAUTHOR, $PREMAIL, $PRDESCRIPTION, $PRURL, $PRSOURCEPROJECT, $PRSOURCEREPOSITORY, and for PR MERGED triggers " +
                      "$MERGECOMMIT))"}
                 </div>
@@ -211,6 +221,18 @@ const JobContainer = ({
                                "Supported triggers: PUSH EVENT"}
                                id={id} jobInfo={jobInfo} errors={errors} updateText={updateText}/>
 
+            <fieldset className={"group field-group" + (jobInfo.active && jobInfo.triggers.includes('push;') ? "" : " hidden")}>
+                <legend><span>Check All Pushed Commits</span></legend>
+                <div className={"checkbox"}>
+                    <input id={"checkAllCommits-" + id} className={"checkbox"} name={"checkAllCommits-" + id} checked={jobInfo.checkAllCommits}
+                           type={"checkbox"} onClick={() => {updateText(id, 'checkAllCommits', !jobInfo.checkAllCommits)}}/>
+                </div>
+                <div className={"description"}>
+                    {"Apply the ignore rules to every pushed commit instead of only the latest one. The build is skipped only " +
+                     "if all pushed commits are ignored. Supported triggers: PUSH EVENT"}
+                </div>
+            </fieldset>
+
             <div className={"field-group" + (jobInfo.active && jobInfo.triggers.includes('manual;') ? "" : " hidden")}>
                 <label htmlFor={"requirePermission-" + id}>Required Build Permission</label>
                 <select id={"requirePermission-" + id} className={"select"} name={"requirePermission-" + id}
@@ -15,6 +15,7 @@ const getInitialState = () => {
         prDestinationRegex: "",
         ignoreComitters: "",
         ignoreCommitMsg: "",
+        checkAllCommits: false,
     }
 };
 
@@ -84,6 +85,7 @@ const createInitialState = (config) => {
             prDestinationRegex: config["prDestinationRegex-" + i],
             ignoreComitters: config["ignoreComitters-" + i],
             ignoreCommitMsg: config["ignoreCommitMsg-" + i],
+            checkAllCommits: config["checkAllCommits-" + i],
         };
         if(newJob.triggers !== null) {
             newJob.triggers = newJob.triggers.replace('pullrequest;', 'propened;prreopened;prsourcerescoped;');
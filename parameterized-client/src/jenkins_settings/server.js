@@ -111,6 +111,9 @@ const ServerContainer = ({
             <Checkbox labelText="CSRF protection" id="jenkinsCSRF"
                       checked={serverData.csrf_enabled} 
                       onChange={(e) => updateServer(serverData.id, "csrf_enabled", e.target.checked)} />
+            <Checkbox labelText="Send build parameters in the request body" id="jenkinsPostParameters"
+                      checked={serverData.post_parameters}
+                      onChange={(e) => updateServer(serverData.id, "post_parameters", e.target.checked)} />
             <ButtonGroup>
                 <Button id="saveButton" name="submit" buttonText="Save"
                         extraClasses={["aui-button-primary"]}
@@ -8,6 +8,7 @@ const createServer = (initialState = {}) => {
         default_token: null,
         root_token_enabled: false,
         csrf_enabled: false,
+        post_parameters: false,
         action_message: "",
         action_state: null,
         show_clear_modal: false,
@@ -8,6 +8,17 @@ import { serverDefinitions } from "./state-reducers";
 import { Form } from "../common/aui";
 
 
+let AddServer = ({ dispatch }) => {
+    return (
+        <a>
+            <span className="aui-icon aui-icon-small aui-iconfont-list-add" onClick={() => {
+                dispatch({type: "ADD_SERVER"});
+            }} />
+        </a>
+    )
+};
+AddServer = connect()(AddServer);
+
 let ServerList = ({ servers }) => {
     return (
         <Form>
@@ -16,6 +27,7 @@ let ServerList = ({ servers }) => {
                 <Server id={i} />
             )
             }
+            <AddServer />
         </Form>
     )
 };
@@ -0,0 +1,71 @@
+package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
+
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atlassian.bitbucket.repository.RefChange;
+import com.atlassian.bitbucket.repository.Repository;
+import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.item.JobFixtures;
+
+/**
+ * Matching a push against every job of the repository, mostly the branch regex.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class ValidateJobBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    public int jobCount;
+
+    @Param({ "none", "literal", "alternation", "nested" })
+    public String regexComplexity;
+
+    private BaseHandler handler;
+    private List<Job> jobs;
+
+    @Setup
+    public void setup() {
+        Repository repository = mock(Repository.class, RETURNS_DEEP_STUBS);
+        when(repository.getProject().getKey()).thenReturn("PROJ");
+        RefChange refChange = mock(RefChange.class, RETURNS_DEEP_STUBS);
+        when(refChange.getRef().getId()).thenReturn("refs/heads/" + JobFixtures.BRANCH);
+        handler = new RefHandler(null, null, null, repository, refChange, "", null,
+                Trigger.PUSH);
+        jobs = new SettingsService(null, null).getJobs(JobFixtures.settings(jobCount,
+                JobFixtures.branchRegex(regexComplexity), 0));
+    }
+
+    @Benchmark
+    public int validateJobs() {
+        int matched = 0;
+        for (Job job : jobs) {
+            if (handler.validateJob(job, null) == null) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
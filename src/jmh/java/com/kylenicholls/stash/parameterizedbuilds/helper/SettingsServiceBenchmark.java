@@ -0,0 +1,53 @@
+package com.kylenicholls.stash.parameterizedbuilds.helper;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.JobFixtures;
+
+/**
+ * Parsing the hook settings into jobs, which happens for every event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class SettingsServiceBenchmark {
+
+    @Param({ "1", "10", "100", "1000" })
+    public int jobCount;
+
+    @Param({ "0", "5", "50" })
+    public int parameterCount;
+
+    private SettingsService settingsService;
+    private Map<String, Object> settings;
+
+    @Setup
+    public void setup() {
+        settingsService = new SettingsService(null, null);
+        settings = JobFixtures.settings(jobCount, JobFixtures.branchRegex("alternation"),
+                parameterCount);
+    }
+
+    @Benchmark
+    public List<Job> getJobs() {
+        return settingsService.getJobs(settings);
+    }
+}
@@ -0,0 +1,55 @@
+package com.kylenicholls.stash.parameterizedbuilds.item;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+
+/**
+ * Building the variables of an event, resolving them and finding the ones a job uses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class BitbucketVariablesBenchmark {
+
+    @Param({ "0", "5", "50" })
+    public int parameterCount;
+
+    private String parameters;
+
+    @Setup
+    public void setup() {
+        parameters = JobFixtures.buildParameters(parameterCount);
+    }
+
+    @Benchmark
+    public void buildAndFetch(Blackhole blackhole) {
+        BitbucketVariables variables = JobFixtures.variables(Trigger.PUSH);
+        for (Variable variable : variables.getVariables()) {
+            blackhole.consume(variables.fetch(variable));
+        }
+    }
+
+    @Benchmark
+    public EnumSet<Variable> referencedIn() {
+        return Variable.referencedIn(parameters);
+    }
+}
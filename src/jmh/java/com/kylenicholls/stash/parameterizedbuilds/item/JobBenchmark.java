@@ -0,0 +1,67 @@
+package com.kylenicholls.stash.parameterizedbuilds.item;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+
+/**
+ * Building the request for one job: the build url, the form body when parameters are posted
+ * and the map the build dialog shows.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class JobBenchmark {
+    private static final String BASE_URL = "http://jenkins.example.com:8080/jenkins";
+
+    @Param({ "0", "5", "50" })
+    public int parameterCount;
+
+    private Job job;
+    private Server server;
+    private Server postServer;
+    private BitbucketVariables variables;
+
+    @Setup
+    public void setup() {
+        job = new Job.JobBuilder(0).jobName("folder/job").triggers(new String[] { "push" })
+                .token("token").buildParameters(JobFixtures.buildParameters(parameterCount))
+                .branchRegex("").pathRegex("").prDestRegex("").build();
+        server = new Server(BASE_URL, "ci", "user", "token", false, false, false);
+        postServer = new Server(BASE_URL, "ci", "user", "token", false, false, true);
+        variables = JobFixtures.variables(Trigger.PUSH);
+    }
+
+    @Benchmark
+    public String buildUrl() {
+        return job.buildUrl(server, variables, false);
+    }
+
+    @Benchmark
+    public List<Entry<String, String>> buildFormParameters() {
+        return job.buildFormParameters(postServer, variables);
+    }
+
+    @Benchmark
+    public Map<String, Object> asMap() {
+        return job.asMap(variables);
+    }
+}
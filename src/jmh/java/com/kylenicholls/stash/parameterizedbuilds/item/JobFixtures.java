@@ -0,0 +1,106 @@
+package com.kylenicholls.stash.parameterizedbuilds.item;
+
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.BRANCH_PREFIX;
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.ISTAG_PREFIX;
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.JOB_PREFIX;
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.PARAM_PREFIX;
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.PATH_PREFIX;
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.PRDEST_PREFIX;
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.SERVER_PREFIX;
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.TOKEN_PREFIX;
+import static com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService.TRIGGER_PREFIX;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+
+/**
+ * Hook settings and variables shaped like the ones a busy repository has, shared by the
+ * benchmarks.
+ */
+public final class JobFixtures {
+    public static final String BRANCH = "feature/proj-1234-faster-builds";
+
+    private JobFixtures() {
+    }
+
+    /**
+     * @param complexity one of none, literal, alternation or nested
+     */
+    public static String branchRegex(String complexity) {
+        switch (complexity) {
+            case "none":
+                return "";
+            case "literal":
+                return "master";
+            case "alternation":
+                return "release/.*|hotfix/.*|feature/proj-\\d+.*";
+            case "nested":
+                return "(feature|bugfix)/([a-z]+-)*\\d+(-[a-z0-9]+)*";
+            default:
+                throw new IllegalArgumentException("Unknown regex complexity " + complexity);
+        }
+    }
+
+    /**
+     * @return build parameters as they are stored in the hook settings, cycling through
+     *         variable, boolean and choice parameters
+     */
+    public static String buildParameters(int count) {
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                parameters.append("\r\n");
+            }
+            parameters.append("param").append(i).append('=');
+            switch (i % 3) {
+                case 0:
+                    parameters.append(Variable.BRANCH.getKey()).append('-')
+                            .append(Variable.COMMIT.getKey());
+                    break;
+                case 1:
+                    parameters.append("true");
+                    break;
+                default:
+                    parameters.append("a;b;c");
+            }
+        }
+        return parameters.toString();
+    }
+
+    /**
+     * @return the settings map of a hook with the given number of jobs
+     */
+    public static Map<String, Object> settings(int jobCount, String branchRegex,
+            int parameterCount) {
+        String parameters = buildParameters(parameterCount);
+        Map<String, Object> settings = new LinkedHashMap<>();
+        for (int i = 0; i < jobCount; i++) {
+            settings.put(JOB_PREFIX + i, "folder/job" + i);
+            settings.put(SERVER_PREFIX + i, "ci");
+            settings.put(ISTAG_PREFIX + i, false);
+            settings.put(TRIGGER_PREFIX + i, "push;pullrequest;manual;");
+            settings.put(TOKEN_PREFIX + i, "token" + i);
+            settings.put(PARAM_PREFIX + i, parameters);
+            settings.put(BRANCH_PREFIX + i, branchRegex);
+            settings.put(PATH_PREFIX + i, "");
+            settings.put(PRDEST_PREFIX + i, "");
+        }
+        return settings;
+    }
+
+    public static BitbucketVariables variables(Trigger trigger) {
+        return new BitbucketVariables.Builder()
+                .add(Variable.BRANCH, () -> BRANCH)
+                .add(Variable.COMMIT, () -> "9f1c7e2b5a3d4c6e8f0a1b2c3d4e5f6a7b8c9d0e")
+                .add(Variable.URL, () -> "https://bitbucket.example.com/projects/PROJ/repos/repo")
+                .add(Variable.REPOSITORY, () -> "repo")
+                .add(Variable.PROJECT, () -> "PROJ")
+                .add(Variable.COMMIT_MESSAGE, () -> "Make the builds faster")
+                .add(Variable.AUTHOR_EMAIL, () -> "author@example.com")
+                .trigger(trigger)
+                .build();
+    }
+}
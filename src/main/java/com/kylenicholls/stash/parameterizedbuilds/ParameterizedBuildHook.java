@@ -25,18 +25,24 @@ import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.PushHandler;
 import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.RefCreatedHandler;
 import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.RefDeletedHandler;
 import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.RefHandler;
+import com.kylenicholls.stash.parameterizedbuilds.helper.CommitCache;
 import com.kylenicholls.stash.parameterizedbuilds.helper.ScopeProjectVisitor;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.helper.VariableProviders;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Span;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
 
 public class ParameterizedBuildHook
         implements PostRepositoryHook<RepositoryHookRequest>, SettingsValidator {
 
     private final SettingsService settingsService;
     private final CommitService commitService;
+    private final CommitCache commitCache;
     private final Jenkins jenkins;
+    private final VariableProviders variableProviders;
     private String url;
     private ApplicationUser user;
     private ExecutorService executorService;
@@ -44,7 +50,9 @@ public class ParameterizedBuildHook
     public ParameterizedBuildHook(
             SettingsService settingsService,
             CommitService commitService,
+            CommitCache commitCache,
             Jenkins jenkins,
+            VariableProviders variableProviders,
             ApplicationPropertiesService applicationPropertiesService,
             AuthenticationContext actx,
             @ComponentImport
@@ -52,7 +60,9 @@ public class ParameterizedBuildHook
 
         this.settingsService = settingsService;
         this.commitService = commitService;
+        this.commitCache = commitCache;
         this.jenkins = jenkins;
+        this.variableProviders = variableProviders;
         this.url = applicationPropertiesService.getBaseUrl().toString();
         this.user = actx.getCurrentUser();
         this.executorService = executorService;
@@ -64,8 +74,10 @@ public class ParameterizedBuildHook
         Repository repository = request.getRepository();
 
         for (RefChange refChange : refChanges) {
-            this.executorService.submit(() -> {
+            Span span = Tracing.startRoot("refchange.event", "type", refChange.getType());
+            Tracing.execute(executorService, span, () -> {
                 RefHandler refHandler = createHandler(refChange, repository);
+                refHandler.setVariableProviders(variableProviders);
                 refHandler.run();
             });
         }
@@ -77,8 +89,8 @@ public class ParameterizedBuildHook
                     repository, refChange, url, user);
             case DELETE: return new RefDeletedHandler(settingsService, jenkins, commitService,
                     repository, refChange, url, user);
-            case UPDATE: return new PushHandler(settingsService, jenkins, commitService, repository,
-                    refChange, url, user);
+            case UPDATE: return new PushHandler(settingsService, jenkins, commitService,
+                    commitCache, repository, refChange, url, user);
             default: return new RefHandler(settingsService, jenkins, commitService, repository,
                     refChange, url, user, Trigger.NULL);
         }
@@ -21,6 +21,9 @@ import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.PROpenedHandler;
 import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.PRReopenedHandler;
 import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.PRSourceRescopedHandler;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.helper.VariableProviders;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Span;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
 import com.atlassian.bitbucket.branch.automerge.AutomaticMergeEvent;
 import com.atlassian.bitbucket.event.pull.PullRequestDeclinedEvent;
 import com.atlassian.bitbucket.event.pull.PullRequestDeletedEvent;
@@ -34,6 +37,7 @@ public class PullRequestHook {
     private final SettingsService settingsService;
     private final PullRequestService pullRequestService;
     private final Jenkins jenkins;
+    private final VariableProviders variableProviders;
     private final String url;
     private final ExecutorService executorService;
 
@@ -41,6 +45,7 @@ public class PullRequestHook {
             SettingsService settingsService,
             PullRequestService pullRequestService,
             Jenkins jenkins,
+            VariableProviders variableProviders,
             ApplicationPropertiesService applicationPropertiesService,
             @ComponentImport
             ExecutorService executorService) {
@@ -48,6 +53,7 @@ public class PullRequestHook {
         this.settingsService = settingsService;
         this.pullRequestService = pullRequestService;
         this.jenkins = jenkins;
+        this.variableProviders = variableProviders;
         this.url = applicationPropertiesService.getBaseUrl().toString();
         this.executorService = executorService;
     }
@@ -107,6 +113,9 @@ public class PullRequestHook {
     }
 
     protected void runHandler(BaseHandler handler) {
-        this.executorService.submit(() -> handler.run());
+        handler.setVariableProviders(variableProviders);
+        Span span = Tracing.startRoot("pullrequest.event", "handler",
+                handler.getClass().getSimpleName());
+        Tracing.execute(executorService, span, () -> handler.run());
     }
 }
@@ -29,8 +29,7 @@ public class AccountServer extends CIServer {
     }
 
     public ImmutableMap<String, Object> renderMap(Map<String, Object> renderOptions){
-        List<UserToken> projectTokens = jenkins
-                .getAllUserTokens(user, projectService.findAllKeys(), projectService);
+        List<UserToken> projectTokens = jenkins.getAllUserTokens(user, projectService);
 
         JsonArray tokenArray = new JsonArray();
         projectTokens.stream()
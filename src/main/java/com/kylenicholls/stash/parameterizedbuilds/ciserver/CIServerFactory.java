@@ -9,6 +9,8 @@ public class CIServerFactory {
                                      ApplicationUser user, ProjectService projectService){
         if (pathInfo.contains("/jenkins/account")){
             return new AccountServer(jenkins, user, projectService);
+        } else if (pathInfo.contains("/jenkins/diagnostics")) {
+            return new DiagnosticsServer();
         } else if (pathInfo.contains("/jenkins/project/")) {
             String projectKey = pathInfo.replaceAll(".*/jenkins/project/", "")
                     .split("/")[0];
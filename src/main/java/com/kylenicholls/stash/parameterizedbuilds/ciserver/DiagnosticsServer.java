@@ -0,0 +1,17 @@
+package com.kylenicholls.stash.parameterizedbuilds.ciserver;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+public class DiagnosticsServer extends CIServer{
+
+    public DiagnosticsServer(){
+        this.JENKINS_SETTINGS = "jenkins.admin.diagnostics";
+        this.ADDITIONAL_JS = "jenkins-diagnostics";
+    }
+
+    public ImmutableMap<String, Object> renderMap(Map<String, Object> renderOptions){
+        return ImmutableMap.copyOf(renderOptions);
+    }
+}
@@ -1,33 +1,64 @@
 package com.kylenicholls.stash.parameterizedbuilds.ciserver;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
+import com.atlassian.bitbucket.project.Project;
 import com.atlassian.bitbucket.project.ProjectService;
 import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.util.Page;
+import com.atlassian.bitbucket.util.PageRequest;
+import com.atlassian.bitbucket.util.PageRequestImpl;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
-import com.google.common.collect.Lists;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
 import com.kylenicholls.stash.parameterizedbuilds.item.UserToken;
 
 public class Jenkins {
-    private static final String PLUGIN_KEY = "com.kylenicholls.stash.parameterized-builds";
-    private static final String JENKINS_SETTINGS = ".jenkinsSettings";
-    private static final String JENKINS_SETTINGS_PROJECT = JENKINS_SETTINGS + ".";
+    static final String PLUGIN_KEY = "com.kylenicholls.stash.parameterized-builds";
+    static final String JENKINS_SETTINGS = ".jenkinsSettings";
+    static final String JENKINS_SETTINGS_PROJECT = JENKINS_SETTINGS + ".";
     private static final String JENKINS_USER = ".jenkinsUser.";
+    // keys of the projects that have a Jenkins server, so listings don't visit every project
+    static final String JENKINS_PROJECTS = ".jenkinsProjects";
+    // per user, whether the user has a token for a project, so listings only read real tokens
+    static final String JENKINS_USER_PROJECTS = ".jenkinsUserProjects.";
+    private static final String HAS_TOKEN = "true";
+    private static final String NO_TOKEN = "false";
+    private static final int PROJECT_PAGE_SIZE = 1000;
+    private static final long USER_TOKEN_CACHE_SIZE = 10_000;
+    // server reference saved by jobs that used the global server before jobs stored aliases
+    private static final String GLOBAL_SCOPE = "global-settings";
     private final PluginSettings pluginSettings;
+    private final ServerStore serverStore;
+    // user tokens keyed by their settings key, a missing token is cached as an empty optional
+    private final LoadingCache<String, Optional<String>> userTokens;
 
     public Jenkins(PluginSettingsFactory factory) {
         this.pluginSettings = factory.createSettingsForKey(PLUGIN_KEY);
+        this.serverStore = new ServerStore(pluginSettings);
+        this.userTokens = CacheBuilder.newBuilder()
+                .maximumSize(USER_TOKEN_CACHE_SIZE)
+                .expireAfterWrite(ServerStore.MAX_AGE_MILLIS, TimeUnit.MILLISECONDS)
+                .build(CacheLoader.from(key -> Optional.ofNullable(pluginSettings.get(key))
+                        .map(Object::toString)));
     }
 
     /**
      * Saves or removes a Jenkins server for a specfic project. If the server is
-     * null then the global server will be removed for the project.
+     * null then every server will be removed for the project.
      *
      * @param server
      *            the project server
@@ -35,28 +66,115 @@ public class Jenkins {
      *            the project key
      */
     public void saveJenkinsServer(@Nullable Server server, String projectKey) {
-        if (projectKey == null || projectKey == ""){
-            saveJenkinsServerToDB(JENKINS_SETTINGS, server);
+        if (server != null) {
+            saveJenkinsServer(server, null, projectKey);
         } else {
-            saveJenkinsServerToDB(JENKINS_SETTINGS_PROJECT + projectKey, server);
+            serverStore.remove(settingsKey(projectKey), null);
+            updateProjectIndex(projectKey);
         }
     }
 
     /**
-     * Saves or removes a Jenkins server depending on the url parameter. If the
-     * url parameter is null then the Jenkins server will be removed.
+     * Saves a Jenkins server, replacing the server with the same alias in the
+     * project.
      *
-     * @param key
-     *            key to save the Jenkins server under, should be global or a
-     *            project key
      * @param server
      *            the server
+     * @param oldAlias
+     *            the alias the server was saved under before, if it is being
+     *            renamed, can be null
+     * @param projectKey
+     *            the project key, if null or empty the server is saved globally
      */
-    private void saveJenkinsServerToDB(String key, @Nullable Server server) {
-        if (server != null) {
-            pluginSettings.put(key, server.asMap());
+    public void saveJenkinsServer(Server server, @Nullable String oldAlias, String projectKey) {
+        serverStore.save(settingsKey(projectKey), server, oldAlias);
+        updateProjectIndex(projectKey);
+    }
+
+    /**
+     * Removes a single Jenkins server from a project.
+     *
+     * @param alias
+     *            the alias of the server to remove
+     * @param projectKey
+     *            the project key, if null or empty the server is removed from
+     *            the global servers
+     */
+    public void removeJenkinsServer(String alias, String projectKey) {
+        serverStore.remove(settingsKey(projectKey), alias);
+        updateProjectIndex(projectKey);
+    }
+
+    /**
+     * Drops the in-memory copy of the server settings, for use after they
+     * were changed directly in the plugin settings.
+     */
+    public void invalidateServers() {
+        serverStore.invalidate();
+    }
+
+    private static String settingsKey(@Nullable String projectKey) {
+        if (projectKey == null || projectKey.isEmpty() || projectKey.equals(GLOBAL_SCOPE)) {
+            return JENKINS_SETTINGS;
+        }
+        return JENKINS_SETTINGS_PROJECT + projectKey;
+    }
+
+    /**
+     * Adds or removes a project from the index of projects with a Jenkins
+     * server. If the index has not been built yet it is left alone, building
+     * it will pick up this change.
+     */
+    private synchronized void updateProjectIndex(@Nullable String projectKey) {
+        if (settingsKey(projectKey).equals(JENKINS_SETTINGS)) {
+            return;
+        }
+        boolean hasServer = !getServers(projectKey).isEmpty();
+        List<String> index = readProjectIndex();
+        if (index == null || index.contains(projectKey) == hasServer) {
+            return;
+        }
+        if (hasServer) {
+            index.add(projectKey);
         } else {
-            pluginSettings.remove(key);
+            index.remove(projectKey);
+        }
+        pluginSettings.put(JENKINS_PROJECTS, index);
+    }
+
+    @Nullable
+    private List<String> readProjectIndex() {
+        Object settingObj = pluginSettings.get(JENKINS_PROJECTS);
+        if (settingObj instanceof List) {
+            @SuppressWarnings("unchecked")
+            List<String> index = (List<String>) settingObj;
+            return new ArrayList<>(index);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the keys of all projects that have a Jenkins server. The first
+     * call on an instance that predates the index scans every project once and
+     * saves the result.
+     *
+     * @param projectService
+     *            used to list the projects when the index has to be built
+     */
+    private List<String> getProjectsWithServers(ProjectService projectService) {
+        List<String> index = readProjectIndex();
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            index = readProjectIndex();
+            if (index == null) {
+                index = projectService.findAllKeys().stream()
+                        .filter(projectKey -> !getServers(projectKey).isEmpty())
+                        .collect(Collectors.toList());
+                pluginSettings.put(JENKINS_PROJECTS, index);
+            }
+            return index;
         }
     }
 
@@ -74,36 +192,47 @@ public class Jenkins {
      *            will be removed
      */
     public void saveUserToken(String userSlug, String projectKey, String token) {
-        String appendProject = projectKey.isEmpty() ? "" : "." + projectKey;
+        String key = userTokenKey(userSlug, projectKey.isEmpty() ? null : projectKey);
         if (!token.isEmpty()) {
-            pluginSettings.put(JENKINS_USER + userSlug + appendProject, token);
+            pluginSettings.put(key, token);
+            userTokens.put(key, Optional.of(token));
         } else {
-            pluginSettings.remove(JENKINS_USER + userSlug + appendProject);
+            pluginSettings.remove(key);
+            userTokens.put(key, Optional.empty());
+        }
+        if (!projectKey.isEmpty()) {
+            updateUserTokenIndex(userSlug, projectKey, !token.isEmpty());
         }
     }
 
     /**
-     * Returns the global Jenkins server.
-     *
-     * @return the global Jenkins server or null if there is not one
+     * Records whether a user has a token for a project in the user's token index.
      */
-    @Nullable
-    private Server getJenkinsServer() {
-        Object settingObj = pluginSettings.get(JENKINS_SETTINGS);
-        if (settingObj != null) {
-            if (settingObj instanceof java.util.Map) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> serverMap = (Map<String, Object>) settingObj;
-                return new Server(serverMap);
-            }
-            // legacy settings
-            String[] serverProps = settingObj.toString().split(";");
-            boolean altUrl = serverProps.length > 3 && "true".equals(serverProps[3]) ? true : false;
-            boolean csrfEnabled = true;
-            return new Server(serverProps[0], null, serverProps[1], serverProps[2], altUrl, 
-                    csrfEnabled);
+    private synchronized void updateUserTokenIndex(String userSlug, String projectKey,
+            boolean hasToken) {
+        Map<String, String> index = readUserTokenIndex(userSlug);
+        String marker = hasToken ? HAS_TOKEN : NO_TOKEN;
+        if (!marker.equals(index.put(projectKey, marker))) {
+            pluginSettings.put(JENKINS_USER_PROJECTS + userSlug, index);
         }
-        return null;
+    }
+
+    /**
+     * @return whether the user has a token, by project key. Projects that are missing have not
+     *         been checked since the index was introduced.
+     */
+    private Map<String, String> readUserTokenIndex(String userSlug) {
+        Object settingObj = pluginSettings.get(JENKINS_USER_PROJECTS + userSlug);
+        if (settingObj instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, String> index = (Map<String, String>) settingObj;
+            return new HashMap<>(index);
+        }
+        return new HashMap<>();
+    }
+
+    private List<Server> getServers(@Nullable String projectKey) {
+        return serverStore.getServers(settingsKey(projectKey));
     }
 
     /**
@@ -111,24 +240,25 @@ public class Jenkins {
      *
      * @return a Jenkins server for a project or null if there is not one for
      *         the specified project
+     * @param projectKey
+     *            the project key, if null the global servers are searched
+     * @param alias
+     *            the alias of the server, if null the first server of the
+     *            project is returned
      */
     @Nullable
-    public Server getJenkinsServer(String projectKey, String alias) {
-        if (projectKey == null || projectKey.equals("global-settings")) {
-            return getJenkinsServer();
-        }
-
-        Object settingObj = pluginSettings.get(JENKINS_SETTINGS_PROJECT + projectKey);
-        if (settingObj != null && settingObj instanceof java.util.Map) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> serverMap = (Map<String, Object>) settingObj;
-            return new Server(serverMap);
+    public Server getJenkinsServer(String projectKey, @Nullable String alias) {
+        if (alias == null) {
+            List<Server> servers = getServers(projectKey);
+            return servers.isEmpty() ? null : servers.get(0);
         }
-        return null;
+        return serverStore.getServer(settingsKey(projectKey), alias);
     }
 
     /**
-     * Returns jenkins server for the project with the proper user token
+     * Returns jenkins server for the project with the proper user token. The
+     * shared server definition is never modified, if the user has a token a
+     * copy with the user's credentials is returned instead.
      * 
      * @param projectKey - Bitbucket project key
      * @param alias - alias for the target server definition
@@ -136,12 +266,69 @@ public class Jenkins {
      * @return
      */
     public Server getJenkinsServer(String projectKey, String alias, ApplicationUser user){
-        Server server = getJenkinsServer(projectKey, alias);
+        return withUserToken(getJenkinsServer(projectKey, alias), projectKey, user);
+    }
+
+    /**
+     * Resolves the server a job refers to. The reference is looked up as an
+     * alias in the project first and then in the global servers. References
+     * saved before jobs stored aliases are scope keys: "global-settings" or
+     * the project key, which select the first server of that scope. Without a
+     * reference the project's first server is used, falling back to the
+     * global one. Resolutions are cached until the servers change.
+     *
+     * @return the server with the user's credentials applied, or null if the
+     *         reference does not match any server
+     * @param projectKey
+     *            the project of the repository the job belongs to
+     * @param serverRef
+     *            the job's server reference, can be null
+     * @param user
+     *            the user to get the token for, can be null
+     */
+    @Nullable
+    public Server resolveJenkinsServer(String projectKey, @Nullable String serverRef,
+            @Nullable ApplicationUser user) {
+        String ref = serverRef == null ? "" : serverRef;
+        ResolvedServer resolved = serverStore.memoize(projectKey + "/" + ref,
+                () -> resolve(projectKey, ref));
+        return resolved == null ? null
+                : withUserToken(resolved.server, resolved.projectKey, user);
+    }
+
+    @Nullable
+    private ResolvedServer resolve(String projectKey, String ref) {
+        if (ref.isEmpty()) {
+            ResolvedServer server = resolved(projectKey, getJenkinsServer(projectKey, null));
+            return server != null ? server : resolved(null, getJenkinsServer(null, null));
+        }
+        ResolvedServer server = resolved(projectKey, getJenkinsServer(projectKey, ref));
+        if (server == null) {
+            server = resolved(null, getJenkinsServer(null, ref));
+        }
+        if (server == null && ref.equals(projectKey)) {
+            server = resolved(projectKey, getJenkinsServer(projectKey, null));
+        }
+        if (server == null && ref.equals(GLOBAL_SCOPE)) {
+            server = resolved(null, getJenkinsServer(null, null));
+        }
+        return server;
+    }
+
+    @Nullable
+    private static ResolvedServer resolved(@Nullable String projectKey, @Nullable Server server) {
+        return server == null ? null : new ResolvedServer(projectKey, server);
+    }
+
+    @Nullable
+    private Server withUserToken(@Nullable Server server, @Nullable String projectKey,
+            @Nullable ApplicationUser user) {
+        if (server == null) {
+            return null;
+        }
         String userToken = getUserToken(user, projectKey);
         if (userToken != null && !userToken.isEmpty()){
-            server.setUser(user.getSlug());
-            server.setToken(userToken);
-            server.setAltUrl(false);
+            return server.withUserToken(user.getSlug(), userToken);
         }
         return server;
     }
@@ -154,20 +341,7 @@ public class Jenkins {
      */
     @Nullable
     public List<Server> getJenkinsServers(String projectKey) {
-        List<Server> servers = new ArrayList<>();
-        if (projectKey == null || projectKey.equals("global-settings")) {
-            Server server = getJenkinsServer();
-            return server == null ? Lists.newArrayList() : Lists.newArrayList(server);
-        }
-
-        Object settingObj = pluginSettings.get(JENKINS_SETTINGS_PROJECT + projectKey);
-        if (settingObj != null && settingObj instanceof java.util.Map) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> serverMap = (Map<String, Object>) settingObj;
-            Server server = new Server(serverMap);
-            servers.add(server);
-        }
-        return servers;
+        return new ArrayList<>(getServers(projectKey));
     }
 
     /**
@@ -185,54 +359,114 @@ public class Jenkins {
     @Nullable
     private String getUserToken(@Nullable ApplicationUser user, @Nullable String projectKey) {
         if (user != null) {
-            if (projectKey == null) {
-                Object settingObj = pluginSettings.get(JENKINS_USER + user.getSlug());
-                if (settingObj != null) {
-                    return settingObj.toString();
-                }
-            } else {
-                Object settingObj = pluginSettings
-                        .get(JENKINS_USER + user.getSlug() + "." + projectKey);
-                if (settingObj != null) {
-                    return settingObj.toString();
-                }
-            }
+            return userTokens.getUnchecked(userTokenKey(user.getSlug(), projectKey)).orElse(null);
         }
         return null;
     }
 
+    private static String userTokenKey(String userSlug, @Nullable String projectKey) {
+        return projectKey == null ? JENKINS_USER + userSlug
+                : JENKINS_USER + userSlug + "." + projectKey;
+    }
+
     /**
      * Returns a list of all user tokens for all projects (including global)
-     * that have a Jenkins server set.
+     * that have a Jenkins server set. Only the projects in the server index are
+     * visited and their names are looked up together, so the cost grows with
+     * the number of servers rather than the number of projects. Project tokens
+     * are only read for projects the user's token index lists as having one.
      *
      * @return a list of all user tokens for all projects (including global)
      *         that have a Jenkins server set.
      * @param user
      *            the user to get the token for
-     * @param projectKeys
-     *            all the project keys in the bitbucket server instance
      * @param projectService
-     *            used to get the project name
+     *            used to get the project names
      */
-    protected List<UserToken> getAllUserTokens(ApplicationUser user, List<String> projectKeys,
+    protected List<UserToken> getAllUserTokens(ApplicationUser user,
             ProjectService projectService) {
+        Map<String, List<Server>> projectServers = new LinkedHashMap<>();
+        for (String projectKey : getProjectsWithServers(projectService)) {
+            List<Server> servers = getServers(projectKey);
+            if (!servers.isEmpty()) {
+                projectServers.put(projectKey, servers);
+            }
+        }
+        Map<String, String> names = getProjectNames(projectService, projectServers.keySet());
+        Map<String, String> tokenIndex = readUserTokenIndex(user.getSlug());
+        boolean indexChanged = false;
         List<UserToken> userTokens = new ArrayList<>();
-        List<String> allKeys = Lists.newArrayList(projectKeys);
-        allKeys.add(null);
-
-        for (String projectKey : allKeys) {
-            List<Server> servers = getJenkinsServers(projectKey);
-            String userTokenString = getUserToken(user, projectKey);
-            for (Server server : servers) {
-                String scopeName = projectKey != null ?
-                        projectService.getByKey(projectKey).getName() : "Global";
-                String scopeKey = projectKey != null ? projectKey : "";
-                UserToken projectUserToken = new UserToken(server.getBaseUrl(),
-                        server.getAlias(), scopeKey, scopeName, user.getSlug(),
-                        userTokenString);
-                userTokens.add(projectUserToken);
+        for (Map.Entry<String, List<Server>> servers : projectServers.entrySet()) {
+            String projectKey = servers.getKey();
+            String name = names.get(projectKey);
+            if (name == null) {
+                continue;
             }
+            String marker = tokenIndex.get(projectKey);
+            String token = NO_TOKEN.equals(marker) ? null : getUserToken(user, projectKey);
+            if (marker == null) {
+                // tokens saved before the index existed are found here once
+                tokenIndex.put(projectKey, token == null ? NO_TOKEN : HAS_TOKEN);
+                indexChanged = true;
+            }
+            addUserTokens(userTokens, user, servers.getValue(), projectKey, name, token);
+        }
+        if (indexChanged) {
+            pluginSettings.put(JENKINS_USER_PROJECTS + user.getSlug(), tokenIndex);
+        }
+        List<Server> globalServers = getServers(null);
+        if (!globalServers.isEmpty()) {
+            addUserTokens(userTokens, user, globalServers, null, "Global",
+                    getUserToken(user, null));
         }
         return userTokens;
     }
+
+    /**
+     * Looks up the names of the projects by paging through the projects until all of them
+     * are found.
+     *
+     * @return the project names by key, without the projects that do not exist
+     */
+    private static Map<String, String> getProjectNames(ProjectService projectService,
+            Set<String> projectKeys) {
+        Map<String, String> names = new HashMap<>();
+        if (projectKeys.isEmpty()) {
+            return names;
+        }
+        PageRequest request = new PageRequestImpl(0, PROJECT_PAGE_SIZE);
+        while (request != null && names.size() < projectKeys.size()) {
+            Page<Project> page = projectService.findAll(request);
+            for (Project project : page.getValues()) {
+                if (projectKeys.contains(project.getKey())) {
+                    names.put(project.getKey(), project.getName());
+                }
+            }
+            request = page.getIsLastPage() ? null : page.getNextPageRequest();
+        }
+        return names;
+    }
+
+    private static void addUserTokens(List<UserToken> userTokens, ApplicationUser user,
+            List<Server> servers, @Nullable String projectKey, String scopeName,
+            @Nullable String userTokenString) {
+        String scopeKey = projectKey != null ? projectKey : "";
+        for (Server server : servers) {
+            userTokens.add(new UserToken(server.getBaseUrl(), server.getAlias(), scopeKey,
+                    scopeName, user.getSlug(), userTokenString));
+        }
+    }
+
+    /**
+     * A resolved server and the project it was found in, null for global.
+     */
+    private static final class ResolvedServer {
+        private final String projectKey;
+        private final Server server;
+
+        private ResolvedServer(@Nullable String projectKey, Server server) {
+            this.projectKey = projectKey;
+            this.server = server;
+        }
+    }
 }
@@ -1,11 +1,19 @@
 package com.kylenicholls.stash.parameterizedbuilds.ciserver;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 import javax.net.ssl.SSLException;
@@ -16,14 +24,24 @@ import org.slf4j.LoggerFactory;
 
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
 import com.kylenicholls.stash.parameterizedbuilds.item.JenkinsResponse;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
 import com.kylenicholls.stash.parameterizedbuilds.item.JenkinsResponse.JenkinsMessage;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Span;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
 
 public class JenkinsConnection {
 
     private static final Logger logger = LoggerFactory.getLogger(Jenkins.class);
+    // longer parameter values are truncated before they are posted to Jenkins
+    static final int MAX_PARAMETER_LENGTH = 64 * 1024;
+    static final String TRUNCATED_SUFFIX = "... [truncated]";
+    private static final int CHUNK_SIZE = 8192;
     private final Jenkins jenkins;
 
     public JenkinsConnection(Jenkins jenkins) {
@@ -45,31 +63,65 @@ public class JenkinsConnection {
      */
     public JenkinsResponse sanitizeTrigger(@Nullable String buildUrl, @Nullable String joinedToken,
             @Nullable String csrfHeader, boolean promptUser) {
+        return sanitizeTrigger(buildUrl, joinedToken, csrfHeader, promptUser,
+                Collections.emptyList());
+    }
+
+    /**
+     * Returns a message object from the triggered job.
+     *
+     * @return a message object from the triggered job.
+     * @param formParameters
+     *            the build parameters to send as a form encoded request body, if empty the
+     *            request has no body
+     */
+    public JenkinsResponse sanitizeTrigger(@Nullable String buildUrl, @Nullable String joinedToken,
+            @Nullable String csrfHeader, boolean promptUser,
+            List<Entry<String, String>> formParameters) {
         if (buildUrl == null) {
             return new JenkinsResponse.JenkinsMessage().error(true)
                     .messageText("Jenkins settings are not setup").build();
         }
 
-        return httpPost(buildUrl.replace(" ", "%20"), joinedToken, csrfHeader, promptUser);
+        return httpPost(buildUrl.replace(" ", "%20"), joinedToken, csrfHeader, promptUser,
+                formParameters);
     }
 
     public JenkinsResponse triggerJob(String projectKey, ApplicationUser user, Job job, 
                                       BitbucketVariables bitbucketVariables) {
-        Server jenkinsServer;
-        if (job.getJenkinsServer() != null){
-            jenkinsServer = jenkins.getJenkinsServer(job.getJenkinsServer(),
-                    job.getJenkinsServer(), user);
-        } else {
-            // legacy behaviour
-            Server projectServer = jenkins.getJenkinsServer(projectKey, null, user);
-            if (projectServer != null){
-                jenkinsServer = projectServer;
-            } else {
-                jenkinsServer = jenkins.getJenkinsServer(null, null, user);
-            }
+        long start = System.nanoTime();
+        JenkinsResponse response;
+        try (Span span = Tracing.start("jenkins.trigger", "job", job.getJobName())) {
+            response = trigger(projectKey, user, job, bitbucketVariables);
+            span.tag("error", response.getError());
+        }
+        boolean failed = response.getError();
+        TriggerHistory.global().record(bitbucketVariables.fetch(Variable.PROJECT),
+                bitbucketVariables.fetch(Variable.REPOSITORY),
+                bitbucketVariables.fetch(Variable.BRANCH),
+                bitbucketVariables.fetch(Variable.PRID), bitbucketVariables.getTrigger(),
+                job.getJobName(), failed ? Outcome.FAILED : Outcome.TRIGGERED,
+                failed ? response.getMessageText() : null, response.getStatus(),
+                System.nanoTime() - start);
+        return response;
+    }
+
+    private JenkinsResponse trigger(String projectKey, ApplicationUser user, Job job,
+                                    BitbucketVariables bitbucketVariables) {
+        Server jenkinsServer = jenkins.resolveJenkinsServer(projectKey, job.getJenkinsServer(),
+                user);
+        if (jenkinsServer == null) {
+            String message = job.getJenkinsServer() == null || job.getJenkinsServer().isEmpty()
+                    ? "Jenkins settings are not setup"
+                    : "Jenkins server \"" + job.getJenkinsServer() + "\" is not configured";
+            return new JenkinsResponse.JenkinsMessage().error(true).messageText(message).build();
         }
 
+        Metrics.counter("jobs.triggered", "trigger", bitbucketVariables.getTrigger())
+                .increment();
         String buildUrl = job.buildUrl(jenkinsServer, bitbucketVariables, false);
+        List<Entry<String, String>> formParameters =
+                job.buildFormParameters(jenkinsServer, bitbucketVariables);
         boolean prompt = !user.getSlug().equals(jenkinsServer.getUser());
 
         String csrfHeader = null;
@@ -82,7 +134,8 @@ public class JenkinsConnection {
             }
         }
 
-        return sanitizeTrigger(buildUrl, jenkinsServer.getJoinedToken(), csrfHeader, prompt);
+        return sanitizeTrigger(buildUrl, jenkinsServer.getJoinedToken(), csrfHeader, prompt,
+                formParameters);
     }
 
     private HttpURLConnection setupConnection(String baseUrl, String userToken) throws Exception{
@@ -93,6 +146,11 @@ public class JenkinsConnection {
             String authStringEnc = new String(authEncBytes);
             connection.setRequestProperty("Authorization", "Basic " + authStringEnc);
         }
+        Span span = Tracing.current();
+        if (span != null) {
+            // lets Jenkins, or a proxy in front of it, join the trace
+            connection.setRequestProperty(Tracing.TRACE_HEADER, span.traceParent());
+        }
         connection.setReadTimeout(45000);
         connection.setInstanceFollowRedirects(true);
         connection.setDoOutput(true);
@@ -138,6 +196,16 @@ public class JenkinsConnection {
     }
 
     private String getCrumb(Server server) throws Exception{
+        long start = System.nanoTime();
+        try (Span span = Tracing.start("jenkins.crumb")) {
+            return fetchCrumb(server);
+        } finally {
+            Metrics.timer("jenkins.crumb", "server", serverTag(server.getBaseUrl()))
+                    .recordSince(start);
+        }
+    }
+
+    private String fetchCrumb(Server server) throws Exception{
         final String crumbPath = "/crumbIssuer/api/xml?xpath=" + 
                                  "concat(//crumbRequestField,\":\",//crumb)";
         String baseUrl = server.getBaseUrl();
@@ -176,36 +244,55 @@ public class JenkinsConnection {
     }
 
     private JenkinsResponse httpPost(String buildUrl, String token, String csrfHeader, 
-                                     boolean prompt) {
+                                     boolean prompt, List<Entry<String, String>> formParameters) {
         JenkinsMessage jenkinsMessage = new JenkinsResponse.JenkinsMessage().prompt(prompt);
+        String server = serverTag(buildUrl);
+        long start = System.nanoTime();
+        String status = "error";
+        Span span = Tracing.start("jenkins.post", "server", server);
+        Metrics.gauge("jenkins.inflight", "server", server).increment();
         try {
             HttpURLConnection connection = setupConnection(buildUrl, token);
             connection.setRequestMethod("POST");
-            connection.setFixedLengthStreamingMode(0);
+            if (formParameters.isEmpty()) {
+                connection.setFixedLengthStreamingMode(0);
+            } else {
+                connection.setChunkedStreamingMode(CHUNK_SIZE);
+                connection.setRequestProperty("Content-Type",
+                        "application/x-www-form-urlencoded; charset=UTF-8");
+            }
 
             if (csrfHeader != null){
                 String[] header = csrfHeader.split(":");
                 connection.setRequestProperty(header[0], header[1]);
             }
             connection.connect();
+            if (!formParameters.isEmpty()) {
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        connection.getOutputStream(), StandardCharsets.UTF_8))) {
+                    writeFormParameters(writer, formParameters);
+                }
+            }
 
-            int status = connection.getResponseCode();
-            if (status == 201) {
+            int responseCode = connection.getResponseCode();
+            status = Integer.toString(responseCode);
+            jenkinsMessage.status(responseCode);
+            if (responseCode == 201) {
                 return jenkinsMessage.messageText("Build triggered").build();
             }
 
             String message;
             String responseMessage =  connection.getResponseMessage();
-            if (status == 403) {
+            if (responseCode == 403) {
                 message = "You do not have permissions to build this job";
-            } else if (status == 302 && responseMessage.equals("Found")) {
+            } else if (responseCode == 302 && responseMessage.equals("Found")) {
                 //multibranch pipelines cause redirects on the build but work just fine
                 //so if we get a redirect but it is successful, just report success
                 return jenkinsMessage.messageText("Build triggered").build();
-            } else if (status == 404) {
+            } else if (responseCode == 404) {
                 message = "Job was not found";
                 return jenkinsMessage.error(true).messageText(message).build();
-            } else if (status == 500) {
+            } else if (responseCode == 500) {
                 message = "Error triggering job, invalid build parameters";
             } else {
                 message = responseMessage;
@@ -224,6 +311,58 @@ public class JenkinsConnection {
             logger.error("Exception in Jenkins.httpPost: " + e.getMessage(), e);
             return jenkinsMessage.error(true).messageText("Something went wrong: " + e.getMessage())
                     .build();
+        } finally {
+            span.tag("status", status).close();
+            Metrics.gauge("jenkins.inflight", "server", server).decrement();
+            Metrics.timer("jenkins.post", "server", server).recordSince(start);
+            Metrics.counter("jenkins.status", "server", server, "status", status).increment();
+        }
+    }
+
+    /**
+     * Returns the host and port of a url to tag metrics with, leaving out any credentials
+     * and the path.
+     */
+    static String serverTag(String url) {
+        try {
+            URL parsed = new URL(url);
+            return parsed.getPort() == -1 ? parsed.getHost()
+                    : parsed.getHost() + ":" + parsed.getPort();
+        } catch (MalformedURLException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Writes the parameters as an application/x-www-form-urlencoded body. Values longer than
+     * {@link #MAX_PARAMETER_LENGTH} are cut off and end with {@link #TRUNCATED_SUFFIX}.
+     */
+    static void writeFormParameters(Writer writer, List<Entry<String, String>> formParameters)
+            throws IOException {
+        boolean first = true;
+        for (Entry<String, String> parameter : formParameters) {
+            if (!first) {
+                writer.write('&');
+            }
+            first = false;
+            writer.write(URLEncoder.encode(parameter.getKey(), "UTF-8"));
+            writer.write('=');
+            writer.write(URLEncoder.encode(truncate(parameter.getKey(), parameter.getValue()),
+                    "UTF-8"));
+        }
+    }
+
+    static String truncate(String key, String value) {
+        if (value.length() <= MAX_PARAMETER_LENGTH) {
+            return value;
+        }
+        int end = MAX_PARAMETER_LENGTH - TRUNCATED_SUFFIX.length();
+        if (Character.isHighSurrogate(value.charAt(end - 1))) {
+            // don't split a surrogate pair
+            end--;
         }
+        logger.warn("Truncated build parameter " + key + " from " + value.length() + " to "
+                + MAX_PARAMETER_LENGTH + " characters");
+        return value.substring(0, end) + TRUNCATED_SUFFIX;
     }
-}
\ No newline at end of file
+}
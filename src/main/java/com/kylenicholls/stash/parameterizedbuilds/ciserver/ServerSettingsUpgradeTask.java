@@ -0,0 +1,114 @@
+package com.kylenicholls.stash.parameterizedbuilds.ciserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.bitbucket.project.ProjectService;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.message.Message;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.upgrade.PluginUpgradeTask;
+import com.kylenicholls.stash.parameterizedbuilds.item.Server;
+
+/**
+ * Rewrites Jenkins server settings saved by older versions of the plugin into the current
+ * format, so reading servers never has to deal with them. SAL records the build number of
+ * the last task that ran, which acts as the version of the server settings schema.
+ *
+ * <p>Older versions saved the global server as a "url;user;token;altUrl" string, and later
+ * every scope as a single server map. Both become a one server list. The index of projects
+ * with a Jenkins server is rebuilt at the same time.
+ */
+public class ServerSettingsUpgradeTask implements PluginUpgradeTask {
+    private static final Logger logger = LoggerFactory.getLogger(ServerSettingsUpgradeTask.class);
+    static final int BUILD_NUMBER = 1;
+
+    private final PluginSettingsFactory pluginSettingsFactory;
+    private final ProjectService projectService;
+    private final Jenkins jenkins;
+
+    public ServerSettingsUpgradeTask(PluginSettingsFactory pluginSettingsFactory,
+            @ComponentImport ProjectService projectService, Jenkins jenkins) {
+        this.pluginSettingsFactory = pluginSettingsFactory;
+        this.projectService = projectService;
+        this.jenkins = jenkins;
+    }
+
+    @Override
+    public int getBuildNumber() {
+        return BUILD_NUMBER;
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "Converts Jenkins server settings to the multi server format";
+    }
+
+    @Override
+    public String getPluginKey() {
+        return Jenkins.PLUGIN_KEY;
+    }
+
+    @Override
+    public Collection<Message> doUpgrade() {
+        PluginSettings pluginSettings = pluginSettingsFactory.createSettingsForKey(
+                Jenkins.PLUGIN_KEY);
+        String globalKey = Jenkins.JENKINS_SETTINGS;
+        int migrated = migrate(pluginSettings, globalKey, pluginSettings.get(globalKey)) ? 1 : 0;
+        List<String> projectsWithServers = new ArrayList<>();
+        for (String projectKey : projectService.findAllKeys()) {
+            String settingsKey = Jenkins.JENKINS_SETTINGS_PROJECT + projectKey;
+            Object settingObj = pluginSettings.get(settingsKey);
+            if (settingObj != null) {
+                projectsWithServers.add(projectKey);
+                migrated += migrate(pluginSettings, settingsKey, settingObj) ? 1 : 0;
+            }
+        }
+        pluginSettings.put(Jenkins.JENKINS_PROJECTS, projectsWithServers);
+        jenkins.invalidateServers();
+
+        logger.info("Migrated {} Jenkins server settings, {} projects have a Jenkins server",
+                migrated, projectsWithServers.size());
+        return Collections.emptyList();
+    }
+
+    /**
+     * Rewrites the servers under a settings key if they are in a legacy format.
+     *
+     * @return true if the setting was rewritten
+     */
+    private boolean migrate(PluginSettings pluginSettings, String settingsKey,
+            @Nullable Object settingObj) {
+        if (settingObj == null || settingObj instanceof List) {
+            return false;
+        }
+        Server server = parseLegacy(settingObj);
+        pluginSettings.put(settingsKey, ServerStore.format(Collections.singletonList(server)));
+        return true;
+    }
+
+    /**
+     * Parses a server saved as a single map or as a "url;user;token;altUrl" string.
+     */
+    static Server parseLegacy(Object settingObj) {
+        if (settingObj instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> serverMap = (Map<String, Object>) settingObj;
+            return new Server(serverMap);
+        }
+        String[] serverProps = settingObj.toString().split(";");
+        boolean altUrl = serverProps.length > 3 && "true".equals(serverProps[3]) ? true : false;
+        boolean csrfEnabled = true;
+        return new Server(serverProps[0], null, serverProps[1], serverProps[2], altUrl,
+                csrfEnabled);
+    }
+}
@@ -0,0 +1,269 @@
+package com.kylenicholls.stash.parameterizedbuilds.ciserver;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.kylenicholls.stash.parameterizedbuilds.item.Server;
+
+/**
+ * In-memory, copy-on-write snapshot of the Jenkins server definitions kept in
+ * {@link PluginSettings}. Readers never lock: they look the scope up in the current snapshot
+ * and only fall back to the plugin settings the first time a scope is requested. Writes go
+ * through to the plugin settings and then publish a new snapshot.
+ *
+ * <p>Each scope is stored as a list of JSON encoded servers under its settings key.
+ *
+ * <p>Changes made on another cluster node are not visible here, so the snapshot is dropped
+ * once it is older than {@link #MAX_AGE_MILLIS}.
+ */
+class ServerStore {
+    static final long MAX_AGE_MILLIS = 60_000L;
+    private static final Logger logger = LoggerFactory.getLogger(ServerStore.class);
+    private static final Gson GSON = new Gson();
+    private static final Type SERVER_MAP_TYPE = new TypeToken<Map<String, Object>>() {}.getType();
+
+    private final PluginSettings pluginSettings;
+    private volatile Snapshot snapshot;
+
+    ServerStore(PluginSettings pluginSettings) {
+        this.pluginSettings = pluginSettings;
+        this.snapshot = new Snapshot(Collections.emptyMap(), 0, now(), null);
+    }
+
+    /**
+     * Returns the servers saved under a settings key.
+     *
+     * @return an immutable, possibly empty, list of servers
+     * @param settingsKey
+     *            the plugin settings key of the scope
+     */
+    List<Server> getServers(String settingsKey) {
+        return getScope(settingsKey).servers;
+    }
+
+    /**
+     * Returns the server with the given alias in constant time.
+     *
+     * @return the server or null if the scope has no server with that alias
+     * @param settingsKey
+     *            the plugin settings key of the scope
+     * @param alias
+     *            the server alias, servers saved before aliases existed have an
+     *            empty alias
+     */
+    @Nullable
+    Server getServer(String settingsKey, String alias) {
+        return getScope(settingsKey).byAlias.get(alias);
+    }
+
+    /**
+     * Adds a server to a scope, replacing the server with the same alias in
+     * place.
+     *
+     * @param settingsKey
+     *            the plugin settings key of the scope
+     * @param server
+     *            the server to save
+     * @param oldAlias
+     *            the alias the server was saved under before, if it is being
+     *            renamed, can be null
+     */
+    synchronized void save(String settingsKey, Server server, @Nullable String oldAlias) {
+        List<Server> servers = new ArrayList<>();
+        boolean replaced = false;
+        for (Server existing : read(settingsKey)) {
+            String alias = aliasOf(existing);
+            if (!alias.equals(aliasOf(server)) && !alias.equals(oldAlias)) {
+                servers.add(existing);
+            } else if (!replaced) {
+                // keep the server's position so the first server of the scope stays the same
+                servers.add(server);
+                replaced = true;
+            }
+        }
+        if (!replaced) {
+            servers.add(server);
+        }
+        write(settingsKey, servers);
+    }
+
+    /**
+     * Removes a server from a scope.
+     *
+     * @param settingsKey
+     *            the plugin settings key of the scope
+     * @param alias
+     *            the alias of the server to remove, or null to remove every
+     *            server in the scope
+     */
+    synchronized void remove(String settingsKey, @Nullable String alias) {
+        List<Server> servers = alias == null ? Collections.emptyList()
+                : read(settingsKey).stream()
+                        .filter(s -> !aliasOf(s).equals(alias))
+                        .collect(Collectors.toList());
+        write(settingsKey, servers);
+    }
+
+    /**
+     * Returns a value derived from the servers, computing it at most once per
+     * snapshot. Any save, removal or invalidation starts a new snapshot, so
+     * memoized values never outlive the servers they were computed from.
+     *
+     * @return the memoized value, can be null
+     * @param key
+     *            the memo key
+     * @param supplier
+     *            computes the value from this store, can return null
+     */
+    @Nullable
+    <T> T memoize(String key, Supplier<T> supplier) {
+        Map<String, Optional<Object>> memo = currentSnapshot().memo;
+        Optional<Object> value = memo.get(key);
+        if (value == null) {
+            value = Optional.ofNullable(supplier.get());
+            memo.putIfAbsent(key, value);
+        }
+        @SuppressWarnings("unchecked")
+        T result = (T) value.orElse(null);
+        return result;
+    }
+
+    /**
+     * Drops every cached scope so the next read goes back to the plugin settings.
+     */
+    synchronized void invalidate() {
+        snapshot = new Snapshot(Collections.emptyMap(), snapshot.generation + 1, now(), null);
+    }
+
+    private Scope getScope(String settingsKey) {
+        Snapshot current = currentSnapshot();
+        Scope scope = current.scopes.get(settingsKey);
+        if (scope == null) {
+            scope = new Scope(read(settingsKey));
+            publish(current.generation, settingsKey, scope);
+        }
+        return scope;
+    }
+
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (now() - current.createdAt > MAX_AGE_MILLIS) {
+            invalidate();
+            current = snapshot;
+        }
+        return current;
+    }
+
+    /**
+     * Adds a scope read from the plugin settings, unless a save or invalidation happened while
+     * it was being read, in which case the value may already be stale.
+     */
+    private synchronized void publish(long generation, String settingsKey, Scope scope) {
+        if (snapshot.generation != generation || snapshot.scopes.containsKey(settingsKey)) {
+            return;
+        }
+        Map<String, Scope> next = new HashMap<>(snapshot.scopes);
+        next.put(settingsKey, scope);
+        // loading a scope does not change any server, so memoized values stay valid
+        snapshot = new Snapshot(next, generation, snapshot.createdAt, snapshot.memo);
+    }
+
+    private void write(String settingsKey, List<Server> servers) {
+        if (servers.isEmpty()) {
+            pluginSettings.remove(settingsKey);
+        } else {
+            pluginSettings.put(settingsKey, format(servers));
+        }
+        Map<String, Scope> next = new HashMap<>(snapshot.scopes);
+        next.put(settingsKey, new Scope(servers));
+        snapshot = new Snapshot(next, snapshot.generation + 1, snapshot.createdAt, null);
+    }
+
+    private List<Server> read(String settingsKey) {
+        return parse(pluginSettings.get(settingsKey));
+    }
+
+    /**
+     * Parses the servers saved under a single plugin settings key. Settings
+     * saved by older versions are converted by {@link ServerSettingsUpgradeTask}
+     * when the plugin starts, so only the current format is read here.
+     *
+     * @param settingObj
+     *            the raw plugin settings value
+     */
+    static List<Server> parse(@Nullable Object settingObj) {
+        if (!(settingObj instanceof List)) {
+            if (settingObj != null) {
+                logger.warn("Ignoring Jenkins server settings in an unknown format");
+            }
+            return Collections.emptyList();
+        }
+        List<Server> servers = new ArrayList<>();
+        for (Object json : (List<?>) settingObj) {
+            Map<String, Object> serverMap = GSON.fromJson(json.toString(), SERVER_MAP_TYPE);
+            servers.add(new Server(serverMap));
+        }
+        return servers;
+    }
+
+    /**
+     * Converts servers to the value saved under a plugin settings key.
+     */
+    static List<String> format(List<Server> servers) {
+        return servers.stream()
+                .map(server -> GSON.toJson(server.asMap()))
+                .collect(Collectors.toList());
+    }
+
+    private static String aliasOf(Server server) {
+        return server.getAlias() == null ? "" : server.getAlias();
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static final class Scope {
+        private final List<Server> servers;
+        private final Map<String, Server> byAlias;
+
+        private Scope(List<Server> servers) {
+            this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+            Map<String, Server> index = new LinkedHashMap<>();
+            servers.forEach(server -> index.putIfAbsent(aliasOf(server), server));
+            this.byAlias = Collections.unmodifiableMap(index);
+        }
+    }
+
+    private static final class Snapshot {
+        private final Map<String, Scope> scopes;
+        private final long generation;
+        private final long createdAt;
+        private final Map<String, Optional<Object>> memo;
+
+        private Snapshot(Map<String, Scope> scopes, long generation, long createdAt,
+                @Nullable Map<String, Optional<Object>> memo) {
+            this.scopes = scopes;
+            this.generation = generation;
+            this.createdAt = createdAt;
+            this.memo = memo != null ? memo : new ConcurrentHashMap<>();
+        }
+    }
+}
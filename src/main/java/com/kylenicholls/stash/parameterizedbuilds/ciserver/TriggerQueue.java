@@ -0,0 +1,253 @@
+package com.kylenicholls.stash.parameterizedbuilds.ciserver;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.kylenicholls.stash.parameterizedbuilds.item.JenkinsResponse;
+
+/**
+ * Runs manual triggers off the request thread. Each submitted trigger gets an id that can be
+ * used to look up its result until it expires.
+ */
+public class TriggerQueue {
+    private static final Logger logger = LoggerFactory.getLogger(TriggerQueue.class);
+    static final long MAX_TRIGGERS = 1_000;
+    static final long EXPIRY_MINUTES = 15;
+    // triggers running at once against a single Jenkins server, shared by every batch
+    public static final int MAX_PER_SERVER = 4;
+
+    private final ExecutorService executorService;
+    private final Cache<String, TriggerStatus> triggers;
+    private final ConcurrentMap<String, Semaphore> serverPermits = new ConcurrentHashMap<>();
+
+    public TriggerQueue(@ComponentImport ExecutorService executorService) {
+        this.executorService = executorService;
+        this.triggers = CacheBuilder.newBuilder()
+                .maximumSize(MAX_TRIGGERS)
+                .expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * Queues a trigger to run in the background.
+     *
+     * @return the status of the queued trigger
+     * @param user
+     *            the user that requested the trigger, the only user that can see its status
+     * @param trigger
+     *            the call to Jenkins
+     */
+    public TriggerStatus submit(@Nullable ApplicationUser user,
+            Supplier<JenkinsResponse> trigger) {
+        TriggerStatus status = new TriggerStatus(UUID.randomUUID().toString(), userId(user));
+        triggers.put(status.getId(), status);
+        try {
+            executorService.execute(() -> status.complete(run(trigger)));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Trigger queue is full, rejecting trigger " + status.getId());
+            status.complete(new JenkinsResponse.JenkinsMessage().error(true)
+                    .messageText("Too many builds are being triggered, try again later").build());
+        }
+        return status;
+    }
+
+    /**
+     * Returns the status of a trigger.
+     *
+     * @return the status or null if the trigger does not exist, has expired or was queued
+     *         by another user
+     */
+    @Nullable
+    public TriggerStatus getStatus(String id, @Nullable ApplicationUser user) {
+        TriggerStatus status = triggers.getIfPresent(id);
+        if (status == null || status.getUserId() != userId(user)) {
+            return null;
+        }
+        return status;
+    }
+
+    /**
+     * Runs a batch of triggers concurrently, with at most {@link #MAX_PER_SERVER} triggers
+     * running against any one server. Blocks until every trigger has finished, handing each
+     * result to the callback on the calling thread as soon as it is available.
+     *
+     * @param servers
+     *            the base url of the server each trigger is sent to. The limits are grouped by
+     *            its host and port, the same server tag the Jenkins request metrics carry
+     * @param batch
+     *            the calls to Jenkins, in the same order as the servers
+     * @param onResult
+     *            receives each response with the index of its trigger
+     */
+    public void runAll(List<String> servers, List<Supplier<JenkinsResponse>> batch,
+            ObjIntConsumer<JenkinsResponse> onResult) throws InterruptedException {
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(executorService);
+        JenkinsResponse[] results = new JenkinsResponse[batch.size()];
+        Deque<Integer> waiting = new ArrayDeque<>();
+        for (int i = 0; i < batch.size(); i++) {
+            waiting.add(i);
+        }
+        int running = 0;
+        while (!waiting.isEmpty() || running > 0) {
+            Iterator<Integer> next = waiting.iterator();
+            while (next.hasNext()) {
+                int index = next.next();
+                Semaphore permits = permits(servers.get(index));
+                if (permits.tryAcquire()) {
+                    next.remove();
+                    running += start(completion, permits, batch.get(index), results, index,
+                            onResult);
+                }
+            }
+            if (running == 0 && !waiting.isEmpty()) {
+                // every server left is busy with other batches, wait for one of them
+                int index = waiting.removeFirst();
+                Semaphore permits = permits(servers.get(index));
+                permits.acquire();
+                running += start(completion, permits, batch.get(index), results, index,
+                        onResult);
+            }
+            if (running > 0) {
+                int index = finished(completion);
+                running--;
+                onResult.accept(results[index], index);
+            }
+        }
+    }
+
+    private int start(CompletionService<Integer> completion, Semaphore permits,
+            Supplier<JenkinsResponse> trigger, JenkinsResponse[] results, int index,
+            ObjIntConsumer<JenkinsResponse> onResult) {
+        try {
+            completion.submit(() -> {
+                try {
+                    results[index] = run(trigger);
+                } finally {
+                    permits.release();
+                }
+                return index;
+            });
+            return 1;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            logger.warn("Trigger queue is full, rejecting batch trigger " + index);
+            onResult.accept(new JenkinsResponse.JenkinsMessage().error(true)
+                    .messageText("Too many builds are being triggered, try again later").build(),
+                    index);
+            return 0;
+        }
+    }
+
+    private static int finished(CompletionService<Integer> completion)
+            throws InterruptedException {
+        try {
+            return completion.take().get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch trigger failed", e.getCause());
+        }
+    }
+
+    /**
+     * Returns how many of the {@link #MAX_PER_SERVER} permits of each server are held by
+     * running batch triggers, for servers that have had a batch since the plugin started.
+     * Servers are keyed by host and port, like the server tag of the Jenkins request metrics.
+     */
+    public Map<String, Integer> permitsInUse() {
+        Map<String, Integer> inUse = new TreeMap<>();
+        serverPermits.forEach((server, permits) ->
+                inUse.put(server, MAX_PER_SERVER - permits.availablePermits()));
+        return inUse;
+    }
+
+    private Semaphore permits(String server) {
+        return serverPermits.computeIfAbsent(JenkinsConnection.serverTag(server),
+                key -> new Semaphore(MAX_PER_SERVER));
+    }
+
+    private static JenkinsResponse run(Supplier<JenkinsResponse> trigger) {
+        try {
+            return trigger.get();
+        } catch (RuntimeException e) {
+            logger.error("Queued trigger failed", e);
+            return new JenkinsResponse.JenkinsMessage().error(true)
+                    .messageText("The build could not be triggered").build();
+        }
+    }
+
+    private static int userId(@Nullable ApplicationUser user) {
+        return user == null ? -1 : user.getId();
+    }
+
+    public static class TriggerStatus {
+        public enum State {
+            PENDING, COMPLETE
+        }
+
+        private final String id;
+        private final int userId;
+        private volatile JenkinsResponse response;
+
+        TriggerStatus(String id, int userId) {
+            this.id = id;
+            this.userId = userId;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        int getUserId() {
+            return userId;
+        }
+
+        public State getState() {
+            return response == null ? State.PENDING : State.COMPLETE;
+        }
+
+        @Nullable
+        public JenkinsResponse getResponse() {
+            return response;
+        }
+
+        void complete(JenkinsResponse response) {
+            this.response = response;
+        }
+
+        public Map<String, Object> asMap() {
+            Map<String, Object> data = new LinkedHashMap<>();
+            JenkinsResponse current = response;
+            data.put("id", id);
+            data.put("status", current == null ? State.PENDING.name() : State.COMPLETE.name());
+            if (current != null) {
+                data.put("message", current.getMessage());
+            }
+            return data;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.kylenicholls.stash.parameterizedbuilds.conditions;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,6 +17,9 @@ public abstract class BaseCondition implements Condition {
     protected static final String REPOSITORY = "repository";
     private static final String REQUEST = "request";
     private static final Pattern REPOREGEX = Pattern.compile(".*?/projects/(.*?)/repos/(.*?)/.*");
+    // request attribute holding the values shared by every condition rendered for a page
+    static final String MEMO = BaseCondition.class.getName() + ".memo";
+    private static final Object NONE = new Object();
 
     protected SettingsService settingsService;
     private RepositoryService repositoryService;
@@ -47,8 +52,35 @@ public abstract class BaseCondition implements Condition {
             if (!(request instanceof HttpServletRequest)) {
                 return null;
             }
-            return getRepository((HttpServletRequest) request);
+            return memoize(context, REPOSITORY,
+                    () -> getRepository((HttpServletRequest) request));
         }
         return (Repository) obj;
     }
+
+    /**
+     * Computes a value at most once per page request. A page renders several web items
+     * that share these conditions, so the value is kept as an attribute of the request. If
+     * there is no request in the context the value is computed every time.
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> T memoize(Map<String, Object> context, String key, Supplier<T> compute) {
+        Object request = context.get(REQUEST);
+        if (!(request instanceof HttpServletRequest)) {
+            return compute.get();
+        }
+        HttpServletRequest servletRequest = (HttpServletRequest) request;
+        Map<String, Object> memo = (Map<String, Object>) servletRequest.getAttribute(MEMO);
+        if (memo == null) {
+            memo = new HashMap<>();
+            servletRequest.setAttribute(MEMO, memo);
+        }
+        Object value = memo.get(key);
+        if (value == null) {
+            T computed = compute.get();
+            memo.put(key, computed == null ? NONE : computed);
+            return computed;
+        }
+        return value == NONE ? null : (T) value;
+    }
 }
@@ -5,19 +5,43 @@ import com.atlassian.bitbucket.permission.Permission;
 import com.atlassian.bitbucket.permission.PermissionService;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.repository.RepositoryService;
-import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 public class BuildPermissionsCondition extends BaseCondition{
 
+    private static final long GRANTS_CACHE_SIZE = 10_000;
+    // short enough that a revoked permission is noticed almost straight away
+    private static final long GRANTS_CACHE_SECONDS = 30;
+    // most restrictive first
+    private static final List<Permission> REPOSITORY_PERMISSIONS = Collections.unmodifiableList(
+            Arrays.asList(Permission.REPO_ADMIN, Permission.REPO_WRITE, Permission.REPO_READ));
+
     private final PermissionService permissionService;
     private final AuthenticationContext authContext;
+    // permission checks keyed by user, repository and permission
+    private final Cache<String, Boolean> grants = CacheBuilder.newBuilder()
+            .maximumSize(GRANTS_CACHE_SIZE)
+            .expireAfterWrite(GRANTS_CACHE_SECONDS, TimeUnit.SECONDS)
+            .build();
 
     @Autowired
     public BuildPermissionsCondition(@ComponentImport RepositoryService repositoryService,
@@ -30,7 +54,85 @@ public class BuildPermissionsCondition extends BaseCondition{
 
     public boolean checkPermissions(Job job, Repository repository, ApplicationUser user){
         Permission permissionRequired = Permission.valueOf(job.getPermissions());
-        return this.permissionService.hasRepositoryPermission(user, repository, permissionRequired);
+        return hasPermission(user, repository, permissionRequired);
+    }
+
+    /**
+     * Returns the jobs the user is allowed to build. Jobs only use a handful of distinct
+     * permissions, so each one is checked at most once, starting from the most restrictive:
+     * once a permission is granted every permission below it is granted too.
+     *
+     * @param jobs
+     *            the jobs to filter
+     * @param repository
+     *            the repository the jobs belong to
+     * @param user
+     *            the user, null for anonymous users
+     */
+    public List<Job> filterPermitted(List<Job> jobs, Repository repository,
+            @Nullable ApplicationUser user) {
+        List<Permission> required = jobs.stream()
+                .map(job -> parsePermission(job.getPermissions()))
+                .filter(permission -> permission != null)
+                .distinct()
+                .sorted(Comparator.comparingInt(Permission::getWeight).reversed())
+                .collect(Collectors.toList());
+        Set<Permission> granted = EnumSet.noneOf(Permission.class);
+        for (int i = 0; i < required.size(); i++) {
+            if (hasPermission(user, repository, required.get(i))) {
+                granted.addAll(required.subList(i, required.size()));
+                break;
+            }
+        }
+        List<Job> permitted = new ArrayList<>();
+        for (Job job : jobs) {
+            if (granted.contains(parsePermission(job.getPermissions()))) {
+                permitted.add(job);
+            }
+        }
+        return permitted;
+    }
+
+    /**
+     * Returns the highest repository permission the user has. Jobs only require repository
+     * permissions, so two users with the same level can build the same jobs.
+     *
+     * @return the permission or null if the user cannot read the repository
+     * @param repository
+     *            the repository
+     * @param user
+     *            the user, null for anonymous users
+     */
+    @Nullable
+    public Permission getPermissionLevel(Repository repository, @Nullable ApplicationUser user) {
+        for (Permission permission : REPOSITORY_PERMISSIONS) {
+            if (hasPermission(user, repository, permission)) {
+                return permission;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasPermission(@Nullable ApplicationUser user, Repository repository,
+            Permission permission) {
+        String key = (user == null ? "" : user.getId()) + ":" + repository.getId() + ":"
+                + permission;
+        Boolean granted = grants.getIfPresent(key);
+        Metrics.cacheLookup("permissions", granted != null);
+        if (granted == null) {
+            granted = permissionService.hasRepositoryPermission(user, repository, permission);
+            grants.put(key, granted);
+        }
+        return granted;
+    }
+
+    @Nullable
+    private static Permission parsePermission(@Nullable String permission) {
+        try {
+            return permission == null ? null : Permission.valueOf(permission);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     @Override
@@ -39,15 +141,15 @@ public class BuildPermissionsCondition extends BaseCondition{
         if (repository == null) {
             return false;
         }
-        Settings settings = settingsService.getSettings(repository);
-        ApplicationUser user = authContext.getCurrentUser();
-
-        for (Job job : settingsService.getJobs(settings.asMap())) {
-            if (checkPermissions(job, repository, user)) {
-                return true;
-            }
+        // a user that can build the least restricted job can see the build button
+        Permission minimumPermission = settingsService.getJobFlags(repository)
+                .getMinimumPermission();
+        if (minimumPermission == null) {
+            return false;
         }
-        return false;
+        return memoize(context, "permitted:" + repository.getId(),
+                () -> hasPermission(authContext.getCurrentUser(), repository,
+                        minimumPermission));
     }
 }
 
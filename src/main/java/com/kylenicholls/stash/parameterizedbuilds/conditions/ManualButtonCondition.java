@@ -4,11 +4,8 @@ import java.util.Map;
 
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.repository.RepositoryService;
-import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
-import com.kylenicholls.stash.parameterizedbuilds.item.Job;
-import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
 
 public class ManualButtonCondition extends BaseCondition {
 
@@ -28,13 +25,6 @@ public class ManualButtonCondition extends BaseCondition {
         if (repository == null) {
             return false;
         }
-        Settings settings = settingsService.getSettings(repository);
-
-        for (Job job : settingsService.getJobs(settings.asMap())) {
-            if (job.getTriggers().contains(Trigger.MANUAL)) {
-                return true;
-            }
-        }
-        return false;
+        return settingsService.getJobFlags(repository).hasManualJob();
     }
 }
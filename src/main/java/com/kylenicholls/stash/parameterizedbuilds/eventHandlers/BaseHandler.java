@@ -1,13 +1,29 @@
 package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
 
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.JenkinsConnection;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.helper.VariableProviders;
 import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.JournalRecord;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Span;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerJournal;
 
 public abstract class BaseHandler {
 
@@ -19,6 +35,9 @@ public abstract class BaseHandler {
     Repository repository;
     String projectKey;
     ApplicationUser user;
+    Trigger trigger;
+
+    private VariableProviders variableProviders;
 
     public BaseHandler(SettingsService settingsService, Jenkins jenkins){
         this.settingsService = settingsService;
@@ -26,38 +45,108 @@ public abstract class BaseHandler {
         this.jenkinsConn = new JenkinsConnection(jenkins);
     }
 
+    /**
+     * Sets the providers of the variables that are not part of the event. Without them
+     * only the variables of the event are available to jobs.
+     */
+    public void setVariableProviders(VariableProviders variableProviders) {
+        this.variableProviders = variableProviders;
+    }
+
     public void run(){
-        BitbucketVariables bitbucketVariables = createBitbucketVariables();
-        Settings settings = settingsService.getSettings(repository);
-        if (settings == null) {
-            return;
-        }
+        long start = System.nanoTime();
+        Metrics.counter("events.received", "trigger", trigger).increment();
+        try (Span span = Tracing.start("handler.run", "trigger", trigger, "project",
+                projectKey)) {
+            Settings settings;
+            try (Span load = Tracing.start("settings.load")) {
+                settings = Metrics.timer("settings.load")
+                        .time(() -> settingsService.getSettings(repository));
+            }
+            if (settings == null) {
+                return;
+            }
 
-        for (final Job job : settingsService.getJobs(settings.asMap())) {
-            if (validateJob(job, bitbucketVariables)) {
-                triggerJenkins(job, bitbucketVariables);
+            List<Job> jobs = settingsService.getJobs(settings.asMap());
+            BitbucketVariables bitbucketVariables;
+            try (Span variables = Tracing.start("variables.resolve")) {
+                bitbucketVariables = createBitbucketVariables(jobs);
+            }
+            journalEvent(bitbucketVariables);
+            for (final Job job : jobs) {
+                Filter failed = validateJob(job, bitbucketVariables);
+                if (failed == Filter.TRIGGER) {
+                    // jobs for other events are not worth a history entry
+                    continue;
+                }
+                Metrics.counter("jobs.matched", "trigger", trigger).increment();
+                if (failed == null) {
+                    triggerJenkins(job, bitbucketVariables);
+                } else {
+                    recordSkipped(job, bitbucketVariables, failed);
+                }
             }
+        } finally {
+            Metrics.timer("handler.run", "trigger", trigger).recordSince(start);
         }
     }
 
-    void triggerJenkins(Job job, BitbucketVariables bitbucketVariables){
-        jenkinsConn.triggerJob(projectKey, user, job, bitbucketVariables);
+    private void journalEvent(BitbucketVariables bitbucketVariables) {
+        TriggerJournal journal = TriggerHistory.global().getJournal();
+        if (journal != null) {
+            journal.append(JournalRecord.event(System.currentTimeMillis(), projectKey,
+                    repository.getSlug(), bitbucketVariables.fetch(Variable.BRANCH),
+                    bitbucketVariables.fetch(Variable.PRID),
+                    bitbucketVariables.fetch(Variable.PRDESTINATION), trigger, isTagEvent()));
+        }
     }
 
-    abstract BitbucketVariables createBitbucketVariables();
+    /**
+     * @return true if the event is for a tag rather than a branch
+     */
+    boolean isTagEvent() {
+        return false;
+    }
 
-    abstract boolean validateJob(Job job, BitbucketVariables bitbucketVariables);
+    private void recordSkipped(Job job, BitbucketVariables bitbucketVariables, Filter failed) {
+        TriggerHistory.global().record(projectKey, repository.getSlug(),
+                bitbucketVariables.fetch(Variable.BRANCH),
+                bitbucketVariables.fetch(Variable.PRID), trigger, job.getJobName(),
+                Outcome.SKIPPED, failed.getReason(), 0, 0);
+    }
 
-    boolean validateTrigger(Job job, Job.Trigger trigger){
-        return job.getTriggers().contains(trigger);
+    void triggerJenkins(Job job, BitbucketVariables bitbucketVariables){
+        jenkinsConn.triggerJob(projectKey, user, job, bitbucketVariables);
     }
 
-    boolean validateTag(Job job, boolean isTag){
-        return job.getIsTag() == isTag;
+    BitbucketVariables createBitbucketVariables(List<Job> jobs) {
+        BitbucketVariables.Builder builder = createVariablesBuilder();
+        if (variableProviders != null) {
+            builder.addProviders(variableProviders.getProviders(), referencedVariables(jobs));
+        }
+        return builder.build();
     }
 
-    boolean validateBranch(Job job, String branch){
-        String branchRegex = job.getBranchRegex();
-        return branchRegex.isEmpty() || branch.toLowerCase().matches(branchRegex.toLowerCase());
+    /**
+     * @return the variables used by the jobs that have the trigger of this event
+     */
+    Set<Variable> referencedVariables(List<Job> jobs) {
+        Set<Variable> referenced = EnumSet.noneOf(Variable.class);
+        for (Job job : jobs) {
+            if (JobMatcher.hasTrigger(job, trigger)) {
+                referenced.addAll(job.getReferencedVariables());
+            }
+        }
+        return referenced;
     }
+
+    abstract BitbucketVariables.Builder createVariablesBuilder();
+
+    /**
+     * Checks the job's filters against the event, starting with its triggers.
+     *
+     * @return the first filter the event did not pass, or null if the job should be triggered
+     */
+    @Nullable
+    abstract Filter validateJob(Job job, BitbucketVariables bitbucketVariables);
 }
@@ -0,0 +1,26 @@
+package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
+
+/**
+ * The filters of a job an event has to pass before the job is triggered. Handlers check them
+ * in order and report the first one that did not match, so a skipped job says why it was
+ * skipped.
+ */
+public enum Filter {
+    TRIGGER("The job does not have the trigger of the event"),
+    TAG("The job is not for this kind of ref, branch or tag"),
+    BRANCH("The branch did not match the job's branch filter"),
+    PR_DESTINATION("The pull request destination did not match the job's destination filter"),
+    IGNORED_MESSAGE("The commit message matched the job's ignored commit messages"),
+    IGNORED_COMMITTER("The commit author is one of the job's ignored committers"),
+    PATH("None of the changed files matched the job's path filter");
+
+    private final String reason;
+
+    Filter(String reason) {
+        this.reason = reason;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
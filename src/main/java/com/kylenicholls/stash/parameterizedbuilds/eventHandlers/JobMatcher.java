@@ -0,0 +1,63 @@
+package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
+
+import javax.annotation.Nullable;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+
+/**
+ * Checks a job's filters that only need the event itself, not its commits or changes. The
+ * handlers use it for live events and {@link ReplayHandler} for events read back from the
+ * trigger journal, so both report the same filter for the same event.
+ */
+final class JobMatcher {
+
+    private JobMatcher() {
+    }
+
+    /**
+     * @return the first filter a branch or tag event did not pass, or null if it passed them all
+     */
+    @Nullable
+    static Filter matchRef(Job job, Trigger trigger, boolean isTag, String branch) {
+        if (!hasTrigger(job, trigger)) {
+            return Filter.TRIGGER;
+        } else if (job.getIsTag() != isTag) {
+            return Filter.TAG;
+        } else if (!matchesBranch(job, branch)) {
+            return Filter.BRANCH;
+        }
+        return null;
+    }
+
+    /**
+     * @return the first filter a pull request event did not pass, or null if it passed them all
+     */
+    @Nullable
+    static Filter matchPullRequest(Job job, Trigger trigger, String prDest) {
+        if (!hasTrigger(job, trigger)) {
+            return Filter.TRIGGER;
+        } else if (!matchesPrDest(job, prDest)) {
+            return Filter.PR_DESTINATION;
+        }
+        return null;
+    }
+
+    static boolean hasTrigger(Job job, Trigger trigger) {
+        return job.getTriggers().contains(trigger);
+    }
+
+    static boolean hasPathFilter(Job job) {
+        return job.getPathRegex() != null && !job.getPathRegex().isEmpty();
+    }
+
+    private static boolean matchesBranch(Job job, String branch) {
+        String branchRegex = job.getBranchRegex();
+        return branchRegex.isEmpty() || branch.toLowerCase().matches(branchRegex.toLowerCase());
+    }
+
+    private static boolean matchesPrDest(Job job, String prDest) {
+        String prDestRegex = job.getPrDestRegex();
+        return prDestRegex.isEmpty() || prDest.toLowerCase().matches(prDestRegex.toLowerCase());
+    }
+}
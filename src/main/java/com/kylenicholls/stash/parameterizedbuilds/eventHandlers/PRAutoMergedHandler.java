@@ -17,9 +17,9 @@ public class PRAutoMergedHandler extends PRHandler {
         this.branch = branch;
     }
 
-    BitbucketVariables createBitbucketVariables(){
+    @Override
+    BitbucketVariables.Builder createVariablesBuilder(){
         return new BitbucketVariables.Builder()
-                .populateFromBranch(branch, repository, projectKey, trigger, url)
-                .build();
+                .populateFromBranch(branch, repository, projectKey, trigger, url);
     }
 }
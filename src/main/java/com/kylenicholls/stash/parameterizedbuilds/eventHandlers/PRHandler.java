@@ -14,15 +14,18 @@ import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Span;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PRHandler extends BaseHandler{
 
     private PullRequestService pullRequestService;
     PullRequest pullRequest;
     String url;
-    final Trigger trigger;
 
     public PRHandler(SettingsService settingsService, PullRequestService pullRequestService,
                      Jenkins jenkins, PullRequestEvent event, String url, Trigger trigger) {
@@ -54,43 +57,42 @@ public class PRHandler extends BaseHandler{
     }
 
     @Override
-    BitbucketVariables createBitbucketVariables(){
+    BitbucketVariables.Builder createVariablesBuilder(){
         return new BitbucketVariables.Builder()
-                .populateFromPR(pullRequest, repository, projectKey, trigger, url)
-                .build();
+                .populateFromPR(pullRequest, repository, projectKey, trigger, url);
     }
 
     @Override
-    boolean validateJob(Job job, BitbucketVariables bitbucketVariables){
+    Filter validateJob(Job job, BitbucketVariables bitbucketVariables){
         String prDest = pullRequest != null ? pullRequest.getToRef().getDisplayId() : "";
-        return validatePrDest(job, prDest) && validateTrigger(job, trigger) && 
-               validatePath(job, bitbucketVariables);
-    }
-
-    boolean validatePrDest(Job job,String prDest){
-        String prDestRegex = job.getPrDestRegex();
-        return prDestRegex.isEmpty() || prDest.toLowerCase().matches(prDestRegex.toLowerCase());
+        Filter failed = JobMatcher.matchPullRequest(job, trigger, prDest);
+        if (failed == null && !validatePath(job)) {
+            failed = Filter.PATH;
+        }
+        return failed;
     }
 
-    boolean validatePath(Job job, BitbucketVariables bitbucketVariables) {
+    /**
+     * @return true if the job has no path filter or a changed file of the pull request
+     *         matches it
+     */
+    boolean validatePath(Job job) {
         String pathRegex = job.getPathRegex();
-        if (pathRegex.isEmpty()) {
+        if (pathRegex.isEmpty() || pullRequest == null) {
             return true;
-        } else if (pullRequest != null) {
+        }
+        AtomicBoolean matched = new AtomicBoolean();
+        long start = System.nanoTime();
+        Span span = Tracing.start("changes.stream", "job", job.getJobName());
+        try {
             pullRequestService.streamChanges(new PullRequestChangesRequest.Builder(pullRequest)
                     .build(), new AbstractChangeCallback() {
 
                 @Override
                 public boolean onChange(Change change) throws IOException {
-                    return triggerJob(change);
-                }
-
-                private boolean triggerJob(Change change) {
-                    if (change.getPath().toString().matches(pathRegex)) {
-                        jenkinsConn.triggerJob(projectKey, user, job, bitbucketVariables);
-                        return false;
-                    }
-                    return true;
+                    matched.set(change.getPath().toString().matches(pathRegex));
+                    // one matching file is enough
+                    return !matched.get();
                 }
 
                 @Override
@@ -103,8 +105,10 @@ public class PRHandler extends BaseHandler{
                     // noop
                 }
             });
-            return false;
+        } finally {
+            span.close();
         }
-        return true;
+        Metrics.timer("changes.stream", "trigger", trigger).recordSince(start);
+        return matched.get();
     }
 }
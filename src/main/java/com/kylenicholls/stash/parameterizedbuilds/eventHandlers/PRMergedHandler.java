@@ -6,6 +6,7 @@ import com.atlassian.bitbucket.pull.PullRequestService;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 
 import java.util.Optional;
@@ -23,10 +24,8 @@ public class PRMergedHandler extends PRHandler{
     }
 
     @Override
-    BitbucketVariables createBitbucketVariables(){
-        return new BitbucketVariables.Builder()
-                .populateFromPR(pullRequest, repository, projectKey, trigger, url)
-                .add("$MERGECOMMIT", () -> mergeCommit)
-                .build();
+    BitbucketVariables.Builder createVariablesBuilder(){
+        return super.createVariablesBuilder()
+                .add(Variable.MERGECOMMIT, () -> mergeCommit);
     }
 }
@@ -1,7 +1,8 @@
 package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
 
-import com.atlassian.bitbucket.commit.CommitRequest;
+import com.atlassian.bitbucket.commit.Commit;
 import com.atlassian.bitbucket.commit.CommitService;
+import com.atlassian.bitbucket.commit.CommitsBetweenRequest;
 import com.atlassian.bitbucket.content.AbstractChangeCallback;
 import com.atlassian.bitbucket.content.Change;
 import com.atlassian.bitbucket.content.ChangeContext;
@@ -10,49 +11,81 @@ import com.atlassian.bitbucket.content.ChangesRequest;
 import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.util.Page;
+import com.atlassian.bitbucket.util.PageRequestImpl;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
+import com.kylenicholls.stash.parameterizedbuilds.helper.CommitCache;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariable;
 import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Span;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
 
 public class PushHandler extends RefHandler {
+    // pushes with more new commits than this are assumed to have one that is not ignored
+    static final int MAX_CHECKED_COMMITS = 1000;
+    // the first page of new commits, later pages double in size up to the limit above
+    static final int FIRST_COMMIT_PAGE = 25;
+
+    // the pushed commit is fetched at most once and shared by every job and validator
+    private final BitbucketVariable<Commit> toCommit;
+    // the new commits read so far, newest first, shared by every job that checks them all.
+    // More are only read when a job has not found a commit that triggers it yet.
+    private final List<Commit> pushedCommits = new ArrayList<>();
+    private boolean allCommitsRead;
 
     public PushHandler(SettingsService settingsService, Jenkins jenkins,
-                       CommitService commitService, Repository repository, RefChange refChange,
-                       String url, ApplicationUser user) {
+                       CommitService commitService, CommitCache commitCache,
+                       Repository repository, RefChange refChange, String url,
+                       ApplicationUser user) {
         super(settingsService, jenkins, commitService, repository, refChange, url, user,
               Trigger.PUSH);
+        this.toCommit = new BitbucketVariable<>(() ->
+                commitCache.getCommit(repository, refChange.getToHash()));
     }
 
     @Override
-    boolean validateJob(Job job, BitbucketVariables bitbucketVariables) {
-        return super.validateJob(job, bitbucketVariables) && validatePath(job, bitbucketVariables)
-                && validateCommitMsg(job) && validateComitter(job);
+    Filter validateJob(Job job, BitbucketVariables bitbucketVariables) {
+        Filter failed = super.validateJob(job, bitbucketVariables);
+        if (failed == null) {
+            failed = validateIgnoredCommits(job);
+        }
+        if (failed == null && !validatePath(job)) {
+            failed = Filter.PATH;
+        }
+        return failed;
     }
 
-    boolean validatePath(Job job, BitbucketVariables bitbucketVariables) {
+    /**
+     * @return true if the job has no path filter or a file changed by the push matches it
+     */
+    boolean validatePath(Job job) {
         String pathRegex = job.getPathRegex();
         if (pathRegex.isEmpty()) {
             return true;
-        } else {
-            ChangesRequest request = new ChangesRequest.Builder(repository,
-                    refChange.getToHash()).sinceId(refChange.getFromHash()).build();
+        }
+        ChangesRequest request = new ChangesRequest.Builder(repository,
+                refChange.getToHash()).sinceId(refChange.getFromHash()).build();
+        AtomicBoolean matched = new AtomicBoolean();
+        long start = System.nanoTime();
+        Span span = Tracing.start("changes.stream", "job", job.getJobName());
+        try {
             commitService.streamChanges(request, new AbstractChangeCallback() {
 
                 @Override
                 public boolean onChange(Change change) throws IOException {
-                    return triggerJob(change);
-                }
-
-                private boolean triggerJob(Change change) {
-                    if (change.getPath().toString().matches(pathRegex)) {
-                        jenkinsConn.triggerJob(projectKey, user, job, bitbucketVariables);
-                        return false;
-                    }
-                    return true;
+                    matched.set(change.getPath().toString().matches(pathRegex));
+                    // one matching file is enough
+                    return !matched.get();
                 }
 
                 @Override
@@ -65,38 +98,107 @@ public class PushHandler extends RefHandler {
                     // noop
                 }
             });
-            return false;
+        } finally {
+            span.close();
         }
+        Metrics.timer("changes.stream", "trigger", trigger).recordSince(start);
+        return matched.get();
     }
 
-    boolean validateCommitMsg(Job job) {
-        String ignoreCommitMsg = job.getIgnoreCommitMsg();
-        if(ignoreCommitMsg.isEmpty()){
-            return true;
+    /**
+     * @return the ignore rule that matched, or null if the push should trigger the job
+     */
+    @Nullable
+    Filter validateIgnoredCommits(Job job) {
+        if (job.getIgnoreCommitMsg().isEmpty() && job.getIgnoreComitters().isEmpty()) {
+            return null;
         }
-        else{
-            CommitRequest commitRequest = new CommitRequest.Builder(
-                    repository, refChange.getToHash()).build();
-            String actualCommitMsg = commitService.getCommit(commitRequest).getMessage();
-            boolean hasIgnoreMsg = actualCommitMsg != null &&
-                    actualCommitMsg.matches(ignoreCommitMsg);
-            return !hasIgnoreMsg;
+        if (!job.getCheckAllCommits()) {
+            return validateCommit(job, toCommit.getOrCompute());
         }
+        return hasUnignoredCommit(job);
     }
 
-    boolean validateComitter(Job job){
-        String ignoreComitters = job.getIgnoreComitters();
-        if(ignoreComitters.isEmpty()){
-            return true;
+    /**
+     * Checks the new commits of the push against the job's ignore rules, newest first, and
+     * stops at the first commit that is not ignored. A push without new commits, e.g. a force
+     * push back to an ancestor, is checked against the commit the branch now points to, as if
+     * the job did not check all commits.
+     *
+     * @return null if at least one pushed commit should trigger the job, otherwise the rule
+     *         that ignored the newest commit
+     */
+    @Nullable
+    Filter hasUnignoredCommit(Job job) {
+        Commit newest = pushedCommit(0);
+        if (newest == null) {
+            return validateCommit(job, toCommit.getOrCompute());
         }
-        else{
-            String[] ignoreComitterList = job.getIgnoreComitters().toLowerCase().split("\\r?\\n");
-            CommitRequest commitRequest = new CommitRequest.Builder(
-                    repository, refChange.getToHash()).build();
-            String author = commitService.getCommit(commitRequest).getAuthor().getName();
-            boolean authorIgnored = Arrays.stream(ignoreComitterList).anyMatch(t ->
-                    t.equals(author.toLowerCase()));
-            return !authorIgnored;
+        for (int i = 0; i < MAX_CHECKED_COMMITS; i++) {
+            Commit commit = pushedCommit(i);
+            if (commit == null) {
+                return validateCommit(job, newest);
+            } else if (validateCommit(job, commit) == null) {
+                return null;
+            }
         }
+        return pushedCommit(MAX_CHECKED_COMMITS) == null ? validateCommit(job, newest) : null;
+    }
+
+    /**
+     * @return the new commit of the push at the index, newest first, or null if the push has
+     *         no more new commits than that
+     */
+    @Nullable
+    private Commit pushedCommit(int index) {
+        while (index >= pushedCommits.size() && !allCommitsRead) {
+            readPushedCommits();
+        }
+        return index < pushedCommits.size() ? pushedCommits.get(index) : null;
+    }
+
+    /**
+     * Reads the next page of new commits, at most one more than {@link #MAX_CHECKED_COMMITS}
+     * in total.
+     */
+    private void readPushedCommits() {
+        CommitsBetweenRequest request = new CommitsBetweenRequest.Builder(repository)
+                .include(refChange.getToHash())
+                .exclude(refChange.getFromHash())
+                .build();
+        int read = pushedCommits.size();
+        int limit = Math.min(Math.max(FIRST_COMMIT_PAGE, read), MAX_CHECKED_COMMITS + 1 - read);
+        Page<Commit> page = commitService.getCommitsBetween(request,
+                new PageRequestImpl(read, limit));
+        page.getValues().forEach(pushedCommits::add);
+        allCommitsRead = page.getIsLastPage() || pushedCommits.size() == read
+                || pushedCommits.size() > MAX_CHECKED_COMMITS;
+    }
+
+    /**
+     * @return the ignore rule that matched the commit, or null if it is not ignored or could
+     *         not be found
+     */
+    @Nullable
+    private static Filter validateCommit(Job job, @Nullable Commit commit) {
+        if (commit == null) {
+            return null;
+        } else if (hasIgnoredMessage(job, commit)) {
+            return Filter.IGNORED_MESSAGE;
+        } else if (hasIgnoredComitter(job, commit)) {
+            return Filter.IGNORED_COMMITTER;
+        }
+        return null;
+    }
+
+    private static boolean hasIgnoredMessage(Job job, Commit commit) {
+        String ignoreCommitMsg = job.getIgnoreCommitMsg();
+        String actualCommitMsg = commit.getMessage();
+        return !ignoreCommitMsg.isEmpty() && actualCommitMsg != null &&
+                actualCommitMsg.matches(ignoreCommitMsg);
+    }
+
+    private static boolean hasIgnoredComitter(Job job, Commit commit) {
+        return commit.getAuthor() != null && job.isIgnoredComitter(commit.getAuthor().getName());
     }
 }
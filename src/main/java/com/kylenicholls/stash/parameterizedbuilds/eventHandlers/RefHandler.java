@@ -20,7 +20,6 @@ public class RefHandler extends BaseHandler{
     RefChange refChange;
     String branch;
     boolean isTag;
-    Trigger trigger;
     String url;
 
     public RefHandler(SettingsService settingsService, Jenkins jenkins, CommitService commitService,
@@ -45,15 +44,18 @@ public class RefHandler extends BaseHandler{
     }
 
     @Override
-    BitbucketVariables createBitbucketVariables(){
+    BitbucketVariables.Builder createVariablesBuilder(){
         return new BitbucketVariables.Builder()
-                .populateFromRef(branch, refChange, repository, projectKey, trigger, url)
-                .build();
+                .populateFromRef(branch, refChange, repository, projectKey, trigger, url);
     }
 
     @Override
-    boolean validateJob(Job job, BitbucketVariables bitbucketVariables){
-        return validateTag(job, isTag) && validateBranch(job, branch) && 
-                validateTrigger(job, trigger);
+    boolean isTagEvent() {
+        return isTag;
+    }
+
+    @Override
+    Filter validateJob(Job job, BitbucketVariables bitbucketVariables){
+        return JobMatcher.matchRef(job, trigger, isTag, branch);
     }
 }
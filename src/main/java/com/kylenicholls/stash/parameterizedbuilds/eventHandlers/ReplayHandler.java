@@ -0,0 +1,94 @@
+package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.setting.Settings;
+import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.JournalRecord;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+
+/**
+ * Matches an event read back from the trigger journal against the repository's current jobs
+ * without calling Jenkins. Path filters and ignored commits need the changes of the original
+ * event, so jobs that use them are reported as not evaluated instead of guessed.
+ */
+public class ReplayHandler {
+    static final String NOT_EVALUATED = "NOT_EVALUATED";
+    static final String NOT_EVALUATED_REASON = "Path and commit filters are not replayed";
+
+    private final SettingsService settingsService;
+    private final Repository repository;
+    private final Trigger trigger;
+    private final JournalRecord event;
+
+    public ReplayHandler(SettingsService settingsService, Repository repository,
+                         JournalRecord event) {
+        this.settingsService = settingsService;
+        this.repository = repository;
+        this.trigger = event.getTrigger() == null ? Trigger.NULL : event.getTrigger();
+        this.event = event;
+    }
+
+    /**
+     * @return the outcome the event would have now for every job with its trigger, empty if
+     *         the repository has no build settings
+     */
+    public List<Map<String, Object>> replay() {
+        List<Map<String, Object>> outcomes = new ArrayList<>();
+        Settings settings = settingsService.getSettings(repository);
+        if (settings == null) {
+            return outcomes;
+        }
+        for (Job job : settingsService.getJobs(settings.asMap())) {
+            if (!JobMatcher.hasTrigger(job, trigger)) {
+                continue;
+            }
+            Map<String, Object> outcome = new LinkedHashMap<>();
+            outcome.put("job", job.getJobName());
+            if (usesChangeFilters(job)) {
+                outcome.put("outcome", NOT_EVALUATED);
+                outcome.put("reason", NOT_EVALUATED_REASON);
+            } else {
+                Filter failed = match(job);
+                if (failed == null) {
+                    outcome.put("outcome", Outcome.TRIGGERED.name());
+                } else {
+                    outcome.put("outcome", Outcome.SKIPPED.name());
+                    outcome.put("reason", failed.getReason());
+                }
+            }
+            outcomes.add(outcome);
+        }
+        return outcomes;
+    }
+
+    @Nullable
+    private Filter match(Job job) {
+        if (trigger.isRefChange()) {
+            return JobMatcher.matchRef(job, trigger, event.isTag(), orEmpty(event.getBranch()));
+        }
+        return JobMatcher.matchPullRequest(job, trigger, orEmpty(event.getPrDestination()));
+    }
+
+    private boolean usesChangeFilters(Job job) {
+        boolean commitFilter = trigger == Trigger.PUSH
+                && (!isEmpty(job.getIgnoreCommitMsg()) || !isEmpty(job.getIgnoreComitters()));
+        return JobMatcher.hasPathFilter(job) || commitFilter;
+    }
+
+    private static String orEmpty(@Nullable String value) {
+        return value == null ? "" : value;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,63 @@
+package com.kylenicholls.stash.parameterizedbuilds.helper;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.commit.Commit;
+import com.atlassian.bitbucket.commit.CommitRequest;
+import com.atlassian.bitbucket.commit.CommitService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
+
+/**
+ * Small bounded cache of commits keyed by repository and commit id. A push and the pull
+ * request events that follow it usually ask about the same handful of commits, so the most
+ * recently used ones are kept around to avoid fetching them from the SCM more than once.
+ * Forks share commit ids, but a commit carries the repository it was fetched from, so the
+ * repository is part of the key.
+ */
+public class CommitCache {
+    static final int MAX_ENTRIES = 256;
+
+    private final CommitService commitService;
+    private final Map<String, Commit> commits;
+
+    public CommitCache(CommitService commitService) {
+        this.commitService = commitService;
+        this.commits = Collections.synchronizedMap(
+                new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                        return size() > MAX_ENTRIES;
+                    }
+                });
+    }
+
+    /**
+     * Returns the commit with the given id, fetching it from the repository if it has not
+     * been seen recently.
+     *
+     * @return the commit or null if it could not be found
+     * @param repository
+     *            the repository to fetch the commit from on a cache miss
+     * @param commitId
+     *            the commit id
+     */
+    @Nullable
+    public Commit getCommit(Repository repository, String commitId) {
+        String key = repository.getId() + ":" + commitId;
+        Commit commit = commits.get(key);
+        Metrics.cacheLookup("commits", commit != null);
+        if (commit == null) {
+            commit = commitService.getCommit(
+                    new CommitRequest.Builder(repository, commitId).build());
+            if (commit != null) {
+                commits.put(key, commit);
+            }
+        }
+        return commit;
+    }
+}
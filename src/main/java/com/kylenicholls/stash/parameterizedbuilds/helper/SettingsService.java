@@ -5,7 +5,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+import com.atlassian.bitbucket.event.hook.RepositoryHookSettingsChangedEvent;
 import com.atlassian.bitbucket.hook.repository.GetRepositoryHookSettingsRequest;
 import com.atlassian.bitbucket.hook.repository.RepositoryHook;
 import com.atlassian.bitbucket.hook.repository.RepositoryHookService;
@@ -16,7 +18,12 @@ import com.atlassian.bitbucket.scope.RepositoryScope;
 import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.SecurityService;
 import com.atlassian.bitbucket.util.Operation;
+import com.atlassian.event.api.EventListener;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.JobFlags;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,13 +44,54 @@ public class SettingsService {
     public static final String ISPIPELINE_PREFIX = "isPipeline-";
     public static final String IGNORE_COMMIT_MSG_PREFIX = "ignoreCommitMsg-";
     public static final String IGNORE_COMMITTERS_PREFIX = "ignoreComitters-";
+    public static final String CHECK_ALL_COMMITS_PREFIX = "checkAllCommits-";
+    private static final long JOB_FLAGS_CACHE_SIZE = 10_000;
+    // settings changes evict the flags, expiring them only covers missed events
+    private static final long JOB_FLAGS_EXPIRY_MINUTES = 10;
 
     private RepositoryHookService hookService;
     private SecurityService securityService;
+    // display flags keyed by repository id
+    private final Cache<Integer, JobFlags> jobFlags;
 
     public SettingsService(RepositoryHookService hookService, SecurityService securityService) {
         this.hookService = hookService;
         this.securityService = securityService;
+        this.jobFlags = CacheBuilder.newBuilder()
+                .maximumSize(JOB_FLAGS_CACHE_SIZE)
+                .expireAfterWrite(JOB_FLAGS_EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * Returns the display flags for the jobs of a repository. The flags are derived from the
+     * settings the first time they are needed and kept until the settings change.
+     *
+     * @param repository
+     *            the repository
+     */
+    public JobFlags getJobFlags(Repository repository) {
+        JobFlags flags = jobFlags.getIfPresent(repository.getId());
+        Metrics.cacheLookup("jobFlags", flags != null);
+        if (flags == null) {
+            Settings settings = getSettings(repository);
+            flags = settings == null ? JobFlags.NONE : JobFlags.of(getJobs(settings.asMap()));
+            jobFlags.put(repository.getId(), flags);
+        }
+        return flags;
+    }
+
+    @EventListener
+    public void onHookSettingsChanged(RepositoryHookSettingsChangedEvent event) {
+        if (!KEY.equals(event.getRepositoryHookKey())) {
+            return;
+        }
+        if (event.getScope() instanceof RepositoryScope) {
+            jobFlags.invalidate(((RepositoryScope) event.getScope()).getRepository().getId());
+        } else {
+            // project settings are inherited by every repository in the project
+            jobFlags.invalidateAll();
+        }
     }
 
     public Settings getSettings(final Repository repository) {
@@ -127,6 +175,9 @@ public class SettingsService {
                         .ignoreCommitMsg(fetchValue(entry.getKey()
                                         .replace(JOB_PREFIX, IGNORE_COMMIT_MSG_PREFIX),
                                 parameterMap, ""))
+                        .checkAllCommits(fetchValue(entry.getKey()
+                                        .replace(JOB_PREFIX, CHECK_ALL_COMMITS_PREFIX),
+                                parameterMap, false))
                         .build();
 
                 jobsList.add(job);
@@ -0,0 +1,167 @@
+package com.kylenicholls.stash.parameterizedbuilds.helper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.commit.Commit;
+import com.atlassian.bitbucket.commit.CommitService;
+import com.atlassian.bitbucket.content.AbstractChangeCallback;
+import com.atlassian.bitbucket.content.Change;
+import com.atlassian.bitbucket.content.ChangeCallback;
+import com.atlassian.bitbucket.content.ChangesRequest;
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.pull.PullRequestChangesRequest;
+import com.atlassian.bitbucket.pull.PullRequestService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
+import com.kylenicholls.stash.parameterizedbuilds.item.VariableProvider;
+
+/**
+ * The variable providers available to event handlers. The commit variables are registered
+ * here, other providers can be added with {@link #register(VariableProvider)}.
+ */
+public class VariableProviders {
+    // the from hash of a ref change that created the ref
+    private static final String EMPTY_HASH = "0000000000000000000000000000000000000000";
+
+    private final CommitService commitService;
+    private final PullRequestService pullRequestService;
+    private final CommitCache commitCache;
+    private final List<VariableProvider> providers = new CopyOnWriteArrayList<>();
+
+    public VariableProviders(CommitService commitService, PullRequestService pullRequestService,
+                             CommitCache commitCache) {
+        this.commitService = commitService;
+        this.pullRequestService = pullRequestService;
+        this.commitCache = commitCache;
+        register(new CommitProvider(Variable.COMMIT_MESSAGE, Commit::getMessage));
+        register(new CommitProvider(Variable.AUTHOR_EMAIL,
+                commit -> commit.getAuthor() == null ? null
+                        : commit.getAuthor().getEmailAddress()));
+        register(new ChangedFilesCountProvider());
+    }
+
+    public void register(VariableProvider provider) {
+        providers.add(provider);
+    }
+
+    public List<VariableProvider> getProviders() {
+        return Collections.unmodifiableList(providers);
+    }
+
+    private class CommitProvider implements VariableProvider {
+        private final Variable variable;
+        private final Function<Commit, String> value;
+
+        CommitProvider(Variable variable, Function<Commit, String> value) {
+            this.variable = variable;
+            this.value = value;
+        }
+
+        @Override
+        public Variable getVariable() {
+            return variable;
+        }
+
+        @Override
+        public Cost getCost() {
+            return Cost.EXPENSIVE;
+        }
+
+        @Override
+        public Set<Variable> getDependencies() {
+            return EnumSet.of(Variable.COMMIT);
+        }
+
+        @Override
+        public String resolve(@Nullable Repository repository, BitbucketVariables variables) {
+            String commitId = variables.fetch(Variable.COMMIT);
+            if (repository == null || commitId == null || commitId.isEmpty()) {
+                return null;
+            }
+            Commit commit = commitCache.getCommit(repository, commitId);
+            return commit == null ? null : value.apply(commit);
+        }
+    }
+
+    /**
+     * Counts the files changed by a pull request, as its diff shows them, or by a ref change
+     * between {@link Variable#FROM_HASH} and {@link Variable#COMMIT}. The from hash of a pull
+     * request is the tip of its destination branch, so diffing against it would also count
+     * every change merged into the destination since the source branch was forked.
+     */
+    private class ChangedFilesCountProvider implements VariableProvider {
+
+        @Override
+        public Variable getVariable() {
+            return Variable.CHANGED_FILES_COUNT;
+        }
+
+        @Override
+        public Cost getCost() {
+            return Cost.EXPENSIVE;
+        }
+
+        @Override
+        public Set<Variable> getDependencies() {
+            return EnumSet.of(Variable.COMMIT, Variable.FROM_HASH, Variable.PRID);
+        }
+
+        @Override
+        public String resolve(@Nullable Repository repository, BitbucketVariables variables) {
+            if (repository == null) {
+                return null;
+            }
+            String prId = variables.fetch(Variable.PRID);
+            if (prId != null && !prId.isEmpty()) {
+                return countPullRequestChanges(repository, prId);
+            }
+            String commitId = variables.fetch(Variable.COMMIT);
+            if (commitId == null || commitId.isEmpty()) {
+                return null;
+            }
+            ChangesRequest.Builder request = new ChangesRequest.Builder(repository, commitId);
+            String fromHash = variables.fetch(Variable.FROM_HASH);
+            if (fromHash != null && !fromHash.isEmpty() && !EMPTY_HASH.equals(fromHash)) {
+                request.sinceId(fromHash);
+            }
+            AtomicInteger count = new AtomicInteger();
+            commitService.streamChanges(request.build(), countingCallback(count));
+            return Integer.toString(count.get());
+        }
+
+        @Nullable
+        private String countPullRequestChanges(Repository repository, String prId) {
+            PullRequest pullRequest = pullRequestService.getById(repository.getId(),
+                    Long.parseLong(prId));
+            if (pullRequest == null) {
+                return null;
+            }
+            AtomicInteger count = new AtomicInteger();
+            pullRequestService.streamChanges(
+                    new PullRequestChangesRequest.Builder(pullRequest).build(),
+                    countingCallback(count));
+            return Integer.toString(count.get());
+        }
+
+        private ChangeCallback countingCallback(AtomicInteger count) {
+            return new AbstractChangeCallback() {
+
+                @Override
+                public boolean onChange(Change change) throws IOException {
+                    count.incrementAndGet();
+                    return true;
+                }
+            };
+        }
+    }
+}
@@ -2,27 +2,50 @@ package com.kylenicholls.stash.parameterizedbuilds.item;
 
 import java.util.function.Supplier;
 
+/**
+ * A lazily resolved value. The supplier runs at most once, even when the variable is read
+ * from several threads, and a null result is remembered like any other value.
+ */
 public final class BitbucketVariable<T> {
+    private static final Object UNRESOLVED = new Object();
+    private static final Object NULL = new Object();
 
-    private T value;
-    private final Supplier<T> supplier;
+    private volatile Object value = UNRESOLVED;
+    private Supplier<T> supplier;
 
     public BitbucketVariable(Supplier<T> supplier){
         this.supplier = supplier;
     }
 
     public T getOrCompute() {
-        final T result = value;
-        return result == null ? compute() : result;
+        Object result = value;
+        if (result == UNRESOLVED) {
+            synchronized (this) {
+                result = value;
+                if (result == UNRESOLVED) {
+                    result = compute();
+                    value = result;
+                    // the supplier can hold on to events and pull requests, let them go
+                    supplier = null;
+                }
+            }
+        }
+        return unwrap(result);
     }
 
-    private T compute() {
+    private Object compute() {
+        T computed;
         try {
-            value = supplier.get();
+            computed = supplier.get();
         } catch (NullPointerException e) {
             // this is probably due to a nested get returning null so refuse to resolve the variable
-            return null;
+            computed = null;
         }
-        return value;
+        return computed == null ? NULL : computed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unwrap(Object result) {
+        return result == NULL ? null : (T) result;
     }
 }
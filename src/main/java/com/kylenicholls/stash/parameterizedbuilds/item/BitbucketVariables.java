@@ -1,11 +1,14 @@
 package com.kylenicholls.stash.parameterizedbuilds.item;
 
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import com.atlassian.bitbucket.pull.PullRequest;
 import com.atlassian.bitbucket.repository.Branch;
 import com.atlassian.bitbucket.repository.RefChange;
@@ -14,96 +17,230 @@ import com.google.common.base.Preconditions;
 import java.util.function.Supplier;
 
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.item.VariableProvider.Cost;
 
 public class BitbucketVariables {
-    private Map<String, BitbucketVariable<String>> variables;
-    private final String [] SET_VALUES = {
-            "$BRANCH", "$COMMIT", "$URL", "$REPOSITORY", "$PROJECT", "$PRID",
-            "$PRAUTHOR", "$PREMAIL", "$PRTITLE", "$PRDESCRIPTION", "$PRDESTINATION",
-            "$PRURL", "$TRIGGER", "$MERGECOMMIT","$PRSOURCEPROJECT", "$PRSOURCEREPOSITORY",};
-    private final Set<String> allowedVariables = new HashSet<>(Arrays.asList(SET_VALUES));
+    private static final int VARIABLE_COUNT = Variable.values().length;
+
+    private final BitbucketVariable<String>[] slots;
+    private final Set<Variable> variables;
+    private final Trigger trigger;
 
     private BitbucketVariables(Builder builder){
-        assert allowedVariables.containsAll(builder.variables.keySet());
-        this.variables = builder.variables;
+        this.slots = builder.slots.clone();
+        this.variables = Collections.unmodifiableSet(builder.variables.clone());
+        this.trigger = builder.trigger;
+        Repository repository = builder.repository;
+        for (int i = 0; i < VARIABLE_COUNT; i++) {
+            VariableProvider provider = builder.providers[i];
+            if (provider != null) {
+                slots[i] = new BitbucketVariable<>(() -> provider.resolve(repository, this));
+            }
+        }
     }
 
-    public Map<String, BitbucketVariable<String>> getVariables() {
+    /**
+     * @return the variables that have a value supplier, in declaration order
+     */
+    public Set<Variable> getVariables() {
         return variables;
     }
 
+    public Trigger getTrigger() {
+        return trigger;
+    }
+
+    @Nullable
+    public String fetch(Variable variable) {
+        BitbucketVariable<String> slot = slots[variable.ordinal()];
+        return slot == null ? null : slot.getOrCompute();
+    }
+
+    @Nullable
     public String fetch(String key) {
-        return variables.get(key).getOrCompute();
+        Variable variable = Variable.fromKey(key);
+        return variable == null ? null : fetch(variable);
+    }
+
+    /**
+     * The variables that can be used in job names and build parameters. The key is the text
+     * that gets substituted, e.g. {@code $BRANCH}. Variables are substituted in declaration
+     * order, so a variable whose key starts with another key has to be declared first.
+     */
+    public enum Variable {
+        BRANCH, COMMIT_MESSAGE, COMMIT, URL, REPOSITORY, PROJECT, PRID, PRAUTHOR, PREMAIL,
+        PRTITLE, PRDESCRIPTION, PRDESTINATION, PRURL, TRIGGER, MERGECOMMIT, PRSOURCEPROJECT,
+        PRSOURCEREPOSITORY, FROM_HASH, AUTHOR_EMAIL, CHANGED_FILES_COUNT;
+
+        private static final Map<String, Variable> ALLOWED_VARIABLES = new HashMap<>();
+
+        static {
+            for (Variable variable : values()) {
+                ALLOWED_VARIABLES.put(variable.getKey(), variable);
+            }
+        }
+
+        private final String key = "$" + name();
+
+        public String getKey() {
+            return key;
+        }
+
+        @Nullable
+        public static Variable fromKey(String key) {
+            return ALLOWED_VARIABLES.get(key);
+        }
+
+        /**
+         * @return the variables whose key appears in the text
+         */
+        public static EnumSet<Variable> referencedIn(@Nullable String text) {
+            EnumSet<Variable> referenced = EnumSet.noneOf(Variable.class);
+            if (text != null && text.indexOf('$') >= 0) {
+                for (Variable variable : values()) {
+                    if (text.contains(variable.key)) {
+                        referenced.add(variable);
+                    }
+                }
+            }
+            return referenced;
+        }
     }
 
     public static class Builder {
-        private Map<String, BitbucketVariable<String>> variables;
+        private final BitbucketVariable<String>[] slots;
+        private final VariableProvider[] providers;
+        private final EnumSet<Variable> variables;
+        private Trigger trigger;
+        private Repository repository;
 
+        @SuppressWarnings("unchecked")
         public Builder() {
-            this.variables = new HashMap<>();
+            this.slots = (BitbucketVariable<String>[]) new BitbucketVariable[VARIABLE_COUNT];
+            this.providers = new VariableProvider[VARIABLE_COUNT];
+            this.variables = EnumSet.noneOf(Variable.class);
+            this.trigger = Trigger.NULL;
+        }
+
+        public Builder add(Variable variable, Supplier<String> supplier) {
+            Preconditions.checkNotNull(variable);
+            if (variables.contains(variable)) {
+                return this;
+            }
+            slots[variable.ordinal()] = new BitbucketVariable<>(supplier);
+            variables.add(variable);
+            return this;
         }
 
         public Builder add(String key, Supplier<String> supplier) {
             Preconditions.checkNotNull(key);
-            if (variables.containsKey(key)) {
+            Variable variable = Variable.fromKey(key);
+            Preconditions.checkArgument(variable != null, "Unknown variable %s", key);
+            if (variable == Variable.TRIGGER) {
+                return trigger(Trigger.fromToString(supplier.get()));
+            }
+            return add(variable, supplier);
+        }
+
+        public Builder trigger(Trigger trigger) {
+            Preconditions.checkNotNull(trigger);
+            if (variables.contains(Variable.TRIGGER)) {
                 return this;
             }
-            BitbucketVariable<String> variable = new BitbucketVariable<>(supplier);
-            variables.put(key, variable);
+            this.trigger = trigger;
+            return add(Variable.TRIGGER, trigger::toString);
+        }
+
+        /**
+         * Adds the variables of the providers that are needed by the given variables. Cheap
+         * providers are always added, expensive ones only when one of the referenced variables
+         * or another added provider depends on them. A variable that already has a value is
+         * not replaced, and every provided variable is resolved at most once.
+         *
+         * @param referencedVariables
+         *            the variables used by the jobs that can run for the event
+         */
+        public Builder addProviders(Collection<VariableProvider> providers,
+                                    Set<Variable> referencedVariables) {
+            EnumSet<Variable> needed = EnumSet.noneOf(Variable.class);
+            needed.addAll(referencedVariables);
+            boolean added = true;
+            while (added) {
+                added = false;
+                for (VariableProvider provider : providers) {
+                    Variable variable = provider.getVariable();
+                    if (!variables.contains(variable)
+                            && (provider.getCost() == Cost.CHEAP || needed.contains(variable))) {
+                        this.providers[variable.ordinal()] = provider;
+                        variables.add(variable);
+                        needed.addAll(provider.getDependencies());
+                        added = true;
+                    }
+                }
+            }
             return this;
         }
 
         public Builder populateFromPR(PullRequest pullRequest, Repository repository,
                                       String projectKey, Trigger trigger, String url){
             String prId = Long.toString(pullRequest.getId());
-            return add("$BRANCH", () -> pullRequest.getFromRef().getDisplayId())
-                    .add("$COMMIT", () -> pullRequest.getFromRef().getLatestCommit())
-                    .add("$URL", () -> url)
-                    .add("$REPOSITORY", repository::getSlug)
-                    .add("$PROJECT", () -> projectKey)
-                    .add("$PRID", () -> prId)
-                    .add("$PRAUTHOR", () -> pullRequest.getAuthor().getUser().getDisplayName())
-                    .add("$PREMAIL", () -> pullRequest.getAuthor().getUser().getEmailAddress())
-                    .add("$PRTITLE", pullRequest::getTitle)
-                    .add("$PRDESCRIPTION", pullRequest::getDescription)
-                    .add("$PRDESTINATION", () ->  pullRequest.getToRef().getDisplayId())
-                    .add("$PRURL", () -> url + "/projects/" + projectKey + "/repos/" +
+            this.repository = repository;
+            return add(Variable.BRANCH, () -> pullRequest.getFromRef().getDisplayId())
+                    .add(Variable.COMMIT, () -> pullRequest.getFromRef().getLatestCommit())
+                    .add(Variable.URL, () -> url)
+                    .add(Variable.REPOSITORY, repository::getSlug)
+                    .add(Variable.PROJECT, () -> projectKey)
+                    .add(Variable.PRID, () -> prId)
+                    .add(Variable.PRAUTHOR,
+                            () -> pullRequest.getAuthor().getUser().getDisplayName())
+                    .add(Variable.PREMAIL,
+                            () -> pullRequest.getAuthor().getUser().getEmailAddress())
+                    .add(Variable.PRTITLE, pullRequest::getTitle)
+                    .add(Variable.PRDESCRIPTION, pullRequest::getDescription)
+                    .add(Variable.PRDESTINATION, () ->  pullRequest.getToRef().getDisplayId())
+                    .add(Variable.PRURL, () -> url + "/projects/" + projectKey + "/repos/" +
                             repository.getSlug() + "/pull-requests/" + prId)
-                    .add("$PRSOURCEPROJECT",  () -> pullRequest.getFromRef().getRepository()
-                            .getProject().getKey())
-                    .add("$PRSOURCEREPOSITORY", () -> pullRequest.getFromRef().getRepository()
-                            .getSlug())
-                    .add("$TRIGGER", trigger::toString);
+                    .add(Variable.PRSOURCEPROJECT,  () -> pullRequest.getFromRef()
+                            .getRepository().getProject().getKey())
+                    .add(Variable.PRSOURCEREPOSITORY, () -> pullRequest.getFromRef()
+                            .getRepository().getSlug())
+                    // the destination tip the pull request goes onto, the source tip is COMMIT
+                    .add(Variable.FROM_HASH, () -> pullRequest.getToRef().getLatestCommit())
+                    .trigger(trigger);
         }
 
         public Builder populateFromRef(String branch, RefChange refChange, Repository repository,
                                        String projectKey, Trigger trigger, String url){
-            return add("$BRANCH", () -> branch)
-                    .add("$COMMIT", refChange::getToHash)
-                    .add("$URL", () -> url)
-                    .add("$REPOSITORY", repository::getSlug)
-                    .add("$PROJECT", () -> projectKey)
-                    .add("$TRIGGER",  trigger::toString);
+            this.repository = repository;
+            return add(Variable.BRANCH, () -> branch)
+                    .add(Variable.COMMIT, refChange::getToHash)
+                    .add(Variable.FROM_HASH, refChange::getFromHash)
+                    .add(Variable.URL, () -> url)
+                    .add(Variable.REPOSITORY, repository::getSlug)
+                    .add(Variable.PROJECT, () -> projectKey)
+                    .trigger(trigger);
         }
 
         public Builder populateFromBranch(Branch branch, Repository repository, String projectKey,
                                           Trigger trigger, String url){
-            return add("$BRANCH", branch::getDisplayId)
-                    .add("$COMMIT", branch::getLatestCommit)
-                    .add("$URL", () -> url)
-                    .add("$REPOSITORY", repository::getSlug)
-                    .add("$PROJECT", () -> projectKey)
-                    .add("$TRIGGER", trigger::toString);
+            this.repository = repository;
+            return add(Variable.BRANCH, branch::getDisplayId)
+                    .add(Variable.COMMIT, branch::getLatestCommit)
+                    .add(Variable.URL, () -> url)
+                    .add(Variable.REPOSITORY, repository::getSlug)
+                    .add(Variable.PROJECT, () -> projectKey)
+                    .trigger(trigger);
         }
 
         public Builder populateFromStrings(String branch, String commit, Repository repository,
                                            String projectKey, Trigger trigger, String url){
-            return add("$BRANCH", () -> branch)
-                    .add("$COMMIT", () -> commit)
-                    .add("$URL", () -> url)
-                    .add("$REPOSITORY", repository::getSlug)
-                    .add("$PROJECT", () -> projectKey)
-                    .add("$TRIGGER", trigger::toString);
+            this.repository = repository;
+            return add(Variable.BRANCH, () -> branch)
+                    .add(Variable.COMMIT, () -> commit)
+                    .add(Variable.URL, () -> url)
+                    .add(Variable.REPOSITORY, repository::getSlug)
+                    .add(Variable.PROJECT, () -> projectKey)
+                    .trigger(trigger);
         }
 
         public BitbucketVariables build() {
@@ -7,11 +7,13 @@ public class JenkinsResponse {
     private boolean error;
     private boolean prompt;
     private String messageText;
+    private int status;
 
     private JenkinsResponse(JenkinsMessage message) {
         this.error = message.error;
         this.prompt = message.prompt;
         this.messageText = message.messageText;
+        this.status = message.status;
     }
 
     public boolean getError() {
@@ -26,6 +28,13 @@ public class JenkinsResponse {
         return messageText;
     }
 
+    /**
+     * @return the HTTP status Jenkins answered with, 0 if Jenkins was not reached
+     */
+    public int getStatus() {
+        return status;
+    }
+
     public Map<String, Object> getMessage() {
         Map<String, Object> data = new LinkedHashMap<>();
         data.put("error", this.error);
@@ -38,6 +47,7 @@ public class JenkinsResponse {
         private boolean error = false;
         private boolean prompt = false;
         private String messageText = "";
+        private int status = 0;
 
         public JenkinsMessage error(boolean error) {
             this.error = error;
@@ -54,6 +64,11 @@ public class JenkinsResponse {
             return this;
         }
 
+        public JenkinsMessage status(int status) {
+            this.status = status;
+            return this;
+        }
+
         public JenkinsResponse build() {
             return new JenkinsResponse(this);
         }
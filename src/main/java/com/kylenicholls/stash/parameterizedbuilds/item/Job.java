@@ -5,11 +5,15 @@ import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
@@ -19,6 +23,8 @@ import org.apache.http.client.utils.URIBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
+
 public class Job {
     private static final Logger logger = LoggerFactory.getLogger(Job.class);
     private final int jobId;
@@ -35,6 +41,9 @@ public class Job {
     private final boolean isPipeline;
     private final String ignoreCommitMsg;
     private final String ignoreComitters;
+    private final Set<String> ignoredComitterNames;
+    private final boolean checkAllCommits;
+    private final Set<Variable> referencedVariables;
 
     private Job(JobBuilder builder) {
         this.jobId = builder.jobId;
@@ -50,7 +59,37 @@ public class Job {
         this.prDestRegex = builder.prDestRegex;
         this.isPipeline = builder.isPipeline;
         this.ignoreComitters = builder.ignoreComitters;
+        this.ignoredComitterNames = parseComitters(builder.ignoreComitters);
         this.ignoreCommitMsg = builder.ignoreCommitMsg;
+        this.checkAllCommits = builder.checkAllCommits;
+        this.referencedVariables = findReferencedVariables(jobName, buildParameters);
+    }
+
+    private static Set<Variable> findReferencedVariables(String jobName,
+            List<Entry<String, Object>> buildParameters) {
+        EnumSet<Variable> referenced = Variable.referencedIn(jobName);
+        if (buildParameters == null) {
+            return Collections.unmodifiableSet(referenced);
+        }
+        for (Entry<String, Object> parameter : buildParameters) {
+            referenced.addAll(Variable.referencedIn(parameter.getKey()));
+            Object value = parameter.getValue();
+            if (value instanceof String[]) {
+                for (String choice : (String[]) value) {
+                    referenced.addAll(Variable.referencedIn(choice));
+                }
+            } else if (value instanceof String) {
+                referenced.addAll(Variable.referencedIn((String) value));
+            }
+        }
+        return Collections.unmodifiableSet(referenced);
+    }
+
+    private static Set<String> parseComitters(String ignoreComitters) {
+        if (ignoreComitters == null || ignoreComitters.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(Arrays.asList(ignoreComitters.toLowerCase().split("\\r?\\n")));
     }
 
     public int getJobId() {
@@ -103,6 +142,19 @@ public class Job {
 
     public String getIgnoreComitters() { return ignoreComitters; }
 
+    public boolean getCheckAllCommits() { return checkAllCommits; }
+
+    /**
+     * @return the variables used in the job name and build parameters
+     */
+    public Set<Variable> getReferencedVariables() {
+        return referencedVariables;
+    }
+
+    public boolean isIgnoredComitter(String name) {
+        return name != null && ignoredComitterNames.contains(name.toLowerCase());
+    }
+
     public Map<String, Object> asMap(BitbucketVariables bitbucketVariables) {
         Map<String, Object> map = new LinkedHashMap<>();
         map.put("id", jobId);
@@ -110,10 +162,11 @@ public class Job {
         List<Map<String, Object>> parameterMap = new ArrayList<>();
         for (Entry<String, Object> parameter : buildParameters) {
             Object value = parameter.getValue();
-            for (String variable : bitbucketVariables.getVariables().keySet()) {
-                if (parameter.getValue() instanceof String && value.toString().contains(variable)
+            for (Variable variable : bitbucketVariables.getVariables()) {
+                String key = variable.getKey();
+                if (parameter.getValue() instanceof String && value.toString().contains(key)
                         && bitbucketVariables.fetch(variable) != null) {
-                    value = value.toString().replace(variable, bitbucketVariables.fetch(variable));
+                    value = value.toString().replace(key, bitbucketVariables.fetch(variable));
                 }
             }
             Map<String, Object> mapped = new HashMap<>();
@@ -139,6 +192,7 @@ public class Job {
         private boolean isPipeline;
         private String ignoreCommitMsg;
         private String ignoreComitters;
+        private boolean checkAllCommits;
 
         public JobBuilder(int jobId) {
             this.jobId = jobId;
@@ -254,6 +308,11 @@ public class Job {
             return this;
         }
 
+        public JobBuilder checkAllCommits(boolean checkAllCommits){
+            this.checkAllCommits = checkAllCommits;
+            return this;
+        }
+
         public Job build() {
             return new Job(this);
         }
@@ -264,7 +323,8 @@ public class Job {
                 .triggers(triggers).token(token).buildParameters(buildParameters)
                 .branchRegex(branchRegex).pathRegex(pathRegex).permissions(permissions)
                 .prDestRegex(prDestRegex).isPipeline(isPipeline)
-                .ignoreCommitMsg(ignoreCommitMsg).ignoreComitters(ignoreComitters);
+                .ignoreCommitMsg(ignoreCommitMsg).ignoreComitters(ignoreComitters)
+                .checkAllCommits(checkAllCommits);
     }
 
     public String buildUrl(Server jenkinsServer, BitbucketVariables bitbucketVariables,
@@ -272,18 +332,19 @@ public class Job {
         if (jenkinsServer == null) {
             return null;
         }
-        Trigger trigger =  Trigger.fromToString(bitbucketVariables.fetch("$TRIGGER"));
+        Trigger trigger = bitbucketVariables.getTrigger();
         URIBuilder builder = setUrlPath(jenkinsServer, useUserToken, 
                                         !this.buildParameters.isEmpty(), 
                                         trigger, bitbucketVariables);
 
         String buildUrl = builder.toString();
 
-        for (String variable : bitbucketVariables.getVariables().keySet()) {
+        for (Variable variable : bitbucketVariables.getVariables()) {
+            String key = variable.getKey();
 
             //URIBuilder automatically encodes query params so we need to use the encoded version 
             //for substitutions
-            String encodedVar = safeEncode(variable);
+            String encodedVar = safeEncode(key);
 
             // only try to replace a variable if it is in the params. This allows optimal use of 
             //java 8 lazy initialization
@@ -292,8 +353,8 @@ public class Job {
                         safeEncode(bitbucketVariables.fetch(variable)));
             }
             // also try to replace unencoded variables just in case
-            if (buildUrl.contains(variable) && bitbucketVariables.fetch(variable) != null) {
-                buildUrl = buildUrl.replace(variable,
+            if (buildUrl.contains(key) && bitbucketVariables.fetch(variable) != null) {
+                buildUrl = buildUrl.replace(key,
                         safeEncode(bitbucketVariables.fetch(variable)));
             }
         }
@@ -301,6 +362,55 @@ public class Job {
         return buildUrl;
     }
 
+    /**
+     * Returns the build parameters to send in the body of the build request when the server
+     * posts parameters, with the variables substituted. Choice parameters use their first
+     * choice, as they do in the query string.
+     *
+     * @return the parameters in the order they are defined, or an empty list if the
+     *         parameters are part of the build url or the build takes no parameters
+     */
+    public List<Entry<String, String>> buildFormParameters(Server jenkinsServer,
+            BitbucketVariables bitbucketVariables) {
+        if (jenkinsServer == null || !jenkinsServer.getPostParameters()
+                || !takesParameters(bitbucketVariables.getTrigger())) {
+            return Collections.emptyList();
+        }
+        List<Entry<String, String>> parameters = new ArrayList<>(buildParameters.size());
+        for (Entry<String, Object> param : buildParameters) {
+            parameters.add(new SimpleEntry<>(
+                    substitute(param.getKey(), bitbucketVariables),
+                    substitute(parameterValue(param.getValue()), bitbucketVariables)));
+        }
+        return parameters;
+    }
+
+    private boolean takesParameters(Trigger trigger) {
+        // pipeline builds for ref changes never take parameters
+        return !buildParameters.isEmpty() && (!isPipeline || !trigger.isRefChange());
+    }
+
+    private static String substitute(String text, BitbucketVariables bitbucketVariables) {
+        String result = text;
+        for (Variable variable : bitbucketVariables.getVariables()) {
+            String key = variable.getKey();
+            if (result.contains(key)) {
+                String value = bitbucketVariables.fetch(variable);
+                if (value != null) {
+                    result = result.replace(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String parameterValue(Object value) {
+        if (value instanceof String[]) {
+            return ((String[]) value)[0];
+        }
+        return value.toString();
+    }
+
     private String safeEncode(String var){
         try {
             return URLEncoder.encode(var, "UTF-8");
@@ -318,9 +428,9 @@ public class Job {
             }
             if(trigger == Trigger.MANUAL){
                 // manual trigger is already encoded
-                jobSegments.add(variables.fetch("$BRANCH"));
+                jobSegments.add(variables.fetch(Variable.BRANCH));
             } else {
-                jobSegments.add(safeEncode(variables.fetch("$BRANCH")));
+                jobSegments.add(safeEncode(variables.fetch(Variable.BRANCH)));
             }
         }
         return jobSegments;
@@ -334,7 +444,7 @@ public class Job {
         } catch (URISyntaxException e) {
             return new URIBuilder();
         }
-        hasParameters = !isPipeline || !trigger.isRefChange() ? hasParameters : false;
+        hasParameters = hasParameters && takesParameters(trigger);
 
         //start building the url path. Make sure to use the current context.
         StringBuilder path = new StringBuilder(Optional.ofNullable(builder.getPath()).orElse(""));
@@ -357,7 +467,9 @@ public class Job {
 
         if (hasParameters) {
             path.append("/buildWithParameters");
-            appendBuildParams(builder);
+            if (!jenkinsServer.getPostParameters()) {
+                appendBuildParams(builder);
+            }
         } else {
             path.append("/build");
         }
@@ -368,14 +480,7 @@ public class Job {
 
     private void appendBuildParams(URIBuilder builder){
         for (Entry<String, Object> param : this.buildParameters) {
-            String key = param.getKey();
-            String value;
-            if (param.getValue() instanceof String[]) {
-                value = ((String[]) param.getValue())[0];
-            } else {
-                value = param.getValue().toString();
-            }
-            builder.setParameter(key, value);
+            builder.setParameter(param.getKey(), parameterValue(param.getValue()));
         }
     }
 
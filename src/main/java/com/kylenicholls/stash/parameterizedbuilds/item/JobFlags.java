@@ -0,0 +1,69 @@
+package com.kylenicholls.stash.parameterizedbuilds.item;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.permission.Permission;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+
+/**
+ * The facts about a repository's jobs that decide whether the build button is shown. They
+ * only change when the hook settings change, so they are derived once from the parsed jobs.
+ */
+public class JobFlags {
+    public static final JobFlags NONE = new JobFlags(false, null);
+
+    private final boolean manualJob;
+    private final Permission minimumPermission;
+
+    private JobFlags(boolean manualJob, @Nullable Permission minimumPermission) {
+        this.manualJob = manualJob;
+        this.minimumPermission = minimumPermission;
+    }
+
+    public static JobFlags of(List<Job> jobs) {
+        boolean manualJob = false;
+        Permission minimumPermission = null;
+        for (Job job : jobs) {
+            manualJob |= job.getTriggers() != null && job.getTriggers().contains(Trigger.MANUAL);
+            Permission permission = parsePermission(job.getPermissions());
+            if (permission != null && (minimumPermission == null
+                    || permission.getWeight() < minimumPermission.getWeight())) {
+                minimumPermission = permission;
+            }
+        }
+        return manualJob || minimumPermission != null
+                ? new JobFlags(manualJob, minimumPermission) : NONE;
+    }
+
+    /**
+     * @return true if at least one job can be triggered manually
+     */
+    public boolean hasManualJob() {
+        return manualJob;
+    }
+
+    /**
+     * Returns the lowest permission any job requires. A user with this permission can build
+     * at least one job, since repository permissions imply every permission below them.
+     *
+     * @return the permission or null if there are no jobs with a valid permission
+     */
+    @Nullable
+    public Permission getMinimumPermission() {
+        return minimumPermission;
+    }
+
+    @Nullable
+    private static Permission parsePermission(@Nullable String permission) {
+        if (permission == null) {
+            return null;
+        }
+        try {
+            return Permission.valueOf(permission);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
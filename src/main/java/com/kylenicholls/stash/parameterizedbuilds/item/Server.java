@@ -2,27 +2,37 @@ package com.kylenicholls.stash.parameterizedbuilds.item;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
-public class Server {
-    private String baseUrl;
-    private String alias;
-    private String user;
-    private String token;
-    private boolean altUrl;
-    private boolean csrfEnabled;
-
-    public Server(){
-    }
+/**
+ * A Jenkins server definition. Instances are immutable so that they can be shared between
+ * threads; use {@link #withToken(String)} and {@link #withUserToken(String, String)} to derive
+ * a server with different credentials.
+ */
+public final class Server {
+    private final String baseUrl;
+    private final String alias;
+    private final String user;
+    private final String token;
+    private final boolean altUrl;
+    private final boolean csrfEnabled;
+    private final boolean postParameters;
 
     public Server(String baseUrl, String alias, String user, String token, boolean altUrl, 
                   boolean csrfEnabled) {
+        this(baseUrl, alias, user, token, altUrl, csrfEnabled, false);
+    }
+
+    public Server(String baseUrl, String alias, String user, String token, boolean altUrl,
+                  boolean csrfEnabled, boolean postParameters) {
         this.baseUrl = baseUrl;
         this.alias = alias;
         this.user = user;
         this.token = token;
         this.altUrl = altUrl;
         this.csrfEnabled = csrfEnabled;
+        this.postParameters = postParameters;
     }
 
     public Server(Map<String, Object> map) {
@@ -32,6 +42,8 @@ public class Server {
         this.token = (String) map.get("token");
         this.altUrl = Boolean.parseBoolean(map.get("altUrl").toString());
         this.csrfEnabled = Boolean.parseBoolean(map.getOrDefault("csrfEnabled", "true").toString());
+        this.postParameters = Boolean.parseBoolean(
+                map.getOrDefault("postParameters", "false").toString());
     }
 
     public String getBaseUrl() {
@@ -41,48 +53,56 @@ public class Server {
         return baseUrl;
     }
 
-    public void setBaseUrl(String baseUrl) {
-        this.baseUrl = baseUrl;
-    }
-
     public String getAlias() {
         return alias;
     }
 
-    public void setAlias(String alias) {
-        this.alias = alias;
-    }
-
     public String getUser() {
         return user;
     }
 
-    public void setUser(String user) {
-        this.user = user;
-    }
-
     public String getToken() {
         return token;
     }
 
-    public void setToken(String token) {
-        this.token = token;
-    }
-
     public boolean getCsrfEnabled() {
         return csrfEnabled;
     }
 
-    public void setCsrfEnabled(Boolean csrfEnabled) {
-        this.csrfEnabled = csrfEnabled;
-    }
-
     public boolean getAltUrl() {
         return altUrl;
     }
 
-    public void setAltUrl(Boolean altUrl) {
-        this.altUrl = altUrl;
+    /**
+     * Returns true if build parameters are sent to Jenkins as a form encoded request body
+     * instead of in the query string of the build url.
+     */
+    public boolean getPostParameters() {
+        return postParameters;
+    }
+
+    /**
+     * Returns a copy of this server with the default token replaced.
+     *
+     * @param token
+     *            the token to use, can be null
+     */
+    public Server withToken(String token) {
+        return new Server(baseUrl, alias, user, token, altUrl, csrfEnabled, postParameters);
+    }
+
+    /**
+     * Returns a copy of this server that authenticates as the given user instead of the
+     * default user. The alternate url is never used with user credentials.
+     *
+     * @param userSlug
+     *            the slug of the user the token belongs to
+     * @param userToken
+     *            the user's Jenkins api token
+     */
+    public Server withUserToken(String userSlug, String userToken) {
+        return new Server(baseUrl, alias, userSlug, userToken, false, csrfEnabled,
+                postParameters);
     }
 
     public Map<String, Object> asMap() {
@@ -93,6 +113,7 @@ public class Server {
         map.put("token", token);
         map.put("altUrl", altUrl);
         map.put("csrfEnabled", csrfEnabled);
+        map.put("postParameters", postParameters);
         return map;
     }
 
@@ -102,4 +123,24 @@ public class Server {
                 .map(u -> u + ":" + token)
                 .orElse(null);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Server)) {
+            return false;
+        }
+        Server other = (Server) o;
+        return altUrl == other.altUrl && csrfEnabled == other.csrfEnabled
+                && postParameters == other.postParameters
+                && Objects.equals(baseUrl, other.baseUrl) && Objects.equals(alias, other.alias)
+                && Objects.equals(user, other.user) && Objects.equals(token, other.token);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(baseUrl, alias, user, token, altUrl, csrfEnabled, postParameters);
+    }
 }
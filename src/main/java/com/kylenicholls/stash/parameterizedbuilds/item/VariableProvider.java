@@ -0,0 +1,39 @@
+package com.kylenicholls.stash.parameterizedbuilds.item;
+
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.atlassian.bitbucket.repository.Repository;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
+
+/**
+ * Supplies a variable that is not part of the event itself, such as the message of the
+ * pushed commit. Expensive providers are only added to an event's variables when a job that
+ * can run for the event references the variable, and are resolved at most once per event.
+ */
+public interface VariableProvider {
+
+    enum Cost {
+        CHEAP, EXPENSIVE
+    }
+
+    Variable getVariable();
+
+    Cost getCost();
+
+    /**
+     * @return the variables read by {@link #resolve}
+     */
+    Set<Variable> getDependencies();
+
+    /**
+     * @return the value of the variable, or null if it cannot be resolved for this event
+     * @param repository
+     *            the repository of the event, if there is one
+     * @param variables
+     *            the variables of the event, used to read the dependencies
+     */
+    @Nullable
+    String resolve(@Nullable Repository repository, BitbucketVariables variables);
+}
@@ -0,0 +1,132 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+
+/**
+ * Summarizes the metrics and the trigger history for the diagnostics page. Counts are totals
+ * since the plugin started, the page works out rates from the difference between two
+ * summaries.
+ */
+public final class Diagnostics {
+    static final int SLOW_TRIGGERS = 10;
+    // how many of the most recent history entries are searched for slow triggers
+    static final int SLOW_TRIGGER_WINDOW = 1000;
+
+    private Diagnostics() {
+    }
+
+    /**
+     * @param permitsInUse
+     *            the batch trigger permits held for each server
+     * @param permitLimit
+     *            the number of batch trigger permits each server has
+     */
+    public static Map<String, Object> snapshot(Map<String, Integer> permitsInUse,
+            int permitLimit) {
+        Map<String, Object> metrics = Metrics.snapshot();
+        Map<String, Object> diagnostics = new LinkedHashMap<>();
+        diagnostics.put("timestamp", System.currentTimeMillis());
+        diagnostics.put("executor", executor(metrics));
+        diagnostics.put("servers", servers(metrics, permitsInUse, permitLimit));
+        diagnostics.put("caches", caches(metrics));
+        diagnostics.put("slowTriggers", slowTriggers());
+        return diagnostics;
+    }
+
+    private static Map<String, Object> executor(Map<String, Object> metrics) {
+        Map<String, Object> executor = new LinkedHashMap<>();
+        executor.put("queued", metrics.getOrDefault(Tracing.QUEUE_GAUGE, 0L));
+        executor.put("queueTime", metrics.get(Tracing.QUEUE_SPAN));
+        return executor;
+    }
+
+    private static Map<String, Map<String, Object>> servers(Map<String, Object> metrics,
+            Map<String, Integer> permitsInUse, int permitLimit) {
+        Map<String, Map<String, Object>> servers = new TreeMap<>();
+        for (Entry<String, Object> metric : metrics.entrySet()) {
+            String name = Metrics.name(metric.getKey());
+            Map<String, String> tags = Metrics.tags(metric.getKey());
+            String server = tags.get("server");
+            if ("jenkins.inflight".equals(name)) {
+                server(servers, server).put("inFlight", metric.getValue());
+            } else if ("jenkins.status".equals(name)) {
+                Map<String, Object> data = server(servers, server);
+                long count = (Long) metric.getValue();
+                data.merge("requests", count, (a, b) -> (Long) a + (Long) b);
+                if (isError(tags.get("status"))) {
+                    data.merge("errors", count, (a, b) -> (Long) a + (Long) b);
+                }
+            }
+        }
+        permitsInUse.forEach((server, inUse) -> {
+            Map<String, Object> data = server(servers, server);
+            data.put("batchPermitsInUse", inUse);
+            data.put("batchLimitReached", inUse >= permitLimit);
+        });
+        for (Map<String, Object> data : servers.values()) {
+            long requests = (Long) data.get("requests");
+            data.put("errorRate", requests == 0 ? 0.0 : (Long) data.get("errors")
+                    / (double) requests);
+        }
+        return servers;
+    }
+
+    private static Map<String, Object> server(Map<String, Map<String, Object>> servers,
+            String server) {
+        return servers.computeIfAbsent(server, key -> {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("inFlight", 0L);
+            data.put("requests", 0L);
+            data.put("errors", 0L);
+            data.put("batchPermitsInUse", 0);
+            data.put("batchLimitReached", false);
+            return data;
+        });
+    }
+
+    private static boolean isError(String status) {
+        // anything that is not a number never got a response
+        return status == null || !status.matches("[23]\\d\\d");
+    }
+
+    private static Map<String, Map<String, Object>> caches(Map<String, Object> metrics) {
+        Map<String, Map<String, Object>> caches = new TreeMap<>();
+        for (Entry<String, Object> metric : metrics.entrySet()) {
+            if (!"cache.lookup".equals(Metrics.name(metric.getKey()))) {
+                continue;
+            }
+            Map<String, String> tags = Metrics.tags(metric.getKey());
+            Map<String, Object> data = caches.computeIfAbsent(tags.get("cache"), key -> {
+                Map<String, Object> counts = new LinkedHashMap<>();
+                counts.put("hits", 0L);
+                counts.put("misses", 0L);
+                return counts;
+            });
+            data.put("hit".equals(tags.get("result")) ? "hits" : "misses", metric.getValue());
+        }
+        for (Map<String, Object> data : caches.values()) {
+            long hits = (Long) data.get("hits");
+            long total = hits + (Long) data.get("misses");
+            data.put("hitRatio", total == 0 ? 0.0 : hits / (double) total);
+        }
+        return caches;
+    }
+
+    private static List<Map<String, Object>> slowTriggers() {
+        return TriggerHistory.global().query(null, null, null, 0, SLOW_TRIGGER_WINDOW).stream()
+                .filter(entry -> !Outcome.SKIPPED.name().equals(entry.get("outcome")))
+                .sorted(Comparator.comparingDouble(
+                        (Map<String, Object> entry) -> (Double) entry.get("latencyMillis"))
+                        .reversed())
+                .limit(SLOW_TRIGGERS)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,265 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+
+/**
+ * An entry of the {@link TriggerJournal}, either an event that was handed to the handlers or
+ * the outcome of one of its jobs. Events carry what is needed to match them against the jobs
+ * again, outcomes carry the same fields as the {@link TriggerHistory}.
+ */
+public class JournalRecord {
+    private static final byte VERSION = 1;
+    // longer strings are cut off, a record has to fit in a segment
+    static final int MAX_STRING_BYTES = 4096;
+
+    public enum Type {
+        EVENT, OUTCOME
+    }
+
+    private final Type type;
+    private final long timestamp;
+    private final String project;
+    private final String repository;
+    private final String branch;
+    private final String pullRequest;
+    private final String prDestination;
+    private final Trigger trigger;
+    private final boolean tag;
+    private final String job;
+    private final Outcome outcome;
+    private final String reason;
+    private final int status;
+    private final long latencyNanos;
+
+    private JournalRecord(Type type, long timestamp, @Nullable String project,
+            @Nullable String repository, @Nullable String branch, @Nullable String pullRequest,
+            @Nullable String prDestination, @Nullable Trigger trigger, boolean tag,
+            @Nullable String job, @Nullable Outcome outcome, @Nullable String reason, int status,
+            long latencyNanos) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.project = project;
+        this.repository = repository;
+        this.branch = branch;
+        this.pullRequest = pullRequest;
+        this.prDestination = prDestination;
+        this.trigger = trigger;
+        this.tag = tag;
+        this.job = job;
+        this.outcome = outcome;
+        this.reason = reason;
+        this.status = status;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public static JournalRecord event(long timestamp, @Nullable String project,
+            @Nullable String repository, @Nullable String branch, @Nullable String pullRequest,
+            @Nullable String prDestination, @Nullable Trigger trigger, boolean tag) {
+        return new JournalRecord(Type.EVENT, timestamp, project, repository, branch,
+                pullRequest, prDestination, trigger, tag, null, null, null, 0, 0);
+    }
+
+    public static JournalRecord outcome(long timestamp, @Nullable String project,
+            @Nullable String repository, @Nullable String branch, @Nullable String pullRequest,
+            @Nullable Trigger trigger, @Nullable String job, Outcome outcome,
+            @Nullable String reason, int status, long latencyNanos) {
+        return new JournalRecord(Type.OUTCOME, timestamp, project, repository, branch,
+                pullRequest, null, trigger, false, job, outcome, reason, status, latencyNanos);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Nullable
+    public String getProject() {
+        return project;
+    }
+
+    @Nullable
+    public String getRepository() {
+        return repository;
+    }
+
+    @Nullable
+    public String getBranch() {
+        return branch;
+    }
+
+    @Nullable
+    public String getPullRequest() {
+        return pullRequest;
+    }
+
+    @Nullable
+    public String getPrDestination() {
+        return prDestination;
+    }
+
+    @Nullable
+    public Trigger getTrigger() {
+        return trigger;
+    }
+
+    public boolean isTag() {
+        return tag;
+    }
+
+    @Nullable
+    public String getJob() {
+        return job;
+    }
+
+    @Nullable
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    @Nullable
+    public String getReason() {
+        return reason;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public Map<String, Object> asMap() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("type", type.name());
+        data.put("timestamp", timestamp);
+        data.put("project", project);
+        data.put("repository", repository);
+        data.put("branch", branch);
+        if (pullRequest != null) {
+            data.put("pullRequest", pullRequest);
+        }
+        data.put("trigger", trigger == null ? null : trigger.name());
+        if (type == Type.EVENT) {
+            if (prDestination != null) {
+                data.put("prDestination", prDestination);
+            }
+            data.put("tag", tag);
+        } else {
+            data.put("job", job);
+            data.put("outcome", outcome == null ? null : outcome.name());
+            if (reason != null) {
+                data.put("reason", reason);
+            }
+            data.put("status", status);
+            data.put("latencyMillis", latencyNanos / 1_000_000.0);
+        }
+        return data;
+    }
+
+    /**
+     * @return the record in the journal's binary format, without the length prefix
+     */
+    byte[] encode() {
+        String triggerName = trigger == null ? null : trigger.name();
+        String outcomeName = outcome == null ? null : outcome.name();
+        byte[][] strings = { bytes(project), bytes(repository), bytes(branch), bytes(pullRequest),
+            bytes(prDestination), bytes(triggerName), bytes(job), bytes(outcomeName),
+            bytes(reason) };
+        int size = 1 + 1 + 8 + 1 + 4 + 8;
+        for (byte[] string : strings) {
+            size += 2 + (string == null ? 0 : string.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION).put((byte) type.ordinal()).putLong(timestamp)
+                .put((byte) (tag ? 1 : 0)).putInt(status).putLong(latencyNanos);
+        for (byte[] string : strings) {
+            if (string == null) {
+                buffer.putShort((short) -1);
+            } else {
+                buffer.putShort((short) string.length).put(string);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reads a record written by {@link #encode()}.
+     *
+     * @return the record or null if it was written in an unknown format
+     */
+    @Nullable
+    static JournalRecord decode(ByteBuffer buffer) {
+        try {
+            if (buffer.get() != VERSION) {
+                return null;
+            }
+            Type type = Type.values()[buffer.get()];
+            long timestamp = buffer.getLong();
+            boolean tag = buffer.get() == 1;
+            int status = buffer.getInt();
+            long latencyNanos = buffer.getLong();
+            String project = string(buffer);
+            String repository = string(buffer);
+            String branch = string(buffer);
+            String pullRequest = string(buffer);
+            String prDestination = string(buffer);
+            String trigger = string(buffer);
+            String job = string(buffer);
+            String outcome = string(buffer);
+            String reason = string(buffer);
+            return new JournalRecord(type, timestamp, project, repository, branch, pullRequest,
+                    prDestination, trigger == null ? null : Trigger.valueOf(trigger), tag, job,
+                    outcome == null ? null : Outcome.valueOf(outcome), reason, status,
+                    latencyNanos);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encodes a string, cutting it off at the last whole character that fits in
+     * {@link #MAX_STRING_BYTES}.
+     */
+    @Nullable
+    private static byte[] bytes(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_STRING_BYTES) {
+            return bytes;
+        }
+        int length = MAX_STRING_BYTES;
+        // back off continuation bytes so the character that did not fit is left out entirely
+        while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    @Nullable
+    private static String string(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
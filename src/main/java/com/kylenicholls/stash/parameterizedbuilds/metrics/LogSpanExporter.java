@@ -0,0 +1,33 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+/**
+ * Writes each span as a line of JSON to the {@value #LOGGER} logger at debug level. Raising
+ * that logger to debug, or sending it to its own file, turns on the trace log without a
+ * restart.
+ */
+public class LogSpanExporter implements SpanExporter {
+    static final String LOGGER = "com.kylenicholls.stash.parameterizedbuilds.trace";
+    private static final Gson GSON = new Gson();
+
+    private final Logger logger;
+
+    public LogSpanExporter() {
+        this(LoggerFactory.getLogger(LOGGER));
+    }
+
+    LogSpanExporter(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void export(Span span) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(GSON.toJson(span.asMap()));
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters and timers for the trigger pipeline. Metrics are created the first time they are
+ * used and live for as long as the plugin is enabled. A metric is named after what it
+ * measures plus its tags, for example {@code jenkins.post{server=ci:8080}}.
+ *
+ * Recording only touches striped adders and a fixed set of buckets, so it is cheap enough
+ * to do on every event.
+ */
+public final class Metrics {
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter with the given name and tags, creating it if needed.
+     *
+     * @param name
+     *            the metric name
+     * @param tags
+     *            alternating tag names and values
+     */
+    public static Counter counter(String name, Object... tags) {
+        return counters.computeIfAbsent(key(name, tags), key -> new Counter());
+    }
+
+    /**
+     * Returns the timer with the given name and tags, creating it if needed.
+     *
+     * @param name
+     *            the metric name
+     * @param tags
+     *            alternating tag names and values
+     */
+    public static Timer timer(String name, Object... tags) {
+        return timers.computeIfAbsent(key(name, tags), key -> new Timer());
+    }
+
+    /**
+     * Returns the gauge with the given name and tags, creating it if needed.
+     *
+     * @param name
+     *            the metric name
+     * @param tags
+     *            alternating tag names and values
+     */
+    public static Gauge gauge(String name, Object... tags) {
+        return gauges.computeIfAbsent(key(name, tags), key -> new Gauge());
+    }
+
+    /**
+     * Counts a lookup in one of the plugin's caches as a {@code cache.lookup} counter tagged
+     * with the cache and whether it was a hit.
+     */
+    public static void cacheLookup(String cache, boolean hit) {
+        counter("cache.lookup", "cache", cache, "result", hit ? "hit" : "miss").increment();
+    }
+
+    /**
+     * Returns the current value of every metric sorted by name. Counters and gauges are
+     * numbers and timers are maps of their statistics in milliseconds.
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        counters.forEach((key, counter) -> snapshot.put(key, counter.count()));
+        gauges.forEach((key, gauge) -> snapshot.put(key, gauge.value()));
+        timers.forEach((key, timer) -> snapshot.put(key, timer.snapshot()));
+        return snapshot;
+    }
+
+    static String key(String name, Object... tags) {
+        if (tags.length == 0) {
+            return name;
+        }
+        StringBuilder key = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < tags.length; i += 2) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(tags[i]).append('=').append(tags[i + 1]);
+        }
+        return key.append('}').toString();
+    }
+
+    /**
+     * @return the name part of a metric key
+     */
+    static String name(String key) {
+        int tags = key.indexOf('{');
+        return tags < 0 ? key : key.substring(0, tags);
+    }
+
+    /**
+     * @return the tags of a metric key in the order they were given
+     */
+    static Map<String, String> tags(String key) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        int start = key.indexOf('{');
+        if (start < 0 || !key.endsWith("}")) {
+            return tags;
+        }
+        for (String tag : key.substring(start + 1, key.length() - 1).split(",")) {
+            int split = tag.indexOf('=');
+            if (split > 0) {
+                tags.put(tag.substring(0, split), tag.substring(split + 1));
+            }
+        }
+        return tags;
+    }
+
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public long count() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * A value that goes up and down, such as the number of requests in flight.
+     */
+    public static class Gauge {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void decrement() {
+            value.decrement();
+        }
+
+        public long value() {
+            return value.sum();
+        }
+    }
+
+    public static class Timer {
+        // upper bounds of the histogram buckets, anything slower lands in the last bucket
+        static final long[] BUCKET_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1_000, 2_000,
+            5_000, 10_000, 30_000, 60_000 };
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+
+        /**
+         * Records the time since {@code startNanos}, taken from {@link System#nanoTime()}.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMillis(nanos)));
+        }
+
+        public <T> T time(Supplier<T> supplier) {
+            long start = System.nanoTime();
+            try {
+                return supplier.get();
+            } finally {
+                recordSince(start);
+            }
+        }
+
+        public void time(Runnable runnable) {
+            long start = System.nanoTime();
+            try {
+                runnable.run();
+            } finally {
+                recordSince(start);
+            }
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the count, total, mean and max times and the approximate 50th, 95th and
+         * 99th percentiles. Percentiles are the upper bound of the bucket they fall in.
+         */
+        public Map<String, Object> snapshot() {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("count", total);
+            snapshot.put("totalMillis", millis(totalNanos.sum()));
+            snapshot.put("meanMillis", total == 0 ? 0.0 : millis(totalNanos.sum()) / total);
+            snapshot.put("maxMillis", millis(maxNanos.get()));
+            snapshot.put("p50Millis", percentile(counts, total, 0.50));
+            snapshot.put("p95Millis", percentile(counts, total, 0.95));
+            snapshot.put("p99Millis", percentile(counts, total, 0.99));
+            return snapshot;
+        }
+
+        private long percentile(long[] counts, long total, double percentile) {
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i < BUCKET_MILLIS.length ? BUCKET_MILLIS[i]
+                            : TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+                }
+            }
+            return 0;
+        }
+
+        private static int bucket(long millis) {
+            for (int i = 0; i < BUCKET_MILLIS.length; i++) {
+                if (millis <= BUCKET_MILLIS[i]) {
+                    return i;
+                }
+            }
+            return BUCKET_MILLIS.length;
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Publishes {@link Metrics} over JMX while the plugin is enabled. Every counter and every
+ * timer statistic is a read only attribute of a single MBean.
+ */
+public class MetricsExporter implements InitializingBean, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsExporter.class);
+    static final String OBJECT_NAME = "com.kylenicholls.stash.parameterizedbuilds:type=Metrics";
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(name)) {
+                // left behind by an earlier instance of the plugin
+                mBeanServer.unregisterMBean(name);
+            }
+            mBeanServer.registerMBean(new MetricsMBean(), name);
+        } catch (JMException e) {
+            logger.warn("Could not register metrics MBean: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.warn("Could not unregister metrics MBean: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Flattens the metrics into attributes, timer statistics are named
+     * {@code <timer>.<statistic>}.
+     */
+    static Map<String, Object> attributes() {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        for (Entry<String, Object> metric : Metrics.snapshot().entrySet()) {
+            if (metric.getValue() instanceof Map) {
+                for (Entry<?, ?> statistic : ((Map<?, ?>) metric.getValue()).entrySet()) {
+                    attributes.put(metric.getKey() + "." + statistic.getKey(),
+                            statistic.getValue());
+                }
+            } else {
+                attributes.put(metric.getKey(), metric.getValue());
+            }
+        }
+        return attributes;
+    }
+
+    static class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = attributes().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Object> attributes = attributes();
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (attributes.containsKey(name)) {
+                    list.add(new Attribute(name, attributes.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Object> attributes = attributes();
+            MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.size()];
+            int i = 0;
+            for (Entry<String, Object> attribute : attributes.entrySet()) {
+                infos[i++] = new MBeanAttributeInfo(attribute.getKey(),
+                        attribute.getValue().getClass().getName(), attribute.getKey(), true,
+                        false, false);
+            }
+            return new MBeanInfo(MetricsMBean.class.getName(), "Parameterized builds metrics",
+                    infos, null, null, null);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * A timed step of a trace. Spans are started and ended through {@link Tracing}, closing a span
+ * ends it. Tags are only set by the thread that started the span.
+ */
+public final class Span implements AutoCloseable {
+    private final String traceId;
+    private final String spanId;
+    private final String parentId;
+    private final String name;
+    private final long startMillis;
+    private final long startNanos;
+    private final Map<String, String> tags = new LinkedHashMap<>();
+    private volatile long durationNanos = -1;
+    // the span that was current on the thread before this one was made current
+    Span previous;
+
+    Span(String traceId, String spanId, @Nullable String parentId, String name,
+            long startMillis, long startNanos) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.name = name;
+        this.startMillis = startMillis;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Adds a tag to the span, a null value is stored as "null".
+     *
+     * @return this span
+     */
+    public Span tag(String key, @Nullable Object value) {
+        tags.put(key, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Ends the span, a span that has already ended is left as it is.
+     */
+    @Override
+    public void close() {
+        Tracing.end(this);
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    @Nullable
+    public String getParentId() {
+        return parentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * @return how long the span took in nanoseconds, -1 while it is running
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    boolean finish(long endNanos) {
+        if (durationNanos >= 0) {
+            return false;
+        }
+        durationNanos = endNanos - startNanos;
+        return true;
+    }
+
+    /**
+     * Returns the W3C trace context header value that makes a remote call a child of this
+     * span.
+     */
+    public String traceParent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    public Map<String, Object> asMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("traceId", traceId);
+        map.put("spanId", spanId);
+        if (parentId != null) {
+            map.put("parentId", parentId);
+        }
+        map.put("name", name);
+        map.put("timestamp", startMillis);
+        map.put("durationMillis", durationNanos < 0 ? null
+                : durationNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        map.put("tags", tags);
+        return map;
+    }
+}
@@ -0,0 +1,10 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+/**
+ * Receives every span when it ends. Exporters are called on the thread that ended the span,
+ * so they must be quick and must not throw.
+ */
+public interface SpanExporter {
+
+    void export(Span span);
+}
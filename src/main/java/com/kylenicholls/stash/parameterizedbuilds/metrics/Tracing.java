@@ -0,0 +1,169 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Traces an event from the Bitbucket hook to the Jenkins response. Each thread has a current
+ * span, and new spans are children of it. A root span can be handed to another thread with
+ * {@link #wrap(Span, Runnable)}, which also records how long the task waited to run, or
+ * straight to an executor with {@link #execute(Executor, Span, Runnable)}.
+ *
+ * Spans are passed to the {@link SpanExporter} as they end, by default a
+ * {@link LogSpanExporter}.
+ */
+public final class Tracing {
+    private static final Logger logger = LoggerFactory.getLogger(Tracing.class);
+    public static final String TRACE_HEADER = "traceparent";
+    static final String QUEUE_SPAN = "executor.queue";
+    static final String QUEUE_GAUGE = "executor.queued";
+
+    private static final ThreadLocal<Span> current = new ThreadLocal<>();
+    private static final SpanExporter DEFAULT_EXPORTER = new LogSpanExporter();
+    private static volatile SpanExporter exporter = DEFAULT_EXPORTER;
+
+    private Tracing() {
+    }
+
+    /**
+     * Starts a span as a child of the current span, or of a new trace if there is none, and
+     * makes it the current span until it is closed.
+     *
+     * @param tags
+     *            alternating tag names and values
+     */
+    public static Span start(String name, Object... tags) {
+        Span parent = current.get();
+        Span span = parent == null ? newTrace(name)
+                : new Span(parent.getTraceId(), newId(), parent.getSpanId(), name,
+                        System.currentTimeMillis(), System.nanoTime());
+        tag(span, tags);
+        span.previous = parent;
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * Starts a span of a new trace without making it current, so that it can be handed to the
+     * thread that does the work with {@link #wrap(Span, Runnable)}.
+     *
+     * @param tags
+     *            alternating tag names and values
+     */
+    public static Span startRoot(String name, Object... tags) {
+        Span span = newTrace(name);
+        tag(span, tags);
+        return span;
+    }
+
+    /**
+     * @return the span of the current thread, null if nothing is being traced
+     */
+    @Nullable
+    public static Span current() {
+        return current.get();
+    }
+
+    /**
+     * Returns a task that runs with the span as the current span and ends it when done. The
+     * time between the call to this method and the task starting is recorded as an
+     * {@value #QUEUE_SPAN} span and timer, and the {@value #QUEUE_GAUGE} gauge counts the
+     * tasks that are waiting. A task that is never run stays counted, so tasks that may be
+     * rejected should be handed over with {@link #execute(Executor, Span, Runnable)}.
+     */
+    public static Runnable wrap(Span span, Runnable task) {
+        long queuedMillis = System.currentTimeMillis();
+        long queuedNanos = System.nanoTime();
+        Metrics.gauge(QUEUE_GAUGE).increment();
+        return () -> {
+            Metrics.gauge(QUEUE_GAUGE).decrement();
+            Metrics.timer(QUEUE_SPAN).recordSince(queuedNanos);
+            Span queued = new Span(span.getTraceId(), newId(), span.getSpanId(), QUEUE_SPAN,
+                    queuedMillis, queuedNanos);
+            queued.finish(System.nanoTime());
+            export(queued);
+            span.previous = current.get();
+            current.set(span);
+            try {
+                task.run();
+            } finally {
+                span.close();
+            }
+        };
+    }
+
+    /**
+     * Runs the task on the executor as {@link #wrap(Span, Runnable)} does. If the executor
+     * rejects it, the task is no longer counted as queued and the span ends tagged with the
+     * error before the exception is rethrown.
+     *
+     * @throws RejectedExecutionException
+     *             if the executor did not accept the task
+     */
+    public static void execute(Executor executor, Span span, Runnable task) {
+        Runnable wrapped = wrap(span, task);
+        try {
+            executor.execute(wrapped);
+        } catch (RejectedExecutionException e) {
+            Metrics.gauge(QUEUE_GAUGE).decrement();
+            span.tag("error", "rejected").close();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the exporter, null restores the {@link LogSpanExporter}.
+     */
+    public static void setExporter(@Nullable SpanExporter spanExporter) {
+        exporter = spanExporter == null ? DEFAULT_EXPORTER : spanExporter;
+    }
+
+    static void end(Span span) {
+        if (!span.finish(System.nanoTime())) {
+            return;
+        }
+        if (current.get() == span) {
+            if (span.previous == null) {
+                current.remove();
+            } else {
+                current.set(span.previous);
+            }
+        }
+        span.previous = null;
+        export(span);
+    }
+
+    private static void export(Span span) {
+        try {
+            exporter.export(span);
+        } catch (RuntimeException e) {
+            logger.warn("Could not export span " + span.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Span newTrace(String name) {
+        return new Span(newId() + newId(), newId(), null, name, System.currentTimeMillis(),
+                System.nanoTime());
+    }
+
+    private static void tag(Span span, Object... tags) {
+        for (int i = 0; i + 1 < tags.length; i += 2) {
+            span.tag(String.valueOf(tags[i]), tags[i + 1]);
+        }
+    }
+
+    private static String newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        // ids are fixed width lower case hex, as the trace context header requires
+        return String.format("%016x", id);
+    }
+}
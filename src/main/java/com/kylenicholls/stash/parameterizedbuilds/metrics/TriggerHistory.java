@@ -0,0 +1,236 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+
+/**
+ * The outcome of the most recent job evaluations, kept in a fixed size ring buffer so the
+ * newest entries overwrite the oldest. Every entry is allocated up front and reused, so
+ * recording is a counter increment, a compare and set and a handful of field writes.
+ *
+ * Neither recording nor reading takes a lock. A writer claims its slot by swapping the
+ * slot's sequence for {@link #WRITING} and publishes the entry by writing its own sequence
+ * back. A reader only keeps an entry whose sequence was the same before and after it was
+ * copied. When two writers wrap around onto the same slot at once the newer entry wins: a
+ * newer writer waits for an older one to finish its handful of field writes and then
+ * overwrites it, while an older writer that finds a newer entry drops its own.
+ */
+public final class TriggerHistory {
+    static final int CAPACITY = 4096;
+    private static final long WRITING = -1;
+    private static final long EMPTY = -2;
+    private static final TriggerHistory GLOBAL = new TriggerHistory(CAPACITY);
+
+    public enum Outcome {
+        TRIGGERED, FAILED, SKIPPED
+    }
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray sequences;
+    private final HistoryEntry[] entries;
+    private volatile TriggerJournal journal;
+
+    TriggerHistory(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        this.entries = new HistoryEntry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, EMPTY);
+            entries[i] = new HistoryEntry();
+        }
+    }
+
+    /**
+     * @return the history shared by every handler and the rest resources
+     */
+    public static TriggerHistory global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return the journal every entry is also written to, or null if journaling is off
+     */
+    @Nullable
+    public TriggerJournal getJournal() {
+        return journal;
+    }
+
+    void setJournal(@Nullable TriggerJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Records the outcome of evaluating a job. Strings are stored by reference, so callers
+     * should pass values they already have rather than build new ones.
+     *
+     * @param reason
+     *            why a job was skipped or failed, null when it was triggered
+     * @param status
+     *            the HTTP status returned by Jenkins, 0 if there was no response
+     * @param latencyNanos
+     *            how long the trigger took, 0 if Jenkins was not called
+     */
+    public void record(@Nullable String project, @Nullable String repository,
+            @Nullable String branch, @Nullable String pullRequest, @Nullable Trigger trigger,
+            @Nullable String job, Outcome outcome, @Nullable String reason, int status,
+            long latencyNanos) {
+        TriggerJournal activeJournal = journal;
+        if (activeJournal != null) {
+            activeJournal.append(JournalRecord.outcome(System.currentTimeMillis(), project,
+                    repository, branch, pullRequest, trigger, job, outcome, reason, status,
+                    latencyNanos));
+        }
+        long sequence = claim();
+        if (sequence < 0) {
+            // a newer entry took this slot
+            return;
+        }
+        int slot = (int) (sequence & mask);
+        HistoryEntry entry = entries[slot];
+        entry.timestamp = System.currentTimeMillis();
+        entry.project = project;
+        entry.repository = repository;
+        entry.branch = branch;
+        entry.pullRequest = pullRequest;
+        entry.trigger = trigger;
+        entry.job = job;
+        entry.outcome = outcome;
+        entry.reason = reason;
+        entry.status = status;
+        entry.latencyNanos = latencyNanos;
+        publish(sequence);
+    }
+
+    /**
+     * Takes the next sequence and claims its slot, waiting for an older writer that is still
+     * writing the slot.
+     *
+     * @return the sequence, or -1 if a newer entry is in the slot already
+     */
+    long claim() {
+        long sequence = next.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        while (true) {
+            long current = sequences.get(slot);
+            if (current > sequence) {
+                return -1;
+            }
+            if (current != WRITING && sequences.compareAndSet(slot, current, WRITING)) {
+                return sequence;
+            }
+            // only an older writer can hold the slot, and it never blocks while it does
+            Thread.yield();
+        }
+    }
+
+    void publish(long sequence) {
+        sequences.set((int) (sequence & mask), sequence);
+    }
+
+    /**
+     * Returns the recorded entries that match every given filter, newest first.
+     *
+     * @param project
+     *            the project key, or null for every project
+     * @param repository
+     *            the repository slug, or null for every repository
+     * @param job
+     *            the job name, or null for every job
+     * @param since
+     *            the earliest time to include in milliseconds since the epoch
+     * @param limit
+     *            the maximum number of entries to return
+     */
+    public List<Map<String, Object>> query(@Nullable String project, @Nullable String repository,
+            @Nullable String job, long since, int limit) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        HistoryEntry copy = new HistoryEntry();
+        long newest = next.get() - 1;
+        for (long sequence = newest; sequence >= 0 && sequence > newest - entries.length
+                && results.size() < limit; sequence--) {
+            if (!read((int) (sequence & mask), sequence, copy)) {
+                continue;
+            }
+            if (copy.timestamp >= since && matches(project, copy.project)
+                    && matches(repository, copy.repository) && matches(job, copy.job)) {
+                results.add(copy.asMap(sequence));
+            }
+        }
+        return results;
+    }
+
+    private boolean read(int slot, long sequence, HistoryEntry copy) {
+        if (sequences.get(slot) != sequence) {
+            return false;
+        }
+        HistoryEntry entry = entries[slot];
+        copy.timestamp = entry.timestamp;
+        copy.project = entry.project;
+        copy.repository = entry.repository;
+        copy.branch = entry.branch;
+        copy.pullRequest = entry.pullRequest;
+        copy.trigger = entry.trigger;
+        copy.job = entry.job;
+        copy.outcome = entry.outcome;
+        copy.reason = entry.reason;
+        copy.status = entry.status;
+        copy.latencyNanos = entry.latencyNanos;
+        // the entry was overwritten while it was copied
+        return sequences.get(slot) == sequence;
+    }
+
+    private static boolean matches(@Nullable String filter, @Nullable String value) {
+        return filter == null || filter.equals(value);
+    }
+
+    /**
+     * A reusable slot of the ring buffer. The fields are volatile so that a reader's second
+     * look at the sequence cannot be reordered before the field reads.
+     */
+    private static final class HistoryEntry {
+        volatile long timestamp;
+        volatile String project;
+        volatile String repository;
+        volatile String branch;
+        volatile String pullRequest;
+        volatile Trigger trigger;
+        volatile String job;
+        volatile Outcome outcome;
+        volatile String reason;
+        volatile int status;
+        volatile long latencyNanos;
+
+        Map<String, Object> asMap(long sequence) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("sequence", sequence);
+            data.put("timestamp", timestamp);
+            data.put("project", project);
+            data.put("repository", repository);
+            data.put("branch", branch);
+            if (pullRequest != null) {
+                data.put("pullRequest", pullRequest);
+            }
+            data.put("trigger", trigger == null ? null : trigger.name());
+            data.put("job", job);
+            data.put("outcome", outcome.name());
+            if (reason != null) {
+                data.put("reason", reason);
+            }
+            data.put("status", status);
+            data.put("latencyMillis", latencyNanos / 1_000_000.0);
+            return data;
+        }
+    }
+}
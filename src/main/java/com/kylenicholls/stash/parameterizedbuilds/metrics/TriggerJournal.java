@@ -0,0 +1,323 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.atlassian.bitbucket.cluster.ClusterService;
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+
+/**
+ * An optional, long term journal of trigger events and their outcomes, for capacity planning
+ * and for replaying the events of a past day against the current jobs.
+ *
+ * The journal is off unless {@value #ENABLED_PROPERTY} is set to true in
+ * bitbucket.properties. Records are appended to memory mapped segment files of
+ * {@link #SEGMENT_SIZE} bytes in the shared home. Each record is an int length followed by
+ * the encoded record, and a length of zero marks the end of the written part of a segment.
+ * A new segment is started for every day, when a segment is full and every time the plugin
+ * starts. Every node writes its own segments, and segments are deleted once they are older
+ * than the number of days in {@value #RETENTION_PROPERTY}.
+ *
+ * <p>Appending only hands the record to a bounded queue. A single writer thread encodes the
+ * records and does all of the file work, including starting segments and deleting expired
+ * ones, so a trigger never waits on the disk or on another trigger. When the writer falls
+ * {@link #QUEUE_CAPACITY} records behind, new records are dropped and counted.
+ */
+public class TriggerJournal implements InitializingBean, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(TriggerJournal.class);
+    static final String ENABLED_PROPERTY = "plugin.parameterized-builds.journal.enabled";
+    static final String RETENTION_PROPERTY = "plugin.parameterized-builds.journal.retention.days";
+    static final int DEFAULT_RETENTION_DAYS = 30;
+    static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+    static final int QUEUE_CAPACITY = 8192;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final long STOP_TIMEOUT_MILLIS = 10_000L;
+    // queued by destroy to stop the writer once everything before it is written
+    private static final JournalRecord STOP = JournalRecord.event(0, null, null, null, null,
+            null, null, false);
+    // <day>.<node>.<index>.journal
+    private static final Pattern SEGMENT_NAME =
+            Pattern.compile("(\\d{4}-\\d{2}-\\d{2})\\.([\\w-]+)\\.(\\d+)\\.journal");
+
+    private final Path directory;
+    private final String node;
+    private final boolean enabled;
+    private final int retentionDays;
+
+    private final BlockingQueue<JournalRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // the number of records queued and the number the writer is done with, dropped or not
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong done = new AtomicLong();
+    private volatile Thread writer;
+
+    // only used by the writer thread
+    private MappedByteBuffer segment;
+    private LocalDate segmentDay;
+    private int segmentIndex;
+
+    public TriggerJournal(ApplicationPropertiesService applicationPropertiesService,
+            @ComponentImport ClusterService clusterService) {
+        this.directory = applicationPropertiesService.getSharedHomeDir()
+                .resolve("data").resolve("parameterized-builds").resolve("journal");
+        this.node = clusterService.getInformation().getLocalNode().getId()
+                .replaceAll("[^\\w-]", "_");
+        this.enabled = applicationPropertiesService.getPluginProperty(ENABLED_PROPERTY, false);
+        this.retentionDays = applicationPropertiesService.getPluginProperty(RETENTION_PROPERTY,
+                DEFAULT_RETENTION_DAYS);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            logger.warn("Could not create the trigger journal in " + directory + ": "
+                    + e.getMessage(), e);
+            return;
+        }
+        writer = new Thread(this::writeQueued, "parameterized-builds-journal");
+        writer.setDaemon(true);
+        writer.start();
+        TriggerHistory.global().setJournal(this);
+    }
+
+    /**
+     * Detaches the journal and waits for the writer to write what is still queued.
+     */
+    @Override
+    public void destroy() {
+        TriggerHistory.global().setJournal(null);
+        Thread current = writer;
+        if (current == null) {
+            return;
+        }
+        writer = null;
+        try {
+            if (!queue.offer(STOP, STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                // the writer is stuck, give up on what is still queued
+                current.interrupt();
+            }
+            current.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a record for the writer. Records are dropped when the journal is not running or
+     * the writer is too far behind, so that journaling never slows down or breaks a trigger.
+     */
+    public void append(JournalRecord record) {
+        if (writer == null || !queue.offer(record)) {
+            Metrics.counter("journal.dropped").increment();
+            return;
+        }
+        queued.incrementAndGet();
+    }
+
+    /**
+     * Waits until the writer is done with every record queued before the call.
+     */
+    void flush() throws InterruptedException {
+        long target = queued.get();
+        synchronized (done) {
+            while (done.get() < target && writer != null) {
+                done.wait(STOP_TIMEOUT_MILLIS);
+            }
+        }
+    }
+
+    private void writeQueued() {
+        List<JournalRecord> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (JournalRecord record : batch) {
+                    if (record == STOP) {
+                        return;
+                    }
+                    write(record);
+                }
+                synchronized (done) {
+                    done.addAndGet(batch.size());
+                    done.notifyAll();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSegment();
+            synchronized (done) {
+                done.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes a record to the current segment, starting a new segment when the record's day
+     * is not the segment's day or the segment is full. Failures are logged and the record is
+     * dropped.
+     */
+    private void write(JournalRecord record) {
+        byte[] encoded = record.encode();
+        LocalDate day = day(record.getTimestamp());
+        try {
+            if (segment == null || !day.equals(segmentDay)
+                    || segment.remaining() < encoded.length + 2 * Integer.BYTES) {
+                openSegment(day);
+            }
+            int position = segment.position();
+            segment.position(position + Integer.BYTES);
+            segment.put(encoded);
+            // the length goes in last so a reader never sees half a record
+            segment.putInt(position, encoded.length);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not write to the trigger journal: " + e.getMessage(), e);
+            closeSegment();
+        }
+    }
+
+    /**
+     * Streams every record written between two days, inclusive, to the consumer. Segments
+     * are read in order of day, node and index, so records of one node are in the order they
+     * were written but records of different nodes are not interleaved by time.
+     */
+    public void read(LocalDate from, LocalDate to, Consumer<JournalRecord> consumer)
+            throws IOException {
+        for (Path path : segments(from, to)) {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            }
+            try {
+                while (buffer.remaining() >= Integer.BYTES) {
+                    int length = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    ByteBuffer slice = buffer.slice();
+                    slice.limit(length);
+                    buffer.position(buffer.position() + length);
+                    JournalRecord record = JournalRecord.decode(slice);
+                    if (record != null) {
+                        consumer.accept(record);
+                    }
+                }
+            } finally {
+                // records copy what they decode, nothing refers to the mapping any more
+                Unmapper.unmap(buffer);
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments that are older than the retention period.
+     */
+    void deleteExpired(LocalDate today) throws IOException {
+        LocalDate oldest = today.minusDays(retentionDays);
+        for (Path path : segments(LocalDate.MIN, oldest.minusDays(1))) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private void openSegment(LocalDate day) throws IOException {
+        closeSegment();
+        if (!day.equals(segmentDay)) {
+            segmentDay = day;
+            segmentIndex = nextIndex(day);
+            deleteExpired(day);
+        }
+        Path path = directory.resolve(day + "." + node + "." + segmentIndex++ + ".journal");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            segment = channel.map(MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    private void closeSegment() {
+        if (segment != null) {
+            segment.force();
+            Unmapper.unmap(segment);
+            segment = null;
+        }
+    }
+
+    private int nextIndex(LocalDate day) throws IOException {
+        int next = 0;
+        for (Path path : segments(day, day)) {
+            Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+            if (matcher.matches() && matcher.group(2).equals(node)) {
+                next = Math.max(next, Integer.parseInt(matcher.group(3)) + 1);
+            }
+        }
+        return next;
+    }
+
+    private List<Path> segments(LocalDate from, LocalDate to) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*.journal")) {
+            for (Path path : paths) {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    LocalDate day = LocalDate.parse(matcher.group(1));
+                    if (!day.isBefore(from) && !day.isAfter(to)) {
+                        segments.add(path);
+                    }
+                }
+            }
+        }
+        segments.sort(Comparator.comparing(TriggerJournal::segmentKey));
+        return segments;
+    }
+
+    private static String segmentKey(Path path) {
+        Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+        matcher.matches();
+        return matcher.group(1) + "." + matcher.group(2) + "."
+                + String.format("%09d", Integer.parseInt(matcher.group(3)));
+    }
+
+    /**
+     * @return the UTC day of a time in milliseconds since the epoch
+     */
+    static LocalDate day(long timestamp) {
+        return LocalDate.ofEpochDay(Math.floorDiv(timestamp, MILLIS_PER_DAY));
+    }
+}
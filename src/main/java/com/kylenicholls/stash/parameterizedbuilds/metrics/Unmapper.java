@@ -0,0 +1,68 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Releases file mappings straight away. The JDK only unmaps a file when its buffer is
+ * garbage collected, which can take long enough for the mappings of old journal segments to
+ * pile up. There is no public API for it, so this uses Unsafe.invokeCleaner on Java 9 and
+ * later and the buffer's cleaner on Java 8, and leaves the mapping to the garbage collector
+ * when neither is available.
+ *
+ * <p>A buffer must not be used after it was unmapped, the JVM crashes if it is.
+ */
+final class Unmapper {
+    private static final Logger logger = LoggerFactory.getLogger(Unmapper.class);
+    private static final Unmap UNMAP = lookup();
+
+    private interface Unmap {
+        void unmap(ByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    private Unmapper() {
+    }
+
+    static void unmap(MappedByteBuffer buffer) {
+        if (UNMAP == null) {
+            return;
+        }
+        try {
+            UNMAP.unmap(buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Could not unmap a journal segment: " + e.getMessage(), e);
+        }
+    }
+
+    private static Unmap lookup() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8 has no invokeCleaner
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object bufferCleaner = cleaner.invoke(buffer);
+                if (bufferCleaner != null) {
+                    clean.invoke(bufferCleaner);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Journal segments are unmapped by the garbage collector: "
+                    + e.getMessage());
+            return null;
+        }
+    }
+}
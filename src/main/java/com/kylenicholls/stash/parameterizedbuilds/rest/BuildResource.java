@@ -1,29 +1,46 @@
 package com.kylenicholls.stash.parameterizedbuilds.rest;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import com.atlassian.bitbucket.auth.AuthenticationContext;
 import com.atlassian.bitbucket.hook.repository.RepositoryHook;
 import com.atlassian.bitbucket.i18n.I18nService;
+import com.atlassian.bitbucket.permission.Permission;
 import com.atlassian.bitbucket.pull.PullRequest;
 import com.atlassian.bitbucket.pull.PullRequestService;
 import com.atlassian.bitbucket.repository.Repository;
@@ -34,15 +51,24 @@ import com.atlassian.bitbucket.server.ApplicationPropertiesService;
 import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.atlassian.plugins.rest.common.security.AnonymousAllowed;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.JenkinsConnection;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.TriggerQueue;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.TriggerQueue.TriggerStatus;
 import com.kylenicholls.stash.parameterizedbuilds.conditions.BuildPermissionsCondition;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables;
 import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Builder;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
+import com.kylenicholls.stash.parameterizedbuilds.item.JenkinsResponse;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
 import com.sun.jersey.spi.resource.Singleton;
 
 import org.apache.commons.compress.utils.Lists;
@@ -54,17 +80,31 @@ import org.apache.commons.compress.utils.Lists;
 @Deprecated
 @AnonymousAllowed
 public class BuildResource extends RestResource {
+    static final String NDJSON = "application/x-ndjson";
+    // every item of a batch is held until the whole batch has been streamed back
+    static final int MAX_BATCH_SIZE = 50;
+    private static final Gson GSON = new Gson();
+    private static final long MANUAL_JOBS_CACHE_SIZE = 1_000;
+    // short enough that permission changes show up without any invalidation
+    private static final long MANUAL_JOBS_CACHE_SECONDS = 30;
     private SettingsService settingsService;
     private Jenkins jenkins;
     private final ApplicationPropertiesService applicationPropertiesService;
     private final PullRequestService prService;
     private final AuthenticationContext authContext;
     private final BuildPermissionsCondition permissionsCheck;
+    private final TriggerQueue triggerQueue;
+    // manual jobs the user can build keyed by repository and user
+    private final Cache<String, ManualJobs> manualJobs = CacheBuilder.newBuilder()
+            .maximumSize(MANUAL_JOBS_CACHE_SIZE)
+            .expireAfterWrite(MANUAL_JOBS_CACHE_SECONDS, TimeUnit.SECONDS)
+            .build();
 
     public BuildResource(I18nService i18nService, SettingsService settingsService, Jenkins jenkins,
             ApplicationPropertiesService applicationPropertiesService,
             PullRequestService prService,
-            AuthenticationContext authContext, BuildPermissionsCondition permissionsCheck) {
+            AuthenticationContext authContext, BuildPermissionsCondition permissionsCheck,
+            TriggerQueue triggerQueue) {
         super(i18nService);
         this.settingsService = settingsService;
         this.jenkins = jenkins;
@@ -72,12 +112,155 @@ public class BuildResource extends RestResource {
         this.prService = prService;
         this.authContext = authContext;
         this.permissionsCheck = permissionsCheck;
+        this.triggerQueue = triggerQueue;
     }
 
     @POST
     @Path(value = "triggerBuild/{id}/{branch}")
     public Response triggerBuild(@Context final Repository repository, @PathParam("id") String id,
                                  @PathParam("branch") String branch, @Context UriInfo uriInfo) {
+        return manualTrigger(repository, id, branch, uriInfo,
+                (user, trigger) -> Response.ok(trigger.get().getMessage()).build());
+    }
+
+    /**
+     * Queues a manual trigger and returns straight away so a slow Jenkins does not hold on to
+     * the request thread. The result can be polled from {@link #getTrigger}.
+     */
+    @POST
+    @Path(value = "triggerBuild/{id}/{branch}/async")
+    public Response triggerBuildAsync(@Context final Repository repository,
+                                      @PathParam("id") String id,
+                                      @PathParam("branch") String branch,
+                                      @Context UriInfo uriInfo) {
+        return manualTrigger(repository, id, branch, uriInfo, (user, trigger) -> {
+            TriggerStatus status = triggerQueue.submit(user, trigger);
+            URI location = URI.create("projects/" + repository.getProject().getKey() + "/repos/"
+                    + repository.getSlug() + "/triggers/" + status.getId());
+            return Response.status(Response.Status.ACCEPTED).location(location)
+                    .entity(status.asMap()).build();
+        });
+    }
+
+    /**
+     * Triggers many jobs and branches in one request. Permissions are checked once per job,
+     * the triggers run concurrently and each result is streamed back as a line of JSON as soon
+     * as it finishes, so the order of the lines is not the order of the request. A batch of
+     * more than {@link #MAX_BATCH_SIZE} items is rejected as a whole.
+     */
+    @POST
+    @Path(value = "triggerBuilds")
+    @Produces({ NDJSON, RestUtils.APPLICATION_JSON_UTF8 })
+    public Response triggerBuilds(@Context final Repository repository,
+                                  List<BatchTrigger> batch) {
+        if (!authContext.isAuthenticated()) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        if (batch != null && batch.size() > MAX_BATCH_SIZE) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("message", "A batch can trigger at most " + MAX_BATCH_SIZE + " builds");
+            return Response.status(Response.Status.BAD_REQUEST).entity(data).build();
+        }
+        Settings settings = settingsService.getSettings(repository);
+        if (settings == null) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("message", "No build settings were found for this repository");
+            return Response.status(Response.Status.NOT_FOUND).entity(data).build();
+        }
+        String projectKey = repository.getProject().getKey();
+        ApplicationUser user = authContext.getCurrentUser();
+        List<Job> jobs = settingsService.getJobs(settings.asMap());
+        Map<Integer, Boolean> permitted = new HashMap<>();
+        JenkinsConnection jenkinsConn = new JenkinsConnection(jenkins);
+
+        List<BatchTrigger> items = batch == null ? new ArrayList<>() : batch;
+        Map<Integer, JenkinsResponse> rejected = new LinkedHashMap<>();
+        List<Integer> accepted = new ArrayList<>();
+        List<String> servers = new ArrayList<>();
+        List<Supplier<JenkinsResponse>> triggers = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            BatchTrigger item = items.get(i);
+            Job jobToBuild = getJobById(item.getId(), jobs);
+            if (item.getBranch() == null || item.getBranch().trim().isEmpty()) {
+                rejected.put(i, batchError("No branch was given for this job"));
+            } else if (jobToBuild == null) {
+                rejected.put(i, batchError("No settings found for this job"));
+            } else if (!permitted.computeIfAbsent(item.getId(),
+                    id -> permissionsCheck.checkPermissions(jobToBuild, repository, user))) {
+                rejected.put(i, batchError("You do not have permission to build this job"));
+            } else {
+                Map<String, Object> parameters = item.getParameters() == null
+                        ? new HashMap<>() : new HashMap<>(item.getParameters());
+                Job job = jobToBuild.copy().buildParameters(parameters).build();
+                String branch = item.getBranch();
+                BitbucketVariables variables = new BitbucketVariables.Builder()
+                        .add(Variable.BRANCH, () -> branch)
+                        .trigger(Trigger.MANUAL).build();
+                Server server = jenkins.resolveJenkinsServer(projectKey, job.getJenkinsServer(),
+                        user);
+                accepted.add(i);
+                servers.add(server == null ? "" : server.getBaseUrl());
+                triggers.add(() -> jenkinsConn.triggerJob(projectKey, user, job, variables));
+            }
+        }
+
+        StreamingOutput output = stream -> {
+            Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+            for (Entry<Integer, JenkinsResponse> entry : rejected.entrySet()) {
+                writeBatchResult(writer, items, entry.getKey(), entry.getValue());
+            }
+            try {
+                triggerQueue.runAll(servers, triggers, (response, index) ->
+                        writeBatchResult(writer, items, accepted.get(index), response));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return Response.ok(output, NDJSON).build();
+    }
+
+    private static JenkinsResponse batchError(String message) {
+        return new JenkinsResponse.JenkinsMessage().error(true).messageText(message).build();
+    }
+
+    private static void writeBatchResult(Writer writer, List<BatchTrigger> items, int index,
+            JenkinsResponse response) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("index", index);
+        line.put("id", items.get(index).getId());
+        line.put("branch", items.get(index).getBranch());
+        line.put("message", response.getMessage());
+        try {
+            writer.write(GSON.toJson(line));
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @GET
+    @Path(value = "triggers/{triggerId}")
+    public Response getTrigger(@Context final Repository repository,
+                               @PathParam("triggerId") String triggerId) {
+        if (authContext.isAuthenticated()) {
+            TriggerStatus status = triggerQueue.getStatus(triggerId,
+                    authContext.getCurrentUser());
+            if (status == null) {
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("message", "No trigger was found with this id");
+                return Response.status(Response.Status.NOT_FOUND).entity(data).build();
+            }
+            return Response.ok(status.asMap()).build();
+        }
+        return Response.status(Response.Status.FORBIDDEN).build();
+    }
+
+    private Response manualTrigger(Repository repository, String id, String branch,
+            UriInfo uriInfo,
+            BiFunction<ApplicationUser, Supplier<JenkinsResponse>, Response> onTrigger) {
         if (authContext.isAuthenticated()) {
             String projectKey = repository.getProject().getKey();
             Map<String, Object> data = new LinkedHashMap<>();
@@ -104,14 +287,12 @@ public class BuildResource extends RestResource {
 
                 //create bitbucketVariables with only branch and trigger to resolve pipelines
                 BitbucketVariables variables = new BitbucketVariables.Builder()
-                        .add("$BRANCH", () -> branch)
-                        .add("$TRIGGER", Trigger.MANUAL::toString).build();
+                        .add(Variable.BRANCH, () -> branch)
+                        .trigger(Trigger.MANUAL).build();
 
                 JenkinsConnection jenkinsConn = new JenkinsConnection(jenkins);
-                Map<String, Object> message = jenkinsConn
-                        .triggerJob(projectKey, user, job, variables)
-                        .getMessage();
-                return Response.ok(message).build();
+                return onTrigger.apply(user,
+                        () -> jenkinsConn.triggerJob(projectKey, user, job, variables));
             }
         }
         return Response.status(Response.Status.FORBIDDEN).build();
@@ -119,7 +300,8 @@ public class BuildResource extends RestResource {
 
     @GET
     @Path(value = "getJenkinsServers")
-    public Response getJenkinsServers(@Context final Repository repository){
+    public Response getJenkinsServers(@Context final Repository repository,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch){
         if (authContext.isAuthenticated()) {
             String projectKey = repository.getProject().getKey();
             List<Map<String, String>> servers = jenkins.getJenkinsServers(null).stream()
@@ -133,7 +315,11 @@ public class BuildResource extends RestResource {
 
             servers.addAll(projectServers);
 
-            return Response.ok(servers).build();
+            EntityTag tag = entityTag(servers);
+            if (matches(tag, ifNoneMatch)) {
+                return notModified(tag);
+            }
+            return ok(servers, tag);
         } else {
             return Response.status(Response.Status.FORBIDDEN).build();
         }
@@ -153,13 +339,14 @@ public class BuildResource extends RestResource {
     @Path(value = "getJobs")
     public Response getJobs(@Context final Repository repository,
             @QueryParam("branch") String branch, @QueryParam("commit") String commit,
-            @QueryParam("prdestination") String prDestination, @QueryParam("prid") long prId) {
+            @QueryParam("prdestination") String prDestination, @QueryParam("prid") long prId,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch) {
         if (authContext.isAuthenticated()) {
-            Settings settings = settingsService.getSettings(repository);
-            if (settings == null) {
-                return Response.ok(Lists.newArrayList()).build();
+            ApplicationUser user = authContext.getCurrentUser();
+            List<Job> jobs = getManualJobs(repository, user);
+            if (jobs.isEmpty()) {
+                return jobsResponse(Lists.newArrayList(), Lists.newArrayList(), ifNoneMatch);
             }
-
             String projectKey = repository.getProject().getKey();
             String url = applicationPropertiesService.getBaseUrl().toString();
             Builder variableBuilder = new BitbucketVariables.Builder()
@@ -173,19 +360,119 @@ public class BuildResource extends RestResource {
                 }
             }
 
+            BitbucketVariables variables = variableBuilder.build();
             List<Map<String, Object>> data = new ArrayList<>();
-            for (Job job : settingsService.getJobs(settings.asMap())) {
-                if (job.getTriggers().contains(Trigger.MANUAL) &&
-                        permissionsCheck.checkPermissions(job, repository,
-                                authContext.getCurrentUser())) {
-                    data.add(job.asMap(variableBuilder.build()));
-                }
+            List<Map<String, String>> servers = new ArrayList<>();
+            for (Job job : jobs) {
+                data.add(job.asMap(variables));
+                servers.add(resolvedServerMap(
+                        jenkins.resolveJenkinsServer(projectKey, job.getJenkinsServer(), null)));
             }
-            return Response.ok(data).build();
+            return jobsResponse(data, servers, ifNoneMatch);
         }
         return Response.status(Response.Status.FORBIDDEN).build();
     }
 
+    /**
+     * Tags the jobs together with the servers they would be triggered on, so moving a job to
+     * another server changes the tag even though the server is not part of the response.
+     */
+    private static Response jobsResponse(List<Map<String, Object>> data,
+            List<Map<String, String>> servers, @Nullable String ifNoneMatch) {
+        EntityTag tag = entityTag(data, servers);
+        if (matches(tag, ifNoneMatch)) {
+            return notModified(tag);
+        }
+        return ok(data, tag);
+    }
+
+    private static Map<String, String> resolvedServerMap(@Nullable Server server) {
+        Map<String, String> serverMap = new LinkedHashMap<>();
+        if (server != null) {
+            serverMap.put("alias", server.getAlias());
+            serverMap.put("url", server.getBaseUrl());
+        }
+        return serverMap;
+    }
+
+    /**
+     * Returns the manual jobs the user can build. The list does not depend on the branch or
+     * pull request, so it is cached for a short time per repository and user. The settings
+     * are still read every time and an entry is only used while they and the user's
+     * permission level are the same as when it was made, so a change made on any node is
+     * seen by the next request.
+     */
+    private List<Job> getManualJobs(Repository repository, @Nullable ApplicationUser user) {
+        String key = repository.getId() + ":" + (user == null ? "" : user.getId());
+        Settings settings = settingsService.getSettings(repository);
+        Map<String, Object> settingsMap = settings == null ? null : settings.asMap();
+        Permission level = permissionsCheck.getPermissionLevel(repository, user);
+        ManualJobs cached = manualJobs.getIfPresent(key);
+        boolean hit = cached != null && Objects.equals(cached.settings, settingsMap)
+                && cached.level == level;
+        Metrics.cacheLookup("manualJobs", hit);
+        if (hit) {
+            return cached.jobs;
+        }
+        List<Job> jobs = new ArrayList<>();
+        if (settingsMap != null) {
+            for (Job job : settingsService.getJobs(settingsMap)) {
+                if (job.getTriggers().contains(Trigger.MANUAL)) {
+                    jobs.add(job);
+                }
+            }
+            jobs = permissionsCheck.filterPermitted(jobs, repository, user);
+        }
+        manualJobs.put(key, new ManualJobs(settingsMap, level, jobs));
+        return jobs;
+    }
+
+    /**
+     * Tags an entity by its content, so every node of a cluster hands out the same tag for the
+     * same response.
+     */
+    private static EntityTag entityTag(Object... content) {
+        return new EntityTag(Hashing.sha256()
+                .hashString(GSON.toJson(Arrays.asList(content)), StandardCharsets.UTF_8)
+                .toString());
+    }
+
+    /**
+     * Clients have to revalidate every time since the entity depends on settings and
+     * permissions that can change at any point.
+     */
+    private static CacheControl revalidate() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setNoCache(true);
+        return cacheControl;
+    }
+
+    private static Response notModified(EntityTag tag) {
+        return Response.notModified(tag).cacheControl(revalidate()).build();
+    }
+
+    private static Response ok(Object entity, EntityTag tag) {
+        return Response.ok(entity).tag(tag).cacheControl(revalidate()).build();
+    }
+
+    private static boolean matches(EntityTag tag, @Nullable String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String quoted = '"' + tag.getValue() + '"';
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(quoted)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 
     @GET
     @Path(value = "getHookEnabled")
@@ -202,6 +489,51 @@ public class BuildResource extends RestResource {
         return Response.status(Response.Status.FORBIDDEN).build();
     }
 
+    public static class BatchTrigger {
+        private int id;
+        private String branch;
+        private Map<String, String> parameters;
+
+        public BatchTrigger(){}
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public String getBranch() {
+            return branch;
+        }
+
+        public void setBranch(String branch) {
+            this.branch = branch;
+        }
+
+        public Map<String, String> getParameters() {
+            return parameters;
+        }
+
+        public void setParameters(Map<String, String> parameters) {
+            this.parameters = parameters;
+        }
+    }
+
+    private static final class ManualJobs {
+        private final Map<String, Object> settings;
+        private final Permission level;
+        private final List<Job> jobs;
+
+        private ManualJobs(@Nullable Map<String, Object> settings, @Nullable Permission level,
+                List<Job> jobs) {
+            this.settings = settings;
+            this.level = level;
+            this.jobs = jobs;
+        }
+    }
+
     @Nullable
     private Job getJobById(int id, List<Job> jobs) {
         for (Job job : jobs) {
@@ -0,0 +1,172 @@
+package com.kylenicholls.stash.parameterizedbuilds.rest;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.atlassian.bitbucket.i18n.I18nService;
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.permission.PermissionService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.rest.RestResource;
+import com.atlassian.bitbucket.rest.util.RestUtils;
+import com.google.gson.Gson;
+import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.ReplayHandler;
+import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.JournalRecord;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.JournalRecord.Type;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerJournal;
+import com.sun.jersey.spi.resource.Singleton;
+
+@Path("/journal")
+@Singleton
+public class JournalResource extends RestResource {
+    private static final Gson GSON = new Gson();
+
+    private final PermissionService permissionService;
+    private final TriggerJournal journal;
+    private final SettingsService settingsService;
+    private final RepositoryService repositoryService;
+
+    public JournalResource(I18nService i18nService, PermissionService permissionService,
+            TriggerJournal journal, SettingsService settingsService,
+            RepositoryService repositoryService) {
+        super(i18nService);
+        this.permissionService = permissionService;
+        this.journal = journal;
+        this.settingsService = settingsService;
+        this.repositoryService = repositoryService;
+    }
+
+    /**
+     * Streams the journal between two UTC days, both inclusive and both today by default,
+     * as one line of JSON per record.
+     */
+    @GET
+    @Produces({ BuildResource.NDJSON, RestUtils.APPLICATION_JSON_UTF8 })
+    public Response getJournal(@QueryParam("from") String from, @QueryParam("to") String to) {
+        Response invalid = checkRequest();
+        if (invalid != null) {
+            return invalid;
+        }
+        LocalDate fromDay;
+        LocalDate toDay;
+        try {
+            fromDay = parseDay(from);
+            toDay = parseDay(to);
+        } catch (DateTimeParseException e) {
+            return error(Response.Status.BAD_REQUEST, "Days must be formatted as yyyy-MM-dd");
+        }
+        StreamingOutput output = stream -> {
+            Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+            read(fromDay, toDay, record -> writeLine(writer, record.asMap()));
+            writer.flush();
+        };
+        return Response.ok(output, BuildResource.NDJSON).build();
+    }
+
+    /**
+     * Matches every event of a UTC day, today by default, against the current jobs of its
+     * repository and streams one line of JSON per event with the outcome of each job. Nothing
+     * is sent to Jenkins.
+     */
+    @POST
+    @Path("replay")
+    @Produces({ BuildResource.NDJSON, RestUtils.APPLICATION_JSON_UTF8 })
+    public Response replay(@QueryParam("day") String day) {
+        Response invalid = checkRequest();
+        if (invalid != null) {
+            return invalid;
+        }
+        LocalDate replayDay;
+        try {
+            replayDay = parseDay(day);
+        } catch (DateTimeParseException e) {
+            return error(Response.Status.BAD_REQUEST, "Days must be formatted as yyyy-MM-dd");
+        }
+        Map<String, Optional<Repository>> repositories = new HashMap<>();
+        StreamingOutput output = stream -> {
+            Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+            read(replayDay, replayDay, record -> {
+                if (record.getType() != Type.EVENT) {
+                    return;
+                }
+                Optional<Repository> repository = repositories.computeIfAbsent(
+                        record.getProject() + "/" + record.getRepository(),
+                        key -> Optional.ofNullable(repositoryService.getBySlug(
+                                record.getProject(), record.getRepository())));
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("event", record.asMap());
+                if (repository.isPresent()) {
+                    line.put("jobs", new ReplayHandler(settingsService, repository.get(),
+                            record).replay());
+                } else {
+                    line.put("message", "The repository no longer exists");
+                }
+                writeLine(writer, line);
+            });
+            writer.flush();
+        };
+        return Response.ok(output, BuildResource.NDJSON).build();
+    }
+
+    @Nullable
+    private Response checkRequest() {
+        if (!permissionService.hasGlobalPermission(Permission.SYS_ADMIN)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        if (!journal.isEnabled()) {
+            return error(Response.Status.NOT_FOUND, "The trigger journal is not enabled");
+        }
+        return null;
+    }
+
+    private void read(LocalDate from, LocalDate to,
+            Consumer<JournalRecord> consumer) throws IOException {
+        try {
+            journal.read(from, to, consumer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static LocalDate parseDay(String day) {
+        return day == null || day.isEmpty() ? LocalDate.now(ZoneOffset.UTC)
+                : LocalDate.parse(day);
+    }
+
+    private static Response error(Response.Status status, String message) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("message", message);
+        return Response.status(status).entity(data).build();
+    }
+
+    private static void writeLine(Writer writer, Map<String, Object> line) {
+        try {
+            writer.write(GSON.toJson(line));
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
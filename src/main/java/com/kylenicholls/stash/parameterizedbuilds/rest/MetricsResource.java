@@ -0,0 +1,78 @@
+package com.kylenicholls.stash.parameterizedbuilds.rest;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+import com.atlassian.bitbucket.i18n.I18nService;
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.permission.PermissionService;
+import com.atlassian.bitbucket.rest.RestResource;
+import com.atlassian.bitbucket.rest.util.RestUtils;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.TriggerQueue;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Diagnostics;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory;
+import com.sun.jersey.spi.resource.Singleton;
+
+@Path("/metrics")
+@Singleton
+public class MetricsResource extends RestResource {
+    static final int MAX_HISTORY = 1000;
+
+    private final PermissionService permissionService;
+    private final TriggerQueue triggerQueue;
+
+    public MetricsResource(I18nService i18nService, PermissionService permissionService,
+            TriggerQueue triggerQueue) {
+        super(i18nService);
+        this.permissionService = permissionService;
+        this.triggerQueue = triggerQueue;
+    }
+
+    @GET
+    @Produces({ RestUtils.APPLICATION_JSON_UTF8 })
+    public Response getMetrics() {
+        if (permissionService.hasGlobalPermission(Permission.SYS_ADMIN)) {
+            return Response.ok(Metrics.snapshot()).build();
+        }
+        return Response.status(Response.Status.FORBIDDEN).build();
+    }
+
+    /**
+     * Returns the most recent job evaluations, newest first. Every filter is optional and
+     * at most {@link #MAX_HISTORY} entries are returned.
+     */
+    @GET
+    @Path("history")
+    @Produces({ RestUtils.APPLICATION_JSON_UTF8 })
+    public Response getHistory(@QueryParam("project") String project,
+            @QueryParam("repository") String repository, @QueryParam("job") String job,
+            @QueryParam("since") @DefaultValue("0") long since,
+            @QueryParam("limit") @DefaultValue("100") int limit) {
+        if (!permissionService.hasGlobalPermission(Permission.SYS_ADMIN)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        int bounded = Math.max(1, Math.min(limit, MAX_HISTORY));
+        return Response.ok(TriggerHistory.global().query(project, repository, job, since,
+                bounded)).build();
+    }
+
+    /**
+     * Returns the summary the diagnostics page polls: executor queue, per server load and
+     * errors, cache hit ratios and the slowest recent triggers.
+     */
+    @GET
+    @Path("diagnostics")
+    @Produces({ RestUtils.APPLICATION_JSON_UTF8 })
+    public Response getDiagnostics() {
+        if (!permissionService.hasGlobalPermission(Permission.SYS_ADMIN)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        return Response.ok(Diagnostics.snapshot(triggerQueue.permitsInUse(),
+                TriggerQueue.MAX_PER_SERVER)).build();
+    }
+}
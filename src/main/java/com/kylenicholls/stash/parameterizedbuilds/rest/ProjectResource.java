@@ -64,14 +64,15 @@ public class ProjectResource extends RestResource implements ServerService {
     @Path("/servers/validate")
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ RestUtils.APPLICATION_JSON_UTF8 })
-    public Response validate(@Context UriInfo ui, Server server){
+    public Response validate(@Context UriInfo ui, ServerInput serverInput){
+        Server server = serverInput.toServer();
         if (authContext.isAuthenticated()) {
             String projectKey = ui.getPathParameters().getFirst("projectKey");
             Server oldServer = jenkins.getJenkinsServer(projectKey, server.getAlias());
-            server.setToken(getCurrentDefaultToken(oldServer, server));
+            Server testServer = server.withToken(getCurrentDefaultToken(oldServer, server));
 
             JenkinsConnection jenkinsConn = new JenkinsConnection(jenkins);
-            String message = jenkinsConn.testConnection(server);
+            String message = jenkinsConn.testConnection(testServer);
 
             if(message.equals("Connection successful")){
                 return Response.ok(message).build();
@@ -87,10 +88,16 @@ public class ProjectResource extends RestResource implements ServerService {
     @Path("/servers/{serverAlias}")
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ RestUtils.APPLICATION_JSON_UTF8 })
-    public Response addServer(@Context UriInfo ui, Server server, 
-                              @PathParam("id") String serverAlias){
+    public Response addServer(@Context UriInfo ui, ServerInput serverInput,
+                              @PathParam("serverAlias") String serverAlias){
+        Server server = serverInput.toServer();
         if (authContext.isAuthenticated()){
+            String projectKey = ui.getPathParameters().getFirst("projectKey");
             List<String> errors = sanitizeServerInput(server);
+            if (errors.isEmpty() && !server.getAlias().equals(serverAlias)
+                    && jenkins.getJenkinsServer(projectKey, server.getAlias()) != null) {
+                errors.add("Alias already in use.");
+            }
             if (!errors.isEmpty()) {
                 JsonArray errorMessages = new JsonArray();
                 errors.forEach(error -> errorMessages.add(new JsonPrimitive(error)));
@@ -100,11 +107,10 @@ public class ProjectResource extends RestResource implements ServerService {
                 return Response.status(422).entity(response.toString()).build();
             }
 
-            String projectKey = ui.getPathParameters().getFirst("projectKey");
             Server oldServer = jenkins.getJenkinsServer(projectKey, serverAlias);
-            server.setToken(getCurrentDefaultToken(oldServer, server));
+            Server savedServer = server.withToken(getCurrentDefaultToken(oldServer, server));
             int returnStatus = oldServer == null ? 201 : 200;
-            jenkins.saveJenkinsServer(server, projectKey);
+            jenkins.saveJenkinsServer(savedServer, serverAlias, projectKey);
             return Response.status(returnStatus).build();
         } else {
             return Response.status(Response.Status.FORBIDDEN).build();
@@ -113,10 +119,11 @@ public class ProjectResource extends RestResource implements ServerService {
 
     @DELETE
     @Path("/servers/{serverAlias}")
-    public Response removeServer(@Context UriInfo ui){
+    public Response removeServer(@Context UriInfo ui,
+                                 @PathParam("serverAlias") String serverAlias){
         if (authContext.isAuthenticated()) {
             String projectKey = ui.getPathParameters().getFirst("projectKey");
-            jenkins.saveJenkinsServer(null, projectKey);
+            jenkins.removeJenkinsServer(serverAlias, projectKey);
             return Response.status(Response.Status.NO_CONTENT).build();
         } else {
             return Response.status(Response.Status.FORBIDDEN).build();
@@ -40,6 +40,54 @@ public interface ServerService {
         }
     }
 
+    /**
+     * The body of a request that saves or validates a server. It is bound by the REST layer
+     * and turned into an immutable {@link Server} before it is used.
+     */
+    public class ServerInput {
+        private String baseUrl;
+        private String alias;
+        private String user;
+        private String token;
+        private boolean altUrl;
+        private boolean csrfEnabled;
+        private boolean postParameters;
+
+        public ServerInput(){}
+
+        public void setBaseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        public void setAlias(String alias) {
+            this.alias = alias;
+        }
+
+        public void setUser(String user) {
+            this.user = user;
+        }
+
+        public void setToken(String token) {
+            this.token = token;
+        }
+
+        public void setAltUrl(Boolean altUrl) {
+            this.altUrl = Boolean.TRUE.equals(altUrl);
+        }
+
+        public void setCsrfEnabled(Boolean csrfEnabled) {
+            this.csrfEnabled = Boolean.TRUE.equals(csrfEnabled);
+        }
+
+        public void setPostParameters(Boolean postParameters) {
+            this.postParameters = Boolean.TRUE.equals(postParameters);
+        }
+
+        public Server toServer() {
+            return new Server(baseUrl, alias, user, token, altUrl, csrfEnabled, postParameters);
+        }
+    }
+
     @GET
     @Path("/servers")
     @Consumes({ MediaType.APPLICATION_JSON })
@@ -50,18 +98,19 @@ public interface ServerService {
     @Path("/servers/validate")
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ RestUtils.APPLICATION_JSON_UTF8 })
-    public Response validate(@Context UriInfo ui, Server server);
+    public Response validate(@Context UriInfo ui, ServerInput serverInput);
 
     @PUT
     @Path("/servers/{serverAlias}")
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ RestUtils.APPLICATION_JSON_UTF8 })
-    public Response addServer(@Context UriInfo ui, Server server, 
-                              @PathParam("id") String serverAlias);
+    public Response addServer(@Context UriInfo ui, ServerInput serverInput,
+                              @PathParam("serverAlias") String serverAlias);
 
     @DELETE
     @Path("/servers/{serverAlias}")
-    public Response removeServer(@Context UriInfo ui);
+    public Response removeServer(@Context UriInfo ui,
+                                 @PathParam("serverAlias") String serverAlias);
 
     @PUT
     @Path("/servers/{serverAlias}/userToken")
@@ -82,6 +131,7 @@ public interface ServerService {
         serverMap.put("default_user", server.getUser());
         serverMap.put("root_token_enabled", server.getAltUrl());
         serverMap.put("csrf_enabled", server.getCsrfEnabled());
+        serverMap.put("post_parameters", server.getPostParameters());
         return serverMap;
     }
 
@@ -0,0 +1,93 @@
+define('jenkins/diagnostics', [
+    'jquery',
+    'bitbucket/util/server',
+    'exports'
+], function(
+    $,
+    server_util,
+    exports
+) {
+    var REFRESH_MS = 5000;
+    var previous;
+
+    function getDiagnosticsUrl(){
+        return $('#bitbucket-context').text() + '/rest/parameterized-builds/latest/metrics/diagnostics';
+    }
+
+    function row(cells){
+        var $row = $('<tr>');
+        cells.forEach(function(cell) {
+            $row.append($('<td>').text(cell === undefined || cell === null ? '' : cell));
+        });
+        return $row;
+    }
+
+    function percent(ratio){
+        return (ratio * 100).toFixed(1) + '%';
+    }
+
+    function millis(value){
+        return value === undefined || value === null ? '' : value.toFixed(1) + ' ms';
+    }
+
+    // error rate since the last refresh, falls back to the total until there are two samples
+    function recentErrorRate(server, data){
+        var before = previous && previous.servers[server];
+        if (!before || data.requests <= before.requests) {
+            return percent(data.errorRate) + ' (total)';
+        }
+        return percent((data.errors - before.errors) / (data.requests - before.requests));
+    }
+
+    function render(diagnostics){
+        var $root = $('#jenkins-diagnostics');
+        $root.find('.diagnostics-updated').text('Updated ' + new Date(diagnostics.timestamp).toLocaleTimeString());
+
+        var queueTime = diagnostics.executor.queueTime || {};
+        $root.find('.diagnostics-executor tbody').empty().append(row([
+            diagnostics.executor.queued, millis(queueTime.meanMillis), millis(queueTime.p99Millis)
+        ]));
+
+        var $servers = $root.find('.diagnostics-servers tbody').empty();
+        $.each(diagnostics.servers, function(server, data) {
+            $servers.append(row([server, data.inFlight, data.requests, data.errors,
+                recentErrorRate(server, data), data.batchPermitsInUse, data.batchLimitReached ? 'Yes' : 'No']));
+        });
+
+        var $caches = $root.find('.diagnostics-caches tbody').empty();
+        $.each(diagnostics.caches, function(cache, data) {
+            $caches.append(row([cache, data.hits, data.misses, percent(data.hitRatio)]));
+        });
+
+        var $slow = $root.find('.diagnostics-slow-triggers tbody').empty();
+        diagnostics.slowTriggers.forEach(function(trigger) {
+            $slow.append(row([new Date(trigger.timestamp).toLocaleTimeString(),
+                trigger.project + '/' + trigger.repository, trigger.branch, trigger.job,
+                trigger.outcome, trigger.status, millis(trigger.latencyMillis)]));
+        });
+        previous = diagnostics;
+    }
+
+    function refresh(){
+        server_util.ajax({
+            type: 'GET',
+            url: getDiagnosticsUrl(),
+            dataType: 'json',
+            statusCode: {
+                403: false
+            }
+        }).done(render).fail(function() {
+            $('#jenkins-diagnostics .diagnostics-updated').text('Diagnostics could not be loaded, retrying');
+        }).always(function() {
+            setTimeout(refresh, REFRESH_MS);
+        });
+    }
+
+    exports.onReady = function () {
+        refresh();
+    };
+});
+
+$(document).ready(function () {
+    require('jenkins/diagnostics').onReady();
+});
@@ -4,6 +4,7 @@ import com.atlassian.bitbucket.auth.AuthenticationContext;
 import com.atlassian.bitbucket.commit.CommitService;
 import com.atlassian.bitbucket.hook.repository.RepositoryHookRequest;
 import com.atlassian.bitbucket.project.Project;
+import com.atlassian.bitbucket.pull.PullRequestService;
 import com.atlassian.bitbucket.repository.MinimalRef;
 import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.RefChangeType;
@@ -19,7 +20,9 @@ import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.PushHandler;
 import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.RefCreatedHandler;
 import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.RefDeletedHandler;
 import com.kylenicholls.stash.parameterizedbuilds.eventHandlers.RefHandler;
+import com.kylenicholls.stash.parameterizedbuilds.helper.CommitCache;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.helper.VariableProviders;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
 import org.junit.Assert;
@@ -82,7 +85,7 @@ public class ParameterizedBuildHookTest {
             Runnable runnable = (Runnable) args[0];
             runnable.run();
             return null;
-        }).when(executorService).submit(any(Runnable.class));
+        }).when(executorService).execute(any(Runnable.class));
 
         request = mock(RepositoryHookRequest.class);
         settings = mock(Settings.class);
@@ -110,8 +113,11 @@ public class ParameterizedBuildHookTest {
         jobs = new ArrayList<>();
         when(settingsService.getJobs(any())).thenReturn(jobs);
 
-        buildHook = new ParameterizedBuildHook(settingsService, commitService, jenkins,
-                propertiesService, authContext, executorService);
+        CommitCache commitCache = new CommitCache(commitService);
+        VariableProviders variableProviders = new VariableProviders(commitService,
+                mock(PullRequestService.class), commitCache);
+        buildHook = new ParameterizedBuildHook(settingsService, commitService, commitCache,
+                jenkins, variableProviders, propertiesService, authContext, executorService);
     }
 
     @Test
@@ -31,6 +31,7 @@ import com.google.common.collect.Lists;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.JenkinsConnection;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.helper.VariableProviders;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.JobBuilder;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
@@ -71,11 +72,11 @@ public class PullRequestHookTest {
             Runnable runnable = (Runnable) args[0];
             runnable.run();
             return null;
-        }).when(executorService).submit(any(Runnable.class));
+        }).when(executorService).execute(any(Runnable.class));
 
         when(propertiesService.getBaseUrl()).thenReturn(new URI(PR_URI));
-        hook = new PullRequestHook(settingsService, pullRequestService, jenkins, propertiesService, 
-                executorService);
+        hook = new PullRequestHook(settingsService, pullRequestService, jenkins,
+                mock(VariableProviders.class), propertiesService, executorService);
         eventFactory = new TestEventFactory();
 
         Project project = mock(Project.class);
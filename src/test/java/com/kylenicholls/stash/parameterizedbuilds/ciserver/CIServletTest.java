@@ -116,7 +116,7 @@ public class CIServletTest {
         List<UserToken> projectTokens = new ArrayList<>();
         when(req.getPathInfo()).thenReturn(ACCOUNT_PATH);
         when(jenkins.getJenkinsServers(null)).thenReturn(Lists.newArrayList());
-        when(jenkins.getAllUserTokens(user, new ArrayList<String>(), projectService))
+        when(jenkins.getAllUserTokens(user, projectService))
                 .thenReturn(projectTokens);
         servlet.doGet(req, resp);
 
@@ -156,4 +156,15 @@ public class CIServletTest {
         verify(renderer, times(1))
                 .render(resp.getWriter(), SOY_TEMPLATE, "jenkins.admin.settingsProjectAdmin", data);
     }
+
+    @Test
+    public void testDoGetDiagnostics() throws ServletException, IOException, SoyException {
+        when(req.getPathInfo()).thenReturn(GLOBAL_PATH + "/diagnostics");
+        servlet.doGet(req, resp);
+
+        Map<String, Object> data = ImmutableMap.of(
+                CONTEXT_KEY, BITBUCKET_CONTEXT);
+        verify(renderer, times(1))
+                .render(resp.getWriter(), SOY_TEMPLATE, "jenkins.admin.diagnostics", data);
+    }
 }
@@ -3,15 +3,21 @@ package com.kylenicholls.stash.parameterizedbuilds.ciserver;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
 import com.kylenicholls.stash.parameterizedbuilds.item.UserToken;
 import org.junit.Before;
@@ -20,6 +26,7 @@ import org.junit.Test;
 import com.atlassian.bitbucket.project.Project;
 import com.atlassian.bitbucket.project.ProjectService;
 import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.bitbucket.util.Page;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 
@@ -66,7 +73,8 @@ public class JenkinsTest {
         Server server = new Server("url", null, "user", "token", true, true);
         jenkins.saveJenkinsServer(server, null);
 
-        verify(pluginSettings, times(1)).put(".jenkinsSettings", server.asMap());
+        verify(pluginSettings, times(1)).put(".jenkinsSettings",
+                Lists.newArrayList(new Gson().toJson(server.asMap())));
     }
 
     @Test
@@ -74,7 +82,8 @@ public class JenkinsTest {
         Server server = new Server("url", null, "user", "token", true, true);
         jenkins.saveJenkinsServer(server, PROJECT_KEY);
 
-        verify(pluginSettings, times(1)).put(".jenkinsSettings." + PROJECT_KEY, server.asMap());
+        verify(pluginSettings, times(1)).put(".jenkinsSettings." + PROJECT_KEY,
+                Lists.newArrayList(new Gson().toJson(server.asMap())));
     }
 
     @Test
@@ -116,43 +125,11 @@ public class JenkinsTest {
         assertEquals(null, actual);
     }
 
-    @Test
-    public void testGetJenkinsServerSettingsLegacyNoAltUrl() {
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn("url;user;token");
-        Server actual = jenkins.getJenkinsServer(null, null);
-
-        assertEquals("url", actual.getBaseUrl());
-        assertEquals("user", actual.getUser());
-        assertEquals("token", actual.getToken());
-        assertFalse(actual.getAltUrl());
-    }
-
-    @Test
-    public void testGetJenkinsServerSettingsLegacyAltUrlTrue() {
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn("url;user;token;true");
-        Server actual = jenkins.getJenkinsServer(null, null);
-
-        assertEquals("url", actual.getBaseUrl());
-        assertEquals("user", actual.getUser());
-        assertEquals("token", actual.getToken());
-        assertTrue(actual.getAltUrl());
-    }
-
-    @Test
-    public void testGetJenkinsServerSettingsLegacyAltUrlFalse() {
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn("url;user;token;false");
-        Server actual = jenkins.getJenkinsServer(null, null);
-
-        assertEquals("url", actual.getBaseUrl());
-        assertEquals("user", actual.getUser());
-        assertEquals("token", actual.getToken());
-        assertFalse(actual.getAltUrl());
-    }
-
     @Test
     public void testGetJenkinsServerSettings() {
         Server expected = new Server("url", null, "user", "token", false, false);
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn(expected.asMap());
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
         Server actual = jenkins.getJenkinsServer(null, null);
 
         assertEquals(expected.asMap(), actual.asMap());
@@ -169,7 +146,8 @@ public class JenkinsTest {
     @Test
     public void testGetProjectServerSettings() {
         Server expected = new Server("url", null, "user", "token", false, false);
-        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY)).thenReturn(expected.asMap());
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
         Server actual = jenkins.getJenkinsServer(PROJECT_KEY, null);
 
         assertEquals(expected.asMap(), actual.asMap());
@@ -181,9 +159,11 @@ public class JenkinsTest {
                 false, false);
         String token = "token";
         List<String> projectKeys = new ArrayList<>();
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn(globalServer.asMap());
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(globalServer)));
         when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn(token);
-        List<UserToken> actual = jenkins.getAllUserTokens(user, projectKeys, projectService);
+        when(projectService.findAllKeys()).thenReturn(projectKeys);
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
 
         assertEquals(1, actual.size());
         assertEquals(globalServer.getBaseUrl(), actual.get(0).getBaseUrl());
@@ -197,7 +177,8 @@ public class JenkinsTest {
     public void testGetAllUserTokensWithGlobalServerNull() {
         List<String> projectKeys = new ArrayList<>();
         when(pluginSettings.get(".jenkinsSettings")).thenReturn(null);
-        List<UserToken> actual = jenkins.getAllUserTokens(user, projectKeys, projectService);
+        when(projectService.findAllKeys()).thenReturn(projectKeys);
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
 
         assertEquals(0, actual.size());
     }
@@ -209,9 +190,11 @@ public class JenkinsTest {
         String newProjectKey = "newkey";
         List<String> projectKeys = new ArrayList<>();
         projectKeys.add(newProjectKey);
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn(globalServer.asMap());
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(globalServer)));
         when(pluginSettings.get(".jenkinsSettings." + newProjectKey)).thenReturn(null);
-        List<UserToken> actual = jenkins.getAllUserTokens(user, projectKeys, projectService);
+        when(projectService.findAllKeys()).thenReturn(projectKeys);
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
 
         assertEquals(1, actual.size());
     }
@@ -224,14 +207,17 @@ public class JenkinsTest {
         String newProjectName = "newName";
         List<String> projectKeys = new ArrayList<>();
         projectKeys.add(newProjectKey);
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn(globalServer.asMap());
-        when(projectService.getByKey(newProjectKey)).thenReturn(project);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(globalServer)));
+        when(project.getKey()).thenReturn(newProjectKey);
+        listProjects(project);
         when(project.getName()).thenReturn(newProjectName);
         Server projectServer = new Server("http://newbaseurl", null, "newuser", "newtoken", false,
                 false);
         when(pluginSettings.get(".jenkinsSettings." + newProjectKey))
-                .thenReturn(projectServer.asMap());
-        List<UserToken> actual = jenkins.getAllUserTokens(user, projectKeys, projectService);
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        when(projectService.findAllKeys()).thenReturn(projectKeys);
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
 
         assertEquals(2, actual.size());
         assertEquals(projectServer.getBaseUrl(), actual.get(0).getBaseUrl());
@@ -250,16 +236,19 @@ public class JenkinsTest {
         String token = "token";
         List<String> projectKeys = new ArrayList<>();
         projectKeys.add(newProjectKey);
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn(globalServer.asMap());
-        when(projectService.getByKey(newProjectKey)).thenReturn(project);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(globalServer)));
+        when(project.getKey()).thenReturn(newProjectKey);
+        listProjects(project);
         when(project.getName()).thenReturn(newProjectName);
         when(pluginSettings.get(".jenkinsUser." + USER_SLUG + "." + newProjectKey))
                 .thenReturn(token);
         Server projectServer = new Server("http://newbaseurl", null, "newuser", "newtoken", false,
                 false);
         when(pluginSettings.get(".jenkinsSettings." + newProjectKey))
-                .thenReturn(projectServer.asMap());
-        List<UserToken> actual = jenkins.getAllUserTokens(user, projectKeys, projectService);
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        when(projectService.findAllKeys()).thenReturn(projectKeys);
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
 
         assertEquals(2, actual.size());
         assertEquals(token, actual.get(0).getToken());
@@ -271,7 +260,8 @@ public class JenkinsTest {
         when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn("token");
 
         Server expected = new Server("url", null, "default_user", "default_token", false, false);
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn(expected.asMap());
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
 
         Server actual = jenkins.getJenkinsServer(null, null, user);
         assertEquals(user.getSlug(), actual.getUser());
@@ -283,7 +273,8 @@ public class JenkinsTest {
         when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn(null);
 
         Server expected = new Server("url", null, "default_user", "default_token", false, false);
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn(expected.asMap());
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
 
         Server actual = jenkins.getJenkinsServer(null, null, user);
         assertEquals("default_user", actual.getUser());
@@ -295,7 +286,8 @@ public class JenkinsTest {
         when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn(null);
 
         Server expected = new Server("url", null, "default_user", "default_token", false, false);
-        when(pluginSettings.get(".jenkinsSettings")).thenReturn(expected.asMap());
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
 
         Server actual = jenkins.getJenkinsServer(null, null, null);
         assertEquals("default_user", actual.getUser());
@@ -309,7 +301,8 @@ public class JenkinsTest {
                 .thenReturn("token");
 
         Server expected = new Server("url", null, "default_user", "default_token", false, false);
-        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY)).thenReturn(expected.asMap());
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
 
         Server actual = jenkins.getJenkinsServer(PROJECT_KEY, null, user);
         assertEquals(user.getSlug(), actual.getUser());
@@ -321,7 +314,8 @@ public class JenkinsTest {
         when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn(null);
 
         Server expected = new Server("url", null, "default_user", "default_token", false, false);
-        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY)).thenReturn(expected.asMap());
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
 
         Server actual = jenkins.getJenkinsServer(PROJECT_KEY, null, user);
         assertEquals("default_user", actual.getUser());
@@ -333,10 +327,320 @@ public class JenkinsTest {
         when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn(null);
 
         Server expected = new Server("url", null, "default_user", "default_token", false, false);
-        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY)).thenReturn(expected.asMap());
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
 
         Server actual = jenkins.getJenkinsServer(PROJECT_KEY, null, null);
         assertEquals("default_user", actual.getUser());
         assertEquals("default_token", actual.getToken());
     }
+
+    @Test
+    public void testGetJenkinsServerReadsSettingsOnce() {
+        Server expected = new Server("url", null, "user", "token", false, false);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
+        jenkins.getJenkinsServer(null, null);
+        jenkins.getJenkinsServers(null);
+        jenkins.getJenkinsServer(null, null, user);
+
+        verify(pluginSettings, times(1)).get(".jenkinsSettings");
+    }
+
+    @Test
+    public void testSavedJenkinsServerIsReturnedWithoutReadingSettings() {
+        Server server = new Server("url", "alias", "user", "token", false, false);
+        jenkins.saveJenkinsServer(server, PROJECT_KEY);
+        Server actual = jenkins.getJenkinsServer(PROJECT_KEY, "alias");
+
+        assertEquals(server, actual);
+        // read once by the save itself
+        verify(pluginSettings, times(1)).get(".jenkinsSettings." + PROJECT_KEY);
+    }
+
+    @Test
+    public void testRemovedJenkinsServerIsNotReturned() {
+        Server server = new Server("url", null, "user", "token", false, false);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(server)));
+        jenkins.getJenkinsServer(null, null);
+        jenkins.saveJenkinsServer(null, null);
+
+        assertEquals(null, jenkins.getJenkinsServer(null, null));
+    }
+
+    @Test
+    public void testUserTokenDoesNotModifySharedServer() {
+        when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn("token");
+        Server expected = new Server("url", null, "default_user", "default_token", true, false);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(expected)));
+        Server actual = jenkins.getJenkinsServer(null, null, user);
+        Server shared = jenkins.getJenkinsServer(null, null);
+
+        assertFalse(actual.getAltUrl());
+        assertEquals(expected, shared);
+    }
+
+    @Test
+    public void testGetServerWithUserTokenAndNoServer() {
+        when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn("token");
+        when(pluginSettings.get(".jenkinsSettings")).thenReturn(null);
+
+        assertEquals(null, jenkins.getJenkinsServer(null, null, user));
+    }
+
+    @Test
+    public void testUserTokenReadOnce() {
+        when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn("token");
+        Server server = new Server("url", null, "default_user", "default_token", false, false);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(server)));
+        jenkins.getJenkinsServer(null, null, user);
+        Server actual = jenkins.getJenkinsServer(null, null, user);
+
+        assertEquals("token", actual.getToken());
+        verify(pluginSettings, times(1)).get(".jenkinsUser." + USER_SLUG);
+    }
+
+    @Test
+    public void testMissingUserTokenIsCached() {
+        when(pluginSettings.get(".jenkinsUser." + USER_SLUG + "." + PROJECT_KEY))
+                .thenReturn(null);
+        Server server = new Server("url", null, "default_user", "default_token", false, false);
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(server)));
+        jenkins.getJenkinsServer(PROJECT_KEY, null, user);
+        jenkins.getJenkinsServer(PROJECT_KEY, null, user);
+
+        verify(pluginSettings, times(1)).get(".jenkinsUser." + USER_SLUG + "." + PROJECT_KEY);
+    }
+
+    @Test
+    public void testSavedUserTokenReplacesCachedToken() {
+        when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn(null);
+        Server server = new Server("url", null, "default_user", "default_token", false, false);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(server)));
+        jenkins.getJenkinsServer(null, null, user);
+        jenkins.saveUserToken(USER_SLUG, "", "token");
+        Server actual = jenkins.getJenkinsServer(null, null, user);
+
+        assertEquals("token", actual.getToken());
+        jenkins.saveUserToken(USER_SLUG, "", "");
+        actual = jenkins.getJenkinsServer(null, null, user);
+
+        assertEquals("default_token", actual.getToken());
+        verify(pluginSettings, times(1)).get(".jenkinsUser." + USER_SLUG);
+    }
+
+    @Test
+    public void testGetAllUserTokensOnlyVisitsIndexedProjects() {
+        Server projectServer = new Server("http://newbaseurl", null, "newuser", "newtoken", false,
+                false);
+        when(pluginSettings.get(".jenkinsProjects")).thenReturn(Lists.newArrayList(PROJECT_KEY));
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        when(project.getKey()).thenReturn(PROJECT_KEY);
+        listProjects(project);
+        when(project.getName()).thenReturn("name");
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
+
+        assertEquals(1, actual.size());
+        assertEquals(PROJECT_KEY, actual.get(0).getProjectKey());
+        verify(projectService, never()).findAllKeys();
+    }
+
+    @Test
+    public void testGetAllUserTokensBuildsIndexOnce() {
+        Server projectServer = new Server("http://newbaseurl", null, "newuser", "newtoken", false,
+                false);
+        when(projectService.findAllKeys()).thenReturn(Lists.newArrayList(PROJECT_KEY, "otherkey"));
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        when(project.getKey()).thenReturn(PROJECT_KEY);
+        listProjects(project);
+        jenkins.getAllUserTokens(user, projectService);
+
+        verify(pluginSettings, times(1)).put(".jenkinsProjects", Lists.newArrayList(PROJECT_KEY));
+    }
+
+    @Test
+    public void testSaveProjectJenkinsServerUpdatesIndex() {
+        Server server = new Server("url", null, "user", "token", true, true);
+        when(pluginSettings.get(".jenkinsProjects")).thenReturn(Lists.newArrayList("otherkey"));
+        jenkins.saveJenkinsServer(server, PROJECT_KEY);
+
+        verify(pluginSettings, times(1))
+                .put(".jenkinsProjects", Lists.newArrayList("otherkey", PROJECT_KEY));
+    }
+
+    @Test
+    public void testRemoveProjectJenkinsServerUpdatesIndex() {
+        when(pluginSettings.get(".jenkinsProjects"))
+                .thenReturn(Lists.newArrayList("otherkey", PROJECT_KEY));
+        jenkins.saveJenkinsServer(null, PROJECT_KEY);
+
+        verify(pluginSettings, times(1)).put(".jenkinsProjects", Lists.newArrayList("otherkey"));
+    }
+
+    @Test
+    public void testGetJenkinsServerByAlias() {
+        Server first = new Server("http://first", "first", "user", "token", false, false);
+        Server second = new Server("http://second", "second", "user", "token", false, false);
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY)).thenReturn(Lists.newArrayList(
+                new Gson().toJson(first.asMap()), new Gson().toJson(second.asMap())));
+
+        assertEquals(second, jenkins.getJenkinsServer(PROJECT_KEY, "second"));
+        assertEquals(first, jenkins.getJenkinsServer(PROJECT_KEY, null));
+        assertEquals(null, jenkins.getJenkinsServer(PROJECT_KEY, "missing"));
+        assertEquals(Lists.newArrayList(first, second), jenkins.getJenkinsServers(PROJECT_KEY));
+    }
+
+    @Test
+    public void testRemoveJenkinsServerKeepsOtherServers() {
+        Server first = new Server("http://first", "first", "user", "token", false, false);
+        Server second = new Server("http://second", "second", "user", "token", false, false);
+        when(pluginSettings.get(".jenkinsSettings")).thenReturn(Lists.newArrayList(
+                new Gson().toJson(first.asMap()), new Gson().toJson(second.asMap())));
+        jenkins.removeJenkinsServer("first", null);
+
+        verify(pluginSettings, times(1)).put(".jenkinsSettings",
+                Lists.newArrayList(new Gson().toJson(second.asMap())));
+        assertEquals(Lists.newArrayList(second), jenkins.getJenkinsServers(null));
+    }
+
+    @Test
+    public void testResolveAliasPrefersProjectServer() {
+        Server projectServer = new Server("http://project", "shared", "user", "token", false,
+                false);
+        Server globalServer = new Server("http://global", "shared", "user", "token", false,
+                false);
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(globalServer)));
+
+        assertEquals(projectServer, jenkins.resolveJenkinsServer(PROJECT_KEY, "shared", null));
+    }
+
+    @Test
+    public void testResolveAliasFallsBackToGlobalServer() {
+        Server globalServer = new Server("http://global", "global", "user", "token", false,
+                false);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(globalServer)));
+        when(pluginSettings.get(".jenkinsUser." + USER_SLUG)).thenReturn("usertoken");
+        Server actual = jenkins.resolveJenkinsServer(PROJECT_KEY, "global", user);
+
+        assertEquals("http://global", actual.getBaseUrl());
+        assertEquals(USER_SLUG + ":usertoken", actual.getJoinedToken());
+    }
+
+    @Test
+    public void testResolveLegacyGlobalReference() {
+        Server globalServer = new Server("http://global", "global", "user", "token", false,
+                false);
+        when(pluginSettings.get(".jenkinsSettings"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(globalServer)));
+
+        assertEquals(globalServer,
+                jenkins.resolveJenkinsServer(PROJECT_KEY, "global-settings", null));
+    }
+
+    @Test
+    public void testResolveUnknownAlias() {
+        assertEquals(null, jenkins.resolveJenkinsServer(PROJECT_KEY, "missing", user));
+    }
+
+    @Test
+    public void testResolveIsCachedUntilServersChange() {
+        Server globalServer = new Server("http://global", "global", "user", "token", false,
+                false);
+        jenkins.resolveJenkinsServer(PROJECT_KEY, "global", null);
+        jenkins.resolveJenkinsServer(PROJECT_KEY, "global", null);
+        jenkins.saveJenkinsServer(globalServer, null);
+
+        assertEquals(globalServer, jenkins.resolveJenkinsServer(PROJECT_KEY, "global", null));
+        verify(pluginSettings, times(1)).get(".jenkinsSettings." + PROJECT_KEY);
+    }
+
+    @Test
+    public void testGetAllUserTokensLooksUpProjectNamesTogether() {
+        Server projectServer = new Server("http://newbaseurl", null, "newuser", "newtoken", false,
+                false);
+        Project other = mock(Project.class);
+        when(other.getKey()).thenReturn("otherkey");
+        when(other.getName()).thenReturn("other");
+        when(project.getKey()).thenReturn(PROJECT_KEY);
+        when(project.getName()).thenReturn("name");
+        listProjects(other, project);
+        when(pluginSettings.get(".jenkinsProjects"))
+                .thenReturn(Lists.newArrayList(PROJECT_KEY, "otherkey"));
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        when(pluginSettings.get(".jenkinsSettings.otherkey"))
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
+
+        assertEquals(2, actual.size());
+        assertEquals("name", actual.get(0).getProjectName());
+        assertEquals("other", actual.get(1).getProjectName());
+        verify(projectService, times(1)).findAll(any());
+        verify(projectService, never()).getByKey(any());
+    }
+
+    @Test
+    public void testGetAllUserTokensSkipsProjectsIndexedWithoutToken() {
+        Server projectServer = new Server("http://newbaseurl", null, "newuser", "newtoken", false,
+                false);
+        when(project.getKey()).thenReturn(PROJECT_KEY);
+        when(project.getName()).thenReturn("name");
+        listProjects(project);
+        when(pluginSettings.get(".jenkinsProjects")).thenReturn(Lists.newArrayList(PROJECT_KEY));
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        when(pluginSettings.get(".jenkinsUserProjects." + USER_SLUG))
+                .thenReturn(Collections.singletonMap(PROJECT_KEY, "false"));
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
+
+        assertEquals(1, actual.size());
+        assertEquals(null, actual.get(0).getToken());
+        verify(pluginSettings, never()).get(".jenkinsUser." + USER_SLUG + "." + PROJECT_KEY);
+    }
+
+    @Test
+    public void testGetAllUserTokensIndexesTokensSavedBeforeTheIndex() {
+        Server projectServer = new Server("http://newbaseurl", null, "newuser", "newtoken", false,
+                false);
+        when(project.getKey()).thenReturn(PROJECT_KEY);
+        when(project.getName()).thenReturn("name");
+        listProjects(project);
+        when(pluginSettings.get(".jenkinsProjects")).thenReturn(Lists.newArrayList(PROJECT_KEY));
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY))
+                .thenReturn(ServerStore.format(Lists.newArrayList(projectServer)));
+        when(pluginSettings.get(".jenkinsUser." + USER_SLUG + "." + PROJECT_KEY))
+                .thenReturn("token");
+        List<UserToken> actual = jenkins.getAllUserTokens(user, projectService);
+
+        assertEquals("token", actual.get(0).getToken());
+        verify(pluginSettings, times(1)).put(".jenkinsUserProjects." + USER_SLUG,
+                Collections.singletonMap(PROJECT_KEY, "true"));
+    }
+
+    @Test
+    public void testSaveUserTokenUpdatesTokenIndex() {
+        jenkins.saveUserToken(USER_SLUG, PROJECT_KEY, "token");
+
+        verify(pluginSettings, times(1)).put(".jenkinsUserProjects." + USER_SLUG,
+                Collections.singletonMap(PROJECT_KEY, "true"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void listProjects(Project... projects) {
+        Page<Project> page = mock(Page.class);
+        when(page.getValues()).thenReturn(Arrays.asList(projects));
+        when(page.getIsLastPage()).thenReturn(true);
+        when(projectService.findAll(any())).thenReturn(page);
+    }
 }
@@ -0,0 +1,127 @@
+package com.kylenicholls.stash.parameterizedbuilds.ciserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.project.ProjectService;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.google.common.collect.Lists;
+import com.kylenicholls.stash.parameterizedbuilds.item.Server;
+
+public class ServerSettingsUpgradeTaskTest {
+    private static final String PLUGIN_KEY = "com.kylenicholls.stash.parameterized-builds";
+    private static final String PROJECT_KEY = "projkey";
+    private PluginSettings pluginSettings;
+    private ProjectService projectService;
+    private Jenkins jenkins;
+    private ServerSettingsUpgradeTask upgradeTask;
+
+    @Before
+    public void setup() {
+        PluginSettingsFactory factory = mock(PluginSettingsFactory.class);
+        pluginSettings = mock(PluginSettings.class);
+        when(factory.createSettingsForKey(PLUGIN_KEY)).thenReturn(pluginSettings);
+        projectService = mock(ProjectService.class);
+        when(projectService.findAllKeys()).thenReturn(Lists.newArrayList(PROJECT_KEY, "other"));
+        jenkins = mock(Jenkins.class);
+        upgradeTask = new ServerSettingsUpgradeTask(factory, projectService, jenkins);
+    }
+
+    @Test
+    public void testPluginKey() {
+        assertEquals(PLUGIN_KEY, upgradeTask.getPluginKey());
+    }
+
+    @Test
+    public void testParseLegacyNoAltUrl() {
+        Server actual = ServerSettingsUpgradeTask.parseLegacy("url;user;token");
+
+        assertEquals("url", actual.getBaseUrl());
+        assertEquals("user", actual.getUser());
+        assertEquals("token", actual.getToken());
+        assertFalse(actual.getAltUrl());
+        assertTrue(actual.getCsrfEnabled());
+    }
+
+    @Test
+    public void testParseLegacyAltUrlTrue() {
+        Server actual = ServerSettingsUpgradeTask.parseLegacy("url;user;token;true");
+
+        assertEquals("url", actual.getBaseUrl());
+        assertEquals("user", actual.getUser());
+        assertEquals("token", actual.getToken());
+        assertTrue(actual.getAltUrl());
+    }
+
+    @Test
+    public void testParseLegacyAltUrlFalse() {
+        Server actual = ServerSettingsUpgradeTask.parseLegacy("url;user;token;false");
+
+        assertFalse(actual.getAltUrl());
+    }
+
+    @Test
+    public void testParseLegacyServerMap() {
+        Server expected = new Server("url", "alias", "user", "token", true, false);
+
+        assertEquals(expected, ServerSettingsUpgradeTask.parseLegacy(expected.asMap()));
+    }
+
+    @Test
+    public void testUpgradeRewritesLegacyGlobalString() {
+        when(pluginSettings.get(".jenkinsSettings")).thenReturn("url;user;token;true");
+        upgradeTask.doUpgrade();
+
+        Server expected = new Server("url", null, "user", "token", true, true);
+        verify(pluginSettings, times(1)).put(".jenkinsSettings",
+                ServerStore.format(Lists.newArrayList(expected)));
+    }
+
+    @Test
+    public void testUpgradeRewritesProjectMapAndIndexesProject() {
+        Server server = new Server("url", "alias", "user", "token", false, false);
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY)).thenReturn(server.asMap());
+        upgradeTask.doUpgrade();
+
+        verify(pluginSettings, times(1)).put(".jenkinsSettings." + PROJECT_KEY,
+                ServerStore.format(Lists.newArrayList(server)));
+        verify(pluginSettings, times(1)).put(".jenkinsProjects",
+                Lists.newArrayList(PROJECT_KEY));
+    }
+
+    @Test
+    public void testUpgradeLeavesCurrentFormatUntouched() {
+        Server server = new Server("url", "alias", "user", "token", false, false);
+        List<String> settings = ServerStore.format(Lists.newArrayList(server));
+        when(pluginSettings.get(".jenkinsSettings")).thenReturn(settings);
+        when(pluginSettings.get(".jenkinsSettings." + PROJECT_KEY)).thenReturn(settings);
+        upgradeTask.doUpgrade();
+
+        verify(pluginSettings, never()).put(eq(".jenkinsSettings"), any());
+        verify(pluginSettings, never()).put(eq(".jenkinsSettings." + PROJECT_KEY), any());
+        verify(pluginSettings, times(1)).put(".jenkinsProjects",
+                Lists.newArrayList(PROJECT_KEY));
+    }
+
+    @Test
+    public void testUpgradeInvalidatesCachedServers() {
+        upgradeTask.doUpgrade();
+
+        verify(jenkins, times(1)).invalidateServers();
+        verify(pluginSettings, times(1)).put(".jenkinsProjects", Lists.newArrayList());
+    }
+}
@@ -0,0 +1,149 @@
+package com.kylenicholls.stash.parameterizedbuilds.ciserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.google.common.collect.Lists;
+import com.kylenicholls.stash.parameterizedbuilds.item.Server;
+
+public class ServerStoreTest {
+    private static final String KEY = ".jenkinsSettings";
+    private PluginSettings pluginSettings;
+    private AtomicLong clock;
+    private ServerStore store;
+    private Server server;
+    private Server other;
+
+    @Before
+    public void setup() {
+        pluginSettings = mock(PluginSettings.class);
+        clock = new AtomicLong(1000L);
+        server = new Server("url", "alias", "user", "token", false, false);
+        other = new Server("otherurl", "other", "user", "token", true, true);
+        store = new ServerStore(pluginSettings) {
+            @Override
+            long now() {
+                return clock.get();
+            }
+        };
+    }
+
+    @Test
+    public void testMissingScopeIsCached() {
+        when(pluginSettings.get(KEY)).thenReturn(null);
+        store.getServers(KEY);
+        store.getServers(KEY);
+
+        verify(pluginSettings, times(1)).get(KEY);
+        assertTrue(store.getServers(KEY).isEmpty());
+    }
+
+    @Test
+    public void testSaveUpdatesSnapshot() {
+        when(pluginSettings.get(KEY)).thenReturn(null);
+        store.getServers(KEY);
+        store.save(KEY, server, null);
+
+        assertEquals(Lists.newArrayList(server), store.getServers(KEY));
+        verify(pluginSettings, times(1)).put(KEY, toSettings(server));
+    }
+
+    @Test
+    public void testInvalidateReloadsFromSettings() {
+        when(pluginSettings.get(KEY)).thenReturn(ServerStore.format(Lists.newArrayList(server)));
+        store.getServers(KEY);
+        store.invalidate();
+        store.getServers(KEY);
+
+        verify(pluginSettings, times(2)).get(KEY);
+    }
+
+    @Test
+    public void testSnapshotExpires() {
+        when(pluginSettings.get(KEY)).thenReturn(ServerStore.format(Lists.newArrayList(server)));
+        store.getServers(KEY);
+        clock.addAndGet(ServerStore.MAX_AGE_MILLIS + 1);
+        store.getServers(KEY);
+        store.getServers(KEY);
+
+        verify(pluginSettings, times(2)).get(KEY);
+    }
+
+    @Test
+    public void testGetServerByAlias() {
+        when(pluginSettings.get(KEY)).thenReturn(toSettings(server, other));
+
+        assertEquals(other, store.getServer(KEY, "other"));
+        assertEquals(server, store.getServer(KEY, "alias"));
+        assertNull(store.getServer(KEY, "missing"));
+    }
+
+    @Test
+    public void testSaveReplacesServerWithSameAlias() {
+        Server updated = new Server("newurl", "alias", "user", "token", false, false);
+        when(pluginSettings.get(KEY)).thenReturn(toSettings(server, other));
+        store.save(KEY, updated, null);
+
+        verify(pluginSettings, times(1)).put(KEY, toSettings(updated, other));
+    }
+
+    @Test
+    public void testSaveRenamesServer() {
+        Server renamed = new Server("url", "renamed", "user", "token", false, false);
+        when(pluginSettings.get(KEY)).thenReturn(toSettings(server, other));
+        store.save(KEY, renamed, "alias");
+
+        assertEquals(Lists.newArrayList(renamed, other), store.getServers(KEY));
+        assertNull(store.getServer(KEY, "alias"));
+    }
+
+    @Test
+    public void testRemoveSingleServer() {
+        when(pluginSettings.get(KEY)).thenReturn(toSettings(server, other));
+        store.remove(KEY, "alias");
+
+        verify(pluginSettings, times(1)).put(KEY, toSettings(other));
+        assertEquals(Lists.newArrayList(other), store.getServers(KEY));
+    }
+
+    @Test
+    public void testRemoveLastServerRemovesSetting() {
+        when(pluginSettings.get(KEY)).thenReturn(toSettings(server));
+        store.remove(KEY, "alias");
+
+        verify(pluginSettings, times(1)).remove(KEY);
+        assertTrue(store.getServers(KEY).isEmpty());
+    }
+
+    @Test
+    public void testParseIgnoresLegacyFormats() {
+        assertTrue(ServerStore.parse(server.asMap()).isEmpty());
+        assertTrue(ServerStore.parse("url;user;token;true").isEmpty());
+    }
+
+    @Test
+    public void testParseServerWithoutToken() {
+        Server noToken = server.withToken(null);
+        List<Server> actual = ServerStore.parse(toSettings(noToken));
+
+        assertEquals(Lists.newArrayList(noToken), actual);
+        assertFalse(actual.get(0).getAltUrl());
+    }
+
+    private static List<String> toSettings(Server... servers) {
+        return ServerStore.format(Lists.newArrayList(servers));
+    }
+}
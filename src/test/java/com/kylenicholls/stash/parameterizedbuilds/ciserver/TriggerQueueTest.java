@@ -0,0 +1,203 @@
+package com.kylenicholls.stash.parameterizedbuilds.ciserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.google.common.collect.Lists;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.TriggerQueue.TriggerStatus;
+import com.kylenicholls.stash.parameterizedbuilds.item.JenkinsResponse;
+
+public class TriggerQueueTest {
+    private static final String SERVER_A = "http://a.example.com:8080/jenkins";
+    private static final String SERVER_B = "http://b.example.com:8080/jenkins";
+    private ExecutorService executorService;
+    private List<Runnable> queued;
+    private ApplicationUser user;
+    private TriggerQueue triggerQueue;
+    private final JenkinsResponse response = new JenkinsResponse.JenkinsMessage()
+            .messageText("triggered").build();
+
+    @Before
+    public void setup() {
+        executorService = mock(ExecutorService.class);
+        queued = new ArrayList<>();
+        // hold on to queued triggers so the tests decide when they run
+        doAnswer(invocationOnMock -> {
+            queued.add(invocationOnMock.getArgument(0));
+            return null;
+        }).when(executorService).execute(any(Runnable.class));
+        user = mock(ApplicationUser.class);
+        when(user.getId()).thenReturn(1);
+        triggerQueue = new TriggerQueue(executorService);
+    }
+
+    @Test
+    public void testSubmitIsPendingUntilRun() {
+        TriggerStatus status = triggerQueue.submit(user, () -> response);
+
+        assertEquals(TriggerStatus.State.PENDING, status.getState());
+        assertEquals("PENDING", status.asMap().get("status"));
+        assertFalse(status.asMap().containsKey("message"));
+    }
+
+    @Test
+    public void testSubmitCompletesWhenRun() {
+        TriggerStatus status = triggerQueue.submit(user, () -> response);
+        queued.forEach(Runnable::run);
+
+        Map<String, Object> actual = triggerQueue.getStatus(status.getId(), user).asMap();
+        assertEquals(status.getId(), actual.get("id"));
+        assertEquals("COMPLETE", actual.get("status"));
+        assertEquals(response.getMessage(), actual.get("message"));
+    }
+
+    @Test
+    public void testGetStatusSameUser() {
+        TriggerStatus status = triggerQueue.submit(user, () -> response);
+
+        assertSame(status, triggerQueue.getStatus(status.getId(), user));
+    }
+
+    @Test
+    public void testGetStatusOtherUser() {
+        ApplicationUser other = mock(ApplicationUser.class);
+        when(other.getId()).thenReturn(2);
+        TriggerStatus status = triggerQueue.submit(user, () -> response);
+
+        assertNull(triggerQueue.getStatus(status.getId(), other));
+        assertNull(triggerQueue.getStatus(status.getId(), null));
+    }
+
+    @Test
+    public void testGetStatusUnknownId() {
+        assertNull(triggerQueue.getStatus("unknown", user));
+    }
+
+    @Test
+    public void testFailedTriggerCompletesWithError() {
+        TriggerStatus status = triggerQueue.submit(user, () -> {
+            throw new IllegalStateException("boom");
+        });
+        queued.forEach(Runnable::run);
+
+        assertEquals(TriggerStatus.State.COMPLETE, status.getState());
+        assertTrue(status.getResponse().getError());
+    }
+
+    @Test
+    public void testRejectedTriggerCompletesWithError() {
+        doThrow(new RejectedExecutionException()).when(executorService)
+                .execute(any(Runnable.class));
+        TriggerStatus status = triggerQueue.submit(user, () -> response);
+
+        assertEquals(TriggerStatus.State.COMPLETE, status.getState());
+        assertTrue(status.getResponse().getError());
+    }
+
+    @Test
+    public void testRunAllReportsEveryResult() throws InterruptedException {
+        doAnswer(invocationOnMock -> {
+            ((Runnable) invocationOnMock.getArgument(0)).run();
+            return null;
+        }).when(executorService).execute(any(Runnable.class));
+        JenkinsResponse other = new JenkinsResponse.JenkinsMessage().messageText("other").build();
+        Map<Integer, JenkinsResponse> results = new HashMap<>();
+        triggerQueue.runAll(Lists.newArrayList(SERVER_A, SERVER_B),
+                Lists.<Supplier<JenkinsResponse>>newArrayList(() -> response, () -> other),
+                (result, index) -> results.put(index, result));
+
+        assertEquals(2, results.size());
+        assertSame(response, results.get(0));
+        assertSame(other, results.get(1));
+    }
+
+    @Test
+    public void testRunAllRejectedTriggerReportsError() throws InterruptedException {
+        doThrow(new RejectedExecutionException()).when(executorService)
+                .execute(any(Runnable.class));
+        Map<Integer, JenkinsResponse> results = new HashMap<>();
+        triggerQueue.runAll(Lists.newArrayList(SERVER_A),
+                Lists.<Supplier<JenkinsResponse>>newArrayList(() -> response),
+                (result, index) -> results.put(index, result));
+
+        assertTrue(results.get(0).getError());
+    }
+
+    @Test
+    public void testRunAllLimitsTriggersPerServer() throws InterruptedException {
+        int count = TriggerQueue.MAX_PER_SERVER * 3;
+        ExecutorService pool = Executors.newFixedThreadPool(count);
+        try {
+            TriggerQueue queue = new TriggerQueue(pool);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            CountDownLatch started = new CountDownLatch(TriggerQueue.MAX_PER_SERVER);
+            List<Supplier<JenkinsResponse>> batch = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                batch.add(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    started.countDown();
+                    try {
+                        // hold the permit until the server is saturated
+                        started.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return response;
+                });
+            }
+            AtomicInteger results = new AtomicInteger();
+            queue.runAll(Collections.nCopies(count, SERVER_A), batch,
+                    (result, index) -> results.incrementAndGet());
+
+            assertEquals(count, results.get());
+            assertEquals(TriggerQueue.MAX_PER_SERVER, maxRunning.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPermitsInUse() throws InterruptedException {
+        doAnswer(invocationOnMock -> {
+            ((Runnable) invocationOnMock.getArgument(0)).run();
+            return null;
+        }).when(executorService).execute(any(Runnable.class));
+        List<Map<String, Integer>> during = new ArrayList<>();
+        triggerQueue.runAll(Lists.newArrayList(SERVER_A),
+                Lists.<Supplier<JenkinsResponse>>newArrayList(() -> {
+                    during.add(triggerQueue.permitsInUse());
+                    return response;
+                }), (result, index) -> { });
+
+        assertEquals(Collections.singletonMap("a.example.com:8080", 1), during.get(0));
+        assertEquals(Collections.singletonMap("a.example.com:8080", 0),
+                triggerQueue.permitsInUse());
+    }
+}
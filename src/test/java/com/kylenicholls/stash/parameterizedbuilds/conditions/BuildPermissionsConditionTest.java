@@ -5,9 +5,10 @@ import com.atlassian.bitbucket.permission.Permission;
 import com.atlassian.bitbucket.permission.PermissionService;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.repository.RepositoryService;
-import com.atlassian.bitbucket.setting.Settings;
+import com.google.common.collect.Lists;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.JobFlags;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -17,11 +18,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class BuildPermissionsConditionTest {
@@ -31,19 +38,18 @@ public class BuildPermissionsConditionTest {
     private Map<String, Object> context;
     private SettingsService settingsService;
     private RepositoryService repositoryService;
-    private Settings settings;
+    private PermissionService permissionService;
 
     @Before
     public void setup() {
         repository = mock(Repository.class);
         settingsService = mock(SettingsService.class);
         repositoryService = mock(RepositoryService.class);
-        settings = mock(Settings.class);
 
         context = new HashMap<>();
         context.put("repository", repository);
 
-        PermissionService permissionService = mock(PermissionService.class);
+        permissionService = mock(PermissionService.class);
         AuthenticationContext authContext = mock(AuthenticationContext.class);
         condition = new BuildPermissionsCondition(repositoryService, permissionService,
                 settingsService, authContext);
@@ -72,43 +78,111 @@ public class BuildPermissionsConditionTest {
         HttpServletRequest mockRequest = mock(HttpServletRequest.class);
         when(mockRequest.getRequestURI()).thenReturn("/projects/PROJ1/repos/REP1/");
         when(repositoryService.getBySlug("PROJ1", "REP1")).thenReturn(repository);
-        when(settingsService.getSettings(repository)).thenReturn(settings);
         Job job = new Job.JobBuilder(1).permissions("REPO_WRITE").build();
         List<Job> jobs = new ArrayList<>();
         jobs.add(job);
-        when(settingsService.getJobs(any())).thenReturn(jobs);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
         context.put("request", mockRequest);
         assertTrue(condition.shouldDisplay(context));
     }
 
     @Test
     public void testShouldNotDisplayIfInsufficientPermissions() {
-        when(settingsService.getSettings(repository)).thenReturn(settings);
         Job job = new Job.JobBuilder(1).permissions("REPO_ADMIN").build();
         List<Job> jobs = new ArrayList<>();
         jobs.add(job);
-        when(settingsService.getJobs(any())).thenReturn(jobs);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
         assertFalse(condition.shouldDisplay(context));
     }
 
     @Test
     public void testShouldDisplayExplicitPermissionPresent() {
-        when(settingsService.getSettings(repository)).thenReturn(settings);
         Job job = new Job.JobBuilder(1).permissions("REPO_WRITE").build();
         List<Job> jobs = new ArrayList<>();
         jobs.add(job);
-        when(settingsService.getJobs(any())).thenReturn(jobs);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
         assertTrue(condition.shouldDisplay(context));
     }
 
     @Test
     public void testShouldDisplayImplicitPermissionPresent() {
-        when(settingsService.getSettings(repository)).thenReturn(settings);
         Job job = new Job.JobBuilder(1).permissions("REPO_READ").build();
         List<Job> jobs = new ArrayList<>();
         jobs.add(job);
-        when(settingsService.getJobs(any())).thenReturn(jobs);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
         assertTrue(condition.shouldDisplay(context));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMemoizedForRequest() {
+        context.put("repository", null);
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        Map<String, Object> attributes = new HashMap<>();
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0),
+                invocation.getArgument(1))).when(mockRequest).setAttribute(any(), any());
+        when(mockRequest.getAttribute(any()))
+                .thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        when(mockRequest.getRequestURI()).thenReturn("/projects/PROJ1/repos/REP1/");
+        when(repositoryService.getBySlug("PROJ1", "REP1")).thenReturn(repository);
+        Job job = new Job.JobBuilder(1).permissions("REPO_WRITE").build();
+        List<Job> jobs = new ArrayList<>();
+        jobs.add(job);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
+        context.put("request", mockRequest);
+
+        assertTrue(condition.shouldDisplay(context));
+        assertTrue(condition.shouldDisplay(context));
+        verify(repositoryService, times(1)).getBySlug("PROJ1", "REP1");
+        verify(permissionService, times(1)).hasRepositoryPermission(any(), any(),
+                eq(Permission.REPO_WRITE));
+    }
+
+    @Test
+    public void testFilterPermittedChecksEachPermissionOnce() {
+        Job read = new Job.JobBuilder(0).permissions("REPO_READ").build();
+        Job write = new Job.JobBuilder(1).permissions("REPO_WRITE").build();
+        Job admin = new Job.JobBuilder(2).permissions("REPO_ADMIN").build();
+        Job admin2 = new Job.JobBuilder(3).permissions("REPO_ADMIN").build();
+        List<Job> permitted = condition.filterPermitted(
+                Lists.newArrayList(read, write, admin, admin2), repository, null);
+
+        assertEquals(Lists.newArrayList(read, write), permitted);
+        verify(permissionService, times(1)).hasRepositoryPermission(any(), any(),
+                eq(Permission.REPO_ADMIN));
+        verify(permissionService, times(1)).hasRepositoryPermission(any(), any(),
+                eq(Permission.REPO_WRITE));
+        verify(permissionService, never()).hasRepositoryPermission(any(), any(),
+                eq(Permission.REPO_READ));
+    }
+
+    @Test
+    public void testFilterPermittedIgnoresInvalidPermission() {
+        Job invalid = new Job.JobBuilder(0).permissions("").build();
+        Job read = new Job.JobBuilder(1).permissions("REPO_READ").build();
+
+        assertEquals(Lists.newArrayList(read),
+                condition.filterPermitted(Lists.newArrayList(invalid, read), repository, null));
+    }
+
+    @Test
+    public void testPermissionChecksAreCached() {
+        Job write = new Job.JobBuilder(0).permissions("REPO_WRITE").build();
+        condition.checkPermissions(write, repository, null);
+        condition.filterPermitted(Lists.newArrayList(write), repository, null);
+
+        verify(permissionService, times(1)).hasRepositoryPermission(any(), any(),
+                eq(Permission.REPO_WRITE));
+    }
+
+    @Test
+    public void testPermissionLevelIsHighestPermission() {
+        assertEquals(Permission.REPO_WRITE, condition.getPermissionLevel(repository, null));
+    }
+
+    @Test
+    public void testPermissionLevelWithoutAccess() {
+        when(permissionService.hasRepositoryPermission(any(), any(), any())).thenReturn(false);
+
+        assertNull(condition.getPermissionLevel(repository, null));
+    }
+}
@@ -3,7 +3,10 @@ package com.kylenicholls.stash.parameterizedbuilds.conditions;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
@@ -16,9 +19,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.atlassian.bitbucket.repository.Repository;
-import com.atlassian.bitbucket.setting.Settings;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.JobFlags;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -28,14 +31,12 @@ public class ManualButtonConditionTest {
     private RepositoryService repositoryService;
     private ManualButtonCondition condition;
     private Repository repository;
-    private Settings settings;
 
     @Before
     public void setup() {
         settingsService = mock(SettingsService.class);
         repositoryService = mock(RepositoryService.class);
         repository = mock(Repository.class);
-        settings = mock(Settings.class);
 
         context = new HashMap<>();
         context.put("repository", repository);
@@ -61,35 +62,55 @@ public class ManualButtonConditionTest {
         HttpServletRequest mockRequest = mock(HttpServletRequest.class);
         when(mockRequest.getRequestURI()).thenReturn("/projects/PROJ1/repos/REP1/");
         when(repositoryService.getBySlug("PROJ1", "REP1")).thenReturn(repository);
-        when(settingsService.getSettings(repository)).thenReturn(settings);
         Job job = new Job.JobBuilder(1).jobName("").triggers("manual".split(";"))
                 .buildParameters("").branchRegex("").pathRegex("").build();
         List<Job> jobs = new ArrayList<>();
         jobs.add(job);
-        when(settingsService.getJobs(any())).thenReturn(jobs);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
         context.put("request", mockRequest);
         assertTrue(condition.shouldDisplay(context));
     }
 
     @Test
     public void testShouldDisplayWhenManualTrigger() {
-        when(settingsService.getSettings(repository)).thenReturn(settings);
         Job job = new Job.JobBuilder(1).jobName("").triggers("manual".split(";"))
                 .buildParameters("").branchRegex("").pathRegex("").build();
         List<Job> jobs = new ArrayList<>();
         jobs.add(job);
-        when(settingsService.getJobs(any())).thenReturn(jobs);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
         assertTrue(condition.shouldDisplay(context));
     }
 
     @Test
     public void testShouldNotDisplayWhenNotManualTrigger() {
-        when(settingsService.getSettings(repository)).thenReturn(settings);
         Job job = new Job.JobBuilder(1).jobName("").triggers("add".split(";")).buildParameters("")
                 .branchRegex("").pathRegex("").build();
         List<Job> jobs = new ArrayList<>();
         jobs.add(job);
-        when(settingsService.getJobs(any())).thenReturn(jobs);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
         assertFalse(condition.shouldDisplay(context));
     }
+
+    @Test
+    public void testMemoizedForRequest() {
+        context.put("repository", null);
+        HttpServletRequest mockRequest = mock(HttpServletRequest.class);
+        Map<String, Object> attributes = new HashMap<>();
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0),
+                invocation.getArgument(1))).when(mockRequest).setAttribute(any(), any());
+        when(mockRequest.getAttribute(any()))
+                .thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        when(mockRequest.getRequestURI()).thenReturn("/projects/PROJ1/repos/REP1/");
+        when(repositoryService.getBySlug("PROJ1", "REP1")).thenReturn(repository);
+        Job job = new Job.JobBuilder(1).jobName("").triggers("manual".split(";"))
+                .buildParameters("").branchRegex("").pathRegex("").build();
+        List<Job> jobs = new ArrayList<>();
+        jobs.add(job);
+        when(settingsService.getJobFlags(repository)).thenReturn(JobFlags.of(jobs));
+        context.put("request", mockRequest);
+
+        assertTrue(condition.shouldDisplay(context));
+        assertTrue(condition.shouldDisplay(context));
+        verify(repositoryService, times(1)).getBySlug("PROJ1", "REP1");
+    }
 }
@@ -0,0 +1,49 @@
+package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JobMatcherTest {
+    private Job.JobBuilder jobBuilder;
+
+    @Before
+    public void setup() {
+        jobBuilder = new Job.JobBuilder(1).jobName("job").buildParameters("").branchRegex("")
+                .pathRegex("").prDestRegex("").ignoreComitters("").ignoreCommitMsg("")
+                .triggers(new String[] { "push", "propened" });
+    }
+
+    @Test
+    public void testRefFiltersAreCheckedInOrder() {
+        Job job = jobBuilder.branchRegex("release").isTag(false).build();
+
+        assertEquals(Filter.TRIGGER, JobMatcher.matchRef(job, Trigger.ADD, true, "master"));
+        assertEquals(Filter.TAG, JobMatcher.matchRef(job, Trigger.PUSH, true, "master"));
+        assertEquals(Filter.BRANCH, JobMatcher.matchRef(job, Trigger.PUSH, false, "master"));
+        assertNull(JobMatcher.matchRef(job, Trigger.PUSH, false, "RELEASE"));
+    }
+
+    @Test
+    public void testPullRequestFiltersAreCheckedInOrder() {
+        Job job = jobBuilder.prDestRegex("master").build();
+
+        assertEquals(Filter.TRIGGER,
+                JobMatcher.matchPullRequest(job, Trigger.PRMERGED, "release"));
+        assertEquals(Filter.PR_DESTINATION,
+                JobMatcher.matchPullRequest(job, Trigger.PROPENED, "release"));
+        assertNull(JobMatcher.matchPullRequest(job, Trigger.PROPENED, "master"));
+    }
+
+    @Test
+    public void testHasPathFilter() {
+        assertFalse(JobMatcher.hasPathFilter(jobBuilder.build()));
+        assertTrue(JobMatcher.hasPathFilter(jobBuilder.pathRegex("src/.*").build()));
+    }
+}
@@ -2,6 +2,9 @@ package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
 
 import com.atlassian.bitbucket.event.pull.PullRequestDeclinedEvent;
 import com.atlassian.bitbucket.event.pull.PullRequestOpenedEvent;
+import com.atlassian.bitbucket.content.Change;
+import com.atlassian.bitbucket.content.ChangeCallback;
+import com.atlassian.bitbucket.content.Path;
 import com.atlassian.bitbucket.hook.repository.RepositoryHook;
 import com.atlassian.bitbucket.project.Project;
 import com.atlassian.bitbucket.pull.PullRequestService;
@@ -21,6 +24,7 @@ import java.util.List;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -145,4 +149,46 @@ public class PRHandlerTest {
 
         verify(spyHandler, times(0)).triggerJenkins(any(), any());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPathFilterMatches() throws IOException {
+        Job job = jobBuilder.triggers(new String[] { "PRDECLINED" }).pathRegex("src/.*")
+                .build();
+        jobs.add(job);
+        streamChanges("src/Main.java");
+        PRHandler spyHandler = spy(new PRHandler(settingsService, pullRequestService, jenkins,
+                eventFactory.getMockedDeclinedEvent(repository), PR_URL,
+                Job.Trigger.PRDECLINED));
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(1)).triggerJenkins(eq(job), any());
+    }
+
+    @Test
+    public void testPathFilterDoesNotMatch() throws IOException {
+        Job job = jobBuilder.triggers(new String[] { "PRDECLINED" }).pathRegex("src/.*")
+                .build();
+        jobs.add(job);
+        streamChanges("README.md");
+        PRHandler spyHandler = spy(new PRHandler(settingsService, pullRequestService, jenkins,
+                eventFactory.getMockedDeclinedEvent(repository), PR_URL,
+                Job.Trigger.PRDECLINED));
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(0)).triggerJenkins(eq(job), any());
+    }
+
+    private void streamChanges(String path) {
+        Change change = mock(Change.class);
+        Path changePath = mock(Path.class);
+        when(changePath.toString()).thenReturn(path);
+        when(change.getPath()).thenReturn(changePath);
+        doAnswer(invocation -> {
+            ChangeCallback callback = invocation.getArgument(1);
+            callback.onChange(change);
+            return null;
+        }).when(pullRequestService).streamChanges(any(), any());
+    }
+}
@@ -2,6 +2,9 @@ package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
 
 import com.atlassian.bitbucket.commit.Commit;
 import com.atlassian.bitbucket.commit.CommitService;
+import com.atlassian.bitbucket.content.Change;
+import com.atlassian.bitbucket.content.ChangeCallback;
+import com.atlassian.bitbucket.content.Path;
 import com.atlassian.bitbucket.project.Project;
 import com.atlassian.bitbucket.repository.MinimalRef;
 import com.atlassian.bitbucket.repository.RefChange;
@@ -10,18 +13,28 @@ import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.atlassian.bitbucket.user.Person;
+import com.atlassian.bitbucket.util.Page;
+import com.atlassian.bitbucket.util.PageRequest;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
+import com.kylenicholls.stash.parameterizedbuilds.helper.CommitCache;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Span;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -50,6 +63,8 @@ public class PushHandlerTest {
     private ApplicationUser user;
     private Job.JobBuilder jobBuilder;
     List<Job> jobs;
+    private int streamedChanges;
+    private final List<PageRequest> pageRequests = new ArrayList<>();
 
     @Before
     public void setup() {
@@ -67,6 +82,7 @@ public class PushHandlerTest {
 
         when(refChange.getRef()).thenReturn(minimalRef);
         when(refChange.getToHash()).thenReturn(COMMIT);
+        when(refChange.getFromHash()).thenReturn("fromhash");
         when(settingsService.getSettings(any())).thenReturn(settings);
         when(repository.getProject()).thenReturn(project);
         when(project.getKey()).thenReturn(PROJECT_KEY);
@@ -89,8 +105,8 @@ public class PushHandlerTest {
     public void testBranchUpdatedAndTriggerIsPush() {
         Job job = jobBuilder.triggers(new String[] { "push" }).build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
@@ -104,21 +120,58 @@ public class PushHandlerTest {
                 .pathRegex("").ignoreCommitMsg(".*skipCI.*").ignoreComitters("");
         Job job = jobBuilder.triggers(new String[] { "push" }).build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         spyHandler.run();
         verify(spyHandler, times(0)).triggerJenkins(eq(job), any());
     }
 
+    @Test
+    public void testSkippedJobIsRecordedInHistory() {
+        Job job = new Job.JobBuilder(3).jobName("skippedHistoryJob").buildParameters("")
+                .branchRegex("").pathRegex("").ignoreCommitMsg(".*skipCI.*")
+                .ignoreComitters("").triggers(new String[] { "push" }).build();
+        jobs.add(job);
+        when(repository.getSlug()).thenReturn("slug");
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
+        handler.run();
+
+        List<Map<String, Object>> history = TriggerHistory.global().query(PROJECT_KEY, "slug",
+                "skippedHistoryJob", 0, 1);
+        assertEquals(1, history.size());
+        assertEquals("SKIPPED", history.get(0).get("outcome"));
+        assertEquals(Filter.IGNORED_MESSAGE.getReason(), history.get(0).get("reason"));
+        assertEquals("PUSH", history.get(0).get("trigger"));
+    }
+
+    @Test
+    public void testRunIsTraced() {
+        List<Span> spans = new ArrayList<>();
+        Tracing.setExporter(spans::add);
+        try {
+            new PushHandler(settingsService, jenkins, commitService,
+                    new CommitCache(commitService), repository, refChange, url, user).run();
+        } finally {
+            Tracing.setExporter(null);
+        }
+
+        Span run = spans.get(spans.size() - 1);
+        assertEquals("handler.run", run.getName());
+        assertEquals("PUSH", run.getTags().get("trigger"));
+        assertEquals("settings.load", spans.get(0).getName());
+        assertEquals(run.getSpanId(), spans.get(0).getParentId());
+    }
+
     @Test
     public void testIgnoreCommitMsgAndJobIsTriggered (){
         jobBuilder = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
                 .pathRegex("").ignoreCommitMsg(".*kuku.*").ignoreComitters("");
         Job job = jobBuilder.triggers(new String[] { "push" }).build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
@@ -131,8 +184,8 @@ public class PushHandlerTest {
                 .pathRegex("").ignoreCommitMsg("").ignoreComitters("ci_user\ntest_user");
         Job job = jobBuilder.triggers(new String[] { "push" }).build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
@@ -145,12 +198,250 @@ public class PushHandlerTest {
                 .pathRegex("").ignoreCommitMsg("").ignoreComitters("ci_user\nadmin");
         Job job = jobBuilder.triggers(new String[] { "push" }).build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
+        PushHandler spyHandler = spy(handler);
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+        verify(spyHandler, times(0)).triggerJenkins(eq(job), any());
+    }
+
+    @Test
+    public void testCommitFetchedOnceForAllJobsAndValidators (){
+        jobBuilder = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
+                .pathRegex("").ignoreCommitMsg(".*kuku.*").ignoreComitters("ci_user");
+        jobs.add(jobBuilder.triggers(new String[] { "push" }).build());
+        jobs.add(jobBuilder.triggers(new String[] { "push" }).build());
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
+        PushHandler spyHandler = spy(handler);
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(2)).triggerJenkins(any(), any());
+        verify(commitService, times(1)).getCommit(any());
+    }
+
+    @Test
+    public void testCheckAllCommitsTriggersWhenEarlierCommitIsNotIgnored (){
+        streamCommits(mockCommit(commitMsg, committer), mockCommit("fix", "developer"));
+        jobBuilder = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
+                .pathRegex("").ignoreCommitMsg("").ignoreComitters("admin")
+                .checkAllCommits(true);
+        Job job = jobBuilder.triggers(new String[] { "push" }).build();
+        jobs.add(job);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
+
+        verify(spyHandler, times(1)).triggerJenkins(eq(job), any());
+        verify(commitService, times(0)).getCommit(any());
+    }
+
+    @Test
+    public void testCheckAllCommitsSkippedWhenAllCommitsIgnored (){
+        streamCommits(mockCommit(commitMsg, committer), mockCommit("fix skipCI", "developer"));
+        jobBuilder = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
+                .pathRegex("").ignoreCommitMsg(".*skipCI.*").ignoreComitters("")
+                .checkAllCommits(true);
+        Job job = jobBuilder.triggers(new String[] { "push" }).build();
+        jobs.add(job);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
+        PushHandler spyHandler = spy(handler);
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
         verify(spyHandler, times(0)).triggerJenkins(eq(job), any());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCheckAllCommitsStreamsPushOnceForAllJobs (){
+        streamCommits(mockCommit(commitMsg, committer), mockCommit("fix", "developer"));
+        jobBuilder = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
+                .pathRegex("").ignoreCommitMsg(".*skipCI.*").ignoreComitters("")
+                .checkAllCommits(true);
+        jobs.add(jobBuilder.triggers(new String[] { "push" }).build());
+        jobs.add(jobBuilder.ignoreCommitMsg("").ignoreComitters("admin").build());
+        jobs.add(jobBuilder.ignoreComitters("admin\ndeveloper").build());
+        PushHandler spyHandler = spy(new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user));
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(2)).triggerJenkins(any(), any());
+        verify(commitService, times(1)).getCommitsBetween(any(), any());
+    }
+
+    @Test
+    public void testCheckAllCommitsStopsAtFirstCommitThatTriggers (){
+        Commit[] commits = new Commit[PushHandler.MAX_CHECKED_COMMITS + 5];
+        Arrays.fill(commits, mockCommit("fix", "developer"));
+        streamCommits(commits);
+        Job job = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
+                .pathRegex("").ignoreCommitMsg(".*skipCI.*").ignoreComitters("")
+                .checkAllCommits(true).triggers(new String[] { "push" }).build();
+        jobs.add(job);
+        PushHandler spyHandler = spy(new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user));
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(1)).triggerJenkins(eq(job), any());
+        assertEquals(1, pageRequests.size());
+        assertEquals(PushHandler.FIRST_COMMIT_PAGE, pageRequests.get(0).getLimit());
+    }
+
+    @Test
+    public void testCheckAllCommitsReadsMoreOnlyWhileIgnored (){
+        Commit[] commits = new Commit[PushHandler.FIRST_COMMIT_PAGE + 3];
+        Arrays.fill(commits, mockCommit("skipCI", committer));
+        commits[PushHandler.FIRST_COMMIT_PAGE + 1] = mockCommit("fix", "developer");
+        streamCommits(commits);
+        Job job = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
+                .pathRegex("").ignoreCommitMsg(".*skipCI.*").ignoreComitters("")
+                .checkAllCommits(true).triggers(new String[] { "push" }).build();
+        jobs.add(job);
+        PushHandler spyHandler = spy(new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user));
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(1)).triggerJenkins(eq(job), any());
+        assertEquals(2, pageRequests.size());
+        assertEquals(PushHandler.FIRST_COMMIT_PAGE, pageRequests.get(1).getStart());
+    }
+
+    @Test
+    public void testCheckAllCommitsWithoutNewCommitsChecksPushedCommit (){
+        streamCommits();
+        jobBuilder = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
+                .pathRegex("").ignoreCommitMsg(".*skipCI.*").ignoreComitters("")
+                .checkAllCommits(true);
+        Job ignored = jobBuilder.triggers(new String[] { "push" }).build();
+        Job triggered = jobBuilder.ignoreCommitMsg(".*kuku.*").build();
+        jobs.add(ignored);
+        jobs.add(triggered);
+        PushHandler spyHandler = spy(new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user));
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(0)).triggerJenkins(eq(ignored), any());
+        verify(spyHandler, times(1)).triggerJenkins(eq(triggered), any());
+    }
+
+    @Test
+    public void testCheckAllCommitsAssumesUncheckedCommitsAreNotIgnored (){
+        Commit[] commits = new Commit[PushHandler.MAX_CHECKED_COMMITS + 5];
+        Arrays.fill(commits, mockCommit("skipCI", committer));
+        streamCommits(commits);
+        jobBuilder = new Job.JobBuilder(2).jobName("").buildParameters("").branchRegex("")
+                .pathRegex("").ignoreCommitMsg(".*skipCI.*").ignoreComitters("")
+                .checkAllCommits(true);
+        Job job = jobBuilder.triggers(new String[] { "push" }).build();
+        jobs.add(job);
+        PushHandler spyHandler = spy(new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user));
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(1)).triggerJenkins(eq(job), any());
+    }
+
+    @Test
+    public void testCheckAllCommitsSkipReportsNewestCommit (){
+        streamCommits(mockCommit("fix", committer), mockCommit("fix skipCI", "developer"));
+        Job job = new Job.JobBuilder(2).jobName("newestCommitJob").buildParameters("")
+                .branchRegex("").pathRegex("").ignoreCommitMsg(".*skipCI.*")
+                .ignoreComitters(committer).checkAllCommits(true)
+                .triggers(new String[] { "push" }).build();
+        jobs.add(job);
+        when(repository.getSlug()).thenReturn("slug");
+        new PushHandler(settingsService, jenkins, commitService, new CommitCache(commitService),
+                repository, refChange, url, user).run();
+
+        List<Map<String, Object>> history = TriggerHistory.global().query(PROJECT_KEY, "slug",
+                "newestCommitJob", 0, 1);
+        assertEquals(Filter.IGNORED_COMMITTER.getReason(), history.get(0).get("reason"));
+    }
+
+    @Test
+    public void testPathFilterTriggersOnFirstMatchingChange (){
+        streamChanges("README.md", "src/Main.java", "src/Other.java");
+        Job job = jobBuilder.triggers(new String[] { "push" }).pathRegex("src/.*").build();
+        jobs.add(job);
+        PushHandler spyHandler = spy(new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user));
+        doNothing().when(spyHandler).triggerJenkins(any(), any());
+        spyHandler.run();
+
+        verify(spyHandler, times(1)).triggerJenkins(eq(job), any());
+        assertEquals(2, streamedChanges);
+    }
+
+    @Test
+    public void testPathFilterSkipIsRecordedInHistory (){
+        streamChanges("README.md", "docs/index.md");
+        Job job = jobBuilder.jobName("pathHistoryJob").triggers(new String[] { "push" })
+                .pathRegex("src/.*").build();
+        jobs.add(job);
+        when(repository.getSlug()).thenReturn("slug");
+        PushHandler spyHandler = spy(new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user));
+        spyHandler.run();
+
+        verify(spyHandler, times(0)).triggerJenkins(eq(job), any());
+        List<Map<String, Object>> history = TriggerHistory.global().query(PROJECT_KEY, "slug",
+                "pathHistoryJob", 0, 1);
+        assertEquals(1, history.size());
+        assertEquals("SKIPPED", history.get(0).get("outcome"));
+        assertEquals(Filter.PATH.getReason(), history.get(0).get("reason"));
+    }
+
+    private void streamChanges(String... paths) {
+        List<Change> changes = new ArrayList<>();
+        for (String path : paths) {
+            Change change = mock(Change.class);
+            Path changePath = mock(Path.class);
+            when(changePath.toString()).thenReturn(path);
+            when(change.getPath()).thenReturn(changePath);
+            changes.add(change);
+        }
+        doAnswer(invocation -> {
+            ChangeCallback callback = invocation.getArgument(1);
+            for (Change change : changes) {
+                streamedChanges++;
+                if (!callback.onChange(change)) {
+                    break;
+                }
+            }
+            return null;
+        }).when(commitService).streamChanges(any(), any());
+    }
+
+    private Commit mockCommit(String message, String author) {
+        Commit commit = mock(Commit.class);
+        Person person = mock(Person.class);
+        when(commit.getMessage()).thenReturn(message);
+        when(commit.getAuthor()).thenReturn(person);
+        when(person.getName()).thenReturn(author);
+        return commit;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void streamCommits(Commit... commits) {
+        doAnswer(invocation -> {
+            PageRequest request = invocation.getArgument(1);
+            pageRequests.add(request);
+            int end = Math.min(commits.length, request.getStart() + request.getLimit());
+            Page<Commit> page = mock(Page.class);
+            when(page.getValues()).thenReturn(Arrays.asList(commits)
+                    .subList(Math.min(request.getStart(), end), end));
+            when(page.getIsLastPage()).thenReturn(end == commits.length);
+            return page;
+        }).when(commitService).getCommitsBetween(any(), any());
+    }
+}
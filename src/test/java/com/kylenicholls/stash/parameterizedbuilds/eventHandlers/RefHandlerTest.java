@@ -9,6 +9,7 @@ import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
+import com.kylenicholls.stash.parameterizedbuilds.helper.CommitCache;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import org.junit.Before;
@@ -75,8 +76,8 @@ public class RefHandlerTest {
     public void testBranchRegexDoesNotMatch() {
         Job job = jobBuilder.triggers(new String[] { "push" }).branchRegex("foobar").build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
@@ -88,8 +89,8 @@ public class RefHandlerTest {
     public void testBranchRegexEmpty() {
         Job job = jobBuilder.triggers(new String[] { "push" }).build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
@@ -101,8 +102,8 @@ public class RefHandlerTest {
     public void testBranchRegexMatches() {
         Job job = jobBuilder.triggers(new String[] { "push" }).branchRegex("bran.*").build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
@@ -114,8 +115,8 @@ public class RefHandlerTest {
     public void testBranchUpdatedAndPathRegexEmtpy() {
         Job job = jobBuilder.triggers(new String[] { "push" }).build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
@@ -127,8 +128,8 @@ public class RefHandlerTest {
     public void testBranchUpdatedAndTriggerIsNotPush() {
         Job job = jobBuilder.triggers(new String[] { "add" }).build();
         jobs.add(job);
-        PushHandler handler = new PushHandler(settingsService, jenkins, commitService, repository,
-                refChange, url, user);
+        PushHandler handler = new PushHandler(settingsService, jenkins, commitService,
+                new CommitCache(commitService), repository, refChange, url, user);
         PushHandler spyHandler = spy(handler);
         doNothing().when(spyHandler).triggerJenkins(any(), any());
         spyHandler.run();
@@ -0,0 +1,126 @@
+package com.kylenicholls.stash.parameterizedbuilds.eventHandlers;
+
+import com.atlassian.bitbucket.project.Project;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.setting.Settings;
+import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.JournalRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReplayHandlerTest {
+    private static final String PROJECT_KEY = "projectkey";
+    private SettingsService settingsService;
+    private Repository repository;
+    private Job.JobBuilder jobBuilder;
+    private List<Job> jobs;
+
+    @Before
+    public void setup() {
+        settingsService = mock(SettingsService.class);
+        repository = mock(Repository.class);
+        Project project = mock(Project.class);
+        when(repository.getProject()).thenReturn(project);
+        when(project.getKey()).thenReturn(PROJECT_KEY);
+        when(settingsService.getSettings(any())).thenReturn(mock(Settings.class));
+        jobBuilder = new Job.JobBuilder(1).jobName("job").buildParameters("").branchRegex("")
+                .pathRegex("").prDestRegex("").ignoreComitters("").ignoreCommitMsg("");
+        jobs = new ArrayList<>();
+        when(settingsService.getJobs(any())).thenReturn(jobs);
+    }
+
+    @Test
+    public void testNoSettings() {
+        when(settingsService.getSettings(any())).thenReturn(null);
+
+        assertTrue(replay(refEvent(Trigger.PUSH, "master", false)).isEmpty());
+    }
+
+    @Test
+    public void testJobsWithOtherTriggersAreLeftOut() {
+        jobs.add(jobBuilder.triggers(new String[] { "add" }).build());
+
+        assertTrue(replay(refEvent(Trigger.PUSH, "master", false)).isEmpty());
+    }
+
+    @Test
+    public void testBranchMatches() {
+        jobs.add(jobBuilder.triggers(new String[] { "push" }).branchRegex("mas.*").build());
+        List<Map<String, Object>> actual = replay(refEvent(Trigger.PUSH, "master", false));
+
+        assertEquals(1, actual.size());
+        assertEquals("job", actual.get(0).get("job"));
+        assertEquals("TRIGGERED", actual.get(0).get("outcome"));
+    }
+
+    @Test
+    public void testBranchDoesNotMatch() {
+        jobs.add(jobBuilder.triggers(new String[] { "push" }).branchRegex("release").build());
+        List<Map<String, Object>> actual = replay(refEvent(Trigger.PUSH, "master", false));
+
+        assertEquals("SKIPPED", actual.get(0).get("outcome"));
+        assertEquals(Filter.BRANCH.getReason(), actual.get(0).get("reason"));
+    }
+
+    @Test
+    public void testTagEventSkipsBranchJob() {
+        jobs.add(jobBuilder.triggers(new String[] { "add" }).isTag(false).build());
+        Map<String, Object> actual = replay(refEvent(Trigger.ADD, "v1.0", true)).get(0);
+
+        assertEquals("SKIPPED", actual.get("outcome"));
+        assertEquals(Filter.TAG.getReason(), actual.get("reason"));
+    }
+
+    @Test
+    public void testPrDestination() {
+        jobs.add(jobBuilder.triggers(new String[] { "propened" }).prDestRegex("master")
+                .build());
+        JournalRecord toMaster = JournalRecord.event(0, PROJECT_KEY, "repo", "feature", "1",
+                "master", Trigger.PROPENED, false);
+        JournalRecord toRelease = JournalRecord.event(0, PROJECT_KEY, "repo", "feature", "2",
+                "release", Trigger.PROPENED, false);
+
+        assertEquals("TRIGGERED", replay(toMaster).get(0).get("outcome"));
+        assertEquals("SKIPPED", replay(toRelease).get(0).get("outcome"));
+        assertEquals(Filter.PR_DESTINATION.getReason(), replay(toRelease).get(0).get("reason"));
+    }
+
+    @Test
+    public void testPathFilterIsNotEvaluated() {
+        jobs.add(jobBuilder.triggers(new String[] { "push" }).pathRegex("src/.*").build());
+
+        assertEquals(ReplayHandler.NOT_EVALUATED,
+                replay(refEvent(Trigger.PUSH, "master", false)).get(0).get("outcome"));
+    }
+
+    @Test
+    public void testIgnoredCommitsAreNotEvaluatedForPushes() {
+        jobs.add(jobBuilder.triggers(new String[] { "push", "add" }).ignoreCommitMsg("skip")
+                .build());
+
+        assertEquals(ReplayHandler.NOT_EVALUATED,
+                replay(refEvent(Trigger.PUSH, "master", false)).get(0).get("outcome"));
+        assertEquals("TRIGGERED",
+                replay(refEvent(Trigger.ADD, "master", false)).get(0).get("outcome"));
+    }
+
+    private List<Map<String, Object>> replay(JournalRecord event) {
+        return new ReplayHandler(settingsService, repository, event).replay();
+    }
+
+    private static JournalRecord refEvent(Trigger trigger, String branch, boolean tag) {
+        return JournalRecord.event(0, PROJECT_KEY, "repo", branch, null, null, trigger, tag);
+    }
+}
@@ -0,0 +1,76 @@
+package com.kylenicholls.stash.parameterizedbuilds.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.commit.Commit;
+import com.atlassian.bitbucket.commit.CommitService;
+import com.atlassian.bitbucket.repository.Repository;
+
+public class CommitCacheTest {
+    private static final String COMMIT = "commithash";
+    private CommitService commitService;
+    private Repository repository;
+    private CommitCache commitCache;
+
+    @Before
+    public void setup() {
+        commitService = mock(CommitService.class);
+        repository = mock(Repository.class);
+        commitCache = new CommitCache(commitService);
+    }
+
+    @Test
+    public void testCommitFetchedOnce() {
+        Commit commit = mock(Commit.class);
+        when(commitService.getCommit(any())).thenReturn(commit);
+
+        assertEquals(commit, commitCache.getCommit(repository, COMMIT));
+        assertEquals(commit, commitCache.getCommit(repository, COMMIT));
+        verify(commitService, times(1)).getCommit(any());
+    }
+
+    @Test
+    public void testMissingCommitNotCached() {
+        when(commitService.getCommit(any())).thenReturn(null);
+
+        assertNull(commitCache.getCommit(repository, COMMIT));
+        assertNull(commitCache.getCommit(repository, COMMIT));
+        verify(commitService, times(2)).getCommit(any());
+    }
+
+    @Test
+    public void testCommitCachedPerRepository() {
+        Repository fork = mock(Repository.class);
+        when(repository.getId()).thenReturn(1);
+        when(fork.getId()).thenReturn(2);
+        Commit commit = mock(Commit.class);
+        Commit forkCommit = mock(Commit.class);
+        when(commitService.getCommit(any())).thenReturn(commit, forkCommit);
+
+        assertEquals(commit, commitCache.getCommit(repository, COMMIT));
+        assertEquals(forkCommit, commitCache.getCommit(fork, COMMIT));
+        assertEquals(commit, commitCache.getCommit(repository, COMMIT));
+        assertEquals(forkCommit, commitCache.getCommit(fork, COMMIT));
+        verify(commitService, times(2)).getCommit(any());
+    }
+
+    @Test
+    public void testEldestCommitEvicted() {
+        when(commitService.getCommit(any())).thenReturn(mock(Commit.class));
+        for (int i = 0; i <= CommitCache.MAX_ENTRIES; i++) {
+            commitCache.getCommit(repository, COMMIT + i);
+        }
+        commitCache.getCommit(repository, COMMIT + 0);
+
+        verify(commitService, times(CommitCache.MAX_ENTRIES + 2)).getCommit(any());
+    }
+}
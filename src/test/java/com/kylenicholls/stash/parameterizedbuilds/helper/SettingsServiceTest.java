@@ -2,8 +2,14 @@ package com.kylenicholls.stash.parameterizedbuilds.helper;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.AbstractMap.SimpleEntry;
 import java.util.Arrays;
@@ -17,19 +23,30 @@ import java.util.Map.Entry;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.atlassian.bitbucket.event.hook.RepositoryHookSettingsChangedEvent;
 import com.atlassian.bitbucket.hook.repository.RepositoryHookService;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.scope.RepositoryScope;
+import com.atlassian.bitbucket.scope.Scope;
+import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.SecurityService;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.JobFlags;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
 
 public class SettingsServiceTest {
+    private static final String HOOK_KEY =
+            "com.kylenicholls.stash.parameterized-builds:parameterized-build-hook";
     private SettingsService settingsService;
+    private Repository repository;
 
     @Before
     public void setup() throws Exception {
         RepositoryHookService hookService = mock(RepositoryHookService.class);
         SecurityService securityService = mock(SecurityService.class);
         settingsService = new SettingsService(hookService, securityService);
+        repository = mock(Repository.class);
+        when(repository.getId()).thenReturn(1);
     }
 
     @Test
@@ -83,6 +100,21 @@ public class SettingsServiceTest {
         assertEquals(jobName2, jobs.get(1).getJobName());
     }
 
+    @Test
+    public void testGetJobCheckAllCommits() {
+        Map<String, Object> jobConfig = new HashMap<>();
+        jobConfig.put(SettingsService.JOB_PREFIX + "0", "jobname");
+        jobConfig.put(SettingsService.TRIGGER_PREFIX + "0", "push");
+        jobConfig.put(SettingsService.PARAM_PREFIX + "0", "");
+        jobConfig.put(SettingsService.TOKEN_PREFIX + "0", "");
+        jobConfig.put(SettingsService.BRANCH_PREFIX + "0", "");
+        jobConfig.put(SettingsService.PATH_PREFIX + "0", "");
+        jobConfig.put(SettingsService.CHECK_ALL_COMMITS_PREFIX + "0", true);
+        List<Job> jobs = settingsService.getJobs(jobConfig);
+
+        assertTrue(jobs.get(0).getCheckAllCommits());
+    }
+
     @Test
     public void testNoJobsDefined() {
         Map<String, Object> jobConfig = new HashMap<>();
@@ -167,4 +199,78 @@ public class SettingsServiceTest {
         assertTrue(jobs.get(0).getTriggers().contains(Trigger.PRSOURCERESCOPED));
     }
 
+    @Test
+    public void testGetJobFlagsIsCached() {
+        SettingsService spy = spyWithSettings(manualJobConfig());
+
+        assertTrue(spy.getJobFlags(repository).hasManualJob());
+        assertTrue(spy.getJobFlags(repository).hasManualJob());
+        verify(spy, times(1)).getSettings(repository);
+    }
+
+    @Test
+    public void testGetJobFlagsNoSettings() {
+        SettingsService spy = spy(settingsService);
+        doReturn(null).when(spy).getSettings(repository);
+
+        assertSame(JobFlags.NONE, spy.getJobFlags(repository));
+    }
+
+    @Test
+    public void testSettingsChangedEvictsJobFlags() {
+        SettingsService spy = spyWithSettings(manualJobConfig());
+        spy.getJobFlags(repository);
+        spy.onHookSettingsChanged(settingsChanged(new RepositoryScope(repository),
+                HOOK_KEY));
+        spy.getJobFlags(repository);
+
+        verify(spy, times(2)).getSettings(repository);
+    }
+
+    @Test
+    public void testProjectSettingsChangedEvictsAllJobFlags() {
+        SettingsService spy = spyWithSettings(manualJobConfig());
+        spy.getJobFlags(repository);
+        spy.onHookSettingsChanged(settingsChanged(mock(Scope.class), HOOK_KEY));
+        spy.getJobFlags(repository);
+
+        verify(spy, times(2)).getSettings(repository);
+    }
+
+    @Test
+    public void testOtherHookSettingsChangedKeepsJobFlags() {
+        SettingsService spy = spyWithSettings(manualJobConfig());
+        spy.getJobFlags(repository);
+        spy.onHookSettingsChanged(settingsChanged(new RepositoryScope(repository),
+                "other:hook"));
+        spy.getJobFlags(repository);
+
+        verify(spy, times(1)).getSettings(repository);
+    }
+
+    private Map<String, Object> manualJobConfig() {
+        Map<String, Object> jobConfig = new HashMap<>();
+        jobConfig.put(SettingsService.JOB_PREFIX + "0", "jobname");
+        jobConfig.put(SettingsService.TRIGGER_PREFIX + "0", "manual;");
+        jobConfig.put(SettingsService.PARAM_PREFIX + "0", "");
+        jobConfig.put(SettingsService.TOKEN_PREFIX + "0", "");
+        jobConfig.put(SettingsService.BRANCH_PREFIX + "0", "");
+        jobConfig.put(SettingsService.PATH_PREFIX + "0", "");
+        return jobConfig;
+    }
+
+    private SettingsService spyWithSettings(Map<String, Object> jobConfig) {
+        Settings settings = mock(Settings.class);
+        when(settings.asMap()).thenReturn(jobConfig);
+        SettingsService spy = spy(settingsService);
+        doReturn(settings).when(spy).getSettings(repository);
+        return spy;
+    }
+
+    private RepositoryHookSettingsChangedEvent settingsChanged(Scope scope, String hookKey) {
+        RepositoryHookSettingsChangedEvent event = mock(RepositoryHookSettingsChangedEvent.class);
+        when(event.getScope()).thenReturn(scope);
+        when(event.getRepositoryHookKey()).thenReturn(hookKey);
+        return event;
+    }
 }
@@ -0,0 +1,176 @@
+package com.kylenicholls.stash.parameterizedbuilds.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.EnumSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.commit.Commit;
+import com.atlassian.bitbucket.commit.CommitService;
+import com.atlassian.bitbucket.content.Change;
+import com.atlassian.bitbucket.content.ChangeCallback;
+import com.atlassian.bitbucket.content.ChangesRequest;
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.pull.PullRequestRef;
+import com.atlassian.bitbucket.pull.PullRequestService;
+import com.atlassian.bitbucket.repository.RefChange;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+
+public class VariableProvidersTest {
+    private static final String COMMIT = "commithash";
+    private static final String FROM_HASH = "fromhash";
+    private CommitService commitService;
+    private PullRequestService pullRequestService;
+    private Repository repository;
+    private RefChange refChange;
+    private VariableProviders variableProviders;
+
+    @Before
+    public void setup() {
+        commitService = mock(CommitService.class);
+        repository = mock(Repository.class);
+        refChange = mock(RefChange.class);
+        when(refChange.getToHash()).thenReturn(COMMIT);
+        when(refChange.getFromHash()).thenReturn(FROM_HASH);
+        pullRequestService = mock(PullRequestService.class);
+        variableProviders = new VariableProviders(commitService, pullRequestService,
+                new CommitCache(commitService));
+    }
+
+    @Test
+    public void testCommitVariablesFetchCommitOnce() {
+        Commit commit = mock(Commit.class);
+        ApplicationUser author = mock(ApplicationUser.class);
+        when(commit.getMessage()).thenReturn("message");
+        when(commit.getAuthor()).thenReturn(author);
+        when(author.getEmailAddress()).thenReturn("author@example.com");
+        when(commitService.getCommit(any())).thenReturn(commit);
+        BitbucketVariables variables = build(EnumSet.of(Variable.COMMIT_MESSAGE,
+                Variable.AUTHOR_EMAIL));
+
+        assertEquals("message", variables.fetch(Variable.COMMIT_MESSAGE));
+        assertEquals("author@example.com", variables.fetch(Variable.AUTHOR_EMAIL));
+        verify(commitService, times(1)).getCommit(any());
+    }
+
+    @Test
+    public void testPullRequestReusesCommitOfPush() {
+        Commit commit = mock(Commit.class);
+        when(commit.getMessage()).thenReturn("message");
+        when(commitService.getCommit(any())).thenReturn(commit);
+        PullRequest pullRequest = mock(PullRequest.class);
+        PullRequestRef fromRef = mock(PullRequestRef.class);
+        when(pullRequest.getFromRef()).thenReturn(fromRef);
+        when(fromRef.getLatestCommit()).thenReturn(COMMIT);
+        BitbucketVariables push = build(EnumSet.of(Variable.COMMIT_MESSAGE));
+        BitbucketVariables opened = new BitbucketVariables.Builder()
+                .populateFromPR(pullRequest, repository, "projkey", Trigger.PROPENED,
+                        "http://url")
+                .addProviders(variableProviders.getProviders(),
+                        EnumSet.of(Variable.COMMIT_MESSAGE))
+                .build();
+
+        assertEquals("message", push.fetch(Variable.COMMIT_MESSAGE));
+        assertEquals("message", opened.fetch(Variable.COMMIT_MESSAGE));
+        verify(commitService, times(1)).getCommit(any());
+    }
+
+    @Test
+    public void testMissingCommit() {
+        BitbucketVariables variables = build(EnumSet.of(Variable.COMMIT_MESSAGE));
+
+        assertNull(variables.fetch(Variable.COMMIT_MESSAGE));
+    }
+
+    @Test
+    public void testUnreferencedVariablesAreNotResolved() {
+        BitbucketVariables variables = build(EnumSet.of(Variable.BRANCH));
+
+        assertNull(variables.fetch(Variable.COMMIT_MESSAGE));
+        assertNull(variables.fetch(Variable.CHANGED_FILES_COUNT));
+        verify(commitService, never()).getCommit(any());
+        verify(commitService, never()).streamChanges(any(), any());
+    }
+
+    @Test
+    public void testChangedFilesCount() {
+        doAnswer(invocation -> {
+            ChangesRequest request = invocation.getArgument(0);
+            assertEquals(FROM_HASH, request.getSinceId());
+            ChangeCallback callback = invocation.getArgument(1);
+            callback.onChange(mock(Change.class));
+            callback.onChange(mock(Change.class));
+            return null;
+        }).when(commitService).streamChanges(any(), any());
+        BitbucketVariables variables = build(EnumSet.of(Variable.CHANGED_FILES_COUNT));
+
+        assertEquals("2", variables.fetch(Variable.CHANGED_FILES_COUNT));
+        assertEquals("2", variables.fetch(Variable.CHANGED_FILES_COUNT));
+        verify(commitService, times(1)).streamChanges(any(), any());
+    }
+
+    @Test
+    public void testChangedFilesCountOfNewRef() {
+        when(refChange.getFromHash()).thenReturn("0000000000000000000000000000000000000000");
+        doAnswer(invocation -> {
+            ChangesRequest request = invocation.getArgument(0);
+            assertNull(request.getSinceId());
+            return null;
+        }).when(commitService).streamChanges(any(), any());
+        BitbucketVariables variables = build(EnumSet.of(Variable.CHANGED_FILES_COUNT));
+
+        assertEquals("0", variables.fetch(Variable.CHANGED_FILES_COUNT));
+    }
+
+    @Test
+    public void testChangedFilesCountOfPullRequestIsItsDiff() {
+        PullRequest pullRequest = mock(PullRequest.class);
+        PullRequestRef fromRef = mock(PullRequestRef.class);
+        PullRequestRef toRef = mock(PullRequestRef.class);
+        when(pullRequest.getId()).thenReturn(7L);
+        when(pullRequest.getFromRef()).thenReturn(fromRef);
+        when(pullRequest.getToRef()).thenReturn(toRef);
+        when(fromRef.getLatestCommit()).thenReturn(COMMIT);
+        when(toRef.getLatestCommit()).thenReturn(FROM_HASH);
+        when(toRef.getRepository()).thenReturn(repository);
+        when(repository.getId()).thenReturn(3);
+        when(pullRequestService.getById(3, 7L)).thenReturn(pullRequest);
+        doAnswer(invocation -> {
+            ChangeCallback callback = invocation.getArgument(1);
+            callback.onChange(mock(Change.class));
+            return null;
+        }).when(pullRequestService).streamChanges(any(), any());
+        BitbucketVariables variables = new BitbucketVariables.Builder()
+                .populateFromPR(pullRequest, repository, "projkey", Trigger.PROPENED,
+                        "http://url")
+                .addProviders(variableProviders.getProviders(),
+                        EnumSet.of(Variable.CHANGED_FILES_COUNT))
+                .build();
+
+        assertEquals("1", variables.fetch(Variable.CHANGED_FILES_COUNT));
+        assertEquals(FROM_HASH, variables.fetch(Variable.FROM_HASH));
+        verify(commitService, never()).streamChanges(any(), any());
+    }
+
+    private BitbucketVariables build(EnumSet<Variable> referenced) {
+        return new BitbucketVariables.Builder()
+                .populateFromRef("branch", refChange, repository, "projkey", Trigger.PUSH,
+                        "http://url")
+                .addProviders(variableProviders.getProviders(), referenced)
+                .build();
+    }
+}
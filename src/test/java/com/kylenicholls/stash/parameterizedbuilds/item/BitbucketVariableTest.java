@@ -1,8 +1,19 @@
 package com.kylenicholls.stash.parameterizedbuilds.item;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 public class BitbucketVariableTest {
@@ -24,4 +35,51 @@ public class BitbucketVariableTest {
         assert variable.getOrCompute() == "first_val";
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testNullIsOnlyComputedOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        BitbucketVariable<String> variable = new BitbucketVariable<>(() -> {
+            calls.incrementAndGet();
+            return null;
+        });
+
+        assertNull(variable.getOrCompute());
+        assertNull(variable.getOrCompute());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testNestedNullResolvesToNull() {
+        String missing = null;
+        BitbucketVariable<String> variable = new BitbucketVariable<>(() -> missing.trim());
+
+        assertNull(variable.getOrCompute());
+    }
+
+    @Test
+    public void testOnlyComputeOnceAcrossThreads() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        BitbucketVariable<String> variable = new BitbucketVariable<>(() -> {
+            calls.incrementAndGet();
+            return "value";
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return variable.getOrCompute();
+                }));
+            }
+            start.countDown();
+            for (Future<String> result : results) {
+                assertEquals("value", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+    }
+}
@@ -1,9 +1,16 @@
 package com.kylenicholls.stash.parameterizedbuilds.item;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.atlassian.bitbucket.project.Project;
 import com.atlassian.bitbucket.pull.PullRequest;
 import com.atlassian.bitbucket.pull.PullRequestParticipant;
@@ -12,7 +19,10 @@ import com.atlassian.bitbucket.repository.Branch;
 import com.atlassian.bitbucket.repository.RefChange;
 import com.atlassian.bitbucket.repository.Repository;
 import com.atlassian.bitbucket.user.ApplicationUser;
+import com.google.common.collect.Lists;
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.item.VariableProvider.Cost;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -86,6 +96,210 @@ public class BitbucketVariablesTest {
         assertEquals(branch, actual.fetch("$BRANCH"));
     }
 
+    @Test
+    public void testAddByVariable() {
+        String branch = "branch";
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .add(Variable.BRANCH, () -> branch).build();
+
+        assertEquals(branch, actual.fetch(Variable.BRANCH));
+        assertEquals(branch, actual.fetch("$BRANCH"));
+    }
+
+    @Test
+    public void testFirstAddWins() {
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .add(Variable.BRANCH, () -> "first").add("$BRANCH", () -> "second").build();
+
+        assertEquals("first", actual.fetch(Variable.BRANCH));
+    }
+
+    @Test
+    public void testFetchMissingVariable() {
+        BitbucketVariables actual = new BitbucketVariables.Builder().build();
+
+        assertTrue(actual.getVariables().isEmpty());
+        assertNull(actual.fetch(Variable.COMMIT));
+        assertNull(actual.fetch("$NOTAVARIABLE"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddUnknownVariable() {
+        new BitbucketVariables.Builder().add("$NOTAVARIABLE", () -> "value");
+    }
+
+    @Test
+    public void testTriggerDefaultsToNull() {
+        BitbucketVariables actual = new BitbucketVariables.Builder().build();
+
+        assertEquals(Trigger.NULL, actual.getTrigger());
+    }
+
+    @Test
+    public void testTriggerIsTyped() {
+        BitbucketVariables actual = new BitbucketVariables.Builder().trigger(Trigger.PUSH)
+                .build();
+
+        assertEquals(Trigger.PUSH, actual.getTrigger());
+        assertEquals(Trigger.PUSH.toString(), actual.fetch(Variable.TRIGGER));
+    }
+
+    @Test
+    public void testAddTriggerByKeyParsesTrigger() {
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .add("$TRIGGER", Trigger.ADD::toString).build();
+
+        assertEquals(Trigger.ADD, actual.getTrigger());
+    }
+
+    @Test
+    public void testVariableFromKey() {
+        assertEquals(Variable.PRSOURCEREPOSITORY, Variable.fromKey("$PRSOURCEREPOSITORY"));
+        assertNull(Variable.fromKey("PRSOURCEREPOSITORY"));
+    }
+
+    @Test
+    public void testLongerKeysAreSubstitutedFirst() {
+        Variable[] variables = Variable.values();
+        for (int i = 0; i < variables.length; i++) {
+            for (int j = i + 1; j < variables.length; j++) {
+                assertFalse(variables[j].getKey().startsWith(variables[i].getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testReferencedIn() {
+        assertEquals(EnumSet.of(Variable.BRANCH, Variable.COMMIT_MESSAGE, Variable.COMMIT),
+                Variable.referencedIn("$BRANCH-$COMMIT_MESSAGE"));
+        assertTrue(Variable.referencedIn("no variables").isEmpty());
+        assertTrue(Variable.referencedIn(null).isEmpty());
+    }
+
+    @Test
+    public void testExpensiveProviderSkippedWhenNotReferenced() {
+        AtomicInteger calls = new AtomicInteger();
+        VariableProvider provider = provider(Variable.COMMIT_MESSAGE, Cost.EXPENSIVE,
+                EnumSet.noneOf(Variable.class), calls);
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .addProviders(Lists.newArrayList(provider), EnumSet.of(Variable.BRANCH))
+                .build();
+
+        assertFalse(actual.getVariables().contains(Variable.COMMIT_MESSAGE));
+        assertNull(actual.fetch(Variable.COMMIT_MESSAGE));
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testExpensiveProviderResolvedOnceWhenReferenced() {
+        AtomicInteger calls = new AtomicInteger();
+        VariableProvider provider = provider(Variable.COMMIT_MESSAGE, Cost.EXPENSIVE,
+                EnumSet.noneOf(Variable.class), calls);
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .addProviders(Lists.newArrayList(provider), EnumSet.of(Variable.COMMIT_MESSAGE))
+                .build();
+
+        assertEquals("COMMIT_MESSAGE", actual.fetch(Variable.COMMIT_MESSAGE));
+        assertEquals("COMMIT_MESSAGE", actual.fetch(Variable.COMMIT_MESSAGE));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testCheapProviderAlwaysAdded() {
+        VariableProvider provider = provider(Variable.FROM_HASH, Cost.CHEAP,
+                EnumSet.noneOf(Variable.class), new AtomicInteger());
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .addProviders(Lists.newArrayList(provider), EnumSet.noneOf(Variable.class))
+                .build();
+
+        assertEquals("FROM_HASH", actual.fetch(Variable.FROM_HASH));
+    }
+
+    @Test
+    public void testProviderDependenciesAreAdded() {
+        AtomicInteger calls = new AtomicInteger();
+        VariableProvider dependency = provider(Variable.FROM_HASH, Cost.EXPENSIVE,
+                EnumSet.noneOf(Variable.class), calls);
+        VariableProvider provider = new VariableProvider() {
+            @Override
+            public Variable getVariable() {
+                return Variable.CHANGED_FILES_COUNT;
+            }
+
+            @Override
+            public Cost getCost() {
+                return Cost.EXPENSIVE;
+            }
+
+            @Override
+            public Set<Variable> getDependencies() {
+                return EnumSet.of(Variable.FROM_HASH);
+            }
+
+            @Override
+            public String resolve(Repository repository, BitbucketVariables variables) {
+                return variables.fetch(Variable.FROM_HASH) + "-count";
+            }
+        };
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .addProviders(Lists.newArrayList(dependency, provider),
+                        EnumSet.of(Variable.CHANGED_FILES_COUNT))
+                .build();
+
+        assertEquals("FROM_HASH-count", actual.fetch(Variable.CHANGED_FILES_COUNT));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testProviderDoesNotReplaceEventVariable() {
+        AtomicInteger calls = new AtomicInteger();
+        VariableProvider provider = provider(Variable.COMMIT, Cost.CHEAP,
+                EnumSet.noneOf(Variable.class), calls);
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .populateFromRef("branch", refChange, repository, projectKey, trigger, url)
+                .addProviders(Lists.newArrayList(provider), EnumSet.of(Variable.COMMIT))
+                .build();
+
+        assertEquals(COMMIT, actual.fetch(Variable.COMMIT));
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testPopulateFromRefSetsFromHash() {
+        when(refChange.getFromHash()).thenReturn("fromhash");
+        BitbucketVariables actual = new BitbucketVariables.Builder()
+                .populateFromRef("branch", refChange, repository, projectKey, trigger, url)
+                .build();
+
+        assertEquals("fromhash", actual.fetch(Variable.FROM_HASH));
+    }
+
+    private static VariableProvider provider(Variable variable, Cost cost,
+            Set<Variable> dependencies, AtomicInteger calls) {
+        return new VariableProvider() {
+            @Override
+            public Variable getVariable() {
+                return variable;
+            }
+
+            @Override
+            public Cost getCost() {
+                return cost;
+            }
+
+            @Override
+            public Set<Variable> getDependencies() {
+                return dependencies;
+            }
+
+            @Override
+            public String resolve(Repository repository, BitbucketVariables variables) {
+                calls.incrementAndGet();
+                return variable.name();
+            }
+        };
+    }
+
     @Test
     public void testPopulateFromPRSetsBranch() {
         BitbucketVariables actual = new BitbucketVariables.Builder()
@@ -190,6 +404,7 @@ public class BitbucketVariablesTest {
                 .populateFromPR(pullRequest, repository, projectKey, trigger, url).build();
 
         assertEquals(trigger.toString(), actual.fetch("$TRIGGER"));
+        assertEquals(trigger, actual.getTrigger());
     }
 
     @Test
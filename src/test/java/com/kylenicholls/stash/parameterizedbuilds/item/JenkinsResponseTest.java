@@ -17,6 +17,7 @@ public class JenkinsResponseTest {
         assertFalse(actual.getError());
         assertFalse(actual.getPrompt());
         assertEquals("", actual.getMessageText());
+        assertEquals(0, actual.getStatus());
         Map<String, Object> expected = new HashMap<>();
         expected.put("error", false);
         expected.put("prompt", false);
@@ -33,4 +34,12 @@ public class JenkinsResponseTest {
         assertTrue(actual.getPrompt());
         assertEquals("message", actual.getMessageText());
     }
+
+    @Test
+    public void testStatusIsNotPartOfMessage() {
+        JenkinsResponse actual = new JenkinsResponse.JenkinsMessage().status(201).build();
+
+        assertEquals(201, actual.getStatus());
+        assertFalse(actual.getMessage().containsKey("status"));
+    }
 }
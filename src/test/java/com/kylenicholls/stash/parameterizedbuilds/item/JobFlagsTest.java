@@ -0,0 +1,52 @@
+package com.kylenicholls.stash.parameterizedbuilds.item;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import com.atlassian.bitbucket.permission.Permission;
+import com.google.common.collect.Lists;
+
+public class JobFlagsTest {
+
+    @Test
+    public void testNoJobs() {
+        assertSame(JobFlags.NONE, JobFlags.of(new ArrayList<>()));
+        assertFalse(JobFlags.NONE.hasManualJob());
+        assertNull(JobFlags.NONE.getMinimumPermission());
+    }
+
+    @Test
+    public void testHasManualJob() {
+        Job push = new Job.JobBuilder(0).triggers(new String[] { "push" }).build();
+        Job manual = new Job.JobBuilder(1).triggers(new String[] { "manual" }).build();
+
+        assertFalse(JobFlags.of(Lists.newArrayList(push)).hasManualJob());
+        assertTrue(JobFlags.of(Lists.newArrayList(push, manual)).hasManualJob());
+    }
+
+    @Test
+    public void testMinimumPermission() {
+        Job admin = new Job.JobBuilder(0).permissions("REPO_ADMIN").build();
+        Job write = new Job.JobBuilder(1).permissions("REPO_WRITE").build();
+
+        assertEquals(Permission.REPO_WRITE,
+                JobFlags.of(Lists.newArrayList(admin, write)).getMinimumPermission());
+    }
+
+    @Test
+    public void testInvalidPermissionIgnored() {
+        Job invalid = new Job.JobBuilder(0).permissions("").build();
+        Job admin = new Job.JobBuilder(1).permissions("REPO_ADMIN").build();
+
+        assertNull(JobFlags.of(Lists.newArrayList(invalid)).getMinimumPermission());
+        assertEquals(Permission.REPO_ADMIN,
+                JobFlags.of(Lists.newArrayList(invalid, admin)).getMinimumPermission());
+    }
+}
@@ -9,14 +9,17 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.kylenicholls.stash.parameterizedbuilds.item.BitbucketVariables.Variable;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
 
 public class JobTest {
@@ -102,6 +105,24 @@ public class JobTest {
         assertEquals(isPipeline, actual.getIsPipeline());
     }
 
+    @Test
+    public void testBuildCheckAllCommits() {
+        Job actual = new Job.JobBuilder(0).checkAllCommits(true).build();
+
+        assertTrue(actual.getCheckAllCommits());
+        assertTrue(actual.copy().build().getCheckAllCommits());
+    }
+
+    @Test
+    public void testIgnoredComitterIsCaseInsensitive() {
+        Job actual = new Job.JobBuilder(0).ignoreComitters("CI_User\r\nbot").build();
+
+        assertTrue(actual.isIgnoredComitter("ci_user"));
+        assertTrue(actual.isIgnoredComitter("BOT"));
+        assertFalse(actual.isIgnoredComitter("admin"));
+        assertFalse(actual.isIgnoredComitter(null));
+    }
+
     @Test
     public void testBuildJobInvalidTrigger() {
         Job actual = new Job.JobBuilder(1).triggers("".split(";")).build();
@@ -177,6 +198,39 @@ public class JobTest {
         assertEquals(server.getBaseUrl() + "/buildByToken/build?job=" + jobName, actual);
     }
 
+    @Test
+    public void testBuildUrlPostParametersLeavesQueryEmpty() {
+        Server server = new Server("http://baseurl", null, "", "", false, false, true);
+        Job job = new Job.JobBuilder(0).jobName("jobname").token("token")
+                .buildParameters("branch=$BRANCH").build();
+        String actual = job.buildUrl(server, bitbucketVariables, false);
+
+        assertEquals(server.getBaseUrl() + "/job/jobname/buildWithParameters?token=token",
+                actual);
+    }
+
+    @Test
+    public void testBuildFormParameters() {
+        Server server = new Server("http://baseurl", null, "", "", false, false, true);
+        Job job = new Job.JobBuilder(0).jobName("jobname")
+                .buildParameters("branch=$BRANCH\r\nchoice=1;2\r\nflag=true").build();
+        List<Entry<String, String>> actual = job.buildFormParameters(server, bitbucketVariables);
+
+        assertEquals(3, actual.size());
+        assertEquals(new SimpleEntry<>("branch", "test_branch"), actual.get(0));
+        assertEquals(new SimpleEntry<>("choice", "1"), actual.get(1));
+        assertEquals(new SimpleEntry<>("flag", "true"), actual.get(2));
+    }
+
+    @Test
+    public void testBuildFormParametersEmptyWhenServerUsesQuery() {
+        Server server = new Server("http://baseurl", null, "", "", false, false);
+        Job job = new Job.JobBuilder(0).jobName("jobname").buildParameters("branch=$BRANCH")
+                .build();
+
+        assertTrue(job.buildFormParameters(server, bitbucketVariables).isEmpty());
+    }
+
     @Test
     public void testBuildUrlUserTokenAndUseAltUrl() {
         String jobName = "jobname";
@@ -366,6 +420,22 @@ public class JobTest {
                 + expectedQuery, actual);
     }
 
+    @Test
+    public void testReferencedVariables() {
+        String params = "branch=$BRANCH\r\nmessage=$COMMIT_MESSAGE\r\nchoice=a;$AUTHOR_EMAIL";
+        Job job = new Job.JobBuilder(0).jobName("job-$PROJECT").buildParameters(params).build();
+
+        assertEquals(EnumSet.of(Variable.PROJECT, Variable.BRANCH, Variable.COMMIT_MESSAGE,
+                Variable.COMMIT, Variable.AUTHOR_EMAIL), job.getReferencedVariables());
+    }
+
+    @Test
+    public void testNoReferencedVariables() {
+        Job job = new Job.JobBuilder(0).jobName("job").buildParameters("param=value").build();
+
+        assertTrue(job.getReferencedVariables().isEmpty());
+    }
+
     @Test
     public void testBuildJobAsMap() {
         int id = 0;
@@ -1,6 +1,9 @@
 package com.kylenicholls.stash.parameterizedbuilds.item;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -44,8 +47,61 @@ public class ServerTest {
         expected.put("token", "token");
         expected.put("altUrl", false);
         expected.put("csrfEnabled", false);
+        expected.put("postParameters", true);
         Map<String, Object> actual = new Server(expected).asMap();
 
         assertEquals(expected, actual);
     }
+
+    @Test
+    public void testPostParametersDefaultsToFalse() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("baseUrl", "url");
+        map.put("altUrl", false);
+
+        assertFalse(new Server(map).getPostParameters());
+        assertFalse(new Server("url", "alias", "user", "token", false, false)
+                .getPostParameters());
+    }
+
+    @Test
+    public void testCopiesKeepPostParameters() {
+        Server server = new Server("url", "alias", "user", "token", true, false, true);
+
+        assertTrue(server.withToken("other").getPostParameters());
+        assertTrue(server.withUserToken("slug", "usertoken").getPostParameters());
+    }
+
+    @Test
+    public void testWithTokenReturnsCopy() {
+        Server server = new Server("url", "alias", "user", "token", true, false);
+        Server actual = server.withToken("other");
+
+        assertEquals("other", actual.getToken());
+        assertEquals("token", server.getToken());
+        assertEquals(server.getBaseUrl(), actual.getBaseUrl());
+        assertEquals(server.getAltUrl(), actual.getAltUrl());
+    }
+
+    @Test
+    public void testWithUserTokenReturnsCopy() {
+        Server server = new Server("url", "alias", "user", "token", true, true);
+        Server actual = server.withUserToken("slug", "usertoken");
+
+        assertEquals("slug:usertoken", actual.getJoinedToken());
+        assertFalse(actual.getAltUrl());
+        assertTrue(actual.getCsrfEnabled());
+        assertEquals("user:token", server.getJoinedToken());
+        assertTrue(server.getAltUrl());
+    }
+
+    @Test
+    public void testServersWithSameValuesAreEqual() {
+        Server server = new Server("url", "alias", "user", "token", true, true);
+        Server other = new Server(server.asMap());
+
+        assertEquals(server, other);
+        assertEquals(server.hashCode(), other.hashCode());
+        assertNotEquals(server, other.withToken("other"));
+    }
 }
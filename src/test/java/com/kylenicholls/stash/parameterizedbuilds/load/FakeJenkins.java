@@ -0,0 +1,203 @@
+package com.kylenicholls.stash.parameterizedbuilds.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server that answers the requests the plugin sends to Jenkins: crumbs from the
+ * crumb issuer, builds through /job/.../build or buildWithParameters and builds through the
+ * Build Authorization Token Root plugin's /buildByToken. Accepted builds get a 201 with the
+ * Location of a queue item, like Jenkins does. Every response can be delayed and a share of
+ * the builds can fail with a 500.
+ */
+public class FakeJenkins implements AutoCloseable {
+    static final String CRUMB_FIELD = "Jenkins-Crumb";
+    static final String CRUMB = "0123456789abcdef";
+    private static final String JOB_PATH = "/job/";
+    private static final String TOKEN_PATH = "/buildByToken/";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong queueItems = new AtomicLong();
+    private final AtomicLong crumbs = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong traced = new AtomicLong();
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile double errorRate;
+    private volatile boolean crumbRequired;
+
+    /**
+     * @param threads
+     *            the number of requests answered at the same time
+     */
+    public FakeJenkins(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Delays every response by a random time between the two bounds, both inclusive.
+     */
+    public FakeJenkins latency(long minMillis, long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Invalid latency " + minMillis + "-" + maxMillis);
+        }
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = maxMillis;
+        return this;
+    }
+
+    /**
+     * Fails the given share of the builds, between 0 and 1, with a 500.
+     */
+    public FakeJenkins errorRate(double errorRate) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Invalid error rate " + errorRate);
+        }
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Rejects builds without the crumb with a 403, as Jenkins does with CSRF protection on.
+     */
+    public FakeJenkins crumbRequired(boolean crumbRequired) {
+        this.crumbRequired = crumbRequired;
+        return this;
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/jenkins";
+    }
+
+    public long getCrumbs() {
+        return crumbs.get();
+    }
+
+    /**
+     * @return the builds that were accepted
+     */
+    public long getBuilds() {
+        return builds.get();
+    }
+
+    /**
+     * @return the builds that were failed on purpose
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return the builds that came with a trace header
+     */
+    public long getTraced() {
+        return traced.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            drain(body);
+            delay();
+            String path = exchange.getRequestURI().getPath();
+            if (!path.startsWith("/jenkins/")) {
+                respond(exchange, 404, null);
+                return;
+            }
+            path = path.substring("/jenkins".length());
+            if (path.startsWith("/crumbIssuer/api/")) {
+                crumbs.incrementAndGet();
+                respond(exchange, 200, path.endsWith("/json")
+                        ? "{\"crumbRequestField\":\"" + CRUMB_FIELD + "\",\"crumb\":\"" + CRUMB
+                                + "\"}"
+                        : CRUMB_FIELD + ":" + CRUMB);
+            } else if (isBuild(path) && "POST".equals(exchange.getRequestMethod())) {
+                build(exchange);
+            } else {
+                respond(exchange, 404, null);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void build(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestHeaders().containsKey(Tracing.TRACE_HEADER)) {
+            traced.incrementAndGet();
+        }
+        if (crumbRequired
+                && !CRUMB.equals(exchange.getRequestHeaders().getFirst(CRUMB_FIELD))) {
+            respond(exchange, 403, null);
+            return;
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            respond(exchange, 500, null);
+            return;
+        }
+        builds.incrementAndGet();
+        exchange.getResponseHeaders().set("Location",
+                getBaseUrl() + "/queue/item/" + queueItems.incrementAndGet() + "/");
+        respond(exchange, 201, null);
+    }
+
+    private static boolean isBuild(String path) {
+        boolean build = path.endsWith("/build") || path.endsWith("/buildWithParameters");
+        return build && (path.startsWith(JOB_PATH) || path.startsWith(TOKEN_PATH));
+    }
+
+    private void delay() {
+        long millis = minLatencyMillis == maxLatencyMillis ? minLatencyMillis
+                : ThreadLocalRandom.current().nextLong(minLatencyMillis, maxLatencyMillis + 1);
+        if (millis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (body.read(buffer) != -1) {
+            // the parameters are not checked
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream stream = exchange.getResponseBody()) {
+            stream.write(bytes);
+        }
+    }
+}
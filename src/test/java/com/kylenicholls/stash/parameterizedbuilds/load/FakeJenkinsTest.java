@@ -0,0 +1,123 @@
+package com.kylenicholls.stash.parameterizedbuilds.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FakeJenkinsTest {
+    private FakeJenkins fakeJenkins;
+
+    @Before
+    public void setup() throws IOException {
+        fakeJenkins = new FakeJenkins(2);
+    }
+
+    @After
+    public void tearDown() {
+        fakeJenkins.close();
+    }
+
+    @Test
+    public void testBuildReturnsQueueLocation() throws IOException {
+        HttpURLConnection first = post("/job/folder/job/a/build", null);
+        HttpURLConnection second = post("/job/a/buildWithParameters?branch=master", null);
+
+        assertEquals(201, first.getResponseCode());
+        assertEquals(fakeJenkins.getBaseUrl() + "/queue/item/1/",
+                first.getHeaderField("Location"));
+        assertEquals(201, second.getResponseCode());
+        assertEquals(fakeJenkins.getBaseUrl() + "/queue/item/2/",
+                second.getHeaderField("Location"));
+        assertEquals(2, fakeJenkins.getBuilds());
+    }
+
+    @Test
+    public void testBuildByToken() throws IOException {
+        assertEquals(201, post("/buildByToken/build?job=a&token=t", null).getResponseCode());
+        assertEquals(201, post("/buildByToken/buildWithParameters?job=a&token=t", null)
+                .getResponseCode());
+    }
+
+    @Test
+    public void testUnknownPath() throws IOException {
+        assertEquals(404, post("/job/a", null).getResponseCode());
+        assertEquals(0, fakeJenkins.getBuilds());
+    }
+
+    @Test
+    public void testCrumb() throws IOException {
+        HttpURLConnection xml = open("/crumbIssuer/api/xml?xpath=concat(//crumbRequestField,"
+                + "\":\",//crumb)");
+        HttpURLConnection json = open("/crumbIssuer/api/json");
+
+        assertEquals(FakeJenkins.CRUMB_FIELD + ":" + FakeJenkins.CRUMB, read(xml));
+        assertTrue(read(json).contains("\"crumb\":\"" + FakeJenkins.CRUMB + "\""));
+        assertEquals(2, fakeJenkins.getCrumbs());
+    }
+
+    @Test
+    public void testCrumbRequired() throws IOException {
+        fakeJenkins.crumbRequired(true);
+
+        assertEquals(403, post("/job/a/build", null).getResponseCode());
+        assertEquals(201, post("/job/a/build", FakeJenkins.CRUMB).getResponseCode());
+    }
+
+    @Test
+    public void testErrorInjection() throws IOException {
+        fakeJenkins.errorRate(1);
+
+        assertEquals(500, post("/job/a/build", null).getResponseCode());
+        assertEquals(1, fakeJenkins.getErrors());
+        assertEquals(0, fakeJenkins.getBuilds());
+    }
+
+    @Test
+    public void testLatency() throws IOException {
+        fakeJenkins.latency(50, 50);
+        long start = System.nanoTime();
+        post("/job/a/build", null).getResponseCode();
+
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLatency() {
+        fakeJenkins.latency(10, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidErrorRate() {
+        fakeJenkins.errorRate(1.5);
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL(fakeJenkins.getBaseUrl() + path).openConnection();
+    }
+
+    private HttpURLConnection post(String path, String crumb) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        if (crumb != null) {
+            connection.setRequestProperty(FakeJenkins.CRUMB_FIELD, crumb);
+        }
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                connection.getInputStream(), StandardCharsets.UTF_8))) {
+            return reader.readLine();
+        }
+    }
+}
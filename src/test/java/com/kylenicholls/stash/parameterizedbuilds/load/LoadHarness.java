@@ -0,0 +1,424 @@
+package com.kylenicholls.stash.parameterizedbuilds.load;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.atlassian.bitbucket.auth.AuthenticationContext;
+import com.atlassian.bitbucket.commit.CommitService;
+import com.atlassian.bitbucket.event.pull.PullRequestOpenedEvent;
+import com.atlassian.bitbucket.hook.repository.RepositoryHook;
+import com.atlassian.bitbucket.hook.repository.RepositoryHookRequest;
+import com.atlassian.bitbucket.project.Project;
+import com.atlassian.bitbucket.pull.PullRequest;
+import com.atlassian.bitbucket.pull.PullRequestParticipant;
+import com.atlassian.bitbucket.pull.PullRequestRef;
+import com.atlassian.bitbucket.pull.PullRequestService;
+import com.atlassian.bitbucket.repository.MinimalRef;
+import com.atlassian.bitbucket.repository.RefChange;
+import com.atlassian.bitbucket.repository.RefChangeType;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.atlassian.bitbucket.setting.Settings;
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.kylenicholls.stash.parameterizedbuilds.ParameterizedBuildHook;
+import com.kylenicholls.stash.parameterizedbuilds.PullRequestHook;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
+import com.kylenicholls.stash.parameterizedbuilds.helper.CommitCache;
+import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.helper.VariableProviders;
+import com.kylenicholls.stash.parameterizedbuilds.item.Server;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Span;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.SpanExporter;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Tracing;
+
+/**
+ * Drives synthetic pushes and pull request openings through {@link ParameterizedBuildHook}
+ * and {@link PullRequestHook} against a {@link FakeJenkins}, with the Bitbucket services
+ * mocked, and reports the event throughput and the trigger latency. The trigger latency is
+ * the time from handing the event to the hook until Jenkins answered for a job, so it
+ * includes the time the event waited for the executor.
+ *
+ * <p>Run it with {@code mvn -o -P load test}, options are passed as key=value pairs in
+ * {@code -Dload.args}, see {@link #main(String[])}.
+ */
+public class LoadHarness {
+    private static final String PROJECT_KEY = "LOAD";
+    private static final String REPO_SLUG = "repo";
+    private static final String USER_SLUG = "loaduser";
+    // distinct branches and pull requests the events cycle through
+    private static final int EVENT_VARIETY = 64;
+    private static final long TIMEOUT_MINUTES = 30;
+    private static final ThreadLocal<Long> handOff = new ThreadLocal<>();
+
+    private int events = 1000;
+    private double pullRequestShare = 0.5;
+    private int executorThreads = 4;
+    private int jobs = 2;
+    private boolean csrf = true;
+    private boolean altUrl;
+    private boolean postParameters;
+
+    public LoadHarness events(int events) {
+        this.events = events;
+        return this;
+    }
+
+    /**
+     * The share of the events, between 0 and 1, that are pull request openings, the others
+     * are pushes.
+     */
+    public LoadHarness pullRequestShare(double pullRequestShare) {
+        this.pullRequestShare = pullRequestShare;
+        return this;
+    }
+
+    /**
+     * The number of threads of the executor the hooks hand their events to.
+     */
+    public LoadHarness executorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+        return this;
+    }
+
+    /**
+     * The number of jobs of the repository, every event triggers all of them.
+     */
+    public LoadHarness jobs(int jobs) {
+        this.jobs = jobs;
+        return this;
+    }
+
+    public LoadHarness csrf(boolean csrf) {
+        this.csrf = csrf;
+        return this;
+    }
+
+    /**
+     * Triggers the builds through /buildByToken instead of /job.
+     */
+    public LoadHarness altUrl(boolean altUrl) {
+        this.altUrl = altUrl;
+        return this;
+    }
+
+    public LoadHarness postParameters(boolean postParameters) {
+        this.postParameters = postParameters;
+        return this;
+    }
+
+    public Report run(FakeJenkins fakeJenkins) throws IOException, InterruptedException {
+        Recorder recorder = new Recorder();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(executorThreads, executorThreads,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            public void execute(Runnable command) {
+                long handedOff = System.nanoTime();
+                super.execute(() -> {
+                    handOff.set(handedOff);
+                    try {
+                        command.run();
+                    } finally {
+                        handOff.remove();
+                    }
+                });
+            }
+        };
+        Fixture fixture = new Fixture(fakeJenkins, executor);
+        Random random = new Random(events);
+        Tracing.setExporter(recorder);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                if (random.nextDouble() < pullRequestShare) {
+                    fixture.pullRequestHook.onPullRequestOpened(
+                            fixture.pullRequests.get(i % EVENT_VARIETY));
+                } else {
+                    fixture.refHook.postUpdate(null, fixture.pushes.get(i % EVENT_VARIETY));
+                }
+            }
+            executor.shutdown();
+            if (!executor.awaitTermination(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("The events were not handled in "
+                        + TIMEOUT_MINUTES + " minutes");
+            }
+            return recorder.report(events, System.nanoTime() - start);
+        } finally {
+            Tracing.setExporter(null);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the harness with key=value options: events, pullRequestShare, executorThreads,
+     * jobs, csrf, altUrl and postParameters for the harness, jenkinsThreads, minLatency and
+     * maxLatency in milliseconds and errorRate for the fake Jenkins.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Options must be key=value, got " + arg);
+            }
+            options.put(pair[0], pair[1]);
+        }
+        LoadHarness harness = new LoadHarness()
+                .events(Integer.parseInt(options.getOrDefault("events", "10000")))
+                .pullRequestShare(Double.parseDouble(
+                        options.getOrDefault("pullRequestShare", "0.5")))
+                .executorThreads(Integer.parseInt(options.getOrDefault("executorThreads", "4")))
+                .jobs(Integer.parseInt(options.getOrDefault("jobs", "2")))
+                .csrf(Boolean.parseBoolean(options.getOrDefault("csrf", "true")))
+                .altUrl(Boolean.parseBoolean(options.getOrDefault("altUrl", "false")))
+                .postParameters(Boolean.parseBoolean(
+                        options.getOrDefault("postParameters", "false")));
+        try (FakeJenkins fakeJenkins = new FakeJenkins(
+                Integer.parseInt(options.getOrDefault("jenkinsThreads", "16")))) {
+            fakeJenkins.latency(Long.parseLong(options.getOrDefault("minLatency", "5")),
+                    Long.parseLong(options.getOrDefault("maxLatency", "50")))
+                    .errorRate(Double.parseDouble(options.getOrDefault("errorRate", "0.01")))
+                    .crumbRequired(Boolean.parseBoolean(options.getOrDefault("csrf", "true")));
+            Report report = harness.run(fakeJenkins);
+            System.out.println(report);
+            System.out.println(String.format(Locale.ROOT,
+                    "jenkins: %d builds, %d crumbs, %d injected errors",
+                    fakeJenkins.getBuilds(), fakeJenkins.getCrumbs(), fakeJenkins.getErrors()));
+        }
+    }
+
+    /**
+     * The hooks and the events, with every Bitbucket service stubbed. The stubs don't record
+     * their invocations, so long runs don't fill the heap.
+     */
+    private class Fixture {
+        final ParameterizedBuildHook refHook;
+        final PullRequestHook pullRequestHook;
+        final List<RepositoryHookRequest> pushes = new ArrayList<>();
+        final List<PullRequestOpenedEvent> pullRequests = new ArrayList<>();
+
+        Fixture(FakeJenkins fakeJenkins, ThreadPoolExecutor executor) {
+            Project project = stub(Project.class);
+            when(project.getKey()).thenReturn(PROJECT_KEY);
+            Repository repository = stub(Repository.class);
+            when(repository.getProject()).thenReturn(project);
+            when(repository.getSlug()).thenReturn(REPO_SLUG);
+            ApplicationUser user = stub(ApplicationUser.class);
+            when(user.getSlug()).thenReturn(USER_SLUG);
+
+            Settings settings = stub(Settings.class);
+            when(settings.asMap()).thenReturn(settingsMap());
+            RepositoryHook repositoryHook = stub(RepositoryHook.class);
+            when(repositoryHook.isEnabled()).thenReturn(true);
+            SettingsService settingsService = new SettingsService(null, null) {
+                @Override
+                public Settings getSettings(Repository repository) {
+                    return settings;
+                }
+
+                @Override
+                public RepositoryHook getHook(Repository repository) {
+                    return repositoryHook;
+                }
+            };
+            Jenkins jenkins = stub(Jenkins.class);
+            Server server = new Server(fakeJenkins.getBaseUrl(), "load", USER_SLUG, "token",
+                    altUrl, csrf, postParameters);
+            when(jenkins.resolveJenkinsServer(any(), any(), any())).thenReturn(server);
+
+            ApplicationPropertiesService propertiesService =
+                    stub(ApplicationPropertiesService.class);
+            when(propertiesService.getBaseUrl()).thenReturn(URI.create("http://bitbucket"));
+            AuthenticationContext authContext = stub(AuthenticationContext.class);
+            when(authContext.getCurrentUser()).thenReturn(user);
+            CommitService commitService = stub(CommitService.class);
+            CommitCache commitCache = new CommitCache(commitService);
+            PullRequestService pullRequestService = stub(PullRequestService.class);
+            VariableProviders variableProviders = new VariableProviders(commitService,
+                    pullRequestService, commitCache);
+            refHook = new ParameterizedBuildHook(settingsService, commitService, commitCache,
+                    jenkins, variableProviders, propertiesService, authContext, executor);
+            pullRequestHook = new PullRequestHook(settingsService,
+                    pullRequestService, jenkins, variableProviders,
+                    propertiesService, executor);
+
+            for (int i = 0; i < EVENT_VARIETY; i++) {
+                pushes.add(push(repository, i));
+                pullRequests.add(pullRequestOpened(repository, user, i));
+            }
+        }
+
+        private Map<String, Object> settingsMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < jobs; i++) {
+                map.put(SettingsService.JOB_PREFIX + i, "load/job" + i);
+                map.put(SettingsService.SERVER_PREFIX + i, "load");
+                map.put(SettingsService.TRIGGER_PREFIX + i, "push;pullrequest;");
+                map.put(SettingsService.TOKEN_PREFIX + i, "token" + i);
+                map.put(SettingsService.PARAM_PREFIX + i, "branch=$BRANCH\r\ncommit=$COMMIT");
+                map.put(SettingsService.BRANCH_PREFIX + i, "");
+                map.put(SettingsService.PATH_PREFIX + i, "");
+            }
+            return map;
+        }
+
+        private RepositoryHookRequest push(Repository repository, int i) {
+            MinimalRef ref = stub(MinimalRef.class);
+            when(ref.getId()).thenReturn("refs/heads/feature/load-" + i);
+            RefChange refChange = stub(RefChange.class);
+            when(refChange.getRef()).thenReturn(ref);
+            when(refChange.getType()).thenReturn(RefChangeType.UPDATE);
+            when(refChange.getFromHash()).thenReturn(String.format("%040x", i));
+            when(refChange.getToHash()).thenReturn(String.format("%040x", i + 1));
+            RepositoryHookRequest request = stub(RepositoryHookRequest.class);
+            when(request.getRepository()).thenReturn(repository);
+            when(request.getRefChanges()).thenReturn(Collections.singletonList(refChange));
+            return request;
+        }
+
+        private PullRequestOpenedEvent pullRequestOpened(Repository repository,
+                ApplicationUser user, int i) {
+            PullRequestRef fromRef = stub(PullRequestRef.class);
+            when(fromRef.getRepository()).thenReturn(repository);
+            when(fromRef.getDisplayId()).thenReturn("feature/pr-" + i);
+            when(fromRef.getLatestCommit()).thenReturn(String.format("%040x", i));
+            PullRequestRef toRef = stub(PullRequestRef.class);
+            when(toRef.getRepository()).thenReturn(repository);
+            when(toRef.getDisplayId()).thenReturn("master");
+            PullRequestParticipant author = stub(PullRequestParticipant.class);
+            when(author.getUser()).thenReturn(user);
+            PullRequest pullRequest = stub(PullRequest.class);
+            when(pullRequest.getId()).thenReturn((long) i);
+            when(pullRequest.getFromRef()).thenReturn(fromRef);
+            when(pullRequest.getToRef()).thenReturn(toRef);
+            when(pullRequest.getAuthor()).thenReturn(author);
+            PullRequestOpenedEvent event = stub(PullRequestOpenedEvent.class);
+            when(event.getPullRequest()).thenReturn(pullRequest);
+            return event;
+        }
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    /**
+     * Collects the trigger latencies from the spans the handlers close.
+     */
+    private static class Recorder implements SpanExporter {
+        private final List<Long> triggerNanos = new ArrayList<>();
+        private final List<Long> jenkinsNanos = new ArrayList<>();
+        private long failures;
+
+        @Override
+        public synchronized void export(Span span) {
+            if ("jenkins.trigger".equals(span.getName())) {
+                Long handedOff = handOff.get();
+                if (handedOff != null) {
+                    triggerNanos.add(System.nanoTime() - handedOff);
+                }
+                if ("true".equals(span.getTags().get("error"))) {
+                    failures++;
+                }
+            } else if ("jenkins.post".equals(span.getName())) {
+                jenkinsNanos.add(span.getDurationNanos());
+            }
+        }
+
+        synchronized Report report(int events, long elapsedNanos) {
+            return new Report(events, elapsedNanos, failures, sorted(triggerNanos),
+                    sorted(jenkinsNanos));
+        }
+
+        private static long[] sorted(List<Long> values) {
+            long[] array = values.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(array);
+            return array;
+        }
+    }
+
+    public static class Report {
+        private final int events;
+        private final long elapsedNanos;
+        private final long failures;
+        private final long[] triggerNanos;
+        private final long[] jenkinsNanos;
+
+        Report(int events, long elapsedNanos, long failures, long[] triggerNanos,
+                long[] jenkinsNanos) {
+            this.events = events;
+            this.elapsedNanos = elapsedNanos;
+            this.failures = failures;
+            this.triggerNanos = triggerNanos;
+            this.jenkinsNanos = jenkinsNanos;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        public int getTriggers() {
+            return triggerNanos.length;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public double eventsPerSecond() {
+            return events / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * @param percentile
+         *            between 0 and 1, e.g. 0.999 for the p999
+         * @return the trigger latency in milliseconds, by nearest rank
+         */
+        public double triggerLatencyMillis(double percentile) {
+            return percentile(triggerNanos, percentile);
+        }
+
+        /**
+         * @return the latency of the requests to Jenkins alone in milliseconds
+         */
+        public double jenkinsLatencyMillis(double percentile) {
+            return percentile(jenkinsNanos, percentile);
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile * sorted.length);
+            return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "events: %d in %.2f s, %.1f events/s%n"
+                    + "triggers: %d, failed: %d%n"
+                    + "trigger latency ms: p50=%.2f p99=%.2f p999=%.2f max=%.2f%n"
+                    + "jenkins latency ms: p50=%.2f p99=%.2f p999=%.2f max=%.2f",
+                    events, elapsedNanos / 1e9, eventsPerSecond(), getTriggers(), failures,
+                    triggerLatencyMillis(0.5), triggerLatencyMillis(0.99),
+                    triggerLatencyMillis(0.999), triggerLatencyMillis(1),
+                    jenkinsLatencyMillis(0.5), jenkinsLatencyMillis(0.99),
+                    jenkinsLatencyMillis(0.999), jenkinsLatencyMillis(1));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.kylenicholls.stash.parameterizedbuilds.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kylenicholls.stash.parameterizedbuilds.load.LoadHarness.Report;
+
+public class LoadHarnessTest {
+    private FakeJenkins fakeJenkins;
+
+    @Before
+    public void setup() throws IOException {
+        fakeJenkins = new FakeJenkins(4).latency(0, 2).crumbRequired(true);
+    }
+
+    @After
+    public void tearDown() {
+        fakeJenkins.close();
+    }
+
+    @Test
+    public void testEveryEventTriggersEveryJob() throws Exception {
+        Report report = new LoadHarness().events(100).jobs(2).run(fakeJenkins);
+
+        assertEquals(100, report.getEvents());
+        assertEquals(200, report.getTriggers());
+        assertEquals(0, report.getFailures());
+        assertEquals(200, fakeJenkins.getBuilds());
+        assertEquals(200, fakeJenkins.getCrumbs());
+        assertEquals(200, fakeJenkins.getTraced());
+        assertTrue(report.eventsPerSecond() > 0);
+    }
+
+    @Test
+    public void testPercentilesAreOrdered() throws Exception {
+        Report report = new LoadHarness().events(100).run(fakeJenkins);
+
+        assertTrue(report.triggerLatencyMillis(0.5) > 0);
+        assertTrue(report.triggerLatencyMillis(0.5) <= report.triggerLatencyMillis(0.99));
+        assertTrue(report.triggerLatencyMillis(0.99) <= report.triggerLatencyMillis(0.999));
+        assertTrue(report.jenkinsLatencyMillis(0.5) <= report.triggerLatencyMillis(1));
+    }
+
+    @Test
+    public void testInjectedErrorsAreFailures() throws Exception {
+        fakeJenkins.errorRate(1);
+        Report report = new LoadHarness().events(20).jobs(1).run(fakeJenkins);
+
+        assertEquals(20, report.getTriggers());
+        assertEquals(20, report.getFailures());
+        assertEquals(0, fakeJenkins.getBuilds());
+    }
+
+    @Test
+    public void testBuildByTokenWithPostedParameters() throws Exception {
+        Report report = new LoadHarness().events(20).jobs(1).altUrl(true).postParameters(true)
+                .csrf(false).run(fakeJenkins.crumbRequired(false));
+
+        assertEquals(0, report.getFailures());
+        assertEquals(20, fakeJenkins.getBuilds());
+        assertEquals(0, fakeJenkins.getCrumbs());
+    }
+
+    @Test
+    public void testOnlyPushes() throws Exception {
+        Report report = new LoadHarness().events(20).jobs(1).pullRequestShare(0)
+                .run(fakeJenkins);
+
+        assertEquals(20, report.getTriggers());
+        assertEquals(20, fakeJenkins.getBuilds());
+    }
+}
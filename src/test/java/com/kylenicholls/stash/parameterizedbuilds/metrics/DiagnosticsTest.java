@@ -0,0 +1,139 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.JenkinsConnection;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.TriggerQueue;
+import com.kylenicholls.stash.parameterizedbuilds.item.JenkinsResponse;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+import com.sun.net.httpserver.HttpServer;
+
+public class DiagnosticsTest {
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testServers() {
+        Metrics.counter("jenkins.status", "server", "diag-ci", "status", "201").increment();
+        Metrics.counter("jenkins.status", "server", "diag-ci", "status", "302").increment();
+        Metrics.counter("jenkins.status", "server", "diag-ci", "status", "404").increment();
+        Metrics.counter("jenkins.status", "server", "diag-ci", "status", "error").increment();
+        Metrics.gauge("jenkins.inflight", "server", "diag-ci").increment();
+        Map<String, Map<String, Object>> servers = (Map<String, Map<String, Object>>)
+                Diagnostics.snapshot(Collections.singletonMap("diag-ci", 4), 4).get("servers");
+        Map<String, Object> server = servers.get("diag-ci");
+
+        assertEquals(1L, server.get("inFlight"));
+        assertEquals(4L, server.get("requests"));
+        assertEquals(2L, server.get("errors"));
+        assertEquals(0.5, (double) server.get("errorRate"), 0.001);
+        assertEquals(4, server.get("batchPermitsInUse"));
+        assertTrue((Boolean) server.get("batchLimitReached"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testServerWithOnlyPermits() {
+        Map<String, Map<String, Object>> servers = (Map<String, Map<String, Object>>)
+                Diagnostics.snapshot(Collections.singletonMap("diag-idle", 1), 4).get("servers");
+        Map<String, Object> server = servers.get("diag-idle");
+
+        assertEquals(0L, server.get("requests"));
+        assertEquals(0.0, (double) server.get("errorRate"), 0.001);
+        assertFalse((Boolean) server.get("batchLimitReached"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPermitsAndRequestsOfAServerAreOneEntry() throws Exception {
+        HttpServer jenkinsServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        jenkinsServer.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        jenkinsServer.start();
+        String tag = "localhost:" + jenkinsServer.getAddress().getPort();
+        String baseUrl = "http://" + tag + "/jenkins";
+        JenkinsConnection connection = new JenkinsConnection(null);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        TriggerQueue triggerQueue = new TriggerQueue(pool);
+        List<Map<String, Map<String, Object>>> during = new ArrayList<>();
+        try {
+            triggerQueue.runAll(Lists.newArrayList(baseUrl),
+                    Lists.<Supplier<JenkinsResponse>>newArrayList(() -> {
+                        JenkinsResponse posted = connection.sanitizeTrigger(
+                                baseUrl + "/job/a/build", null, null, false);
+                        during.add((Map<String, Map<String, Object>>) Diagnostics.snapshot(
+                                triggerQueue.permitsInUse(), TriggerQueue.MAX_PER_SERVER)
+                                .get("servers"));
+                        return posted;
+                    }), (result, index) -> { });
+        } finally {
+            pool.shutdownNow();
+            jenkinsServer.stop(0);
+        }
+        Map<String, Object> server = during.get(0).get(tag);
+
+        assertFalse(during.get(0).containsKey(baseUrl));
+        assertEquals(1, server.get("batchPermitsInUse"));
+        assertEquals(1L, server.get("requests"));
+        assertEquals(0L, server.get("errors"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCaches() {
+        Metrics.cacheLookup("diagCache", true);
+        Metrics.cacheLookup("diagCache", true);
+        Metrics.cacheLookup("diagCache", true);
+        Metrics.cacheLookup("diagCache", false);
+        Map<String, Map<String, Object>> caches = (Map<String, Map<String, Object>>)
+                Diagnostics.snapshot(Collections.emptyMap(), 4).get("caches");
+
+        assertEquals(3L, caches.get("diagCache").get("hits"));
+        assertEquals(1L, caches.get("diagCache").get("misses"));
+        assertEquals(0.75, (double) caches.get("diagCache").get("hitRatio"), 0.001);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSlowTriggersAreSlowestFirstWithoutSkips() {
+        TriggerHistory.global().record("PROJ", "repo", "master", null, Trigger.PUSH,
+                "diagFast", Outcome.TRIGGERED, null, 201, 1_000_000L);
+        TriggerHistory.global().record("PROJ", "repo", "master", null, Trigger.PUSH,
+                "diagSlow", Outcome.FAILED, "Job was not found", 404, 3_600_000_000_000L);
+        TriggerHistory.global().record("PROJ", "repo", "master", null, Trigger.PUSH,
+                "diagSkipped", Outcome.SKIPPED, "filtered", 0, 7_200_000_000_000L);
+        List<Map<String, Object>> slow = (List<Map<String, Object>>)
+                Diagnostics.snapshot(Collections.emptyMap(), 4).get("slowTriggers");
+
+        assertEquals("diagSlow", slow.get(0).get("job"));
+        assertTrue(slow.size() <= Diagnostics.SLOW_TRIGGERS);
+        assertTrue(slow.stream().noneMatch(entry -> "diagSkipped".equals(entry.get("job"))));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecutor() {
+        Metrics.gauge(Tracing.QUEUE_GAUGE);
+        Map<String, Object> executor = (Map<String, Object>)
+                Diagnostics.snapshot(Collections.emptyMap(), 4).get("executor");
+
+        assertTrue(executor.containsKey("queued"));
+        assertTrue(executor.containsKey("queueTime"));
+    }
+}
@@ -0,0 +1,122 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.JournalRecord.Type;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+
+public class JournalRecordTest {
+
+    @Test
+    public void testEventRoundTrip() {
+        JournalRecord expected = JournalRecord.event(123L, "PROJ", "repo", "feature", "7",
+                "master", Trigger.PROPENED, false);
+        JournalRecord actual = roundTrip(expected);
+
+        assertEquals(Type.EVENT, actual.getType());
+        assertEquals(123L, actual.getTimestamp());
+        assertEquals("PROJ", actual.getProject());
+        assertEquals("repo", actual.getRepository());
+        assertEquals("feature", actual.getBranch());
+        assertEquals("7", actual.getPullRequest());
+        assertEquals("master", actual.getPrDestination());
+        assertEquals(Trigger.PROPENED, actual.getTrigger());
+        assertFalse(actual.isTag());
+        assertNull(actual.getJob());
+        assertNull(actual.getOutcome());
+    }
+
+    @Test
+    public void testOutcomeRoundTrip() {
+        JournalRecord actual = roundTrip(JournalRecord.outcome(5L, "PROJ", "repo", "master",
+                null, Trigger.PUSH, "job", Outcome.TRIGGERED, null, 201, 42L));
+
+        assertEquals(Type.OUTCOME, actual.getType());
+        assertNull(actual.getPullRequest());
+        assertEquals("job", actual.getJob());
+        assertEquals(Outcome.TRIGGERED, actual.getOutcome());
+        assertNull(actual.getReason());
+        assertEquals(201, actual.getStatus());
+        assertEquals(42L, actual.getLatencyNanos());
+    }
+
+    @Test
+    public void testNonAsciiRoundTrip() {
+        JournalRecord actual = roundTrip(JournalRecord.event(0, "PROJ", "repo",
+                "fix/\u00fcn\u00efc\u00f8d\u00e9", null, null, Trigger.ADD, true));
+
+        assertEquals("fix/\u00fcn\u00efc\u00f8d\u00e9", actual.getBranch());
+        assertTrue(actual.isTag());
+    }
+
+    @Test
+    public void testLongStringsAreCutOff() {
+        char[] reason = new char[JournalRecord.MAX_STRING_BYTES * 2];
+        Arrays.fill(reason, 'x');
+        JournalRecord actual = roundTrip(JournalRecord.outcome(0, "PROJ", "repo", "master",
+                null, Trigger.PUSH, "job", Outcome.FAILED, new String(reason), 500, 0));
+
+        assertEquals(JournalRecord.MAX_STRING_BYTES, actual.getReason().length());
+    }
+
+    @Test
+    public void testLongStringsAreCutOffOnCharacterBoundary() {
+        // a three byte character followed by two byte characters, so the limit lands inside one
+        StringBuilder reason = new StringBuilder("\u20ac");
+        for (int i = 0; i < JournalRecord.MAX_STRING_BYTES; i++) {
+            reason.append('\u00e9');
+        }
+        JournalRecord actual = roundTrip(JournalRecord.outcome(0, "PROJ", "repo", "master",
+                null, Trigger.PUSH, "job", Outcome.FAILED, reason.toString(), 500, 0));
+
+        assertEquals(reason.substring(0, (JournalRecord.MAX_STRING_BYTES - 3) / 2 + 1),
+                actual.getReason());
+    }
+
+    @Test
+    public void testUnknownVersion() {
+        byte[] encoded = JournalRecord.event(0, "PROJ", "repo", "master", null, null,
+                Trigger.PUSH, false).encode();
+        encoded[0] = 99;
+
+        assertNull(JournalRecord.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    public void testTruncatedRecord() {
+        byte[] encoded = JournalRecord.event(0, "PROJ", "repo", "master", null, null,
+                Trigger.PUSH, false).encode();
+
+        assertNull(JournalRecord.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, 20))));
+    }
+
+    @Test
+    public void testAsMap() {
+        Map<String, Object> event = JournalRecord.event(0, "PROJ", "repo", "master", null,
+                "release", Trigger.PROPENED, false).asMap();
+        Map<String, Object> outcome = JournalRecord.outcome(0, "PROJ", "repo", "master", null,
+                Trigger.PUSH, "job", Outcome.SKIPPED, "filtered", 0, 0).asMap();
+
+        assertEquals("EVENT", event.get("type"));
+        assertEquals("release", event.get("prDestination"));
+        assertFalse(event.containsKey("job"));
+        assertEquals("OUTCOME", outcome.get("type"));
+        assertEquals("SKIPPED", outcome.get("outcome"));
+        assertEquals("filtered", outcome.get("reason"));
+        assertEquals("PUSH", outcome.get("trigger"));
+    }
+
+    private static JournalRecord roundTrip(JournalRecord record) {
+        return JournalRecord.decode(ByteBuffer.wrap(record.encode()));
+    }
+}
@@ -0,0 +1,34 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+public class LogSpanExporterTest {
+
+    @Test
+    public void testSpanIsLoggedAtDebug() {
+        Logger logger = mock(Logger.class);
+        when(logger.isDebugEnabled()).thenReturn(true);
+        Span span = Tracing.startRoot("root", "job", "build");
+
+        new LogSpanExporter(logger).export(span);
+
+        verify(logger).debug(contains("\"traceId\":\"" + span.getTraceId() + "\""));
+    }
+
+    @Test
+    public void testNothingIsLoggedWithoutDebug() {
+        Logger logger = mock(Logger.class);
+
+        new LogSpanExporter(logger).export(Tracing.startRoot("root"));
+
+        verify(logger, never()).debug(anyString());
+    }
+}
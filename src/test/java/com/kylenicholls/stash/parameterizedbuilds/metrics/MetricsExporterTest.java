@@ -0,0 +1,70 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsExporterTest {
+    private MBeanServer mBeanServer;
+    private ObjectName name;
+    private MetricsExporter exporter;
+
+    @Before
+    public void setup() throws Exception {
+        mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        name = new ObjectName(MetricsExporter.OBJECT_NAME);
+        exporter = new MetricsExporter();
+    }
+
+    @After
+    public void teardown() {
+        exporter.destroy();
+    }
+
+    @Test
+    public void testRegistersAndUnregisters() {
+        exporter.afterPropertiesSet();
+        assertTrue(mBeanServer.isRegistered(name));
+
+        exporter.destroy();
+        assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testReplacesStaleRegistration() {
+        exporter.afterPropertiesSet();
+        new MetricsExporter().afterPropertiesSet();
+
+        assertTrue(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testCounterAttribute() throws Exception {
+        Metrics.counter("test.exported").increment();
+        exporter.afterPropertiesSet();
+
+        assertEquals(Metrics.counter("test.exported").count(),
+                mBeanServer.getAttribute(name, "test.exported"));
+    }
+
+    @Test
+    public void testTimerAttributes() throws Exception {
+        Metrics.timer("test.exported.timer").record(TimeUnit.MILLISECONDS.toNanos(1));
+        exporter.afterPropertiesSet();
+
+        assertEquals(Metrics.timer("test.exported.timer").count(),
+                mBeanServer.getAttribute(name, "test.exported.timer.count"));
+        assertTrue(mBeanServer.getAttribute(name, "test.exported.timer.p95Millis")
+                instanceof Long);
+    }
+}
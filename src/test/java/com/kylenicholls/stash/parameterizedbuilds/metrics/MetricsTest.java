@@ -0,0 +1,116 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics.Counter;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics.Timer;
+
+public class MetricsTest {
+
+    @Test
+    public void testKeyWithoutTags() {
+        assertEquals("name", Metrics.key("name"));
+    }
+
+    @Test
+    public void testKeyWithTags() {
+        assertEquals("name{server=ci:8080,status=201}",
+                Metrics.key("name", "server", "ci:8080", "status", 201));
+    }
+
+    @Test
+    public void testSameCounterForSameTags() {
+        Counter counter = Metrics.counter("test.same", "tag", "a");
+
+        assertSame(counter, Metrics.counter("test.same", "tag", "a"));
+    }
+
+    @Test
+    public void testCounterInSnapshot() {
+        Counter counter = Metrics.counter("test.counter");
+        long before = counter.count();
+        counter.increment();
+        counter.increment();
+
+        assertEquals(before + 2, counter.count());
+        assertEquals(before + 2, Metrics.snapshot().get("test.counter"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTimerSnapshot() {
+        Timer timer = Metrics.timer("test.timer");
+        timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(40));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(90_000));
+
+        Map<String, Object> snapshot = (Map<String, Object>) Metrics.snapshot()
+                .get("test.timer");
+        assertEquals(3L, snapshot.get("count"));
+        assertEquals(90_043.0, (double) snapshot.get("totalMillis"), 0.001);
+        assertEquals(90_000.0, (double) snapshot.get("maxMillis"), 0.001);
+        assertEquals(50L, snapshot.get("p50Millis"));
+        assertEquals(90_000L, snapshot.get("p99Millis"));
+    }
+
+    @Test
+    public void testTimeSupplier() {
+        Timer timer = Metrics.timer("test.supplier");
+        long before = timer.count();
+
+        assertEquals("value", timer.time(() -> "value"));
+        assertEquals(before + 1, timer.count());
+    }
+
+    @Test
+    public void testTimeRecordsWhenThrown() {
+        Timer timer = Metrics.timer("test.thrown");
+        long before = timer.count();
+        try {
+            timer.time(() -> {
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertEquals(before + 1, timer.count());
+    }
+
+    @Test
+    public void testGaugeGoesUpAndDown() {
+        Metrics.Gauge gauge = Metrics.gauge("test.gauge");
+        gauge.increment();
+        gauge.increment();
+        gauge.decrement();
+
+        assertEquals(1L, Metrics.snapshot().get("test.gauge"));
+    }
+
+    @Test
+    public void testCacheLookup() {
+        long before = Metrics.counter("cache.lookup", "cache", "test", "result", "miss").count();
+        Metrics.cacheLookup("test", false);
+
+        assertEquals(before + 1,
+                Metrics.counter("cache.lookup", "cache", "test", "result", "miss").count());
+    }
+
+    @Test
+    public void testNameAndTagsOfKey() {
+        String key = Metrics.key("jenkins.status", "server", "ci:8080", "status", 201);
+
+        assertEquals("jenkins.status", Metrics.name(key));
+        assertEquals("ci:8080", Metrics.tags(key).get("server"));
+        assertEquals("201", Metrics.tags(key).get("status"));
+        assertEquals("name", Metrics.name("name"));
+        assertTrue(Metrics.tags("name").isEmpty());
+    }
+}
@@ -0,0 +1,189 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracingTest {
+    private List<Span> exported;
+
+    @Before
+    public void setup() {
+        exported = new ArrayList<>();
+        Tracing.setExporter(exported::add);
+    }
+
+    @After
+    public void tearDown() {
+        Tracing.setExporter(null);
+    }
+
+    @Test
+    public void testStartWithoutParentStartsTrace() {
+        try (Span span = Tracing.start("root", "key", "value")) {
+            assertSame(span, Tracing.current());
+            assertNull(span.getParentId());
+            assertEquals(32, span.getTraceId().length());
+            assertEquals(16, span.getSpanId().length());
+            assertEquals("value", span.getTags().get("key"));
+        }
+
+        assertNull(Tracing.current());
+        assertEquals(1, exported.size());
+        assertTrue(exported.get(0).getDurationNanos() >= 0);
+    }
+
+    @Test
+    public void testChildSpans() {
+        Span child;
+        try (Span root = Tracing.start("root")) {
+            try (Span span = Tracing.start("child")) {
+                child = span;
+            }
+            assertSame(root, Tracing.current());
+            assertEquals(root.getTraceId(), child.getTraceId());
+            assertEquals(root.getSpanId(), child.getParentId());
+            assertNotEquals(root.getSpanId(), child.getSpanId());
+        }
+
+        assertEquals("child", exported.get(0).getName());
+        assertEquals("root", exported.get(1).getName());
+    }
+
+    @Test
+    public void testCloseTwiceExportsOnce() {
+        Span span = Tracing.start("span");
+        span.close();
+        span.close();
+
+        assertEquals(1, exported.size());
+    }
+
+    @Test
+    public void testStartRootIsNotCurrent() {
+        Span root = Tracing.startRoot("root");
+
+        assertNull(Tracing.current());
+        assertNull(root.getParentId());
+        assertEquals(-1, root.getDurationNanos());
+    }
+
+    @Test
+    public void testWrapRunsTaskInSpan() throws Exception {
+        Span root = Tracing.startRoot("root");
+        List<Span> seen = new ArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(Tracing.wrap(root, () -> {
+                seen.add(Tracing.current());
+                Tracing.start("work").close();
+            })).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertSame(root, seen.get(0));
+        assertEquals(3, exported.size());
+        assertEquals(Tracing.QUEUE_SPAN, exported.get(0).getName());
+        assertEquals(root.getSpanId(), exported.get(0).getParentId());
+        assertEquals("work", exported.get(1).getName());
+        assertEquals(root.getSpanId(), exported.get(1).getParentId());
+        assertSame(root, exported.get(2));
+    }
+
+    @Test
+    public void testWrapRestoresCurrentSpan() {
+        Span root = Tracing.startRoot("root");
+        try (Span outer = Tracing.start("outer")) {
+            Tracing.wrap(root, () -> { }).run();
+
+            assertSame(outer, Tracing.current());
+        }
+    }
+
+    @Test
+    public void testFailingExporterDoesNotFailSpan() {
+        Tracing.setExporter(span -> {
+            throw new IllegalStateException("down");
+        });
+        Tracing.start("span").close();
+
+        assertNull(Tracing.current());
+    }
+
+    @Test
+    public void testTraceParent() {
+        Span span = Tracing.startRoot("root");
+
+        assertEquals("00-" + span.getTraceId() + "-" + span.getSpanId() + "-01",
+                span.traceParent());
+    }
+
+    @Test
+    public void testAsMap() {
+        try (Span span = Tracing.start("root")) {
+            span.tag("status", 201);
+
+            assertNull(span.asMap().get("durationMillis"));
+            assertEquals("201", ((Map<?, ?>) span.asMap().get("tags")).get("status"));
+        }
+        assertTrue((double) exported.get(0).asMap().get("durationMillis") >= 0);
+        assertFalse(exported.get(0).asMap().containsKey("parentId"));
+    }
+
+    @Test
+    public void testWrapCountsQueuedTasks() {
+        long before = Metrics.gauge(Tracing.QUEUE_GAUGE).value();
+        Runnable task = Tracing.wrap(Tracing.startRoot("root"), () -> { });
+
+        assertEquals(before + 1, Metrics.gauge(Tracing.QUEUE_GAUGE).value());
+        task.run();
+        assertEquals(before, Metrics.gauge(Tracing.QUEUE_GAUGE).value());
+    }
+
+    @Test
+    public void testRejectedTaskIsNotCountedAsQueued() {
+        long before = Metrics.gauge(Tracing.QUEUE_GAUGE).value();
+        Span root = Tracing.startRoot("root");
+        try {
+            Tracing.execute(task -> {
+                throw new RejectedExecutionException("full");
+            }, root, () -> fail("the task must not run"));
+            fail("the rejection must reach the caller");
+        } catch (RejectedExecutionException e) {
+            assertEquals("full", e.getMessage());
+        }
+
+        assertEquals(before, Metrics.gauge(Tracing.QUEUE_GAUGE).value());
+        assertSame(root, exported.get(0));
+        assertEquals("rejected", root.getTags().get("error"));
+    }
+
+    @Test
+    public void testExecuteRunsTaskInSpan() {
+        long before = Metrics.gauge(Tracing.QUEUE_GAUGE).value();
+        Span root = Tracing.startRoot("root");
+        List<Span> seen = new ArrayList<>();
+        Tracing.execute(Runnable::run, root, () -> seen.add(Tracing.current()));
+
+        assertSame(root, seen.get(0));
+        assertEquals(before, Metrics.gauge(Tracing.QUEUE_GAUGE).value());
+        assertTrue(root.getDurationNanos() >= 0);
+    }
+}
@@ -0,0 +1,175 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+
+public class TriggerHistoryTest {
+    private TriggerHistory history;
+
+    @Before
+    public void setup() {
+        history = new TriggerHistory(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePowerOfTwo() {
+        new TriggerHistory(3);
+    }
+
+    @Test
+    public void testEmptyHistory() {
+        assertTrue(history.query(null, null, null, 0, 10).isEmpty());
+    }
+
+    @Test
+    public void testRecordTriggered() {
+        history.record("PROJ", "repo", "master", null, Trigger.PUSH, "job", Outcome.TRIGGERED,
+                null, 201, 2_500_000);
+        List<Map<String, Object>> actual = history.query(null, null, null, 0, 10);
+
+        assertEquals(1, actual.size());
+        Map<String, Object> entry = actual.get(0);
+        assertEquals(0L, entry.get("sequence"));
+        assertEquals("PROJ", entry.get("project"));
+        assertEquals("repo", entry.get("repository"));
+        assertEquals("master", entry.get("branch"));
+        assertFalse(entry.containsKey("pullRequest"));
+        assertEquals("PUSH", entry.get("trigger"));
+        assertEquals("job", entry.get("job"));
+        assertEquals("TRIGGERED", entry.get("outcome"));
+        assertFalse(entry.containsKey("reason"));
+        assertEquals(201, entry.get("status"));
+        assertEquals(2.5, entry.get("latencyMillis"));
+    }
+
+    @Test
+    public void testRecordSkipped() {
+        history.record("PROJ", "repo", "feature", "12", Trigger.PROPENED, "job",
+                Outcome.SKIPPED, "filtered", 0, 0);
+        Map<String, Object> entry = history.query(null, null, null, 0, 10).get(0);
+
+        assertEquals("12", entry.get("pullRequest"));
+        assertEquals("SKIPPED", entry.get("outcome"));
+        assertEquals("filtered", entry.get("reason"));
+    }
+
+    @Test
+    public void testQueryNewestFirst() {
+        record("repo", "first");
+        record("repo", "second");
+        List<Map<String, Object>> actual = history.query(null, null, null, 0, 10);
+
+        assertEquals("second", actual.get(0).get("job"));
+        assertEquals("first", actual.get(1).get("job"));
+    }
+
+    @Test
+    public void testOldestEntriesAreOverwritten() {
+        for (int i = 0; i < 6; i++) {
+            record("repo", "job" + i);
+        }
+        List<String> jobs = jobs(history.query(null, null, null, 0, 10));
+
+        assertEquals(4, jobs.size());
+        assertEquals("job5", jobs.get(0));
+        assertEquals("job2", jobs.get(3));
+    }
+
+    @Test
+    public void testQueryFilters() {
+        record("repo", "build");
+        record("other", "build");
+        record("repo", "deploy");
+
+        assertEquals(2, history.query("PROJ", "repo", null, 0, 10).size());
+        assertEquals(2, history.query(null, null, "build", 0, 10).size());
+        assertEquals(1, history.query(null, "repo", "build", 0, 10).size());
+        assertEquals(0, history.query("OTHER", null, null, 0, 10).size());
+    }
+
+    @Test
+    public void testQuerySince() {
+        record("repo", "job");
+
+        assertEquals(0, history.query(null, null, null, System.currentTimeMillis() + 60_000,
+                10).size());
+    }
+
+    @Test
+    public void testQueryLimit() {
+        record("repo", "first");
+        record("repo", "second");
+        record("repo", "third");
+
+        assertEquals("[third, second]", jobs(history.query(null, null, null, 0, 2)).toString());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        TriggerHistory shared = new TriggerHistory(64);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String job = "job" + t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    shared.record("PROJ", "repo", "master", null, Trigger.PUSH, job,
+                            Outcome.TRIGGERED, null, 201, i);
+                    shared.query(null, null, job, 0, 8);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<Map<String, Object>> actual = shared.query(null, null, null, 0, 64);
+
+        assertFalse(actual.isEmpty());
+        for (Map<String, Object> entry : actual) {
+            assertEquals("repo", entry.get("repository"));
+            assertEquals(201, entry.get("status"));
+        }
+    }
+
+    @Test
+    public void testNewerEntryWaitsForOlderWriterOfSameSlot() throws InterruptedException {
+        // an older writer claims slot 0 and stalls before publishing
+        long older = history.claim();
+        record("repo", "second");
+        record("repo", "third");
+        record("repo", "fourth");
+        Thread newer = new Thread(() -> record("repo", "fifth"));
+        newer.start();
+        newer.join(100);
+
+        assertTrue(newer.isAlive());
+        history.publish(older);
+        newer.join();
+        assertEquals("[fifth, fourth, third, second]",
+                jobs(history.query(null, null, null, 0, 10)).toString());
+    }
+
+    private void record(String repository, String job) {
+        history.record("PROJ", repository, "master", null, Trigger.PUSH, job,
+                Outcome.TRIGGERED, null, 201, 0);
+    }
+
+    private static List<String> jobs(List<Map<String, Object>> entries) {
+        List<String> jobs = new ArrayList<>();
+        for (Map<String, Object> entry : entries) {
+            jobs.add((String) entry.get("job"));
+        }
+        return jobs;
+    }
+}
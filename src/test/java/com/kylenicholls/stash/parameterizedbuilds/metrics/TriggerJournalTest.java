@@ -0,0 +1,238 @@
+package com.kylenicholls.stash.parameterizedbuilds.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.atlassian.bitbucket.cluster.ClusterService;
+import com.atlassian.bitbucket.server.ApplicationPropertiesService;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.JournalRecord.Type;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+
+public class TriggerJournalTest {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final LocalDate JAN_1 = LocalDate.of(2020, 1, 1);
+    private static final long JAN_1_NOON = JAN_1.toEpochDay() * DAY + DAY / 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApplicationPropertiesService applicationPropertiesService;
+    private ClusterService clusterService;
+    private Path directory;
+    private TriggerJournal journal;
+
+    @Before
+    public void setup() {
+        applicationPropertiesService = mock(ApplicationPropertiesService.class);
+        clusterService = mock(ClusterService.class, RETURNS_DEEP_STUBS);
+        when(applicationPropertiesService.getSharedHomeDir()).thenReturn(folder.getRoot()
+                .toPath());
+        when(applicationPropertiesService.getPluginProperty(TriggerJournal.ENABLED_PROPERTY,
+                false)).thenReturn(true);
+        when(applicationPropertiesService.getPluginProperty(TriggerJournal.RETENTION_PROPERTY,
+                TriggerJournal.DEFAULT_RETENTION_DAYS)).thenReturn(7);
+        when(clusterService.getInformation().getLocalNode().getId()).thenReturn("node/1");
+        directory = folder.getRoot().toPath().resolve("data").resolve("parameterized-builds")
+                .resolve("journal");
+        journal = new TriggerJournal(applicationPropertiesService, clusterService);
+        journal.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        journal.destroy();
+    }
+
+    @Test
+    public void testDisabledJournalIsNotAttached() {
+        journal.destroy();
+        when(applicationPropertiesService.getPluginProperty(TriggerJournal.ENABLED_PROPERTY,
+                false)).thenReturn(false);
+        journal = new TriggerJournal(applicationPropertiesService, clusterService);
+        journal.afterPropertiesSet();
+
+        assertFalse(journal.isEnabled());
+        assertNull(TriggerHistory.global().getJournal());
+    }
+
+    @Test
+    public void testEnabledJournalIsAttachedToHistory() {
+        assertTrue(journal.isEnabled());
+        assertSame(journal, TriggerHistory.global().getJournal());
+    }
+
+    @Test
+    public void testHistoryEntriesAreJournaled() throws IOException {
+        TriggerHistory.global().record("PROJ", "repo", "master", null, Trigger.PUSH,
+                "journaledJob", Outcome.TRIGGERED, null, 201, 5);
+        LocalDate today = TriggerJournal.day(System.currentTimeMillis());
+        List<JournalRecord> records = read(today, today);
+
+        assertEquals(1, records.size());
+        assertEquals(Type.OUTCOME, records.get(0).getType());
+        assertEquals("journaledJob", records.get(0).getJob());
+        assertEquals(201, records.get(0).getStatus());
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        journal.append(JournalRecord.event(JAN_1_NOON, "PROJ", "repo", "v1.0", null, null,
+                Trigger.ADD, true));
+        journal.append(JournalRecord.outcome(JAN_1_NOON + 1, "PROJ", "repo", "v1.0", null,
+                Trigger.ADD, "job", Outcome.FAILED, "Job was not found", 404, 1_000));
+        List<JournalRecord> records = read(JAN_1, JAN_1);
+
+        assertEquals(2, records.size());
+        JournalRecord event = records.get(0);
+        assertEquals(Type.EVENT, event.getType());
+        assertEquals(JAN_1_NOON, event.getTimestamp());
+        assertEquals("v1.0", event.getBranch());
+        assertTrue(event.isTag());
+        assertEquals(Trigger.ADD, event.getTrigger());
+        JournalRecord outcome = records.get(1);
+        assertEquals(Outcome.FAILED, outcome.getOutcome());
+        assertEquals("Job was not found", outcome.getReason());
+        assertEquals(404, outcome.getStatus());
+        assertEquals(1_000, outcome.getLatencyNanos());
+    }
+
+    @Test
+    public void testSegmentPerDay() throws IOException {
+        journal.append(event(JAN_1_NOON));
+        journal.append(event(JAN_1_NOON + DAY));
+
+        assertEquals(1, read(JAN_1, JAN_1).size());
+        assertEquals(1, read(JAN_1.plusDays(1), JAN_1.plusDays(1)).size());
+        assertEquals(2, read(JAN_1, JAN_1.plusDays(1)).size());
+        assertEquals(segments("2020-01-01.node_1.0.journal", "2020-01-02.node_1.0.journal"),
+                segments());
+    }
+
+    @Test
+    public void testFullSegmentRotates() throws Exception {
+        int perSegment = TriggerJournal.SEGMENT_SIZE
+                / (event(JAN_1_NOON).encode().length + Integer.BYTES);
+        int written = perSegment * 3 / 2;
+        for (int i = 0; i < written; i++) {
+            if (i % TriggerJournal.QUEUE_CAPACITY == 0) {
+                // keep the queue from filling up
+                journal.flush();
+            }
+            journal.append(event(JAN_1_NOON + i));
+        }
+        List<JournalRecord> records = read(JAN_1, JAN_1);
+
+        assertEquals(2, segments().size());
+        assertEquals(written, records.size());
+        assertEquals(JAN_1_NOON + written - 1, records.get(written - 1).getTimestamp());
+    }
+
+    @Test
+    public void testRestartStartsNewSegment() throws IOException {
+        journal.append(event(JAN_1_NOON));
+        journal.destroy();
+        journal = new TriggerJournal(applicationPropertiesService, clusterService);
+        journal.afterPropertiesSet();
+        journal.append(event(JAN_1_NOON + 1));
+
+        assertEquals(segments("2020-01-01.node_1.0.journal", "2020-01-01.node_1.1.journal"),
+                segments());
+        assertEquals(2, read(JAN_1, JAN_1).size());
+    }
+
+    @Test
+    public void testExpiredSegmentsAreDeleted() throws IOException {
+        journal.append(event(JAN_1_NOON));
+        journal.append(event(JAN_1_NOON + 7 * DAY));
+        journal.append(event(JAN_1_NOON + 8 * DAY));
+
+        assertEquals(segments("2020-01-08.node_1.0.journal", "2020-01-09.node_1.0.journal"),
+                segments());
+    }
+
+    @Test
+    public void testDestroyWritesQueuedRecords() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            journal.append(event(JAN_1_NOON + i));
+        }
+        journal.destroy();
+
+        assertEquals(100, read(JAN_1, JAN_1).size());
+    }
+
+    @Test
+    public void testAppendAfterDestroyIsDropped() throws IOException {
+        journal.destroy();
+        journal.append(event(JAN_1_NOON));
+
+        assertTrue(read(JAN_1, JAN_1).isEmpty());
+    }
+
+    @Test
+    public void testReadWithoutJournal() throws IOException {
+        assertTrue(read(LocalDate.MIN, LocalDate.MAX).isEmpty());
+    }
+
+    @Test
+    public void testDay() {
+        assertEquals(JAN_1, TriggerJournal.day(JAN_1_NOON));
+        assertEquals(LocalDate.of(1969, 12, 31), TriggerJournal.day(-1));
+    }
+
+    private static JournalRecord event(long timestamp) {
+        return JournalRecord.event(timestamp, "PROJ", "repo", "master", null, null,
+                Trigger.PUSH, false);
+    }
+
+    private List<JournalRecord> read(LocalDate from, LocalDate to) throws IOException {
+        flush();
+        List<JournalRecord> records = new ArrayList<>();
+        journal.read(from, to, records::add);
+        return records;
+    }
+
+    private List<String> segments() throws IOException {
+        flush();
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(path -> path.getFileName().toString()).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void flush() {
+        try {
+            journal.flush();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static List<String> segments(String... names) {
+        return Stream.of(names).collect(Collectors.toList());
+    }
+}
@@ -1,11 +1,21 @@
 package com.kylenicholls.stash.parameterizedbuilds.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import com.atlassian.bitbucket.hook.repository.RepositoryHook;
@@ -21,6 +31,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.atlassian.bitbucket.auth.AuthenticationContext;
 import com.atlassian.bitbucket.i18n.I18nService;
+import com.atlassian.bitbucket.permission.Permission;
 import com.atlassian.bitbucket.project.Project;
 import com.atlassian.bitbucket.pull.PullRequest;
 import com.atlassian.bitbucket.pull.PullRequestParticipant;
@@ -31,19 +42,24 @@ import com.atlassian.bitbucket.setting.Settings;
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.Jenkins;
 import com.kylenicholls.stash.parameterizedbuilds.ciserver.JenkinsConnection;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.TriggerQueue;
 import com.kylenicholls.stash.parameterizedbuilds.conditions.BuildPermissionsCondition;
 import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
 import com.kylenicholls.stash.parameterizedbuilds.item.JenkinsResponse;
 import com.kylenicholls.stash.parameterizedbuilds.item.Job;
 import com.kylenicholls.stash.parameterizedbuilds.item.Server;
 import com.sun.jersey.core.util.MultivaluedMapImpl;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import static org.mockito.Mockito.when;
 
@@ -68,6 +84,8 @@ public class BuildResourceTest {
     private ApplicationUser user;
     private List<Job> jobs;
     private RepositoryHook hook;
+    private List<Runnable> queuedTriggers;
+    private ExecutorService executorService;
     private final Server globalServer = new Server("globalurl", "global server", "globaluser",
             "globaltoken", false, false);
     private final List<Server> globalServers = Lists.newArrayList(globalServer);
@@ -84,8 +102,14 @@ public class BuildResourceTest {
         propertiesService = mock(ApplicationPropertiesService.class);
         prService = mock(PullRequestService.class);
         permissionsCheck = mock(BuildPermissionsCondition.class);
+        executorService = mock(ExecutorService.class);
+        queuedTriggers = new ArrayList<>();
+        doAnswer(invocationOnMock -> {
+            queuedTriggers.add(invocationOnMock.getArgument(0));
+            return null;
+        }).when(executorService).execute(any(Runnable.class));
         rest = new BuildResource(i18nService, settingsService, jenkins, propertiesService,
-                prService, authContext, permissionsCheck);
+                prService, authContext, permissionsCheck, new TriggerQueue(executorService));
 
         repository = mock(Repository.class);
         settings = mock(Settings.class);
@@ -101,6 +125,8 @@ public class BuildResourceTest {
         when(project.getKey()).thenReturn(PROJECT_KEY);
         when(propertiesService.getBaseUrl()).thenReturn(new URI(URI));
         when(permissionsCheck.checkPermissions(any(), any(), any())).thenReturn(true);
+        when(permissionsCheck.filterPermitted(any(), any(), any()))
+                .thenAnswer(invocation -> invocation.getArgument(0));
 
         jobs = new ArrayList<>();
         when(settingsService.getJobs(any())).thenReturn(jobs);
@@ -157,10 +183,183 @@ public class BuildResourceTest {
         assertEquals(message.getMessage(), results.getEntity());
     }
 
+    @Test
+    public void testTriggerBuildAsyncNotAuthed() {
+        when(authContext.isAuthenticated()).thenReturn(false);
+        Response actual = rest.triggerBuildAsync(repository, null, null, null);
+
+        assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    public void testTriggerBuildAsyncNoMatchingJob() {
+        Job job = new Job.JobBuilder(1).triggers(new String[] { "add" }).build();
+        jobs.add(job);
+        Response actual = rest.triggerBuildAsync(repository, "0", "test", null);
+
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), actual.getStatus());
+        assertEquals(0, queuedTriggers.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testTriggerBuildAsyncReturnsAccepted() {
+        JenkinsResponse message = new JenkinsResponse.JenkinsMessage().error(false).build();
+        Job job = new Job.JobBuilder(0).jobName("job").build();
+        jobs.add(job);
+        when(uriInfo.getQueryParameters()).thenReturn(new MultivaluedMapImpl());
+        when(jenkinsConn.triggerJob(any(), any(), any(), any())).thenReturn(message);
+        Response actual = rest.triggerBuildAsync(repository, "0", "test", uriInfo);
+
+        Map<String, Object> data = (Map<String, Object>) actual.getEntity();
+        assertEquals(Response.Status.ACCEPTED.getStatusCode(), actual.getStatus());
+        assertEquals("PENDING", data.get("status"));
+        assertEquals("projects/" + PROJECT_KEY + "/repos/" + REPO_SLUG + "/triggers/"
+                + data.get("id"), actual.getMetadata().getFirst("Location").toString());
+        assertEquals(1, queuedTriggers.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetTriggerAfterRun() {
+        JenkinsResponse message = new JenkinsResponse.JenkinsMessage().error(false).build();
+        Job job = new Job.JobBuilder(0).jobName("job").build();
+        jobs.add(job);
+        when(uriInfo.getQueryParameters()).thenReturn(new MultivaluedMapImpl());
+        when(jenkinsConn.triggerJob(any(), any(), any(), any())).thenReturn(message);
+        String triggerId = (String) ((Map<String, Object>) rest
+                .triggerBuildAsync(repository, "0", "test", uriInfo).getEntity()).get("id");
+        queuedTriggers.forEach(Runnable::run);
+        Response actual = rest.getTrigger(repository, triggerId);
+
+        Map<String, Object> data = (Map<String, Object>) actual.getEntity();
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertEquals("COMPLETE", data.get("status"));
+        assertEquals(message.getMessage(), data.get("message"));
+    }
+
+    @Test
+    public void testGetTriggerUnknown() {
+        Response actual = rest.getTrigger(repository, "unknown");
+
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    public void testGetTriggerNotAuthed() {
+        when(authContext.isAuthenticated()).thenReturn(false);
+        Response actual = rest.getTrigger(repository, "unknown");
+
+        assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    public void testTriggerBuildsNotAuthed() {
+        when(authContext.isAuthenticated()).thenReturn(false);
+        Response actual = rest.triggerBuilds(repository, Lists.newArrayList());
+
+        assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    public void testTriggerBuildsNoRepoSettings() {
+        when(settingsService.getSettings(repository)).thenReturn(null);
+        Response actual = rest.triggerBuilds(repository, Lists.newArrayList());
+
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    public void testTriggerBuildsStreamsEveryResult() throws IOException {
+        doAnswer(invocationOnMock -> {
+            ((Runnable) invocationOnMock.getArgument(0)).run();
+            return null;
+        }).when(executorService).execute(any(Runnable.class));
+        JenkinsResponse message = new JenkinsResponse.JenkinsMessage().messageText("ok").build();
+        when(jenkinsConn.triggerJob(any(), any(), any(), any())).thenReturn(message);
+        when(jenkins.resolveJenkinsServer(any(), any(), any())).thenReturn(globalServer);
+        jobs.add(new Job.JobBuilder(0).jobName("job").permissions("REPO_WRITE").build());
+        List<BuildResource.BatchTrigger> batch = Lists.newArrayList(
+                batchTrigger(0, "branch1"), batchTrigger(0, "branch2"),
+                batchTrigger(5, "branch3"));
+        Response actual = rest.triggerBuilds(repository, batch);
+
+        String[] lines = write(actual).split("\n");
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertEquals(3, lines.length);
+        assertEquals("{\"index\":2,\"id\":5,\"branch\":\"branch3\",\"message\":"
+                + "{\"error\":true,\"prompt\":false,"
+                + "\"messageText\":\"No settings found for this job\"}}", lines[0]);
+        assertEquals("{\"index\":0,\"id\":0,\"branch\":\"branch1\",\"message\":"
+                + "{\"error\":false,\"prompt\":false,\"messageText\":\"ok\"}}", lines[1]);
+        assertEquals("{\"index\":1,\"id\":0,\"branch\":\"branch2\",\"message\":"
+                + "{\"error\":false,\"prompt\":false,\"messageText\":\"ok\"}}", lines[2]);
+        verify(permissionsCheck, times(1)).checkPermissions(any(), any(), any());
+    }
+
+    @Test
+    public void testTriggerBuildsWithoutPermission() throws IOException {
+        when(permissionsCheck.checkPermissions(any(), any(), any())).thenReturn(false);
+        jobs.add(new Job.JobBuilder(0).jobName("job").permissions("REPO_ADMIN").build());
+        Response actual = rest.triggerBuilds(repository,
+                Lists.newArrayList(batchTrigger(0, "branch")));
+
+        assertEquals("{\"index\":0,\"id\":0,\"branch\":\"branch\",\"message\":"
+                + "{\"error\":true,\"prompt\":false,"
+                + "\"messageText\":\"You do not have permission to build this job\"}}\n",
+                write(actual));
+        assertEquals(0, queuedTriggers.size());
+    }
+
+    @Test
+    public void testTriggerBuildsWithoutBranch() throws IOException {
+        jobs.add(new Job.JobBuilder(0).jobName("job").permissions("REPO_WRITE").build());
+        Response actual = rest.triggerBuilds(repository,
+                Lists.newArrayList(batchTrigger(0, null), batchTrigger(0, " ")));
+
+        assertEquals("{\"index\":0,\"id\":0,\"message\":"
+                + "{\"error\":true,\"prompt\":false,"
+                + "\"messageText\":\"No branch was given for this job\"}}\n"
+                + "{\"index\":1,\"id\":0,\"branch\":\" \",\"message\":"
+                + "{\"error\":true,\"prompt\":false,"
+                + "\"messageText\":\"No branch was given for this job\"}}\n",
+                write(actual));
+        assertEquals(0, queuedTriggers.size());
+    }
+
+    @Test
+    public void testTriggerBuildsTooLarge() {
+        List<BuildResource.BatchTrigger> batch = new ArrayList<>();
+        for (int i = 0; i <= BuildResource.MAX_BATCH_SIZE; i++) {
+            batch.add(batchTrigger(0, "branch"));
+        }
+        Response actual = rest.triggerBuilds(repository, batch);
+
+        assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), actual.getStatus());
+        verify(settingsService, never()).getSettings(repository);
+    }
+
+    private EntityTag tag(Response response) {
+        return (EntityTag) response.getMetadata().getFirst(HttpHeaders.ETAG);
+    }
+
+    private BuildResource.BatchTrigger batchTrigger(int id, String branch) {
+        BuildResource.BatchTrigger trigger = new BuildResource.BatchTrigger();
+        trigger.setId(id);
+        trigger.setBranch(branch);
+        return trigger;
+    }
+
+    private String write(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     @Test
     public void testGetJenkinsServersNotAuthed() {
         when(authContext.isAuthenticated()).thenReturn(false);
-        Response actual = rest.getJenkinsServers(repository);
+        Response actual = rest.getJenkinsServers(repository, null);
 
         assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
     }
@@ -169,7 +368,7 @@ public class BuildResourceTest {
     public void testGetJenkinsServersOnlyProjectDefined() {
         when(jenkins.getJenkinsServers(null)).thenReturn(Lists.newArrayList());
         when(jenkins.getJenkinsServers(PROJECT_KEY)).thenReturn(projectServers);
-        Response actual = rest.getJenkinsServers(repository);
+        Response actual = rest.getJenkinsServers(repository, null);
 
         @SuppressWarnings("serial")
         Map<String, String> expected = new HashMap<String, String>() {{
@@ -185,7 +384,7 @@ public class BuildResourceTest {
 
     @Test
     public void testGetJenkinsServersOnlyGlobalDefined() {
-        Response actual = rest.getJenkinsServers(repository);
+        Response actual = rest.getJenkinsServers(repository, null);
 
         @SuppressWarnings("serial")
         Map<String, String> expected = new HashMap<String, String>() {{
@@ -202,7 +401,7 @@ public class BuildResourceTest {
     @Test
     public void testGetJenkinsServersProjectAndGlobalDefined() {
         when(jenkins.getJenkinsServers(PROJECT_KEY)).thenReturn(projectServers);
-        Response actual = rest.getJenkinsServers(repository);
+        Response actual = rest.getJenkinsServers(repository, null);
 
         @SuppressWarnings("serial")
         Map<String, String> expectedProject = new HashMap<String, String>() {{
@@ -229,7 +428,7 @@ public class BuildResourceTest {
     @Test
     public void testGetJenkinsServersNoServersDefined() {
         when(jenkins.getJenkinsServers(null)).thenReturn(Lists.newArrayList());
-        Response actual = rest.getJenkinsServers(repository);
+        Response actual = rest.getJenkinsServers(repository, null);
 
         assertEquals(Lists.newArrayList(), actual.getEntity());
     }
@@ -237,7 +436,7 @@ public class BuildResourceTest {
     @Test
     public void testGetJobsNotAuthed() {
         when(authContext.isAuthenticated()).thenReturn(false);
-        Response actual = rest.getJobs(repository, "branch", "commit", null, 0);
+        Response actual = rest.getJobs(repository, "branch", "commit", null, 0, null);
 
         assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
     }
@@ -245,7 +444,7 @@ public class BuildResourceTest {
     @Test
     public void testGetJobsNoRepoSettings() {
         when(settingsService.getSettings(repository)).thenReturn(null);
-        Response actual = rest.getJobs(repository, "branch", "commit", null, 0);
+        Response actual = rest.getJobs(repository, "branch", "commit", null, 0, null);
 
         assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
     }
@@ -255,7 +454,7 @@ public class BuildResourceTest {
     public void testGetJobsNoManualJob() {
         Job job = new Job.JobBuilder(1).triggers(new String[] { "add" }).build();
         jobs.add(job);
-        Response actual = rest.getJobs(repository, "branch", "commit", null, 0);
+        Response actual = rest.getJobs(repository, "branch", "commit", null, 0, null);
 
         assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
         assertEquals(new ArrayList<Map<String, Object>>(), (List<Map<String, Object>>) actual
@@ -292,7 +491,7 @@ public class BuildResourceTest {
         when(pr.getTitle()).thenReturn(title);
         when(pr.getDescription()).thenReturn(description);
         when(prService.getById(repository.getId(), prId)).thenReturn(pr);
-        Response actual = rest.getJobs(repository, "branch", "commit", prDest, prId);
+        Response actual = rest.getJobs(repository, "branch", "commit", prDest, prId, null);
 
         @SuppressWarnings("unchecked")
         List<Map<String, Object>> jobData = (List<Map<String, Object>>) actual.getEntity();
@@ -334,7 +533,7 @@ public class BuildResourceTest {
         Job job = new Job.JobBuilder(1).jobName(jobName).triggers(new String[] { "manual" })
                 .buildParameters("param2=$PRDESTINATION").permissions("REPO_ADMIN").build();
         jobs.add(job);
-        Response actual = rest.getJobs(repository, "branch", "commit", null, 0);
+        Response actual = rest.getJobs(repository, "branch", "commit", null, 0, null);
 
         @SuppressWarnings("unchecked")
         List<Map<String, Object>> jobData = (List<Map<String, Object>>) actual.getEntity();
@@ -346,6 +545,145 @@ public class BuildResourceTest {
     }
 
 
+    @Test
+    public void testGetJobsNotModified() {
+        jobs.add(new Job.JobBuilder(1).jobName("job").triggers(new String[] { "manual" })
+                .buildParameters("param=$BRANCH").permissions("REPO_ADMIN").build());
+        Response first = rest.getJobs(repository, "branch", "commit", null, 0, null);
+        String tag = '"' + tag(first).getValue() + '"';
+        Response actual = rest.getJobs(repository, "branch", "commit", null, 0, tag);
+
+        assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), actual.getStatus());
+        assertEquals(tag(first), tag(actual));
+    }
+
+    @Test
+    public void testGetJobsTagDependsOnVariables() {
+        jobs.add(new Job.JobBuilder(1).jobName("job").triggers(new String[] { "manual" })
+                .buildParameters("param=$BRANCH").permissions("REPO_ADMIN").build());
+        Response first = rest.getJobs(repository, "branch", "commit", null, 0, null);
+        String tag = '"' + tag(first).getValue() + '"';
+        Response actual = rest.getJobs(repository, "other", "commit", null, 0, tag);
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertNotEquals(tag(first), tag(actual));
+    }
+
+    @Test
+    public void testGetJobsChecksPermissionsOnce() {
+        jobs.add(new Job.JobBuilder(1).jobName("job").triggers(new String[] { "manual" })
+                .permissions("REPO_ADMIN").build());
+        rest.getJobs(repository, "branch", "commit", null, 0, null);
+        rest.getJobs(repository, "other", "commit", null, 0, null);
+
+        verify(permissionsCheck, times(1)).filterPermitted(any(), any(), any());
+    }
+
+    @Test
+    public void testGetJobsNotModifiedReusesManualJobs() {
+        jobs.add(new Job.JobBuilder(1).jobName("job").triggers(new String[] { "manual" })
+                .buildParameters("param=$PRTITLE").permissions("REPO_ADMIN").build());
+        Response first = rest.getJobs(repository, "branch", "commit", "dest", 1L, null);
+        String tag = '"' + tag(first).getValue() + '"';
+        Response actual = rest.getJobs(repository, "branch", "commit", "dest", 1L, tag);
+
+        assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), actual.getStatus());
+        verify(permissionsCheck, times(1)).filterPermitted(any(), any(), any());
+        verify(settingsService, times(1)).getJobs(any());
+    }
+
+    @Test
+    public void testGetJobsReloadedWhenPermissionLevelChanges() {
+        jobs.add(new Job.JobBuilder(1).jobName("job").triggers(new String[] { "manual" })
+                .permissions("REPO_ADMIN").build());
+        when(permissionsCheck.getPermissionLevel(repository, user))
+                .thenReturn(Permission.REPO_WRITE, Permission.REPO_ADMIN);
+        when(permissionsCheck.filterPermitted(any(), any(), any()))
+                .thenReturn(new ArrayList<>())
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        Response first = rest.getJobs(repository, "branch", "commit", null, 0, null);
+        String tag = '"' + tag(first).getValue() + '"';
+        Response actual = rest.getJobs(repository, "branch", "commit", null, 0, tag);
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertNotEquals(tag(first), tag(actual));
+    }
+
+    @Test
+    public void testGetJobsReloadedWhenSettingsChange() {
+        jobs.add(new Job.JobBuilder(1).jobName("job").triggers(new String[] { "manual" })
+                .permissions("REPO_ADMIN").build());
+        Map<String, Object> changed = Collections.singletonMap("job-0", "renamed");
+        when(settings.asMap()).thenReturn(new HashMap<>(), new HashMap<>(), changed);
+        when(settingsService.getJobs(changed)).thenReturn(Lists.newArrayList(
+                new Job.JobBuilder(1).jobName("renamed").triggers(new String[] { "manual" })
+                        .permissions("REPO_ADMIN").build()));
+        Response first = rest.getJobs(repository, "branch", "commit", null, 0, null);
+        String tag = '"' + tag(first).getValue() + '"';
+        rest.getJobs(repository, "other", "commit", null, 0, null);
+        Response actual = rest.getJobs(repository, "branch", "commit", null, 0, tag);
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertNotEquals(tag(first), tag(actual));
+        verify(permissionsCheck, times(2)).filterPermitted(any(), any(), any());
+    }
+
+    @Test
+    public void testGetJobsTagDependsOnPullRequest() {
+        jobs.add(new Job.JobBuilder(1).jobName("job").triggers(new String[] { "manual" })
+                .buildParameters("param=$PRTITLE").permissions("REPO_ADMIN").build());
+        PullRequest pr = mock(PullRequest.class);
+        when(pr.getTitle()).thenReturn("title", "edited title");
+        when(prService.getById(anyInt(), anyLong())).thenReturn(pr);
+        Response first = rest.getJobs(repository, "branch", "commit", "dest", 1L, null);
+        String tag = '"' + tag(first).getValue() + '"';
+        Response actual = rest.getJobs(repository, "branch", "commit", "dest", 1L, tag);
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertNotEquals(tag(first), tag(actual));
+    }
+
+    @Test
+    public void testGetJobsTagDependsOnResolvedServer() {
+        jobs.add(new Job.JobBuilder(1).jobName("job").triggers(new String[] { "manual" })
+                .permissions("REPO_ADMIN").build());
+        when(jenkins.resolveJenkinsServer(any(), any(), any()))
+                .thenReturn(globalServer, projectServer);
+        Response first = rest.getJobs(repository, "branch", "commit", null, 0, null);
+        String tag = '"' + tag(first).getValue() + '"';
+        Response actual = rest.getJobs(repository, "branch", "commit", null, 0, tag);
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertNotEquals(tag(first), tag(actual));
+    }
+
+    @Test
+    public void testGetJobsNoManualJobSkipsVariables() {
+        rest.getJobs(repository, "branch", "commit", "dest", 1L, null);
+
+        verify(prService, never()).getById(anyInt(), anyLong());
+    }
+
+    @Test
+    public void testGetJenkinsServersTagChangesWithServers() {
+        when(jenkins.getJenkinsServers(null)).thenReturn(globalServers, projectServers);
+        Response first = rest.getJenkinsServers(repository, null);
+        String tag = '"' + tag(first).getValue() + '"';
+        Response actual = rest.getJenkinsServers(repository, tag);
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertNotEquals(tag(first), tag(actual));
+    }
+
+    @Test
+    public void testGetJenkinsServersNotModified() {
+        Response first = rest.getJenkinsServers(repository, null);
+        String tag = "W/\"other\", \"" + tag(first).getValue() + '"';
+        Response actual = rest.getJenkinsServers(repository, tag);
+
+        assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), actual.getStatus());
+    }
+
     @Test
     public void testGetHookEnabled() {
         when(hook.isEnabled()).thenReturn(true);
@@ -2,7 +2,9 @@ package com.kylenicholls.stash.parameterizedbuilds.rest;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -17,6 +19,7 @@ import com.google.gson.Gson;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -104,7 +107,7 @@ public class GlobalResourceTest {
     public void testValidateServerReturnsSuccessMessage(){
         String expected = "Connection successful";
         when(jenkinsConn.testConnection(globalServer)).thenReturn(expected);
-        Response actual = rest.validate(ui, globalServer);
+        Response actual = rest.validate(ui, input(globalServer));
 
         assertEquals(expected, actual.getEntity());
     }
@@ -113,7 +116,7 @@ public class GlobalResourceTest {
     public void testValidateServerReturnsOkStatus(){
         String expected = "Connection successful";
         when(jenkinsConn.testConnection(globalServer)).thenReturn(expected);
-        Response actual = rest.validate(ui, globalServer);
+        Response actual = rest.validate(ui, input(globalServer));
 
         assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
     }
@@ -122,7 +125,7 @@ public class GlobalResourceTest {
     public void testValidateServerReturnsFailureMessage(){
         String expected = "Failed to establish connection";
         when(jenkinsConn.testConnection(globalServer)).thenReturn(expected);
-        Response actual = rest.validate(ui, globalServer);
+        Response actual = rest.validate(ui, input(globalServer));
 
         assertEquals(expected, actual.getEntity());
     }
@@ -131,7 +134,7 @@ public class GlobalResourceTest {
     public void testValidateServerReturnsFailureStatus(){
         String expected = "Failed to establish connection";
         when(jenkinsConn.testConnection(globalServer)).thenReturn(expected);
-        Response actual = rest.validate(ui, globalServer);
+        Response actual = rest.validate(ui, input(globalServer));
 
         assertEquals(400, actual.getStatus());
     }
@@ -139,19 +142,21 @@ public class GlobalResourceTest {
     @Test
     public void testValidateServerPreservesToken(){
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(globalServer);
-        Server testServer = rest.mapToServer(globalServer.asMap());
-        when(jenkinsConn.testConnection(testServer)).thenReturn( "Connection successful");
-        testServer.setToken(null);
-        rest.validate(ui, testServer);
-
-        assertEquals(globalServer.getToken(), testServer.getToken());
-        assertNotNull(testServer.getToken());
+        Server testServer = rest.mapToServer(globalServer.asMap()).withToken(null);
+        when(jenkinsConn.testConnection(any())).thenReturn("Connection successful");
+        rest.validate(ui, input(testServer));
+
+        ArgumentCaptor<Server> tested = ArgumentCaptor.forClass(Server.class);
+        verify(jenkinsConn).testConnection(tested.capture());
+        assertEquals(globalServer.getToken(), tested.getValue().getToken());
+        assertNotNull(tested.getValue().getToken());
+        assertNull(testServer.getToken());
     }
 
     @Test
     public void testAddServerReturns200OnUpdate(){
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(globalServer);
-        Response actual = rest.addServer(ui, globalServer, globalServer.getAlias());
+        Response actual = rest.addServer(ui, input(globalServer), globalServer.getAlias());
 
         assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
     }
@@ -159,7 +164,7 @@ public class GlobalResourceTest {
     @Test
     public void testAddServerReturns201OnCreate(){
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, globalServer, globalServer.getAlias());
+        Response actual = rest.addServer(ui, input(globalServer), globalServer.getAlias());
 
         assertEquals(Response.Status.CREATED.getStatusCode(), actual.getStatus());
     }
@@ -167,59 +172,68 @@ public class GlobalResourceTest {
     @Test
     public void testAddServerPreservesToken(){
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(globalServer);
-        Server testServer = rest.mapToServer(globalServer.asMap());
-        testServer.setToken(null);
-        rest.addServer(ui, testServer, testServer.getAlias());
+        Server testServer = rest.mapToServer(globalServer.asMap()).withToken(null);
+        rest.addServer(ui, input(testServer), testServer.getAlias());
 
-        assertEquals(globalServer.getToken(), testServer.getToken());
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(testServer.getAlias()),
+                isNull());
+        assertEquals(globalServer.getToken(), saved.getValue().getToken());
     }
 
     @Test
     public void testAddServerRemovesEmptyStringToken(){
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(globalServer);
-        Server testServer = rest.mapToServer(globalServer.asMap());
-        testServer.setToken("");
-        rest.addServer(ui, testServer, testServer.getAlias());
+        Server testServer = rest.mapToServer(globalServer.asMap()).withToken("");
+        rest.addServer(ui, input(testServer), testServer.getAlias());
 
-        assertEquals("", testServer.getToken());
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(testServer.getAlias()),
+                isNull());
+        assertEquals("", saved.getValue().getToken());
     }
 
     @Test
     public void testAddServerRemovesTokenIfDifferentURL(){
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(globalServer);
-        Server testServer = rest.mapToServer(globalServer.asMap());
-        testServer.setToken(null);
-        testServer.setBaseUrl("http://different");
-        rest.addServer(ui, testServer, testServer.getAlias());
+        Server testServer = new Server("http://different", "global server", "globaluser", null,
+                false, false);
+        rest.addServer(ui, input(testServer), testServer.getAlias());
 
-        assertEquals("", testServer.getToken());
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(testServer.getAlias()),
+                isNull());
+        assertEquals("", saved.getValue().getToken());
     }
 
     @Test
     public void testAddServerRemovesTokenIfDifferentUser(){
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(globalServer);
-        Server testServer = rest.mapToServer(globalServer.asMap());
-        testServer.setToken(null);
-        testServer.setUser("different");
-        rest.addServer(ui, testServer, testServer.getAlias());
+        Server testServer = new Server("http://globalurl", "global server", "different", null,
+                false, false);
+        rest.addServer(ui, input(testServer), testServer.getAlias());
 
-        assertEquals("", testServer.getToken());
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(testServer.getAlias()),
+                isNull());
+        assertEquals("", saved.getValue().getToken());
     }
 
     @Test
     public void testAddServerReturns422OnMissingAlias(){
-        globalServer.setAlias("");
+        globalServer = new Server("http://globalurl", "", "globaluser", "globaltoken", false,
+                false);
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, globalServer, globalServer.getAlias());
+        Response actual = rest.addServer(ui, input(globalServer), globalServer.getAlias());
 
         assertEquals(422, actual.getStatus());
     }
 
     @Test
     public void testAddServerReturns422OnMissingUrl(){
-        globalServer.setBaseUrl("");
+        globalServer = new Server("", "global server", "globaluser", "globaltoken", false, false);
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, globalServer, globalServer.getAlias());
+        Response actual = rest.addServer(ui, input(globalServer), globalServer.getAlias());
 
         assertEquals(422, actual.getStatus());
     }
@@ -227,9 +241,9 @@ public class GlobalResourceTest {
     @Test
     @SuppressWarnings("unchecked")
     public void testAddServerReturnsErrorMessageOnMissingUrl(){
-        globalServer.setBaseUrl("");
+        globalServer = new Server("", "global server", "globaluser", "globaltoken", false, false);
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, globalServer, globalServer.getAlias());
+        Response actual = rest.addServer(ui, input(globalServer), globalServer.getAlias());
 
         String response = actual.getEntity().toString();
         List<String> errors = (List<String>) new Gson().fromJson(response, Map.class).get("errors");
@@ -239,9 +253,10 @@ public class GlobalResourceTest {
 
     @Test
     public void testAddServerReturns422OnBadUrl(){
-        globalServer.setBaseUrl("noprotocal");
+        globalServer = new Server("noprotocal", "global server", "globaluser", "globaltoken",
+                false, false);
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, globalServer, globalServer.getAlias());
+        Response actual = rest.addServer(ui, input(globalServer), globalServer.getAlias());
 
         assertEquals(422, actual.getStatus());
     }
@@ -249,9 +264,10 @@ public class GlobalResourceTest {
     @Test
     @SuppressWarnings("unchecked")
     public void testAddServerReturnsErrorMessageOnBadUrl(){
-        globalServer.setBaseUrl("noprotocal");
+        globalServer = new Server("noprotocal", "global server", "globaluser", "globaltoken",
+                false, false);
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, globalServer, globalServer.getAlias());
+        Response actual = rest.addServer(ui, input(globalServer), globalServer.getAlias());
 
         String response = actual.getEntity().toString();
         List<String> errors = (List<String>) new Gson().fromJson(response, Map.class).get("errors");
@@ -262,10 +278,9 @@ public class GlobalResourceTest {
     @Test
     @SuppressWarnings("unchecked")
     public void testAddServerReturnsAllErrorMessages(){
-        globalServer.setBaseUrl("");
-        globalServer.setAlias("");
+        globalServer = new Server("", "", "globaluser", "globaltoken", false, false);
         when(jenkins.getJenkinsServer(isNull(), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, globalServer, globalServer.getAlias());
+        Response actual = rest.addServer(ui, input(globalServer), globalServer.getAlias());
 
         String response = actual.getEntity().toString();
         List<String> errors = (List<String>) new Gson().fromJson(response, Map.class).get("errors");
@@ -275,13 +290,13 @@ public class GlobalResourceTest {
 
     @Test
     public void testRemoveServerRemovesServer(){
-        rest.removeServer(ui);
-        verify(jenkins, times(1)).saveJenkinsServer(null, null);
+        rest.removeServer(ui, globalServer.getAlias());
+        verify(jenkins, times(1)).removeJenkinsServer(globalServer.getAlias(), null);
     }
 
     @Test
     public void testRemoveServerReturnsNoContent(){
-        Response actual = rest.removeServer(ui);
+        Response actual = rest.removeServer(ui, globalServer.getAlias());
         assertEquals(Response.Status.NO_CONTENT.getStatusCode(), actual.getStatus());
     }
 
@@ -316,4 +331,60 @@ public class GlobalResourceTest {
         Response actual = rest.removeUserToken(ui);
         assertEquals(Response.Status.NO_CONTENT.getStatusCode(), actual.getStatus());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAddServerRenamesServer(){
+        when(jenkins.getJenkinsServer(isNull(), eq(globalServer.getAlias())))
+                .thenReturn(globalServer);
+        Server renamed = new Server(globalServer.getBaseUrl(), "renamed", globalServer.getUser(),
+                null, false, false);
+        Response actual = rest.addServer(ui, input(renamed), globalServer.getAlias());
+
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(globalServer.getAlias()),
+                isNull());
+        assertEquals("renamed", saved.getValue().getAlias());
+        assertEquals(globalServer.getToken(), saved.getValue().getToken());
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddServerReturns422WhenRenamedToExistingAlias(){
+        Server other = new Server("http://otherurl", "other", "otheruser", "othertoken", false,
+                false);
+        when(jenkins.getJenkinsServer(isNull(), eq("other"))).thenReturn(other);
+        Server renamed = new Server(globalServer.getBaseUrl(), "other", globalServer.getUser(),
+                null, false, false);
+        Response actual = rest.addServer(ui, input(renamed), globalServer.getAlias());
+
+        String response = actual.getEntity().toString();
+        List<String> errors = (List<String>) new Gson().fromJson(response, Map.class).get("errors");
+
+        assertEquals(422, actual.getStatus());
+        assertEquals(Lists.newArrayList("Alias already in use."), errors);
+    }
+
+    @Test
+    public void testServerInputDefaults() {
+        ServerService.ServerInput input = new ServerService.ServerInput();
+        input.setBaseUrl("http://url");
+        input.setAlias("alias");
+        input.setCsrfEnabled(null);
+
+        assertEquals(new Server("http://url", "alias", null, null, false, false, false),
+                input.toServer());
+    }
+
+    private static ServerService.ServerInput input(Server server) {
+        ServerService.ServerInput input = new ServerService.ServerInput();
+        input.setBaseUrl(server.getBaseUrl());
+        input.setAlias(server.getAlias());
+        input.setUser(server.getUser());
+        input.setToken(server.getToken());
+        input.setAltUrl(server.getAltUrl());
+        input.setCsrfEnabled(server.getCsrfEnabled());
+        input.setPostParameters(server.getPostParameters());
+        return input;
+    }
+}
@@ -0,0 +1,154 @@
+package com.kylenicholls.stash.parameterizedbuilds.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.i18n.I18nService;
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.permission.PermissionService;
+import com.atlassian.bitbucket.project.Project;
+import com.atlassian.bitbucket.repository.Repository;
+import com.atlassian.bitbucket.repository.RepositoryService;
+import com.atlassian.bitbucket.setting.Settings;
+import com.kylenicholls.stash.parameterizedbuilds.helper.SettingsService;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.JournalRecord;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerJournal;
+
+public class JournalResourceTest {
+    private static final LocalDate DAY = LocalDate.of(2020, 1, 1);
+
+    private PermissionService permissionService;
+    private TriggerJournal journal;
+    private SettingsService settingsService;
+    private RepositoryService repositoryService;
+    private List<JournalRecord> records;
+    private JournalResource rest;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() throws IOException {
+        permissionService = mock(PermissionService.class);
+        journal = mock(TriggerJournal.class);
+        settingsService = mock(SettingsService.class);
+        repositoryService = mock(RepositoryService.class);
+        records = new ArrayList<>();
+        when(permissionService.hasGlobalPermission(Permission.SYS_ADMIN)).thenReturn(true);
+        when(journal.isEnabled()).thenReturn(true);
+        doAnswer(invocation -> {
+            records.forEach(invocation.<Consumer<JournalRecord>>getArgument(2));
+            return null;
+        }).when(journal).read(any(), any(), any());
+        rest = new JournalResource(mock(I18nService.class), permissionService, journal,
+                settingsService, repositoryService);
+    }
+
+    @Test
+    public void testGetJournalNotAdmin() {
+        when(permissionService.hasGlobalPermission(Permission.SYS_ADMIN)).thenReturn(false);
+        Response actual = rest.getJournal(null, null);
+
+        assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    public void testGetJournalDisabled() {
+        when(journal.isEnabled()).thenReturn(false);
+        Response actual = rest.getJournal(null, null);
+
+        assertEquals(Response.Status.NOT_FOUND.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    public void testGetJournalInvalidDay() {
+        Response actual = rest.getJournal("01/01/2020", null);
+
+        assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    public void testGetJournal() throws IOException {
+        records.add(JournalRecord.event(0, "PROJ", "repo", "master", null, null, Trigger.PUSH,
+                false));
+        records.add(JournalRecord.outcome(1, "PROJ", "repo", "master", null, Trigger.PUSH,
+                "job", Outcome.TRIGGERED, null, 201, 0));
+        Response actual = rest.getJournal("2020-01-01", "2020-01-02");
+        String[] lines = readStream(actual).split("\n");
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        verify(journal).read(eq(DAY), eq(DAY.plusDays(1)), any());
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"type\":\"EVENT\""));
+        assertTrue(lines[1].contains("\"job\":\"job\""));
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        Repository repository = mock(Repository.class);
+        Project project = mock(Project.class);
+        when(repository.getProject()).thenReturn(project);
+        when(project.getKey()).thenReturn("PROJ");
+        when(repositoryService.getBySlug("PROJ", "repo")).thenReturn(repository);
+        when(settingsService.getSettings(repository)).thenReturn(mock(Settings.class));
+        List<Job> jobs = new ArrayList<>();
+        jobs.add(new Job.JobBuilder(0).jobName("job").triggers(new String[] { "push" })
+                .buildParameters("").branchRegex("master").pathRegex("").prDestRegex("")
+                .ignoreComitters("").ignoreCommitMsg("").build());
+        when(settingsService.getJobs(any())).thenReturn(jobs);
+        records.add(JournalRecord.event(0, "PROJ", "repo", "master", null, null, Trigger.PUSH,
+                false));
+        records.add(JournalRecord.outcome(1, "PROJ", "repo", "master", null, Trigger.PUSH,
+                "job", Outcome.TRIGGERED, null, 201, 0));
+        records.add(JournalRecord.event(2, "PROJ", "repo", "master", null, null, Trigger.PUSH,
+                false));
+        String[] lines = readStream(rest.replay("2020-01-01")).split("\n");
+
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"jobs\":[{\"job\":\"job\",\"outcome\":\"TRIGGERED\"}]"));
+        verify(repositoryService).getBySlug("PROJ", "repo");
+    }
+
+    @Test
+    public void testReplayMissingRepository() throws IOException {
+        records.add(JournalRecord.event(0, "PROJ", "gone", "master", null, null, Trigger.PUSH,
+                false));
+        String actual = readStream(rest.replay(null));
+
+        assertTrue(actual.contains("\"message\":\"The repository no longer exists\""));
+    }
+
+    @Test
+    public void testReplayInvalidDay() {
+        Response actual = rest.replay("yesterday");
+
+        assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), actual.getStatus());
+    }
+
+    private static String readStream(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
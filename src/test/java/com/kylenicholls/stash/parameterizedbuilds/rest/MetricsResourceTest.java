@@ -0,0 +1,106 @@
+package com.kylenicholls.stash.parameterizedbuilds.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.i18n.I18nService;
+import com.atlassian.bitbucket.permission.Permission;
+import com.atlassian.bitbucket.permission.PermissionService;
+import com.kylenicholls.stash.parameterizedbuilds.ciserver.TriggerQueue;
+import com.kylenicholls.stash.parameterizedbuilds.item.Job.Trigger;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.Metrics;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory;
+import com.kylenicholls.stash.parameterizedbuilds.metrics.TriggerHistory.Outcome;
+
+public class MetricsResourceTest {
+    private PermissionService permissionService;
+    private TriggerQueue triggerQueue;
+    private MetricsResource rest;
+
+    @Before
+    public void setup() {
+        permissionService = mock(PermissionService.class);
+        triggerQueue = mock(TriggerQueue.class);
+        rest = new MetricsResource(mock(I18nService.class), permissionService, triggerQueue);
+    }
+
+    @Test
+    public void testGetMetricsNotAdmin() {
+        Response actual = rest.getMetrics();
+
+        assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetMetrics() {
+        when(permissionService.hasGlobalPermission(Permission.SYS_ADMIN)).thenReturn(true);
+        Metrics.counter("test.rest").increment();
+        Response actual = rest.getMetrics();
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        assertEquals(Metrics.counter("test.rest").count(),
+                ((Map<String, Object>) actual.getEntity()).get("test.rest"));
+    }
+
+    @Test
+    public void testGetHistoryNotAdmin() {
+        Response actual = rest.getHistory(null, null, null, 0, 100);
+
+        assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetHistoryFiltersByJob() {
+        when(permissionService.hasGlobalPermission(Permission.SYS_ADMIN)).thenReturn(true);
+        TriggerHistory.global().record("PROJ", "repo", "master", null, Trigger.PUSH,
+                "restHistoryJob", Outcome.TRIGGERED, null, 201, 0);
+        Response actual = rest.getHistory("PROJ", "repo", "restHistoryJob", 0, 100);
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        List<Map<String, Object>> entries = (List<Map<String, Object>>) actual.getEntity();
+        assertEquals("restHistoryJob", entries.get(0).get("job"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetHistoryLimitIsAtLeastOne() {
+        when(permissionService.hasGlobalPermission(Permission.SYS_ADMIN)).thenReturn(true);
+        TriggerHistory.global().record("PROJ", "repo", "master", null, Trigger.PUSH,
+                "restHistoryJob", Outcome.TRIGGERED, null, 201, 0);
+        Response actual = rest.getHistory(null, null, null, 0, 0);
+
+        assertEquals(1, ((List<Map<String, Object>>) actual.getEntity()).size());
+    }
+
+    @Test
+    public void testGetDiagnosticsNotAdmin() {
+        Response actual = rest.getDiagnostics();
+
+        assertEquals(Response.Status.FORBIDDEN.getStatusCode(), actual.getStatus());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testGetDiagnostics() {
+        when(permissionService.hasGlobalPermission(Permission.SYS_ADMIN)).thenReturn(true);
+        when(triggerQueue.permitsInUse()).thenReturn(Collections.singletonMap("rest-ci", 2));
+        Response actual = rest.getDiagnostics();
+
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+        Map<String, Map<String, Object>> servers = (Map<String, Map<String, Object>>)
+                ((Map<String, Object>) actual.getEntity()).get("servers");
+        assertEquals(2, servers.get("rest-ci").get("batchPermitsInUse"));
+    }
+}
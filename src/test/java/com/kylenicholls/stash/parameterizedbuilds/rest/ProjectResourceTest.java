@@ -2,6 +2,7 @@ package com.kylenicholls.stash.parameterizedbuilds.rest;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
@@ -18,6 +19,7 @@ import com.google.gson.Gson;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -112,7 +114,7 @@ public class ProjectResourceTest {
     public void testValidateServerReturnsSuccessMessage(){
         String expected = "Connection successful";
         when(jenkinsConn.testConnection(projectServer)).thenReturn(expected);
-        Response actual = rest.validate(ui, projectServer);
+        Response actual = rest.validate(ui, input(projectServer));
 
         assertEquals(expected, actual.getEntity());
     }
@@ -121,7 +123,7 @@ public class ProjectResourceTest {
     public void testValidateServerReturnsOkStatus(){
         String expected = "Connection successful";
         when(jenkinsConn.testConnection(projectServer)).thenReturn(expected);
-        Response actual = rest.validate(ui, projectServer);
+        Response actual = rest.validate(ui, input(projectServer));
 
         assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
     }
@@ -130,7 +132,7 @@ public class ProjectResourceTest {
     public void testValidateServerReturnsFailureMessage(){
         String expected = "Failed to establish connection";
         when(jenkinsConn.testConnection(projectServer)).thenReturn(expected);
-        Response actual = rest.validate(ui, projectServer);
+        Response actual = rest.validate(ui, input(projectServer));
 
         assertEquals(expected, actual.getEntity());
     }
@@ -139,7 +141,7 @@ public class ProjectResourceTest {
     public void testValidateServerReturnsFailureStatus(){
         String expected = "Failed to establish connection";
         when(jenkinsConn.testConnection(projectServer)).thenReturn(expected);
-        Response actual = rest.validate(ui, projectServer);
+        Response actual = rest.validate(ui, input(projectServer));
 
         assertEquals(400, actual.getStatus());
     }
@@ -147,19 +149,21 @@ public class ProjectResourceTest {
     @Test
     public void testValidateServerPreservesToken(){
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(projectServer);
-        Server testServer = rest.mapToServer(projectServer.asMap());
-        when(jenkinsConn.testConnection(testServer)).thenReturn( "Connection successful");
-        testServer.setToken(null);
-        rest.validate(ui, testServer);
-
-        assertEquals(projectServer.getToken(), testServer.getToken());
-        assertNotNull(testServer.getToken());
+        Server testServer = rest.mapToServer(projectServer.asMap()).withToken(null);
+        when(jenkinsConn.testConnection(any())).thenReturn("Connection successful");
+        rest.validate(ui, input(testServer));
+
+        ArgumentCaptor<Server> tested = ArgumentCaptor.forClass(Server.class);
+        verify(jenkinsConn).testConnection(tested.capture());
+        assertEquals(projectServer.getToken(), tested.getValue().getToken());
+        assertNotNull(tested.getValue().getToken());
+        assertNull(testServer.getToken());
     }
 
     @Test
     public void testAddServerReturns200OnUpdate(){
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(projectServer);
-        Response actual = rest.addServer(ui, projectServer, projectServer.getAlias());
+        Response actual = rest.addServer(ui, input(projectServer), projectServer.getAlias());
 
         assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
     }
@@ -167,7 +171,7 @@ public class ProjectResourceTest {
     @Test
     public void testAddServerReturns201OnCreate(){
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, projectServer, projectServer.getAlias());
+        Response actual = rest.addServer(ui, input(projectServer), projectServer.getAlias());
 
         assertEquals(Response.Status.CREATED.getStatusCode(), actual.getStatus());
     }
@@ -175,59 +179,69 @@ public class ProjectResourceTest {
     @Test
     public void testAddServerPreservesToken(){
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(projectServer);
-        Server testServer = rest.mapToServer(projectServer.asMap());
-        testServer.setToken(null);
-        rest.addServer(ui, testServer, testServer.getAlias());
+        Server testServer = rest.mapToServer(projectServer.asMap()).withToken(null);
+        rest.addServer(ui, input(testServer), testServer.getAlias());
 
-        assertEquals(projectServer.getToken(), testServer.getToken());
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(testServer.getAlias()),
+                eq(projectKey));
+        assertEquals(projectServer.getToken(), saved.getValue().getToken());
     }
 
     @Test
     public void testAddServerRemovesEmptyStringToken(){
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(projectServer);
-        Server testServer = rest.mapToServer(projectServer.asMap());
-        testServer.setToken("");
-        rest.addServer(ui, testServer, testServer.getAlias());
+        Server testServer = rest.mapToServer(projectServer.asMap()).withToken("");
+        rest.addServer(ui, input(testServer), testServer.getAlias());
 
-        assertEquals("", testServer.getToken());
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(testServer.getAlias()),
+                eq(projectKey));
+        assertEquals("", saved.getValue().getToken());
     }
 
     @Test
     public void testAddServerRemovesTokenIfDifferentURL(){
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(projectServer);
-        Server testServer = rest.mapToServer(projectServer.asMap());
-        testServer.setToken(null);
-        testServer.setBaseUrl("http://different");
-        rest.addServer(ui, testServer, testServer.getAlias());
-
-        assertEquals("", testServer.getToken());
+        Server testServer = new Server("http://different", "project server", "projectuser", null,
+                false, false);
+        rest.addServer(ui, input(testServer), testServer.getAlias());
+
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(testServer.getAlias()),
+                eq(projectKey));
+        assertEquals("", saved.getValue().getToken());
     }
 
     @Test
     public void testAddServerRemovesTokenIfDifferentUser(){
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(projectServer);
-        Server testServer = rest.mapToServer(projectServer.asMap());
-        testServer.setToken(null);
-        testServer.setUser("different");
-        rest.addServer(ui, testServer, testServer.getAlias());
-
-        assertEquals("", testServer.getToken());
+        Server testServer = new Server("http://projecturl", "project server", "different", null,
+                false, false);
+        rest.addServer(ui, input(testServer), testServer.getAlias());
+
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(testServer.getAlias()),
+                eq(projectKey));
+        assertEquals("", saved.getValue().getToken());
     }
 
     @Test
     public void testAddServerReturns422OnMissingAlias(){
-        projectServer.setAlias("");
+        projectServer = new Server("http://projecturl", "", "projectuser", "projecttoken", false,
+                false);
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, projectServer, projectServer.getAlias());
+        Response actual = rest.addServer(ui, input(projectServer), projectServer.getAlias());
 
         assertEquals(422, actual.getStatus());
     }
 
     @Test
     public void testAddServerReturns422OnMissingUrl(){
-        projectServer.setBaseUrl("");
+        projectServer = new Server("", "project server", "projectuser", "projecttoken", false,
+                false);
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, projectServer, projectServer.getAlias());
+        Response actual = rest.addServer(ui, input(projectServer), projectServer.getAlias());
 
         assertEquals(422, actual.getStatus());
     }
@@ -235,9 +249,10 @@ public class ProjectResourceTest {
     @Test
     @SuppressWarnings("unchecked")
     public void testAddServerReturnsErrorMessageOnMissingUrl(){
-        projectServer.setBaseUrl("");
+        projectServer = new Server("", "project server", "projectuser", "projecttoken", false,
+                false);
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, projectServer, projectServer.getAlias());
+        Response actual = rest.addServer(ui, input(projectServer), projectServer.getAlias());
 
         String response = actual.getEntity().toString();
         List<String> errors = (List<String>) new Gson().fromJson(response, Map.class).get("errors");
@@ -247,9 +262,10 @@ public class ProjectResourceTest {
 
     @Test
     public void testAddServerReturns422OnBadUrl(){
-        projectServer.setBaseUrl("noprotocal");
+        projectServer = new Server("noprotocal", "project server", "projectuser", "projecttoken",
+                false, false);
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, projectServer, projectServer.getAlias());
+        Response actual = rest.addServer(ui, input(projectServer), projectServer.getAlias());
 
         assertEquals(422, actual.getStatus());
     }
@@ -257,9 +273,10 @@ public class ProjectResourceTest {
     @Test
     @SuppressWarnings("unchecked")
     public void testAddServerReturnsErrorMessageOnBadUrl(){
-        projectServer.setBaseUrl("noprotocal");
+        projectServer = new Server("noprotocal", "project server", "projectuser", "projecttoken",
+                false, false);
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, projectServer, projectServer.getAlias());
+        Response actual = rest.addServer(ui, input(projectServer), projectServer.getAlias());
 
         String response = actual.getEntity().toString();
         List<String> errors = (List<String>) new Gson().fromJson(response, Map.class).get("errors");
@@ -270,10 +287,9 @@ public class ProjectResourceTest {
     @Test
     @SuppressWarnings("unchecked")
     public void testAddServerReturnsAllErrorMessages(){
-        projectServer.setBaseUrl("");
-        projectServer.setAlias("");
+        projectServer = new Server("", "", "projectuser", "projecttoken", false, false);
         when(jenkins.getJenkinsServer(eq(projectKey), any())).thenReturn(null);
-        Response actual = rest.addServer(ui, projectServer, projectServer.getAlias());
+        Response actual = rest.addServer(ui, input(projectServer), projectServer.getAlias());
 
         String response = actual.getEntity().toString();
         List<String> errors = (List<String>) new Gson().fromJson(response, Map.class).get("errors");
@@ -283,13 +299,13 @@ public class ProjectResourceTest {
 
     @Test
     public void testRemoveServerRemovesServer(){
-        rest.removeServer(ui);
-        verify(jenkins, times(1)).saveJenkinsServer(null, projectKey);
+        rest.removeServer(ui, projectServer.getAlias());
+        verify(jenkins, times(1)).removeJenkinsServer(projectServer.getAlias(), projectKey);
     }
 
     @Test
     public void testRemoveServerReturnsNoContent(){
-        Response actual = rest.removeServer(ui);
+        Response actual = rest.removeServer(ui, projectServer.getAlias());
         assertEquals(Response.Status.NO_CONTENT.getStatusCode(), actual.getStatus());
     }
 
@@ -324,4 +340,49 @@ public class ProjectResourceTest {
         Response actual = rest.removeUserToken(ui);
         assertEquals(Response.Status.NO_CONTENT.getStatusCode(), actual.getStatus());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAddServerRenamesServer(){
+        when(jenkins.getJenkinsServer(eq(projectKey), eq(projectServer.getAlias())))
+                .thenReturn(projectServer);
+        Server renamed = new Server(projectServer.getBaseUrl(), "renamed", projectServer.getUser(),
+                null, false, false);
+        Response actual = rest.addServer(ui, input(renamed), projectServer.getAlias());
+
+        ArgumentCaptor<Server> saved = ArgumentCaptor.forClass(Server.class);
+        verify(jenkins).saveJenkinsServer(saved.capture(), eq(projectServer.getAlias()),
+                eq(projectKey));
+        assertEquals("renamed", saved.getValue().getAlias());
+        assertEquals(projectServer.getToken(), saved.getValue().getToken());
+        assertEquals(Response.Status.OK.getStatusCode(), actual.getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddServerReturns422WhenRenamedToExistingAlias(){
+        Server other = new Server("http://otherurl", "other", "otheruser", "othertoken", false,
+                false);
+        when(jenkins.getJenkinsServer(eq(projectKey), eq("other"))).thenReturn(other);
+        Server renamed = new Server(projectServer.getBaseUrl(), "other", projectServer.getUser(),
+                null, false, false);
+        Response actual = rest.addServer(ui, input(renamed), projectServer.getAlias());
+
+        String response = actual.getEntity().toString();
+        List<String> errors = (List<String>) new Gson().fromJson(response, Map.class).get("errors");
+
+        assertEquals(422, actual.getStatus());
+        assertEquals(Lists.newArrayList("Alias already in use."), errors);
+    }
+
+    private static ServerService.ServerInput input(Server server) {
+        ServerService.ServerInput input = new ServerService.ServerInput();
+        input.setBaseUrl(server.getBaseUrl());
+        input.setAlias(server.getAlias());
+        input.setUser(server.getUser());
+        input.setToken(server.getToken());
+        input.setAltUrl(server.getAltUrl());
+        input.setCsrfEnabled(server.getCsrfEnabled());
+        input.setPostParameters(server.getPostParameters());
+        return input;
+    }
+}